@@ -0,0 +1,84 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.util.ArgumentListBuilder;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Building the command lines of the console and of Analytics.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ArgumentsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Session {
+        FilePath workspace;
+        FilePath lsFile;
+
+        @Setup
+        public void createPaths() {
+            workspace = new FilePath(new File(System.getProperty("java.io.tmpdir"), "workspace"));
+            lsFile = workspace.child("result_100.ls");
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class Comparison extends Session {
+        @Param({"1", "10", "100"})
+        public int compareSessions;
+
+        List<FilePath> sessions;
+
+        @Override
+        @Setup
+        public void createPaths() {
+            super.createPaths();
+            sessions = new ArrayList<FilePath>();
+            for (int i = 0; i < compareSessions; i++) {
+                sessions.add(workspace.child("webload-compare").child(String.valueOf(i)).child("result_" + i + ".ls"));
+            }
+        }
+    }
+
+    @Benchmark
+    public String replaceExtension() {
+        return WebLoadConsoleBuilder.replaceExtension("sessions/nightly/result_1234.tpl", "ls");
+    }
+
+    @Benchmark
+    public ArgumentListBuilder sessionArguments(Session session) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
+        WebLoadConsoleBuilder.sessionArguments(args, "C:\\Program Files\\RadView\\WebLOAD\\bin\\webload.exe",
+                "nightly.tpl", session.lsFile, 500, 2, 3600, session.workspace.child("results.xml"));
+        return args;
+    }
+
+    @Benchmark
+    public String analyticsArguments(Comparison comparison) {
+        return WebLoadAnalyticsBuilder.analyticsArguments("C:\\Program Files\\RadView\\WebLOAD\\bin\\WLAnalyticsCmd.exe",
+                null, comparison.lsFile, comparison.sessions, WebLoadAnalyticsBuilder.OutputFormats.HTML,
+                comparison.workspace, "Nightly").toStringWithQuote();
+    }
+}
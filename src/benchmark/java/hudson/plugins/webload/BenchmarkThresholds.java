@@ -0,0 +1,89 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Properties;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Fails the benchmark build when a result is above its threshold.
+ * <p>
+ * Thresholds are keyed by class and method, followed by the parameters in brackets,
+ * for example {@code ResultsFileParserBenchmark.parse[size=1MB]}, and are in the
+ * unit of the benchmark's score. Lower scores are better for every benchmark of
+ * the suite, which all measure the average time per operation.
+ */
+public class BenchmarkThresholds {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BenchmarkThresholds <jmh-result.json> <thresholds.properties>");
+            System.exit(2);
+        }
+        JSONArray results = JSONArray.fromObject(FileUtils.readFileToString(new File(args[0]), "UTF-8"));
+        Properties thresholds = new Properties();
+        InputStream in = new FileInputStream(args[1]);
+        try {
+            thresholds.load(in);
+        } finally {
+            in.close();
+        }
+
+        List<String> failures = new ArrayList<String>();
+        for (int i = 0; i < results.size(); i++) {
+            JSONObject result = results.getJSONObject(i);
+            String key = key(result);
+            JSONObject metric = result.getJSONObject("primaryMetric");
+            double score = metric.getDouble("score");
+            String unit = metric.getString("scoreUnit");
+            String threshold = thresholds.getProperty(key);
+            if (threshold == null) {
+                System.out.println(String.format("%-60s %12.3f %-6s no threshold", key, score, unit));
+                continue;
+            }
+            double max = Double.parseDouble(threshold.trim());
+            boolean failed = score > max;
+            System.out.println(String.format("%-60s %12.3f %-6s threshold %.3f%s", key, score, unit, max,
+                    failed ? "  REGRESSION" : ""));
+            if (failed) {
+                failures.add(key);
+            }
+        }
+        if (!failures.isEmpty()) {
+            System.err.println("Benchmarks above their threshold: " + failures);
+            System.exit(1);
+        }
+    }
+
+    static String key(JSONObject result) {
+        String benchmark = result.getString("benchmark");
+        String[] parts = benchmark.split("\\.");
+        StringBuilder key = new StringBuilder(parts[parts.length - 2]).append('.').append(parts[parts.length - 1]);
+        JSONObject params = result.optJSONObject("params");
+        if (params != null && !params.isEmpty()) {
+            key.append('[');
+            boolean first = true;
+            for (Iterator<?> it = params.keys(); it.hasNext();) {
+                String name = (String) it.next();
+                if (!first) {
+                    key.append(',');
+                }
+                key.append(name).append('=').append(params.getString(name));
+                first = false;
+            }
+            key.append(']');
+        }
+        return key.toString();
+    }
+}
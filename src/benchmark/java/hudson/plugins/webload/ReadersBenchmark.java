@@ -0,0 +1,155 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The readers and indexes of the session's exports and reports, on sizes of a long session.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ReadersBenchmark {
+
+    static final int TRANSACTIONS = 1000;
+    static final int RESPONSE_TIMES = 200000;
+    static final int STATISTICS_ROWS = 100000;
+    static final int TEST_CASES = 10000;
+    static final int CONSOLE_LINES = 100000;
+    static final int LATENCIES = 1000000;
+
+    private byte[] transactionStatistics;
+    private byte[] responseTimes;
+    private byte[] statistics;
+    private byte[] junit;
+    private byte[] console;
+    private long[] latencies;
+
+    @Setup
+    public void createData() throws IOException {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("Transaction,Count,Mean,P50,P90,P95,P99,Errors\n");
+        for (int i = 0; i < TRANSACTIONS; i++) {
+            sb.append("Transaction ").append(i).append(',').append(1000 + i).append(",0.25,0.2,0.4,0.5,0.9,")
+                    .append(i % 7).append('\n');
+        }
+        transactionStatistics = sb.toString().getBytes("UTF-8");
+
+        sb = new StringBuilder("Transaction,Response Time,Status\n");
+        for (int i = 0; i < RESPONSE_TIMES; i++) {
+            sb.append("Transaction ").append(i % 100).append(',').append(String.format("%.3f", random.nextDouble() * 2))
+                    .append(i % 100 == 0 ? ",Failed\n" : ",Passed\n");
+        }
+        responseTimes = sb.toString().getBytes("UTF-8");
+
+        sb = new StringBuilder("Elapsed Time,Load Size,Throughput,Response Time,Error Rate\n");
+        for (int i = 0; i < STATISTICS_ROWS; i++) {
+            sb.append(i).append(",500,").append(200 + random.nextInt(50)).append(',')
+                    .append(String.format("%.3f", random.nextDouble())).append(",0.1\n");
+        }
+        statistics = sb.toString().getBytes("UTF-8");
+
+        sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuites><testsuite name=\"Session\">\n");
+        for (int i = 0; i < TEST_CASES; i++) {
+            sb.append("<testcase classname=\"Agenda").append(i % 10).append("\" name=\"Transaction ").append(i % 500)
+                    .append("\" time=\"0.").append(random.nextInt(1000)).append("\">");
+            if (i % 50 == 0) {
+                sb.append("<failure message=\"Response time above threshold\">Timeout</failure>");
+            }
+            sb.append("</testcase>\n");
+        }
+        sb.append("</testsuite></testsuites>\n");
+        junit = sb.toString().getBytes("UTF-8");
+
+        sb = new StringBuilder();
+        for (int i = 0; i < CONSOLE_LINES; i++) {
+            if (i % 1000 == 0) {
+                sb.append("Warning: script error in agenda ").append(i).append('\n');
+            } else if (i % 10 < 5) {
+                sb.append("Load generator heartbeat\n");
+            } else {
+                sb.append("Script step ").append(i).append(" started\n");
+            }
+        }
+        console = sb.toString().getBytes("UTF-8");
+
+        latencies = new long[LATENCIES];
+        for (int i = 0; i < LATENCIES; i++) {
+            latencies[i] = (long) (Math.exp(random.nextGaussian()) * 100000);
+        }
+    }
+
+    private static BufferedReader reader(byte[] data) throws IOException {
+        return new BufferedReader(new InputStreamReader(new ByteArrayInputStream(data), "UTF-8"));
+    }
+
+    @Benchmark
+    public PerformanceSummary transactionStatistics() throws IOException {
+        return TransactionStatisticsReader.read(reader(transactionStatistics));
+    }
+
+    @Benchmark
+    public TransactionHistograms responseTimes() throws IOException {
+        return ResponseTimesReader.read(reader(responseTimes));
+    }
+
+    @Benchmark
+    public StatisticsIndex statisticsIndex() throws IOException {
+        return StatisticsIndex.index(new ByteArrayInputStream(statistics));
+    }
+
+    @Benchmark
+    public TransactionResults junitResults() throws IOException {
+        TransactionResults results = new TransactionResults();
+        JUnitResultsReader.read(new ByteArrayInputStream(junit), results);
+        return results;
+    }
+
+    @Benchmark
+    public long consoleFilter() throws IOException {
+        LogFilter filter = new LogFilter(new LogFilter.Settings(LogFilter.Verbosity.ALL,
+                LogFilter.parsePatterns("^Script step"), "UTF-8"), null, new OutputStream() {
+                    @Override
+                    public void write(int b) {
+                    }
+
+                    @Override
+                    public void write(byte[] b, int off, int len) {
+                    }
+                });
+        filter.write(console);
+        filter.close();
+        return filter.getSuppressed();
+    }
+
+    @Benchmark
+    public LatencyHistogram latencyHistogram() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long l : latencies) {
+            h.record(l);
+        }
+        return h;
+    }
+}
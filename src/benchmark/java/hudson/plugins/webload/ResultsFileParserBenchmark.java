@@ -0,0 +1,101 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Parsing of results files from a few elements to the size of long sessions with verbose templates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Xmx256m")
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ResultsFileParserBenchmark {
+
+    @Param({"1KB", "1MB", "100MB", "500MB"})
+    public String size;
+
+    private File file;
+
+    @Setup(Level.Trial)
+    public void writeFile() throws IOException {
+        file = File.createTempFile("results", ".xml");
+        writeResults(file, parseSize(size));
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFile() {
+        file.delete();
+    }
+
+    @Benchmark
+    public SessionResult parse() throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            return ResultsFileParser.parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static long parseSize(String size) {
+        long unit = size.endsWith("KB") ? 1024 : size.endsWith("MB") ? 1024 * 1024 : 1;
+        return Long.parseLong(size.replaceAll("[^0-9]", "")) * unit;
+    }
+
+    /**
+     * Writes a results file of about {@code bytes} bytes: transaction verdicts, some of them
+     * with the unescaped characters of old versions, followed by measurement elements.
+     */
+    static void writeResults(File f, long bytes) throws IOException {
+        Writer w = new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(f), 64 * 1024), "UTF-8");
+        try {
+            long written = 0;
+            String head = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<Results SessionReturnCode=\"0\" ErrorDescription=\"Session ended \"normally\" & cleanly\">\n";
+            w.write(head);
+            written += head.length();
+            for (int i = 0; written < bytes; i++) {
+                String line;
+                if (i < 2000) {
+                    line = "  <Transaction Name=\"Checkout <step " + i + ">\" Status=\"" + (i % 50 == 0 ? "Failed" : "Passed")
+                            + "\" Hits=\"" + (i * 7) + "\"/>\n";
+                } else {
+                    line = "  <Measurement Name=\"Response Time\" Agenda=\"agenda" + (i % 20) + "\" Value=\"" + (i % 997)
+                            + ".125\" Min=\"0.011\" Max=\"4.750\"/>\n";
+                }
+                w.write(line);
+                written += line.length();
+            }
+            w.write("</Results>\n");
+        } finally {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The files kept by the plugin across builds: the trend index of a job, the
+ * chunk hashes of archived sessions and the viewer slices of statistics
+ * exports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StorageBenchmark {
+
+    static final int BUILDS = 1000;
+    static final int TRANSACTIONS = 100;
+    static final int TREND_BUILDS = 30;
+    static final int ARCHIVE_MB = 64;
+    static final int STATISTICS_ROWS = 100000;
+
+    private File dir;
+    private File trendIndex;
+    private File archive;
+    private File statistics;
+    private StatisticsIndex statisticsIndex;
+    private byte[] nonce;
+
+    @Setup
+    public void createFiles() throws IOException {
+        dir = File.createTempFile("webload-storage", "");
+        dir.delete();
+        dir.mkdirs();
+        Random random = new Random(42);
+
+        trendIndex = new File(dir, PerformanceTrendIndex.FILE_NAME);
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(trendIndex);
+        for (int build = 1; build <= BUILDS; build++) {
+            PerformanceSummary summary = new PerformanceSummary(TRANSACTIONS);
+            for (int i = 0; i < TRANSACTIONS; i++) {
+                summary.transactions[i] = "Transaction " + i;
+                summary.count[i] = 1000 + random.nextInt(100);
+                summary.mean[i] = random.nextDouble();
+                summary.p50[i] = summary.mean[i];
+                summary.p90[i] = summary.mean[i] * 2;
+                summary.p95[i] = summary.mean[i] * 3;
+                summary.p99[i] = summary.mean[i] * 4;
+                summary.errors[i] = i % 7;
+            }
+            summary.durationMillis = 3600000;
+            index.append(build, build * 3600000L, summary);
+        }
+
+        archive = new File(dir, "result.dat");
+        byte[] block = new byte[1024 * 1024];
+        OutputStream out = new FileOutputStream(archive);
+        try {
+            for (int i = 0; i < ARCHIVE_MB; i++) {
+                random.nextBytes(block);
+                out.write(block);
+            }
+        } finally {
+            out.close();
+        }
+        nonce = new byte[20];
+        random.nextBytes(nonce);
+
+        StringBuilder sb = new StringBuilder("Elapsed Time,Load Size,Throughput,Response Time,Error Rate\n");
+        for (int i = 0; i < STATISTICS_ROWS; i++) {
+            sb.append(i).append(",500,").append(200 + random.nextInt(50)).append(',')
+                    .append(String.format("%.3f", random.nextDouble())).append(",0.1\n");
+        }
+        byte[] bytes = sb.toString().getBytes("UTF-8");
+        statistics = new File(dir, "statistics.csv");
+        out = new FileOutputStream(statistics);
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+        statisticsIndex = StatisticsIndex.index(new ByteArrayInputStream(bytes));
+    }
+
+    @TearDown
+    public void deleteFiles() {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * The trend of a job whose index is already loaded.
+     */
+    @Benchmark
+    public List<PerformanceTrendIndex.Entry> trendIndexRead() throws IOException {
+        return PerformanceTrendIndex.index(trendIndex).read(TREND_BUILDS);
+    }
+
+    /**
+     * The first trend of a job after a restart, which scans the whole index.
+     */
+    @Benchmark
+    public List<PerformanceTrendIndex.Entry> trendIndexColdRead() throws IOException {
+        return new PerformanceTrendIndex.Index(trendIndex).read(TREND_BUILDS);
+    }
+
+    @Benchmark
+    public ChunkedArchiver.Digests chunkHashes() throws IOException {
+        try {
+            return new ChunkedArchiver.HashChunks(ChunkStore.CHUNK_SIZE, nonce).invoke(archive, null);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * A page of ten minutes in the middle of the session.
+     */
+    @Benchmark
+    public StatisticsViewerAction.Slice statisticsSlice() throws IOException {
+        int from = statisticsIndex.getLastKey() / 2;
+        return StatisticsViewerAction.slice(statisticsIndex, statistics, from, from + 10, 0);
+    }
+}
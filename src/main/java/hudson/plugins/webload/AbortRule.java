@@ -0,0 +1,122 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A condition on the live session statistics that stops the session early,
+ * written as {@code <metric> <op> <threshold> [for <duration>]}, for example
+ * {@code Response Time > 2s for 60s} or {@code Error Rate > 5%}.
+ * <p>
+ * The metric is matched against the statistics column names, ignoring case
+ * and spaces, so {@code responseTime} matches a {@code Response Time} column.
+ * Thresholds with an {@code ms} or {@code s} suffix are taken in seconds.
+ */
+class AbortRule {
+
+    private static final Pattern SYNTAX = Pattern.compile(
+            "(.+?)\\s*(>=|<=|>|<)\\s*([0-9]*\\.?[0-9]+)\\s*(ms|s|%)?(?:\\s+for\\s+([0-9]+)\\s*(s|m|min)?)?",
+            Pattern.CASE_INSENSITIVE);
+
+    private final String text;
+    private final String metric;
+    private final String operator;
+    private final double threshold;
+    private final long durationMillis;
+
+    private long breachedSince = -1;
+
+    AbortRule(String text, String metric, String operator, double threshold, long durationMillis) {
+        this.text = text;
+        this.metric = metric;
+        this.operator = operator;
+        this.threshold = threshold;
+        this.durationMillis = durationMillis;
+    }
+
+    /**
+     * Parses one rule per line, ignoring blank lines and lines starting with {@code #}.
+     *
+     * @throws IllegalArgumentException if a line is not a valid rule
+     */
+    static List<AbortRule> parse(String rules) {
+        List<AbortRule> parsed = new ArrayList<AbortRule>();
+        if (rules == null) {
+            return parsed;
+        }
+        for (String line : rules.split("\r?\n")) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            Matcher m = SYNTAX.matcher(line);
+            if (!m.matches()) {
+                throw new IllegalArgumentException("Invalid abort rule: " + line);
+            }
+            double threshold = Double.parseDouble(m.group(3));
+            if ("ms".equalsIgnoreCase(m.group(4))) {
+                threshold /= 1000;
+            }
+            long duration = 0;
+            if (m.group(5) != null) {
+                duration = Long.parseLong(m.group(5)) * 1000;
+                if (m.group(6) != null && m.group(6).toLowerCase(Locale.ENGLISH).startsWith("m")) {
+                    duration *= 60;
+                }
+            }
+            parsed.add(new AbortRule(line, m.group(1).trim(), m.group(2), threshold, duration));
+        }
+        return parsed;
+    }
+
+    /**
+     * @return true if one of the statistics columns matches the rule's metric
+     */
+    boolean appliesTo(String[] names) {
+        return Columns.indexOf(names, metric) >= 0;
+    }
+
+    /**
+     * Evaluates the rule against the latest statistics.
+     *
+     * @return true if the condition has held for the configured duration
+     */
+    boolean check(String[] names, double[] values, long now) {
+        int i = Columns.indexOf(names, metric);
+        if (i < 0 || i >= values.length || Double.isNaN(values[i])) {
+            return false;
+        }
+        if (!breached(values[i])) {
+            breachedSince = -1;
+            return false;
+        }
+        if (breachedSince < 0) {
+            breachedSince = now;
+        }
+        return now - breachedSince >= durationMillis;
+    }
+
+    private boolean breached(double value) {
+        if (">".equals(operator)) {
+            return value > threshold;
+        } else if (">=".equals(operator)) {
+            return value >= threshold;
+        } else if ("<".equals(operator)) {
+            return value < threshold;
+        } else {
+            return value <= threshold;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+}
@@ -0,0 +1,123 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Run;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * WebLOAD Analytics reports generated in the background for a build, and
+ * where their generation is at.
+ */
+public class AnalyticsReportsAction implements RunAction2 {
+
+    static final String DIR_NAME = "webload-reports";
+
+    public enum Status { QUEUED, RUNNING, DONE, FAILED }
+
+    private Status status = Status.QUEUED;
+    private String message;
+    private List<String> reports = new ArrayList<String>();
+
+    private transient Run<?, ?> run;
+
+    public String getIconFileName() {
+        return "document.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Analytics Reports";
+    }
+
+    public String getUrlName() {
+        return "webload-reports";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public synchronized void onLoad(Run<?, ?> r) {
+        this.run = r;
+        if (status == Status.QUEUED || status == Status.RUNNING) {
+            // the queue doesn't survive a restart
+            status = Status.FAILED;
+            message = "Jenkins restarted before the reports were generated";
+        }
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized String getMessage() {
+        return message;
+    }
+
+    synchronized void setStatus(Status status, String message) {
+        this.status = status;
+        this.message = message;
+    }
+
+    public synchronized List<String> getReports() {
+        return Collections.unmodifiableList(new ArrayList<String>(reports));
+    }
+
+    synchronized void setReports(List<String> reports) {
+        this.reports = new ArrayList<String>(reports);
+    }
+
+    public boolean isLog() {
+        return new File(run.getRootDir(), ReportRequest.LOG_FILE_NAME).exists();
+    }
+
+    static File getReportsDir(Run<?, ?> run) {
+        return new File(run.getRootDir(), DIR_NAME);
+    }
+
+    /**
+     * Serves a report, {@code webload-reports/<name>}, or the generation log, {@code webload-reports/log}.
+     */
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        String name = req.getRestOfPath();
+        if (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        File f;
+        if (name.equals("log")) {
+            f = new File(run.getRootDir(), ReportRequest.LOG_FILE_NAME);
+        } else if (getReports().contains(name)) {
+            f = new File(getReportsDir(run), name);
+        } else {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        if (!f.exists()) {
+            rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        InputStream in = new FileInputStream(f);
+        try {
+            rsp.serveFile(req, in, f.lastModified(), f.length(), name.equals("log") ? "log.txt" : name);
+        } finally {
+            in.close();
+        }
+    }
+}
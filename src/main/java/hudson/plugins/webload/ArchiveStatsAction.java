@@ -0,0 +1,160 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Functions;
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Session files a build archived in the {@link ChunkStore}, with the space
+ * deduplication and compression saved, and downloads of the reassembled files.
+ */
+public class ArchiveStatsAction implements RunAction2 {
+
+    static final String DIR_NAME = "webload-archive";
+
+    private final List<ArchivedFile> files = new ArrayList<ArchivedFile>();
+
+    private transient Run<?, ?> run;
+
+    ArchiveStatsAction(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    public String getIconFileName() {
+        return "package.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Session Files";
+    }
+
+    public String getUrlName() {
+        return "webload-archive";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public List<ArchivedFile> getFiles() {
+        return Collections.unmodifiableList(files);
+    }
+
+    static File getManifestDir(Run<?, ?> run) {
+        return new File(run.getRootDir(), DIR_NAME);
+    }
+
+    private File getManifest(ArchivedFile f) {
+        return new File(getManifestDir(run), f.getName() + ".chunks");
+    }
+
+    synchronized void add(ArchivedFile f) throws IOException {
+        f.writeManifest(getManifest(f));
+        files.add(f);
+    }
+
+    /**
+     * Archived file of a name as the session wrote it, relative to the workspace or absolute.
+     *
+     * @return null if not archived
+     */
+    ArchivedFile find(String path) {
+        String name = path.replace('\\', '/');
+        String fileName = new File(path).getName();
+        for (ArchivedFile f : files) {
+            if (f.getName().equals(name)) {
+                return f;
+            }
+        }
+        for (ArchivedFile f : files) {
+            if (f.getName().equals(fileName)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Reads an archived file back from the chunk store.
+     */
+    InputStream open(ArchivedFile f) throws IOException {
+        return f.open(ChunkStore.get(), getManifest(f));
+    }
+
+    public long getTotalLength() {
+        long total = 0;
+        for (ArchivedFile f : files) {
+            total += f.getLength();
+        }
+        return total;
+    }
+
+    public long getTotalTransferred() {
+        long total = 0;
+        for (ArchivedFile f : files) {
+            total += f.getTransferred();
+        }
+        return total;
+    }
+
+    public long getTotalStored() {
+        long total = 0;
+        for (ArchivedFile f : files) {
+            total += f.getStored();
+        }
+        return total;
+    }
+
+    public long getTotalSaved() {
+        return getTotalLength() - getTotalStored();
+    }
+
+    public static String size(long bytes) {
+        return Functions.humanReadableByteSize(bytes);
+    }
+
+    /**
+     * Serves an archived file, {@code webload-archive/<name>}.
+     */
+    public void doDynamic(StaplerRequest req, StaplerResponse rsp) throws IOException, ServletException {
+        run.checkPermission(Run.ARTIFACTS);
+        String name = req.getRestOfPath();
+        if (name.startsWith("/")) {
+            name = name.substring(1);
+        }
+        for (ArchivedFile f : files) {
+            if (f.getName().equals(name)) {
+                InputStream in = f.open(ChunkStore.get(), getManifest(f));
+                try {
+                    rsp.serveFile(req, in, run.getTimeInMillis(), f.getLength(), new File(name).getName());
+                } finally {
+                    in.close();
+                }
+                return;
+            }
+        }
+        rsp.sendError(HttpServletResponse.SC_NOT_FOUND);
+    }
+}
@@ -0,0 +1,153 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.SequenceInputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * A session file archived in the {@link ChunkStore}.
+ * <p>
+ * The list of chunk hashes is kept in a manifest file in the build directory,
+ * one hash per line, and read when the file is downloaded.
+ */
+public class ArchivedFile {
+
+    private final String name;
+    private final long length;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final long transferred;
+    private final long stored;
+
+    private transient String[] hashes;
+
+    ArchivedFile(String name, long length, int chunkSize, String[] hashes, long transferred, long stored) {
+        this.name = name;
+        this.length = length;
+        this.chunkSize = chunkSize;
+        this.chunkCount = hashes.length;
+        this.hashes = hashes;
+        this.transferred = transferred;
+        this.stored = stored;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /**
+     * Bytes sent to the controller, the chunks it didn't have yet.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * Bytes added to the controller's disk, after compression.
+     */
+    public long getStored() {
+        return stored;
+    }
+
+    public long getSaved() {
+        return length - stored;
+    }
+
+    void writeManifest(File manifest) throws IOException {
+        File dir = manifest.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        Writer w = new OutputStreamWriter(new FileOutputStream(manifest), "US-ASCII");
+        try {
+            for (String h : hashes) {
+                w.write(h);
+                w.write('\n');
+            }
+        } finally {
+            w.close();
+        }
+    }
+
+    String[] readManifest(File manifest) throws IOException {
+        String[] h = hashes;
+        if (h != null) {
+            return h;
+        }
+        List<String> lines = new ArrayList<String>(chunkCount);
+        BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(manifest), "US-ASCII"));
+        try {
+            String line;
+            while ((line = r.readLine()) != null) {
+                if (line.length() > 0) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            r.close();
+        }
+        if (lines.size() != chunkCount) {
+            throw new IOException(manifest + " lists " + lines.size() + " chunks, expected " + chunkCount);
+        }
+        return lines.toArray(new String[lines.size()]);
+    }
+
+    /**
+     * Reassembles the file, opening each chunk only when the previous one is used up.
+     */
+    InputStream open(final ChunkStore store, File manifest) throws IOException {
+        final String[] h = readManifest(manifest);
+        return new SequenceInputStream(new Enumeration<InputStream>() {
+            private int next;
+
+            public boolean hasMoreElements() {
+                return next < h.length;
+            }
+
+            public InputStream nextElement() {
+                if (next >= h.length) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    return store.open(h[next++]);
+                } catch (IOException e) {
+                    // SequenceInputStream can't pass it on, fail the read instead
+                    final IOException cause = e;
+                    return new InputStream() {
+                        @Override
+                        public int read() throws IOException {
+                            throw cause;
+                        }
+                    };
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,159 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import jenkins.model.RunAction2;
+
+/**
+ * Throughput and latency measured at each load level of a capacity sweep, and
+ * the highest level found sustainable.
+ */
+public class CapacityAction implements RunAction2, EnvironmentContributingAction {
+
+    static final String MAX_SUSTAINABLE_VARIABLE = "WEBLOAD_MAX_SUSTAINABLE_CLIENTS";
+
+    private final List<Point> points;
+    private final long maxSustainable;
+
+    private transient Run<?, ?> run;
+
+    CapacityAction(List<Point> points, long maxSustainable) {
+        this.points = new ArrayList<Point>(points);
+        this.maxSustainable = maxSustainable;
+    }
+
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Capacity";
+    }
+
+    public String getUrlName() {
+        return "webload-capacity";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * Highest number of virtual clients found sustainable, 0 if none was.
+     */
+    public long getMaxSustainable() {
+        return maxSustainable;
+    }
+
+    /**
+     * The measured points in the order they were run.
+     */
+    public List<Point> getPoints() {
+        return Collections.unmodifiableList(points);
+    }
+
+    /**
+     * The measured points by increasing load, which is the throughput-latency curve.
+     */
+    public List<Point> getCurve() {
+        List<Point> curve = new ArrayList<Point>(points);
+        Collections.sort(curve, new Comparator<Point>() {
+            public int compare(Point a, Point b) {
+                return a.clients < b.clients ? -1 : a.clients == b.clients ? 0 : 1;
+            }
+        });
+        return curve;
+    }
+
+    /**
+     * The lowest load level found not sustainable, null if every level was.
+     */
+    public Point getKnee() {
+        for (Point p : getCurve()) {
+            if (!p.sustainable) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
+        env.put(MAX_SUSTAINABLE_VARIABLE, String.valueOf(maxSustainable));
+    }
+
+    public String format(double value) {
+        return PerformanceSummaryAction.format(value);
+    }
+
+    /**
+     * One session of the sweep.
+     */
+    public static final class Point {
+        private final long clients;
+        private final double throughput;
+        private final double p95;
+        private final double errorPercent;
+        private final boolean sustainable;
+        private final String reason;
+
+        Point(long clients, double throughput, double p95, double errorPercent, boolean sustainable, String reason) {
+            this.clients = clients;
+            this.throughput = throughput;
+            this.p95 = p95;
+            this.errorPercent = errorPercent;
+            this.sustainable = sustainable;
+            this.reason = reason;
+        }
+
+        public long getClients() {
+            return clients;
+        }
+
+        /**
+         * Transactions per second over all transactions.
+         */
+        public double getThroughput() {
+            return throughput;
+        }
+
+        /**
+         * Worst 95th percentile response time among the transactions, in seconds.
+         */
+        public double getP95() {
+            return p95;
+        }
+
+        public double getErrorPercent() {
+            return errorPercent;
+        }
+
+        public boolean isSustainable() {
+            return sustainable;
+        }
+
+        /**
+         * Why the level is not sustainable, null if it is.
+         */
+        public String getReason() {
+            return reason;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Util;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.model.Jenkins;
+
+/**
+ * Content addressed store of archived session file chunks on the controller.
+ * <p>
+ * Files are cut into fixed size chunks named by the SHA-1 of their content, so a
+ * chunk shared by several files or builds is stored once. A chunk is kept either
+ * as is or gzipped, with a {@code .gz} suffix.
+ * <p>
+ * Hashes reported by agents are not trusted: anything but a SHA-1 is rejected, and
+ * an agent has to prove it has the content of a chunk before an archive may refer
+ * to a stored one.
+ */
+final class ChunkStore {
+
+    static final String DIR_NAME = "webload-chunks";
+
+    /**
+     * Chunk size for new archives; existing archives keep the size they were cut with.
+     */
+    static final int CHUNK_SIZE = Integer.getInteger(ChunkStore.class.getName() + ".chunkSize", 1024 * 1024);
+
+    private static final String GZ = ".gz";
+    private static final Pattern HASH = Pattern.compile("[0-9a-f]{40}");
+
+    private final File root;
+
+    ChunkStore(File root) {
+        this.root = root;
+    }
+
+    static ChunkStore get() {
+        return new ChunkStore(new File(Jenkins.getInstance().getRootDir(), DIR_NAME));
+    }
+
+    /**
+     * @return true if the string is a lower case hex SHA-1, the only names chunks have
+     */
+    static boolean isHash(String hash) {
+        return hash != null && HASH.matcher(hash).matches();
+    }
+
+    private File file(String hash) {
+        if (!isHash(hash)) {
+            // hashes come from agents and manifests, never let one name a path
+            throw new IllegalArgumentException("Not a chunk hash: " + hash);
+        }
+        return new File(new File(root, hash.substring(0, 2)), hash.substring(2));
+    }
+
+    private File compressedFile(String hash) {
+        return new File(file(hash).getPath() + GZ);
+    }
+
+    boolean contains(String hash) {
+        return file(hash).exists() || compressedFile(hash).exists();
+    }
+
+    /**
+     * Claims an existing chunk for an archive being written, marking it as used now
+     * so {@link #retain} doesn't delete it before the archive refers to it.
+     *
+     * @return false if the store doesn't have the chunk
+     */
+    boolean reuse(String hash) {
+        return touch(file(hash)) || touch(compressedFile(hash));
+    }
+
+    /**
+     * Stores a chunk unless it is already there.
+     *
+     * @return the number of bytes added to the store
+     * @throws IOException if the content does not match the hash
+     */
+    long put(String hash, byte[] data, boolean compress) throws IOException {
+        if (!hash.equals(sha1(data, data.length))) {
+            throw new IOException("Chunk content does not match " + hash);
+        }
+        if (reuse(hash)) {
+            return 0;
+        }
+        File target = compress ? compressedFile(hash) : file(hash);
+        File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File tmp = File.createTempFile("chunk", ".tmp", dir);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                if (compress) {
+                    out = new GZIPOutputStream(out);
+                }
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            // a concurrent build may have stored the same chunk meanwhile, which is fine
+            if (!tmp.renameTo(target) && !contains(hash)) {
+                throw new IOException("Failed to store " + target);
+            }
+            return target.length();
+        } finally {
+            if (tmp.exists()) {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Marks an existing chunk as used now, so {@link #retain} leaves it alone.
+     */
+    private static boolean touch(File f) {
+        return f.exists() && (f.setLastModified(System.currentTimeMillis()) || f.exists());
+    }
+
+    InputStream open(String hash) throws IOException {
+        File f = file(hash);
+        if (f.exists()) {
+            return new FileInputStream(f);
+        }
+        return new GZIPInputStream(new FileInputStream(compressedFile(hash)));
+    }
+
+    /**
+     * Deletes the chunks not in {@code referenced} that are older than {@code minAge},
+     * leaving alone chunks of archives still being written.
+     *
+     * @return the number of bytes freed
+     */
+    long retain(Set<String> referenced, long minAge) {
+        long freed = 0;
+        long limit = System.currentTimeMillis() - minAge;
+        File[] dirs = root.listFiles();
+        if (dirs == null) {
+            return 0;
+        }
+        for (File dir : dirs) {
+            File[] chunks = dir.listFiles();
+            if (chunks == null) {
+                continue;
+            }
+            for (File chunk : chunks) {
+                String name = chunk.getName();
+                if (name.endsWith(GZ)) {
+                    name = name.substring(0, name.length() - GZ.length());
+                }
+                if (!referenced.contains(dir.getName() + name) && chunk.lastModified() < limit) {
+                    long length = chunk.length();
+                    if (chunk.delete()) {
+                        freed += length;
+                    }
+                }
+            }
+        }
+        return freed;
+    }
+
+    /**
+     * Hashes a stored chunk salted with {@code nonce}, to check that a node claiming
+     * to have the chunk really has its content; see {@link #proof(byte[], byte[], int)}.
+     */
+    String proof(String hash, byte[] nonce) throws IOException {
+        MessageDigest md = sha1();
+        md.update(nonce);
+        InputStream in = open(hash);
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                md.update(buf, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return Util.toHexString(md.digest());
+    }
+
+    static String proof(byte[] nonce, byte[] data, int length) {
+        MessageDigest md = sha1();
+        md.update(nonce);
+        md.update(data, 0, length);
+        return Util.toHexString(md.digest());
+    }
+
+    static String sha1(byte[] data, int length) {
+        MessageDigest md = sha1();
+        md.update(data, 0, length);
+        return Util.toHexString(md.digest());
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
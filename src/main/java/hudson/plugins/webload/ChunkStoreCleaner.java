@@ -0,0 +1,82 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Extension;
+import hudson.Functions;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Job;
+import hudson.model.TaskListener;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import jenkins.model.Jenkins;
+
+/**
+ * Removes the chunks of the {@link ChunkStore} no archived build refers to any more.
+ */
+@Extension
+public class ChunkStoreCleaner extends AsyncPeriodicWork {
+
+    /**
+     * Chunks younger than this are kept, they may belong to an archive being written.
+     */
+    private static final long MIN_AGE = TimeUnit.HOURS.toMillis(6);
+
+    public ChunkStoreCleaner() {
+        super("WebLOAD chunk store cleanup");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return DAY;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        Set<String> referenced = new HashSet<String>();
+        for (Job<?, ?> job : Jenkins.getInstance().getAllItems(Job.class)) {
+            File[] builds = job.getBuildDir().listFiles();
+            if (builds == null) {
+                continue;
+            }
+            for (File build : builds) {
+                collect(new File(build, ArchiveStatsAction.DIR_NAME), referenced);
+            }
+        }
+        long freed = ChunkStore.get().retain(referenced, MIN_AGE);
+        listener.getLogger().println("Freed " + Functions.humanReadableByteSize(freed) + ", "
+                + referenced.size() + " chunks in use");
+    }
+
+    private static void collect(File dir, Set<String> referenced) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collect(f, referenced);
+            } else if (f.getName().endsWith(".chunks")) {
+                BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(f), "US-ASCII"));
+                try {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        if (line.length() > 0) {
+                            referenced.add(line);
+                        }
+                    }
+                } finally {
+                    r.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,189 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.Functions;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Archives a session file into the {@link ChunkStore}.
+ * <p>
+ * The file is hashed on the node that has it, and only the chunks the store
+ * doesn't have yet are read and sent to the controller, a few at a time.
+ * The node proves it has the chunks the store already has by hashing them
+ * with a nonce it could not know in advance.
+ */
+final class ChunkedArchiver {
+
+    /**
+     * Number of chunks sent to the controller per call.
+     */
+    private static final int BATCH = 8;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private ChunkedArchiver() {
+    }
+
+    static ArchivedFile archive(ChunkStore store, FilePath file, String name, boolean compress, TaskListener listener)
+            throws IOException, InterruptedException {
+        int chunkSize = ChunkStore.CHUNK_SIZE;
+        byte[] nonce = new byte[16];
+        RANDOM.nextBytes(nonce);
+        Digests digests = file.act(new HashChunks(chunkSize, nonce));
+        String[] hashes = digests.hashes;
+        List<Integer> missing = missing(store, digests, chunkSize, nonce);
+
+        long transferred = 0;
+        long stored = 0;
+        for (int from = 0; from < missing.size(); from += BATCH) {
+            List<Integer> batch = missing.subList(from, Math.min(from + BATCH, missing.size()));
+            int[] indexes = new int[batch.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = batch.get(i);
+            }
+            byte[][] chunks = file.act(new ReadChunks(chunkSize, indexes));
+            for (int i = 0; i < indexes.length; i++) {
+                transferred += chunks[i].length;
+                stored += store.put(hashes[indexes[i]], chunks[i], compress);
+            }
+        }
+        listener.getLogger().println("Archived " + name + ": " + Functions.humanReadableByteSize(digests.length) + ", "
+                + missing.size() + " of " + hashes.length + " chunks new, " + Functions.humanReadableByteSize(transferred) + " transferred");
+        return new ArchivedFile(name, digests.length, chunkSize, hashes, transferred, stored);
+    }
+
+    /**
+     * Checks the digests sent by the node and picks the chunks it has to send.
+     * <p>
+     * A chunk the store already has is only reused if the node's proof for it
+     * matches the stored content, otherwise the node could refer to chunks of
+     * other jobs it never had. Chunks without a valid proof are read from the
+     * node like new ones, and {@link ChunkStore#put} checks their content.
+     *
+     * @return indexes of the chunks to read from the node
+     * @throws IOException if the digests are malformed
+     */
+    static List<Integer> missing(ChunkStore store, Digests digests, int chunkSize, byte[] nonce) throws IOException {
+        String[] hashes = digests.hashes;
+        if (hashes.length != (digests.length + chunkSize - 1) / chunkSize || digests.proofs.length != hashes.length) {
+            throw new IOException("Chunk digests do not match a file of " + digests.length + " bytes");
+        }
+        for (String h : hashes) {
+            if (!ChunkStore.isHash(h)) {
+                throw new IOException("Invalid chunk hash " + h);
+            }
+        }
+
+        List<Integer> missing = new ArrayList<Integer>();
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < hashes.length; i++) {
+            if (!seen.add(hashes[i])) {
+                continue;
+            }
+            // reused chunks are touched, so the cleaner keeps them until the archive refers to them
+            if (!store.reuse(hashes[i]) || !store.proof(hashes[i], nonce).equals(digests.proofs[i])) {
+                missing.add(i);
+            }
+        }
+        return missing;
+    }
+
+    static final class Digests implements java.io.Serializable {
+        private static final long serialVersionUID = 1L;
+        final long length;
+        final String[] hashes;
+        /**
+         * Hash of each chunk salted with the controller's nonce.
+         */
+        final String[] proofs;
+
+        Digests(long length, String[] hashes, String[] proofs) {
+            this.length = length;
+            this.hashes = hashes;
+            this.proofs = proofs;
+        }
+    }
+
+    /**
+     * Hashes every chunk of a file, plainly and salted with a nonce.
+     */
+    static final class HashChunks extends MasterToSlaveFileCallable<Digests> {
+        private static final long serialVersionUID = 1L;
+        private final int chunkSize;
+        private final byte[] nonce;
+
+        HashChunks(int chunkSize, byte[] nonce) {
+            this.chunkSize = chunkSize;
+            this.nonce = nonce;
+        }
+
+        public Digests invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            RandomAccessFile in = new RandomAccessFile(f, "r");
+            try {
+                long length = in.length();
+                int count = (int) ((length + chunkSize - 1) / chunkSize);
+                String[] hashes = new String[count];
+                String[] proofs = new String[count];
+                byte[] buf = new byte[chunkSize];
+                for (int i = 0; i < count; i++) {
+                    int n = (int) Math.min(chunkSize, length - (long) i * chunkSize);
+                    in.readFully(buf, 0, n);
+                    hashes[i] = ChunkStore.sha1(buf, n);
+                    proofs[i] = ChunkStore.proof(nonce, buf, n);
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                }
+                return new Digests(length, hashes, proofs);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Reads some chunks of a file.
+     */
+    static final class ReadChunks extends MasterToSlaveFileCallable<byte[][]> {
+        private static final long serialVersionUID = 1L;
+        private final int chunkSize;
+        private final int[] indexes;
+
+        ReadChunks(int chunkSize, int[] indexes) {
+            this.chunkSize = chunkSize;
+            this.indexes = indexes;
+        }
+
+        public byte[][] invoke(File f, VirtualChannel channel) throws IOException {
+            RandomAccessFile in = new RandomAccessFile(f, "r");
+            try {
+                long length = in.length();
+                byte[][] chunks = new byte[indexes.length][];
+                for (int i = 0; i < indexes.length; i++) {
+                    long offset = (long) indexes[i] * chunkSize;
+                    byte[] chunk = new byte[(int) Math.min(chunkSize, length - offset)];
+                    in.seek(offset);
+                    in.readFully(chunk);
+                    chunks[i] = chunk;
+                }
+                return chunks;
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+/**
+ * Finds columns of a statistics export by name.
+ */
+class Columns {
+
+    private Columns() {
+    }
+
+    /**
+     * Index of the column matching one of the aliases. Names are compared ignoring
+     * case, spaces and punctuation; an exact match of any alias wins over a column
+     * that merely contains an alias, and earlier aliases win over later ones.
+     *
+     * @return -1 if no column matches
+     */
+    static int indexOf(String[] names, String... aliases) {
+        String[] normalized = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            normalized[i] = normalize(names[i]);
+        }
+        for (String alias : aliases) {
+            String wanted = normalize(alias);
+            for (int i = 0; i < normalized.length; i++) {
+                if (normalized[i].equals(wanted)) {
+                    return i;
+                }
+            }
+        }
+        for (String alias : aliases) {
+            String wanted = normalize(alias);
+            for (int i = 0; i < normalized.length; i++) {
+                if (normalized[i].contains(wanted)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    static String normalize(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toLowerCase(c));
+            }
+        }
+        return sb.toString();
+    }
+}
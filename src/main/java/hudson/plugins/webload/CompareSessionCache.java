@@ -0,0 +1,387 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Agent-local cache of the session files of previous builds, for Analytics comparisons.
+ * <p>
+ * Each entry is a directory named after a build and holding the load session files
+ * of that build, taken from its archive or its artifacts on the controller. Missing
+ * entries are sent together in one gzipped stream; entries already on the agent cost
+ * no transfer. The cache is bounded in size, least recently used entries going first,
+ * but an entry used in the last hour is never evicted so that a running comparison
+ * keeps its files.
+ */
+final class CompareSessionCache {
+
+    static final String DIR_NAME = "webload-compare-cache";
+
+    static final long MAX_SIZE = Long.getLong(CompareSessionCache.class.getName() + ".maxSize", 2048) * 1024 * 1024;
+
+    static final long MIN_AGE = 60 * 60 * 1000;
+
+    private final FilePath root;
+
+    CompareSessionCache(FilePath root) {
+        this.root = root;
+    }
+
+    /**
+     * Cache of a node, in its root directory or, when the node is gone, in the workspace.
+     */
+    static CompareSessionCache of(FilePath workspace) {
+        hudson.model.Node node = WebLoadConsoleBuilder.node(workspace);
+        FilePath nodeRoot = node == null ? null : node.getRootPath();
+        return new CompareSessionCache((nodeRoot == null ? workspace : nodeRoot).child(DIR_NAME));
+    }
+
+    /**
+     * Key of the sessions of a build, the load session name included since
+     * builds may be compared under different names.
+     */
+    static String key(Run<?, ?> build, String lsName) {
+        return build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber() + "-"
+                + Util.getDigestOf(lsName).substring(0, 8);
+    }
+
+    FilePath entry(String key) {
+        return root.child(key);
+    }
+
+    /**
+     * Brings the files of the given entries to the agent, sending only the missing ones.
+     *
+     * @return for each entry, whether it is on the agent
+     */
+    boolean[] fill(List<Entry> entries, TaskListener listener) throws IOException, InterruptedException {
+        String[] keys = new String[entries.size()];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = entries.get(i).key;
+        }
+        boolean[] present = root.act(new Lookup(keys));
+        final List<Entry> missing = new ArrayList<Entry>();
+        long bytes = 0;
+        for (int i = 0; i < present.length; i++) {
+            if (!present[i] && !entries.get(i).files.isEmpty()) {
+                missing.add(entries.get(i));
+                for (Source s : entries.get(i).files) {
+                    bytes += s.length();
+                }
+            }
+        }
+        listener.getLogger().println("Compared sessions cached on the agent: " + (entries.size() - missing.size())
+                + " of " + entries.size());
+        if (missing.isEmpty()) {
+            return present;
+        }
+
+        listener.getLogger().println("Sending " + missing.size() + " previous sessions, "
+                + ArchiveStatsAction.size(bytes) + " before compression");
+        FilePath bundle = root.child("bundle.tmp" + System.nanoTime());
+        final PipedOutputStream pipe = new PipedOutputStream();
+        PipedInputStream in = new PipedInputStream(pipe, 64 * 1024);
+        final IOException[] failure = new IOException[1];
+        Thread writer = new Thread("Sending WebLOAD sessions to " + root) {
+            @Override
+            public void run() {
+                try {
+                    writeBundle(pipe, missing);
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            }
+        };
+        writer.setDaemon(true);
+        writer.start();
+        try {
+            root.mkdirs();
+            bundle.copyFrom(in);
+        } finally {
+            in.close();
+            writer.join();
+        }
+        if (failure[0] != null) {
+            bundle.delete();
+            throw failure[0];
+        }
+        root.act(new Unpack(bundle.getName(), MAX_SIZE));
+        for (int i = 0; i < present.length; i++) {
+            present[i] |= !entries.get(i).files.isEmpty();
+        }
+        return present;
+    }
+
+    /**
+     * Writes the files of the entries as one gzipped stream, closing it.
+     */
+    static void writeBundle(OutputStream stream, List<Entry> entries) throws IOException {
+        DataOutputStream out = new DataOutputStream(new GZIPOutputStream(stream, 64 * 1024));
+        try {
+            byte[] buf = new byte[64 * 1024];
+            for (Entry e : entries) {
+                for (Source s : e.files) {
+                    out.writeBoolean(true);
+                    out.writeUTF(e.key);
+                    out.writeUTF(s.name());
+                    out.writeLong(s.length());
+                    InputStream in = s.open();
+                    try {
+                        long left = s.length();
+                        while (left > 0) {
+                            int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                            if (n < 0) {
+                                throw new IOException("Unexpected end of " + s.name());
+                            }
+                            out.write(buf, 0, n);
+                            left -= n;
+                        }
+                    } finally {
+                        in.close();
+                    }
+                }
+            }
+            out.writeBoolean(false);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * The session files of a previous build.
+     */
+    static final class Entry {
+        final String key;
+        final List<Source> files = new ArrayList<Source>();
+
+        Entry(String key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * A file on the controller.
+     */
+    interface Source {
+        String name();
+
+        long length();
+
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * A session file in the artifacts of a build.
+     */
+    static final class ArtifactSource implements Source {
+        private final File file;
+
+        ArtifactSource(File file) {
+            this.file = file;
+        }
+
+        public String name() {
+            return file.getName();
+        }
+
+        public long length() {
+            return file.length();
+        }
+
+        public InputStream open() throws IOException {
+            return new FileInputStream(file);
+        }
+    }
+
+    /**
+     * A session file in the chunk store.
+     */
+    static final class ArchiveSource implements Source {
+        private final ArchiveStatsAction archive;
+        private final ArchivedFile file;
+
+        ArchiveSource(ArchiveStatsAction archive, ArchivedFile file) {
+            this.archive = archive;
+            this.file = file;
+        }
+
+        public String name() {
+            return new File(file.getName()).getName();
+        }
+
+        public long length() {
+            return file.getLength();
+        }
+
+        public InputStream open() throws IOException {
+            return archive.open(file);
+        }
+    }
+
+    /**
+     * Tells which entries are complete, marking them as used.
+     */
+    private static final class Lookup extends MasterToSlaveFileCallable<boolean[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final String[] keys;
+
+        Lookup(String[] keys) {
+            this.keys = keys;
+        }
+
+        public boolean[] invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            boolean[] present = new boolean[keys.length];
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < keys.length; i++) {
+                File entry = new File(root, keys[i]);
+                if (entry.isDirectory()) {
+                    present[i] = true;
+                    entry.setLastModified(now);
+                }
+            }
+            return present;
+        }
+    }
+
+    /**
+     * Unpacks a bundle into entries, then evicts the least recently used ones over the size bound.
+     */
+    private static final class Unpack extends MasterToSlaveFileCallable<Void> {
+        private static final long serialVersionUID = 1L;
+
+        private final String bundle;
+        private final long maxSize;
+
+        Unpack(String bundle, long maxSize) {
+            this.bundle = bundle;
+            this.maxSize = maxSize;
+        }
+
+        public Void invoke(File root, VirtualChannel channel) throws IOException, InterruptedException {
+            File file = new File(root, bundle);
+            File tmp = new File(root, bundle + ".d");
+            try {
+                List<String> keys = new ArrayList<String>();
+                DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)), 64 * 1024));
+                try {
+                    byte[] buf = new byte[64 * 1024];
+                    while (in.readBoolean()) {
+                        String key = in.readUTF();
+                        String name = new File(in.readUTF()).getName();
+                        long left = in.readLong();
+                        File dir = new File(tmp, key);
+                        if (!keys.contains(key)) {
+                            keys.add(key);
+                            if (!dir.mkdirs()) {
+                                throw new IOException("Failed to create " + dir);
+                            }
+                        }
+                        OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, name)));
+                        try {
+                            while (left > 0) {
+                                int n = in.read(buf, 0, (int) Math.min(buf.length, left));
+                                if (n < 0) {
+                                    throw new IOException("Truncated bundle " + file);
+                                }
+                                out.write(buf, 0, n);
+                                left -= n;
+                            }
+                        } finally {
+                            out.close();
+                        }
+                    }
+                } finally {
+                    in.close();
+                }
+                synchronized (Unpack.class) {
+                    for (String key : keys) {
+                        File entry = new File(root, key);
+                        // another build may have sent the same entry meanwhile
+                        if (!entry.exists() && !new File(tmp, key).renameTo(entry)) {
+                            throw new IOException("Failed to store " + entry);
+                        }
+                    }
+                    evict(root, maxSize);
+                }
+            } finally {
+                file.delete();
+                if (tmp.exists()) {
+                    Util.deleteRecursive(tmp);
+                }
+            }
+            return null;
+        }
+    }
+
+    static void evict(File root, long maxSize) throws IOException {
+        File[] entries = root.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        final long[] sizes = new long[entries.length];
+        final long[] used = new long[entries.length];
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            sizes[i] = size(entries[i]);
+            used[i] = entries[i].lastModified();
+            total += sizes[i];
+            order[i] = i;
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return used[a] < used[b] ? -1 : used[a] == used[b] ? 0 : 1;
+            }
+        });
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < order.length && total > maxSize; i++) {
+            File e = entries[order[i]];
+            if (e.getName().contains(".tmp") || now - used[order[i]] < MIN_AGE) {
+                continue;
+            }
+            Util.deleteRecursive(e);
+            total -= sizes[order[i]];
+        }
+    }
+
+    private static long size(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.length();
+            }
+        }
+        return size;
+    }
+}
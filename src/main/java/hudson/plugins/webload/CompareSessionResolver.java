@@ -0,0 +1,218 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Finds the load session files an Analytics report is compared against.
+ * <p>
+ * All candidate locations are collected on the controller first and then probed
+ * in a single call to the agent, instead of one or two remote {@code exists()}
+ * calls per session. Sessions of previous builds kept on the controller are read
+ * from the agent-local {@link CompareSessionCache}.
+ */
+class CompareSessionResolver {
+
+    private final FilePath workspace;
+    private final TaskListener listener;
+    private final Map<Run<?, ?>, EnvVars> environments = new HashMap<Run<?, ?>, EnvVars>();
+    private CompareSessionCache cache;
+
+    CompareSessionResolver(FilePath workspace, TaskListener listener) {
+        this.workspace = workspace;
+        this.listener = listener;
+    }
+
+    /**
+     * Environment of the given build, computed once per resolver.
+     */
+    EnvVars environment(Run<?, ?> run) throws IOException, InterruptedException {
+        EnvVars env = environments.get(run);
+        if (env == null) {
+            env = run.getEnvironment(listener);
+            environments.put(run, env);
+        }
+        return env;
+    }
+
+    List<FilePath> resolve(Run<?, ?> build, String inputLsFile, String compareToSessions, int compareToPreviousBuilds)
+            throws IOException, InterruptedException {
+        long start = System.currentTimeMillis();
+        List<Candidate> candidates = new ArrayList<Candidate>();
+        List<CompareSessionCache.Entry> entries = new ArrayList<CompareSessionCache.Entry>();
+        List<Candidate> cached = new ArrayList<Candidate>();
+
+        if (compareToSessions != null && !compareToSessions.isEmpty()) {
+            EnvVars env = environment(build);
+            for (String s : compareToSessions.split(",")) {
+                Candidate c = new Candidate(null, true);
+                c.add(new FilePath(workspace, env.expand(s)), null);
+                candidates.add(c);
+            }
+        }
+
+        Run<?, ?> previousBuild = build.getPreviousBuild();
+        int prevBuilds = compareToPreviousBuilds;
+        while ((prevBuilds > 0) && previousBuild != null) {
+            String previousLsName = environment(previousBuild).expand(inputLsFile);
+            listener.getLogger().println("Looking for " + previousLsName);
+            Candidate c = new Candidate(previousBuild, false);
+            CompareSessionCache.Entry entry = sources(previousBuild, previousLsName);
+            if (entry != null) {
+                c.add(cache().entry(entry.key).child(new File(previousLsName).getName()), "cache");
+                entries.add(entry);
+                cached.add(c);
+            }
+            c.add(new FilePath(workspace, previousLsName), "workspace");
+            candidates.add(c);
+            previousBuild = previousBuild.getPreviousBuild();
+            prevBuilds--;
+        }
+
+        List<FilePath> sessionsToCompare = new ArrayList<FilePath>();
+        if (candidates.isEmpty()) {
+            return sessionsToCompare;
+        }
+        if (!entries.isEmpty()) {
+            boolean[] present = cache().fill(entries, listener);
+            for (int i = 0; i < present.length; i++) {
+                if (!present[i]) {
+                    Candidate c = cached.get(i);
+                    c.paths.remove(0);
+                    c.origins.remove(0);
+                }
+            }
+        }
+
+        String[][] paths = new String[candidates.size()][];
+        for (int i = 0; i < paths.length; i++) {
+            paths[i] = candidates.get(i).remotePaths();
+        }
+        int[] found = workspace.act(new FirstExisting(paths));
+
+        for (int i = 0; i < found.length; i++) {
+            Candidate c = candidates.get(i);
+            if (found[i] >= 0) {
+                FilePath p = c.paths.get(found[i]);
+                sessionsToCompare.add(p);
+                if (c.build == null) {
+                    listener.getLogger().println("Add LS for comparison " + p);
+                } else {
+                    listener.getLogger().println("Add previous LS for comparison from " + c.origins.get(found[i]) + " " + p);
+                }
+            } else if (c.keepIfMissing) {
+                FilePath p = c.paths.get(0);
+                sessionsToCompare.add(p);
+                listener.getLogger().println("WARN : LS for comparison not found " + p);
+            } else {
+                listener.getLogger().println("Not found previous LS from build " + c.build);
+            }
+        }
+        listener.getLogger().println("Resolved " + sessionsToCompare.size() + " sessions for comparison in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return sessionsToCompare;
+    }
+
+    private CompareSessionCache cache() {
+        if (cache == null) {
+            cache = CompareSessionCache.of(workspace);
+        }
+        return cache;
+    }
+
+    /**
+     * Session files a previous build kept on the controller, archived or as artifacts.
+     *
+     * @return null if the build kept no load session file of that name
+     */
+    private CompareSessionCache.Entry sources(Run<?, ?> build, String lsName) {
+        CompareSessionCache.Entry entry = new CompareSessionCache.Entry(CompareSessionCache.key(build, lsName));
+        ArchiveStatsAction archive = build.getAction(ArchiveStatsAction.class);
+        if (archive != null && archive.find(lsName) != null) {
+            for (String e : WebLoadConsoleBuilder.sessionExtensions) {
+                ArchivedFile f = archive.find(WebLoadConsoleBuilder.replaceExtension(lsName, e));
+                if (f != null) {
+                    entry.files.add(new CompareSessionCache.ArchiveSource(archive, f));
+                }
+            }
+            return entry;
+        }
+        File ls = new File(build.getArtifactsDir(), lsName);
+        if (!ls.isFile()) {
+            return null;
+        }
+        for (String e : WebLoadConsoleBuilder.sessionExtensions) {
+            File f = new File(build.getArtifactsDir(), WebLoadConsoleBuilder.replaceExtension(lsName, e));
+            if (f.isFile()) {
+                entry.files.add(new CompareSessionCache.ArtifactSource(f));
+            }
+        }
+        return entry;
+    }
+
+    private static final class Candidate {
+        final Run<?, ?> build;
+        final boolean keepIfMissing;
+        final List<FilePath> paths = new ArrayList<FilePath>();
+        final List<String> origins = new ArrayList<String>();
+
+        Candidate(Run<?, ?> build, boolean keepIfMissing) {
+            this.build = build;
+            this.keepIfMissing = keepIfMissing;
+        }
+
+        void add(FilePath path, String origin) {
+            paths.add(path);
+            origins.add(origin);
+        }
+
+        String[] remotePaths() {
+            String[] r = new String[paths.size()];
+            for (int i = 0; i < r.length; i++) {
+                r[i] = paths.get(i).getRemote();
+            }
+            return r;
+        }
+    }
+
+    /**
+     * For each group of paths, returns the index of the first one that exists or -1.
+     */
+    static final class FirstExisting extends MasterToSlaveCallable<int[], IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[][] paths;
+
+        FirstExisting(String[][] paths) {
+            this.paths = paths;
+        }
+
+        public int[] call() throws IOException {
+            int[] found = new int[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                found[i] = -1;
+                for (int j = 0; j < paths[i].length; j++) {
+                    if (new File(paths[i][j]).exists()) {
+                        found[i] = j;
+                        break;
+                    }
+                }
+            }
+            return found;
+        }
+    }
+}
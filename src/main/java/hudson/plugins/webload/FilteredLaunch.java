@@ -0,0 +1,310 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import jenkins.security.MasterToSlaveCallable;
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Runs a session on the node of its workspace with the console output filtered there.
+ * <p>
+ * The process is started by a callable on the node, its output going through a
+ * {@link LogFilter} into a local buffer and, unfiltered, into a gzipped raw log.
+ * The controller drains the buffer about once a second, each batch crossing the
+ * channel gzipped, instead of receiving every byte written by the session.
+ * The buffer is bounded: when the controller does not keep up, lines are dropped
+ * and counted, and can still be read in the raw log.
+ */
+final class FilteredLaunch extends Proc {
+
+    static final long DRAIN_INTERVAL = 1000;
+    static final int MAX_PENDING = Integer.getInteger(FilteredLaunch.class.getName() + ".maxPending", 1024 * 1024);
+
+    /** Sessions running on this node, by id. */
+    private static final Map<String, Session> SESSIONS = new ConcurrentHashMap<String, Session>();
+
+    private final FilePath workspace;
+    private final String id;
+    private final TaskListener listener;
+    private final FilePath rawLog;
+    private boolean done;
+    private int exitCode;
+
+    private FilteredLaunch(FilePath workspace, String id, TaskListener listener, FilePath rawLog) {
+        this.workspace = workspace;
+        this.id = id;
+        this.listener = listener;
+        this.rawLog = rawLog;
+    }
+
+    /**
+     * Starts a session on the node of the workspace.
+     *
+     * @param rawLog gzipped log of the whole console output, may be null
+     */
+    static FilteredLaunch start(SessionExecutor executor, FilePath workspace, ArgumentListBuilder args, EnvVars envVars,
+            SessionExecutor.Exports exports, LogFilter.Settings settings, FilePath rawLog, TaskListener listener)
+            throws IOException, InterruptedException {
+        String id = workspace.act(new Start(executor, args, envVars, workspace.getRemote(), exports, settings,
+                rawLog == null ? null : rawLog.getRemote()));
+        return new FilteredLaunch(workspace, id, listener, rawLog);
+    }
+
+    /**
+     * Copies the output written since the last call to the build log.
+     */
+    private synchronized void drain() throws IOException, InterruptedException {
+        if (done) {
+            return;
+        }
+        Batch batch = workspace.act(new Drain(id));
+        if (batch.text != null) {
+            InputStream in = new GZIPInputStream(new ByteArrayInputStream(batch.text));
+            try {
+                IOUtils.copy(in, listener.getLogger());
+            } finally {
+                in.close();
+            }
+        }
+        if (batch.dropped > 0) {
+            listener.getLogger().println("(" + batch.dropped + " lines not shown, see the raw log)");
+        }
+        if (batch.done) {
+            done = true;
+            exitCode = batch.exitCode;
+            if (batch.suppressed > 0) {
+                listener.getLogger().println("(" + batch.suppressed + " lines filtered out"
+                        + (rawLog == null ? ")" : ", see the raw log " + rawLog.getName() + ")"));
+            }
+        }
+    }
+
+    @Override
+    public boolean isAlive() throws IOException, InterruptedException {
+        drain();
+        return !done;
+    }
+
+    @Override
+    public void kill() throws IOException, InterruptedException {
+        workspace.act(new Kill(id));
+        join();
+    }
+
+    @Override
+    public int join() throws IOException, InterruptedException {
+        try {
+            while (isAlive()) {
+                Thread.sleep(DRAIN_INTERVAL);
+            }
+        } catch (InterruptedException e) {
+            workspace.act(new Kill(id));
+            throw e;
+        }
+        return exitCode;
+    }
+
+    @Override
+    public InputStream getStdout() {
+        return null;
+    }
+
+    @Override
+    public InputStream getStderr() {
+        return null;
+    }
+
+    @Override
+    public OutputStream getStdin() {
+        return null;
+    }
+
+    /**
+     * Filtered output waiting for the controller, bounded to {@link #MAX_PENDING} bytes.
+     */
+    static final class Pending extends OutputStream {
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private long dropped;
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.size() + len > MAX_PENDING) {
+                dropped++;
+                return;
+            }
+            buffer.write(b, off, len);
+        }
+
+        synchronized Batch take() throws IOException {
+            Batch batch = new Batch();
+            if (buffer.size() > 0) {
+                ByteArrayOutputStream zipped = new ByteArrayOutputStream(buffer.size() / 4 + 64);
+                GZIPOutputStream out = new GZIPOutputStream(zipped);
+                buffer.writeTo(out);
+                out.close();
+                batch.text = zipped.toByteArray();
+                buffer = new ByteArrayOutputStream();
+            }
+            batch.dropped = dropped;
+            dropped = 0;
+            return batch;
+        }
+    }
+
+    private static final class Session {
+        final Pending pending = new Pending();
+        LogFilter filter;
+        Proc proc;
+        volatile boolean ended;
+        volatile int exitCode;
+    }
+
+    /**
+     * What the session wrote since the last drain.
+     */
+    static final class Batch implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        byte[] text;
+        long dropped;
+        long suppressed;
+        boolean done;
+        int exitCode;
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final SessionExecutor executor;
+        private final ArgumentListBuilder args;
+        private final EnvVars envVars;
+        private final String dir;
+        private final SessionExecutor.Exports exports;
+        private final LogFilter.Settings settings;
+        private final String rawLog;
+
+        Start(SessionExecutor executor, ArgumentListBuilder args, EnvVars envVars, String dir, SessionExecutor.Exports exports,
+                LogFilter.Settings settings, String rawLog) {
+            this.executor = executor;
+            this.args = args;
+            this.envVars = envVars;
+            this.dir = dir;
+            this.exports = exports;
+            this.settings = settings;
+            this.rawLog = rawLog;
+        }
+
+        public String call() throws IOException {
+            final Session s = new Session();
+            OutputStream raw = rawLog == null ? null : new GZIPOutputStream(new FileOutputStream(rawLog), 64 * 1024);
+            s.filter = new LogFilter(settings, raw, s.pending);
+            try {
+                s.proc = executor.launchLocal(args, envVars, new File(dir), exports, s.filter);
+            } catch (IOException e) {
+                s.filter.close();
+                throw e;
+            }
+            final String id = UUID.randomUUID().toString();
+            SESSIONS.put(id, s);
+            Thread waiter = new Thread("WebLOAD session " + id) {
+                @Override
+                public void run() {
+                    int code = -1;
+                    try {
+                        code = s.proc.join();
+                    } catch (Exception e) {
+                        // killed or failed, reported with the exit code
+                    } finally {
+                        try {
+                            s.filter.close();
+                        } catch (IOException e) {
+                            // the raw log is incomplete
+                        }
+                        s.exitCode = code;
+                        s.ended = true;
+                    }
+                }
+            };
+            waiter.setDaemon(true);
+            waiter.start();
+            return id;
+        }
+    }
+
+    private static final class Drain extends MasterToSlaveCallable<Batch, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Drain(String id) {
+            this.id = id;
+        }
+
+        public Batch call() throws IOException {
+            Session s = SESSIONS.get(id);
+            if (s == null) {
+                Batch batch = new Batch();
+                batch.done = true;
+                batch.exitCode = -1;
+                return batch;
+            }
+            // read before taking, so nothing written before the end is left behind
+            boolean ended = s.ended;
+            Batch batch = s.pending.take();
+            if (ended) {
+                SESSIONS.remove(id);
+                batch.done = true;
+                batch.exitCode = s.exitCode;
+                batch.suppressed = s.filter.getSuppressed();
+            }
+            return batch;
+        }
+    }
+
+    private static final class Kill extends MasterToSlaveCallable<Void, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Kill(String id) {
+            this.id = id;
+        }
+
+        public Void call() throws IOException {
+            Session s = SESSIONS.get(id);
+            if (s != null) {
+                try {
+                    s.proc.kill();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        }
+    }
+}
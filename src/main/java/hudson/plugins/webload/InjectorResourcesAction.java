@@ -0,0 +1,257 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.Util;
+import hudson.model.AbstractBuild;
+import hudson.model.EnvironmentContributingAction;
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+
+/**
+ * Resources of the load generator sampled during the sessions of a build, see {@link InjectorSampler}.
+ * <p>
+ * A session whose node spent more than {@link #SUSPECT_SHARE} of the time over the CPU
+ * ceiling is marked measurement suspect: its response times may include time spent
+ * waiting for the load generator itself. The build is suspect if any of its sessions is.
+ * The samples of each session are kept in their own file next to {@code build.xml} and
+ * only loaded when somebody looks at them.
+ */
+public class InjectorResourcesAction implements RunAction2, EnvironmentContributingAction {
+
+    private static final Logger LOGGER = Logger.getLogger(InjectorResourcesAction.class.getName());
+
+    static final String SUSPECT_VARIABLE = "WEBLOAD_MEASUREMENT_SUSPECT";
+
+    static final double SUSPECT_SHARE = 0.1;
+
+    /** Rows shown on the page at most, the samples in between being skipped. */
+    private static final int MAX_ROWS = 300;
+
+    private final List<Session> sessions = new ArrayList<Session>();
+
+    private transient Run<?, ?> run;
+
+    InjectorResourcesAction(Run<?, ?> run) {
+        this.run = run;
+    }
+
+    /**
+     * Adds the samples of a session, kept in a file of their own.
+     */
+    synchronized Session add(InjectorSampler.Samples samples) throws IOException {
+        Session session = new Session(sessions.size() + 1, samples);
+        session.run = run;
+        samples.write(session.getFile());
+        sessions.add(session);
+        return session;
+    }
+
+    public String getIconFileName() {
+        return "computer.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Injector Resources";
+    }
+
+    public String getUrlName() {
+        return "webload-injector";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        setRun(r);
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        setRun(r);
+    }
+
+    private synchronized void setRun(Run<?, ?> r) {
+        this.run = r;
+        for (Session s : sessions) {
+            s.run = r;
+        }
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public synchronized List<Session> getSessions() {
+        return new ArrayList<Session>(sessions);
+    }
+
+    public synchronized boolean isSuspect() {
+        for (Session s : sessions) {
+            if (s.isSuspect()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public void buildEnvVars(AbstractBuild<?, ?> build, EnvVars env) {
+        env.put(SUSPECT_VARIABLE, String.valueOf(isSuspect()));
+    }
+
+    static String percent(float value) {
+        return value < 0 ? "n/a" : PerformanceSummaryAction.format(value) + "%";
+    }
+
+    /**
+     * The figures of one session; its samples are in {@link #getFile()}.
+     */
+    public static final class Session {
+        private final int number;
+        private final int ceiling;
+        private final long count;
+        private final long cpuCount;
+        private final long overCeiling;
+        private final float cpuMean;
+        private final float cpuMax;
+        private final float memoryMax;
+
+        private transient Run<?, ?> run;
+        private transient SoftReference<InjectorSampler.Samples> samples;
+
+        Session(int number, InjectorSampler.Samples samples) {
+            this.number = number;
+            this.ceiling = samples.ceiling;
+            this.count = samples.count;
+            this.cpuCount = samples.cpuCount;
+            this.overCeiling = samples.overCeiling;
+            this.cpuMean = samples.cpuMean;
+            this.cpuMax = samples.cpuMax;
+            this.memoryMax = samples.memoryMax;
+            this.samples = new SoftReference<InjectorSampler.Samples>(samples);
+        }
+
+        File getFile() {
+            return new File(run.getRootDir(), "webload-injector-" + number + ".bin");
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * Whether the CPU was over the ceiling for more than {@link #SUSPECT_SHARE} of
+         * the samples where it could be read.
+         */
+        public boolean isSuspect() {
+            return ceiling > 0 && cpuCount > 0 && overCeiling > cpuCount * SUSPECT_SHARE;
+        }
+
+        public int getCeiling() {
+            return ceiling;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Share of the session spent over the ceiling, in percent of the CPU samples read.
+         */
+        public String getOverCeiling() {
+            return cpuCount == 0 ? "n/a" : PerformanceSummaryAction.format(overCeiling * 100.0 / cpuCount) + "%";
+        }
+
+        public String getCpuMean() {
+            return percent(cpuMean);
+        }
+
+        public String getCpuMax() {
+            return percent(cpuMax);
+        }
+
+        public String getMemoryMax() {
+            return percent(memoryMax);
+        }
+
+        /**
+         * The samples kept, at most {@link #MAX_ROWS} of them evenly spread.
+         */
+        public List<Row> getRows() {
+            List<Row> rows = new ArrayList<Row>();
+            InjectorSampler.Samples s = getSamples();
+            if (s == null) {
+                return rows;
+            }
+            int size = s.times.length;
+            int step = Math.max(1, (size + MAX_ROWS - 1) / MAX_ROWS);
+            for (int i = 0; i < size; i += step) {
+                rows.add(new Row(s.times[i], s.cpu[i], s.memory[i], s.network[i],
+                        s.ceiling > 0 && s.cpu[i] > s.ceiling));
+            }
+            return rows;
+        }
+
+        /**
+         * @return the samples, or null if their file can't be read
+         */
+        synchronized InjectorSampler.Samples getSamples() {
+            InjectorSampler.Samples s = samples == null ? null : samples.get();
+            if (s == null) {
+                try {
+                    s = InjectorSampler.Samples.read(getFile());
+                } catch (IOException e) {
+                    LOGGER.log(Level.WARNING, "Failed to load " + getFile(), e);
+                    return null;
+                }
+                samples = new SoftReference<InjectorSampler.Samples>(s);
+            }
+            return s;
+        }
+    }
+
+    /**
+     * One sample of the page.
+     */
+    public static final class Row {
+        private final long time;
+        private final float cpu;
+        private final float memory;
+        private final float network;
+        private final boolean overCeiling;
+
+        Row(long time, float cpu, float memory, float network, boolean overCeiling) {
+            this.time = time;
+            this.cpu = cpu;
+            this.memory = memory;
+            this.network = network;
+            this.overCeiling = overCeiling;
+        }
+
+        public String getTime() {
+            return Util.getTimeSpanString(time);
+        }
+
+        public String getCpu() {
+            return percent(cpu);
+        }
+
+        public String getMemory() {
+            return percent(memory);
+        }
+
+        public String getNetwork() {
+            return network < 0 ? "n/a" : ArchiveStatsAction.size((long) network) + "/s";
+        }
+
+        public boolean isOverCeiling() {
+            return overCeiling;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Samples the resources of the node running a session, to tell a saturated load
+ * generator apart from a slower server.
+ * <p>
+ * Sampling runs in a thread on the node and keeps the last {@link #CAPACITY} samples
+ * in a ring buffer, so a long session costs no more memory than a short one; the
+ * peaks and the time spent over the ceiling are counted over the whole session.
+ * Nothing crosses the channel until the session ends. The session runs as a native
+ * process, so the samples are those of the node: CPU and physical memory as reported
+ * by the JVM, and network throughput where {@code /proc/net/dev} is readable.
+ * Values that cannot be read are negative.
+ */
+final class InjectorSampler {
+
+    static final long INTERVAL = Long.getLong(InjectorSampler.class.getName() + ".interval", 1000);
+    static final int CAPACITY = Integer.getInteger(InjectorSampler.class.getName() + ".capacity", 3600);
+
+    /** Samplers running on this node, by id. */
+    private static final Map<String, Sampler> SAMPLERS = new ConcurrentHashMap<String, Sampler>();
+
+    private static final OperatingSystemMXBean OS = ManagementFactory.getOperatingSystemMXBean();
+
+    private final FilePath workspace;
+    private final String id;
+
+    private InjectorSampler(FilePath workspace, String id) {
+        this.workspace = workspace;
+        this.id = id;
+    }
+
+    /**
+     * Starts sampling on the node of the workspace.
+     *
+     * @param ceiling CPU percentage over which the node counts as saturated
+     */
+    static InjectorSampler start(FilePath workspace, int ceiling) throws IOException, InterruptedException {
+        return new InjectorSampler(workspace, workspace.act(new Start(ceiling, INTERVAL, CAPACITY)));
+    }
+
+    /**
+     * Stops sampling.
+     *
+     * @return the samples of the session
+     */
+    Samples stop() throws IOException, InterruptedException {
+        return workspace.act(new Stop(id));
+    }
+
+    /**
+     * Samples of a session, in chronological order.
+     */
+    static final class Samples implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private static final int MAGIC = 0x574c5231; // "WLR1"
+
+        int ceiling;
+        long interval;
+        /** Milliseconds since the session started. */
+        long[] times;
+        /** Percentages. */
+        float[] cpu;
+        /** Percentages of the physical memory. */
+        float[] memory;
+        /** Bytes per second, received and sent. */
+        float[] network;
+        /** Over the whole session, including the samples no longer in the buffer. */
+        long count;
+        /** Samples whose CPU usage could be read. */
+        long cpuCount;
+        long overCeiling;
+        float cpuMean;
+        float cpuMax;
+        float memoryMax;
+
+        void write(File file) throws IOException {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(ceiling);
+                out.writeLong(interval);
+                out.writeLong(count);
+                out.writeLong(cpuCount);
+                out.writeLong(overCeiling);
+                out.writeFloat(cpuMean);
+                out.writeFloat(cpuMax);
+                out.writeFloat(memoryMax);
+                out.writeInt(times.length);
+                for (int i = 0; i < times.length; i++) {
+                    out.writeLong(times[i]);
+                    out.writeFloat(cpu[i]);
+                    out.writeFloat(memory[i]);
+                    out.writeFloat(network[i]);
+                }
+            } finally {
+                out.close();
+            }
+        }
+
+        static Samples read(File file) throws IOException {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != MAGIC) {
+                    throw new IOException("Not WebLOAD injector samples");
+                }
+                Samples s = new Samples();
+                s.ceiling = in.readInt();
+                s.interval = in.readLong();
+                s.count = in.readLong();
+                s.cpuCount = in.readLong();
+                s.overCeiling = in.readLong();
+                s.cpuMean = in.readFloat();
+                s.cpuMax = in.readFloat();
+                s.memoryMax = in.readFloat();
+                int size = in.readInt();
+                s.times = new long[size];
+                s.cpu = new float[size];
+                s.memory = new float[size];
+                s.network = new float[size];
+                for (int i = 0; i < size; i++) {
+                    s.times[i] = in.readLong();
+                    s.cpu[i] = in.readFloat();
+                    s.memory[i] = in.readFloat();
+                    s.network[i] = in.readFloat();
+                }
+                return s;
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static final class Sampler extends Thread {
+        private final int ceiling;
+        private final long interval;
+        private final long start = System.currentTimeMillis();
+        private final long[] times;
+        private final float[] cpu;
+        private final float[] memory;
+        private final float[] network;
+        private int next;
+        private long count;
+        private long overCeiling;
+        private double cpuSum;
+        private long cpuCount;
+        private float cpuMax = -1;
+        private float memoryMax = -1;
+        private long lastBytes = -1;
+        private long lastTime;
+        private volatile boolean stopped;
+
+        Sampler(String id, int ceiling, long interval, int capacity) {
+            super("WebLOAD injector sampler " + id);
+            setDaemon(true);
+            this.ceiling = ceiling;
+            this.interval = interval;
+            times = new long[capacity];
+            cpu = new float[capacity];
+            memory = new float[capacity];
+            network = new float[capacity];
+        }
+
+        @Override
+        public void run() {
+            while (!stopped) {
+                sample();
+                try {
+                    Thread.sleep(interval);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private void sample() {
+            long now = System.currentTimeMillis();
+            float c = cpuLoad();
+            float m = memoryUsage();
+            float n = -1;
+            long bytes = networkBytes();
+            if (bytes >= 0 && lastBytes >= 0 && now > lastTime) {
+                n = (bytes - lastBytes) * 1000f / (now - lastTime);
+            }
+            lastBytes = bytes;
+            lastTime = now;
+            synchronized (this) {
+                int i = next;
+                times[i] = now - start;
+                cpu[i] = c;
+                memory[i] = m;
+                network[i] = n;
+                next = (i + 1) % times.length;
+                count++;
+                if (c >= 0) {
+                    cpuSum += c;
+                    cpuCount++;
+                    cpuMax = Math.max(cpuMax, c);
+                    if (ceiling > 0 && c > ceiling) {
+                        overCeiling++;
+                    }
+                }
+                memoryMax = Math.max(memoryMax, m);
+            }
+        }
+
+        synchronized Samples samples() {
+            Samples s = new Samples();
+            s.ceiling = ceiling;
+            s.interval = interval;
+            int size = (int) Math.min(count, times.length);
+            int first = count > times.length ? next : 0;
+            s.times = new long[size];
+            s.cpu = new float[size];
+            s.memory = new float[size];
+            s.network = new float[size];
+            for (int k = 0; k < size; k++) {
+                int i = (first + k) % times.length;
+                s.times[k] = times[i];
+                s.cpu[k] = cpu[i];
+                s.memory[k] = memory[i];
+                s.network[k] = network[i];
+            }
+            s.count = count;
+            s.cpuCount = cpuCount;
+            s.overCeiling = overCeiling;
+            s.cpuMean = cpuCount == 0 ? -1 : (float) (cpuSum / cpuCount);
+            s.cpuMax = cpuMax;
+            s.memoryMax = memoryMax;
+            return s;
+        }
+    }
+
+    /**
+     * CPU usage of the whole node in percent, from the JVM's extended bean when there
+     * is one or else from the load average.
+     */
+    static float cpuLoad() {
+        Object load = invoke("getSystemCpuLoad");
+        if (load instanceof Double && (Double) load >= 0) {
+            return (float) ((Double) load * 100);
+        }
+        double average = OS.getSystemLoadAverage();
+        if (average < 0) {
+            return -1;
+        }
+        return (float) Math.min(100, average * 100 / OS.getAvailableProcessors());
+    }
+
+    static float memoryUsage() {
+        Object total = invoke("getTotalPhysicalMemorySize");
+        Object free = invoke("getFreePhysicalMemorySize");
+        if (!(total instanceof Long) || !(free instanceof Long) || (Long) total <= 0) {
+            return -1;
+        }
+        return (float) (((Long) total - (Long) free) * 100.0 / (Long) total);
+    }
+
+    /**
+     * Bytes received and sent by all interfaces but the loopback, -1 if not known.
+     */
+    static long networkBytes() {
+        File dev = new File("/proc/net/dev");
+        if (!dev.canRead()) {
+            return -1;
+        }
+        try {
+            BufferedReader in = new BufferedReader(new FileReader(dev));
+            try {
+                long bytes = 0;
+                String line;
+                while ((line = in.readLine()) != null) {
+                    int colon = line.indexOf(':');
+                    if (colon < 0 || line.substring(0, colon).trim().equals("lo")) {
+                        continue;
+                    }
+                    String[] fields = line.substring(colon + 1).trim().split("\\s+");
+                    if (fields.length > 8) {
+                        bytes += Long.parseLong(fields[0]) + Long.parseLong(fields[8]);
+                    }
+                }
+                return bytes;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Calls a getter of the JVM's extended operating system bean, which not all JVMs have.
+     */
+    private static Object invoke(String getter) {
+        try {
+            Class<?> type = Class.forName("com.sun.management.OperatingSystemMXBean");
+            if (!type.isInstance(OS)) {
+                return null;
+            }
+            Method m = type.getMethod(getter);
+            return m.invoke(OS);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final int ceiling;
+        private final long interval;
+        private final int capacity;
+
+        Start(int ceiling, long interval, int capacity) {
+            this.ceiling = ceiling;
+            this.interval = interval;
+            this.capacity = capacity;
+        }
+
+        public String call() throws IOException {
+            String id = UUID.randomUUID().toString();
+            Sampler s = new Sampler(id, ceiling, interval, capacity);
+            SAMPLERS.put(id, s);
+            s.start();
+            return id;
+        }
+    }
+
+    private static final class Stop extends MasterToSlaveCallable<Samples, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Stop(String id) {
+            this.id = id;
+        }
+
+        public Samples call() throws IOException {
+            Sampler s = SAMPLERS.remove(id);
+            if (s == null) {
+                return null;
+            }
+            s.stopped = true;
+            s.interrupt();
+            return s.samples();
+        }
+    }
+}
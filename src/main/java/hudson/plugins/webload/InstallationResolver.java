@@ -0,0 +1,189 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.slaves.ComputerListener;
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Resolves the WebLOAD installation used by a build step on the node it runs on.
+ * <p>
+ * The lookup order is {@code WL_HOME}, the selected {@link WebLoadInstallation},
+ * the global installation path and finally the default install locations.
+ * What was found on a node is cached until that node reconnects, so the
+ * executables are only probed once per node and path.
+ */
+class InstallationResolver {
+
+    static final String CONSOLE_EXECUTABLE = "webload.exe";
+    static final String ANALYTICS_EXECUTABLE = "WLAnalyticsCmd.exe";
+
+    private static final String[] EXECUTABLES = { CONSOLE_EXECUTABLE, ANALYTICS_EXECUTABLE };
+
+    private static final ConcurrentMap<String, Home> cache = new ConcurrentHashMap<String, Home>();
+
+    static Home resolve(String installationName, String configuredPath, EnvVars envVars, Node node,
+            VirtualChannel channel, TaskListener listener) throws IOException, InterruptedException {
+        List<String> candidates = new ArrayList<String>();
+        String path = envVars.get("WL_HOME");
+        if ((path != null) && path.length() > 0) {
+            listener.getLogger().println("Using WL_HOME:" + path);
+            candidates.add(path);
+        } else if (installationName != null && installationName.length() > 0) {
+            WebLoadInstallation installation = WebLoadInstallation.get(installationName);
+            if (installation == null) {
+                throw new AbortException("WebLOAD installation " + installationName + " is not configured");
+            }
+            if (node != null) {
+                installation = installation.forNode(node, listener);
+            }
+            installation = installation.forEnvironment(envVars);
+            listener.getLogger().println("Using WebLOAD installation " + installationName + ":" + installation.getHome());
+            candidates.add(installation.getHome());
+        } else if ((configuredPath != null) && configuredPath.length() > 0) {
+            listener.getLogger().println("Using WebloadInstallationPath:" + configuredPath);
+            candidates.add(configuredPath);
+        } else {
+            String[] programFiles = { envVars.get("ProgramFiles(x86)"), envVars.get("ProgramFiles"), "C:\\Program Files" };
+            for (String programFile : programFiles) {
+                if (programFile != null && !candidates.contains(programFile + "\\RadView\\WebLOAD")) {
+                    candidates.add(programFile + "\\RadView\\WebLOAD");
+                }
+            }
+        }
+
+        String nodeName = node == null ? "" : node.getNodeName();
+        String key = nodeName + '\n' + candidates;
+        Home home = cache.get(key);
+        if (home == null) {
+            home = channel.call(new Detect(candidates.toArray(new String[candidates.size()])));
+            // missing installations are not cached so a fix on the node is picked up by the next build
+            if (home.hasExecutable(CONSOLE_EXECUTABLE) || home.hasExecutable(ANALYTICS_EXECUTABLE)) {
+                cache.put(key, home);
+            }
+        }
+        if (candidates.size() > 1) {
+            listener.getLogger().println("Detected WebLOAD installation:" + home.getPath());
+        }
+        return home;
+    }
+
+    static void invalidate(String nodeName) {
+        String prefix = nodeName + '\n';
+        for (Iterator<String> it = cache.keySet().iterator(); it.hasNext();) {
+            if (it.next().startsWith(prefix)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * A WebLOAD installation directory as seen on one node.
+     */
+    static final class Home implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String path;
+        private final boolean[] present;
+
+        Home(String path, boolean[] present) {
+            this.path = path;
+            this.present = present;
+        }
+
+        String getPath() {
+            return path;
+        }
+
+        String getExecutable(String name) {
+            return path + "\\bin\\" + name;
+        }
+
+        boolean hasExecutable(String name) {
+            for (int i = 0; i < EXECUTABLES.length; i++) {
+                if (EXECUTABLES[i].equals(name)) {
+                    return present[i];
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @throws AbortException if the executable is not part of this installation
+         */
+        String checkExecutable(String name) throws AbortException {
+            String executable = getExecutable(name);
+            if (!hasExecutable(name)) {
+                throw new AbortException("Can't find installation at " + executable);
+            }
+            return executable;
+        }
+    }
+
+    /**
+     * Returns the first candidate that contains a WebLOAD executable, or the first candidate if none does.
+     */
+    static final class Detect extends MasterToSlaveCallable<Home, IOException> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String[] candidates;
+
+        Detect(String[] candidates) {
+            this.candidates = candidates;
+        }
+
+        public Home call() throws IOException {
+            Home first = null;
+            for (String candidate : candidates) {
+                File bin = new File(candidate, "bin");
+                boolean[] present = new boolean[EXECUTABLES.length];
+                boolean any = false;
+                for (int i = 0; i < EXECUTABLES.length; i++) {
+                    present[i] = new File(bin, EXECUTABLES[i]).isFile();
+                    any |= present[i];
+                }
+                Home home = new Home(candidate, present);
+                if (any) {
+                    return home;
+                }
+                if (first == null) {
+                    first = home;
+                }
+            }
+            return first;
+        }
+    }
+
+    @Extension
+    public static final class Invalidator extends ComputerListener {
+
+        @Override
+        public void onOnline(Computer c, TaskListener listener) throws IOException, InterruptedException {
+            invalidate(c.getName());
+        }
+
+        @Override
+        public void onOffline(Computer c) {
+            invalidate(c.getName());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Reads a JUnit XML report written by WebLOAD Analytics into {@link TransactionResults}.
+ * <p>
+ * The report is streamed on the node that has it, each {@code testcase} being
+ * added to the row of its transaction as soon as it ends, so memory depends on
+ * the number of distinct transactions and not on the size of the report.
+ */
+class JUnitResultsReader extends MasterToSlaveFileCallable<TransactionResults> {
+
+    private static final long serialVersionUID = 1L;
+
+    public TransactionResults invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        InputStream in = new BufferedInputStream(new FileInputStream(f));
+        try {
+            TransactionResults results = new TransactionResults();
+            read(in, results);
+            return results;
+        } finally {
+            in.close();
+        }
+    }
+
+    static void read(InputStream in, TransactionResults results) throws IOException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        try {
+            XMLStreamReader r = factory.createXMLStreamReader(in);
+            try {
+                String group = null;
+                String name = null;
+                double time = Double.NaN;
+                boolean failed = false;
+                boolean skipped = false;
+                String message = null;
+                while (r.hasNext()) {
+                    int event = r.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String element = r.getLocalName();
+                        if (element.equals("testcase")) {
+                            group = r.getAttributeValue(null, "classname");
+                            name = r.getAttributeValue(null, "name");
+                            time = StatisticsTail.parseValue(nonNull(r.getAttributeValue(null, "time")));
+                            failed = false;
+                            skipped = false;
+                            message = null;
+                        } else if (name != null && (element.equals("failure") || element.equals("error"))) {
+                            failed = true;
+                            if (message == null) {
+                                message = r.getAttributeValue(null, "message");
+                            }
+                        } else if (name != null && element.equals("skipped")) {
+                            skipped = true;
+                        }
+                    } else if (event == XMLStreamConstants.END_ELEMENT && r.getLocalName().equals("testcase")) {
+                        if (name != null) {
+                            results.record(nonNull(group), name, 1, failed ? 1 : 0, skipped ? 1 : 0, time,
+                                    Double.isNaN(time) ? 0 : time, message);
+                        }
+                        name = null;
+                    }
+                }
+            } finally {
+                r.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException("Failed to read JUnit report: " + e.getMessage(), e);
+        }
+    }
+
+    private static String nonNull(String s) {
+        return s == null ? "" : s;
+    }
+}
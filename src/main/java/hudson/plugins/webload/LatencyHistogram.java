@@ -0,0 +1,184 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Response time histogram with a fixed, log-linear bucket layout, so histograms
+ * recorded on different agents or in different builds can be added bucket by bucket
+ * without losing precision.
+ * <p>
+ * Values are recorded in microseconds. Values below 256 get a bucket each; above that
+ * every power of two is split into 128 buckets, which keeps the relative error of a
+ * percentile under 1%.
+ */
+public class LatencyHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = SUB_BUCKETS << 1;
+
+    private long[] counts = new long[LINEAR_LIMIT];
+    private long totalCount;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) Math.max(value, 0);
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long lowestValue(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index - shift * SUB_BUCKETS;
+        return sub << shift;
+    }
+
+    static long highestValue(int index) {
+        return lowestValue(index + 1) - 1;
+    }
+
+    public void record(long micros) {
+        record(micros, 1);
+    }
+
+    public void record(long micros, long count) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int i = bucketIndex(micros);
+        ensureCapacity(i + 1);
+        counts[i] += count;
+        totalCount += count;
+        sum += micros * count;
+        min = Math.min(min, micros);
+        max = Math.max(max, micros);
+    }
+
+    /**
+     * Adds all values of another histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        ensureCapacity(other.counts.length);
+        for (int i = 0; i < other.counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    private void ensureCapacity(int size) {
+        if (size > counts.length) {
+            long[] grown = new long[Math.max(size, counts.length + counts.length / 2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getMin() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return totalCount == 0 ? Double.NaN : (double) sum / totalCount;
+    }
+
+    /**
+     * The value below which the given percentage of the recorded values fall,
+     * reported as the upper bound of its bucket.
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (totalCount == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(Math.min(percentile, 100) / 100 * totalCount);
+        target = Math.max(target, 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Number of buckets in use; buckets at or above this index are empty.
+     */
+    int getBucketCount() {
+        int n = counts.length;
+        while (n > 0 && counts[n - 1] == 0) {
+            n--;
+        }
+        return n;
+    }
+
+    long getCountAt(int index) {
+        return index < counts.length ? counts[index] : 0;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        int used = getBucketCount();
+        int nonEmpty = 0;
+        for (int i = 0; i < used; i++) {
+            if (counts[i] != 0) {
+                nonEmpty++;
+            }
+        }
+        out.writeLong(totalCount);
+        out.writeLong(sum);
+        out.writeLong(getMin());
+        out.writeLong(max);
+        out.writeInt(nonEmpty);
+        for (int i = 0; i < used; i++) {
+            if (counts[i] != 0) {
+                out.writeInt(i);
+                out.writeLong(counts[i]);
+            }
+        }
+    }
+
+    static LatencyHistogram read(DataInputStream in) throws IOException {
+        LatencyHistogram h = new LatencyHistogram();
+        h.totalCount = in.readLong();
+        h.sum = in.readLong();
+        h.min = in.readLong();
+        h.max = in.readLong();
+        int nonEmpty = in.readInt();
+        for (int n = 0; n < nonEmpty; n++) {
+            int i = in.readInt();
+            h.ensureCapacity(i + 1);
+            h.counts[i] = in.readLong();
+        }
+        if (h.totalCount == 0) {
+            h.min = Long.MAX_VALUE;
+        }
+        return h;
+    }
+}
@@ -0,0 +1,132 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Action;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Latest values of the session statistics, updated while the session runs
+ * and shown on the build page.
+ */
+public class LiveStatisticsAction implements Action {
+
+    static final String[] THROUGHPUT = { "throughput" };
+    static final String[] HITS_PER_SECOND = { "hits per second", "hits/sec", "hits" };
+    static final String[] RESPONSE_TIME = { "response time" };
+    static final String[] ERRORS = { "error" };
+
+    private String[] names = new String[0];
+    private double[] values = new double[0];
+    private int samples;
+    private String abortedBy;
+    private long updated;
+    private transient volatile boolean running;
+
+    public String getIconFileName() {
+        return null;
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Statistics";
+    }
+
+    public String getUrlName() {
+        return null;
+    }
+
+    synchronized void update(String[] names, double[] values, int rows) {
+        this.names = names;
+        this.values = values;
+        this.samples += rows;
+        this.updated = System.currentTimeMillis();
+    }
+
+    void setRunning(boolean running) {
+        this.running = running;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    synchronized double[] getValues() {
+        return values;
+    }
+
+    void setAbortedBy(String rule) {
+        this.abortedBy = rule;
+    }
+
+    /**
+     * @return the abort rule that stopped the session, or null
+     */
+    public String getAbortedBy() {
+        return abortedBy;
+    }
+
+    public synchronized int getSamples() {
+        return samples;
+    }
+
+    public synchronized long getUpdated() {
+        return updated;
+    }
+
+    public Double getThroughput() {
+        return value(THROUGHPUT);
+    }
+
+    public Double getHitsPerSecond() {
+        return value(HITS_PER_SECOND);
+    }
+
+    public Double getResponseTime() {
+        return value(RESPONSE_TIME);
+    }
+
+    public Double getErrors() {
+        return value(ERRORS);
+    }
+
+    /**
+     * Latest value of the column matching one of the aliases.
+     *
+     * @return null if there is no such column or it has no numeric value yet
+     */
+    synchronized Double value(String... aliases) {
+        int i = Columns.indexOf(names, aliases);
+        if (i < 0 || i >= values.length || Double.isNaN(values[i])) {
+            return null;
+        }
+        return values[i];
+    }
+
+    /**
+     * One line summary for the build log.
+     */
+    String describe() {
+        List<String> parts = new ArrayList<String>();
+        describe(parts, "throughput", getThroughput());
+        describe(parts, "hits/sec", getHitsPerSecond());
+        describe(parts, "response time", getResponseTime());
+        describe(parts, "errors", getErrors());
+        StringBuilder sb = new StringBuilder();
+        for (String p : parts) {
+            if (sb.length() > 0) {
+                sb.append(", ");
+            }
+            sb.append(p);
+        }
+        return sb.toString();
+    }
+
+    private static void describe(List<String> parts, String name, Double value) {
+        if (value != null) {
+            parts.add(name + " " + String.format("%.2f", value));
+        }
+    }
+}
@@ -0,0 +1,65 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import hudson.util.FormValidation;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Number of virtual clients a node can run at once, shared by the WebLOAD sessions
+ * scheduled on it, see {@link LoadGeneratorSlots}.
+ */
+public class LoadGeneratorProperty extends NodeProperty<Node> {
+
+    private final long vcCapacity;
+
+    @DataBoundConstructor
+    public LoadGeneratorProperty(long vcCapacity) {
+        this.vcCapacity = vcCapacity;
+    }
+
+    /**
+     * Virtual clients the node runs at once, 0 for no limit.
+     */
+    public long getVcCapacity() {
+        return vcCapacity;
+    }
+
+    /**
+     * Capacity of a node, 0 when it has no property or no limit.
+     */
+    static long capacityOf(Node node) {
+        if (node == null) {
+            return 0;
+        }
+        LoadGeneratorProperty p = node.getNodeProperties().get(LoadGeneratorProperty.class);
+        return p == null ? 0 : Math.max(0, p.vcCapacity);
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends NodePropertyDescriptor {
+
+        @Override
+        public String getDisplayName() {
+            return "WebLOAD load generator";
+        }
+
+        public FormValidation doCheckVcCapacity(@QueryParameter String value) {
+            try {
+                if (Long.parseLong(value.trim()) < 0) {
+                    return FormValidation.error("Please enter a positive number, or 0 for no limit");
+                }
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Please enter a number");
+            }
+            return FormValidation.ok();
+        }
+    }
+}
@@ -0,0 +1,173 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Admits WebLOAD sessions on a node against its virtual client capacity.
+ * <p>
+ * Each node with a {@link LoadGeneratorProperty} has a counting semaphore on the
+ * controller, weighted by the clients of each session: a 2000 client node runs
+ * three 500 client sessions at once and makes a fourth wait. Waiting sessions are
+ * admitted in arrival order so that large ones are not starved by small ones.
+ * A session larger than the node, or whose size is left to the template, runs
+ * alone on it.
+ */
+final class LoadGeneratorSlots {
+
+    private static final Map<String, LoadGeneratorSlots> NODES = new HashMap<String, LoadGeneratorSlots>();
+
+    private final String nodeName;
+    private long used;
+    private final LinkedList<Slot> waiting = new LinkedList<Slot>();
+
+    private LoadGeneratorSlots(String nodeName) {
+        this.nodeName = nodeName;
+    }
+
+    private static synchronized LoadGeneratorSlots of(String nodeName) {
+        LoadGeneratorSlots s = NODES.get(nodeName);
+        if (s == null) {
+            s = new LoadGeneratorSlots(nodeName);
+            NODES.put(nodeName, s);
+        }
+        return s;
+    }
+
+    /**
+     * Clients a session is admitted for. A session whose virtual clients are left
+     * to the template is of unknown size, whatever its probing clients, and runs alone.
+     */
+    static long clients(long virtualClients, long probingClients) {
+        return virtualClients <= 0 ? 0 : virtualClients + Math.max(probingClients, 0);
+    }
+
+    /**
+     * Waits until the node can run a session of {@code clients} virtual clients.
+     *
+     * @param clients virtual and probing clients of the session, 0 if the template decides
+     * @return the slot to release when the session has ended
+     */
+    static Slot acquire(Node node, long clients, TaskListener listener) throws InterruptedException {
+        long capacity = LoadGeneratorProperty.capacityOf(node);
+        if (capacity == 0) {
+            return Slot.NONE;
+        }
+        String name = node.getNodeName();
+        long weight = clients <= 0 || clients > capacity ? capacity : clients;
+        if (clients > capacity) {
+            listener.getLogger().println("WARN : " + clients + " virtual clients are more than the capacity of "
+                    + displayName(name) + " (" + capacity + "), the session will run alone on it");
+        }
+        return of(name).acquire(weight, capacity, listener);
+    }
+
+    /**
+     * Acquires slots on several nodes, always in the same node order so that two
+     * distributed sessions never wait for each other.
+     *
+     * @return the slots, in the order of {@code nodes}
+     */
+    static List<Slot> acquireAll(List<Node> nodes, long[] clients, TaskListener listener) throws InterruptedException {
+        List<Integer> order = new ArrayList<Integer>();
+        for (int i = 0; i < nodes.size(); i++) {
+            order.add(i);
+        }
+        final List<Node> n = nodes;
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return n.get(a).getNodeName().compareTo(n.get(b).getNodeName());
+            }
+        });
+        Slot[] slots = new Slot[nodes.size()];
+        boolean acquired = false;
+        try {
+            for (int i : order) {
+                slots[i] = acquire(nodes.get(i), clients[i], listener);
+            }
+            acquired = true;
+        } finally {
+            if (!acquired) {
+                for (Slot s : slots) {
+                    if (s != null) {
+                        s.release();
+                    }
+                }
+            }
+        }
+        List<Slot> result = new ArrayList<Slot>();
+        Collections.addAll(result, slots);
+        return result;
+    }
+
+    private synchronized Slot acquire(long weight, long capacity, TaskListener listener) throws InterruptedException {
+        Slot slot = new Slot(this, weight);
+        waiting.add(slot);
+        boolean logged = false;
+        try {
+            while (waiting.getFirst() != slot || used + weight > capacity) {
+                if (!logged) {
+                    listener.getLogger().println("Waiting for " + weight + " of the " + capacity + " virtual clients of "
+                            + displayName(nodeName) + ", " + used + " in use");
+                    logged = true;
+                }
+                wait();
+            }
+            used += weight;
+        } finally {
+            waiting.remove(slot);
+            notifyAll();
+        }
+        if (logged) {
+            listener.getLogger().println("Admitted on " + displayName(nodeName));
+        }
+        return slot;
+    }
+
+    private synchronized void release(long weight) {
+        used -= weight;
+        notifyAll();
+    }
+
+    synchronized long getUsed() {
+        return used;
+    }
+
+    private static String displayName(String nodeName) {
+        return nodeName.length() == 0 ? "master" : nodeName;
+    }
+
+    /**
+     * Clients held by a session on a node until it is released.
+     */
+    static final class Slot {
+        static final Slot NONE = new Slot(null, 0);
+
+        private final LoadGeneratorSlots slots;
+        private final long weight;
+        private boolean released;
+
+        Slot(LoadGeneratorSlots slots, long weight) {
+            this.slots = slots;
+            this.weight = weight;
+        }
+
+        synchronized void release() {
+            if (slots != null && !released) {
+                released = true;
+                slots.release(weight);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.console.LineTransformationOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Filters the console output of a session line by line before it is sent to the build log.
+ * <p>
+ * Every line is copied to the raw log as is. Lines below the verbosity or matching a
+ * suppression pattern are dropped, and a line repeated several times in a row is
+ * written once followed by the number of repeats.
+ */
+final class LogFilter extends LineTransformationOutputStream {
+
+    /**
+     * Which console lines reach the build log.
+     */
+    public enum Verbosity {
+        ALL, WARNINGS, ERRORS, NONE;
+
+        /**
+         * Whether a line is shown at this verbosity.
+         */
+        boolean shows(String line) {
+            switch (this) {
+            case ALL:
+                return true;
+            case NONE:
+                return false;
+            default:
+                String l = line.toLowerCase(Locale.ENGLISH);
+                if (l.contains("error") || l.contains("fail") || l.contains("exception")) {
+                    return true;
+                }
+                return this == WARNINGS && l.contains("warn");
+            }
+        }
+    }
+
+    /**
+     * Filtering settings, sent to the agent running the session.
+     */
+    static final class Settings implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final Verbosity verbosity;
+        final List<Pattern> suppress;
+        /**
+         * Name of the charset of the console output.
+         */
+        final String charset;
+
+        Settings(Verbosity verbosity, List<Pattern> suppress, String charset) {
+            this.verbosity = verbosity;
+            this.suppress = suppress;
+            this.charset = charset;
+        }
+    }
+
+    private final Settings settings;
+    private final Charset charset;
+    private final OutputStream raw;
+    private final OutputStream out;
+
+    private byte[] previous;
+    private long repeats;
+    private long suppressed;
+
+    /**
+     * @param raw receives every line, may be null
+     * @param out receives the filtered lines
+     */
+    LogFilter(Settings settings, OutputStream raw, OutputStream out) {
+        this.settings = settings;
+        this.charset = Charset.forName(settings.charset);
+        this.raw = raw;
+        this.out = out;
+    }
+
+    /**
+     * Parses suppression patterns, one regular expression per line, lines starting with # ignored.
+     */
+    static List<Pattern> parsePatterns(String value) {
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        if (value == null) {
+            return patterns;
+        }
+        for (String line : value.split("\\r?\\n")) {
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                patterns.add(Pattern.compile(line));
+            } catch (PatternSyntaxException e) {
+                throw new IllegalArgumentException("Invalid pattern " + line + ": " + e.getDescription());
+            }
+        }
+        return patterns;
+    }
+
+    /**
+     * Number of lines dropped by the verbosity or a suppression pattern.
+     */
+    long getSuppressed() {
+        return suppressed;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+        if (raw != null) {
+            raw.write(b, 0, len);
+        }
+        String line = trimEol(new String(b, 0, len, charset));
+        if (!settings.verbosity.shows(line) || isSuppressed(line)) {
+            suppressed++;
+            return;
+        }
+        if (previous != null && previous.length == len && Arrays.equals(previous, Arrays.copyOf(b, len))) {
+            repeats++;
+            return;
+        }
+        flushRepeats();
+        out.write(b, 0, len);
+        previous = Arrays.copyOf(b, len);
+    }
+
+    private boolean isSuppressed(String line) {
+        for (Pattern p : settings.suppress) {
+            if (p.matcher(line).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void flushRepeats() throws IOException {
+        if (repeats > 0) {
+            out.write(("    (repeated " + repeats + " more times)\n").getBytes(charset));
+            repeats = 0;
+        }
+    }
+
+    private static String trimEol(String line) {
+        int end = line.length();
+        while (end > 0 && (line.charAt(end - 1) == '\n' || line.charAt(end - 1) == '\r')) {
+            end--;
+        }
+        return line.substring(0, end);
+    }
+
+    @Override
+    public void close() throws IOException {
+        forceEol();
+        flushRepeats();
+        if (raw != null) {
+            raw.close();
+        }
+        out.close();
+    }
+}
@@ -0,0 +1,251 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+
+/**
+ * Per-transaction figures of one load session, stored column by column.
+ * Percentiles that the session did not report are {@code NaN}.
+ */
+public class PerformanceSummary implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x574c5331; // "WLS1"
+
+    final String[] transactions;
+    final long[] count;
+    final double[] mean;
+    final double[] p50;
+    final double[] p90;
+    final double[] p95;
+    final double[] p99;
+    final long[] errors;
+    long durationMillis;
+
+    PerformanceSummary(int size) {
+        transactions = new String[size];
+        count = new long[size];
+        mean = new double[size];
+        p50 = new double[size];
+        p90 = new double[size];
+        p95 = new double[size];
+        p99 = new double[size];
+        errors = new long[size];
+    }
+
+    public int size() {
+        return transactions.length;
+    }
+
+    public String[] getTransactions() {
+        return transactions.clone();
+    }
+
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return the row of the given transaction, or -1
+     */
+    public int indexOf(String transaction) {
+        for (int i = 0; i < transactions.length; i++) {
+            if (transactions[i].equals(transaction)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public long getCount(int i) {
+        return count[i];
+    }
+
+    public double getMean(int i) {
+        return mean[i];
+    }
+
+    public double getP50(int i) {
+        return p50[i];
+    }
+
+    public double getP90(int i) {
+        return p90[i];
+    }
+
+    public double getP95(int i) {
+        return p95[i];
+    }
+
+    public double getP99(int i) {
+        return p99[i];
+    }
+
+    public long getErrors(int i) {
+        return errors[i];
+    }
+
+    /**
+     * Transactions per second over the session, or {@code NaN} if the duration is unknown.
+     */
+    public double getThroughput(int i) {
+        return durationMillis > 0 ? count[i] * 1000.0 / durationMillis : Double.NaN;
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (long c : count) {
+            total += c;
+        }
+        return total;
+    }
+
+    public long getTotalErrors() {
+        long total = 0;
+        for (long e : errors) {
+            total += e;
+        }
+        return total;
+    }
+
+    /**
+     * Mean response time over all transactions, weighted by count.
+     */
+    public double getOverallMean() {
+        double sum = 0;
+        long n = 0;
+        for (int i = 0; i < transactions.length; i++) {
+            if (!Double.isNaN(mean[i])) {
+                sum += mean[i] * count[i];
+                n += count[i];
+            }
+        }
+        return n > 0 ? sum / n : Double.NaN;
+    }
+
+    public double getWorstP95() {
+        double worst = Double.NaN;
+        for (double v : p95) {
+            if (!Double.isNaN(v) && (Double.isNaN(worst) || v > worst)) {
+                worst = v;
+            }
+        }
+        return worst;
+    }
+
+    void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            write(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    static PerformanceSummary read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(transactions.length);
+        out.writeLong(durationMillis);
+        for (String t : transactions) {
+            out.writeUTF(t);
+        }
+        write(out, count);
+        write(out, mean);
+        write(out, p50);
+        write(out, p90);
+        write(out, p95);
+        write(out, p99);
+        write(out, errors);
+    }
+
+    static PerformanceSummary read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a WebLOAD performance summary");
+        }
+        PerformanceSummary s = new PerformanceSummary(in.readInt());
+        s.durationMillis = in.readLong();
+        for (int i = 0; i < s.transactions.length; i++) {
+            s.transactions[i] = in.readUTF();
+        }
+        read(in, s.count);
+        read(in, s.mean);
+        read(in, s.p50);
+        read(in, s.p90);
+        read(in, s.p95);
+        read(in, s.p99);
+        read(in, s.errors);
+        return s;
+    }
+
+    /**
+     * Skips over a summary written by {@link #write(DataOutputStream)} without reading it.
+     */
+    static void skip(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a WebLOAD performance summary");
+        }
+        int n = in.readInt();
+        in.readLong();
+        for (int i = 0; i < n; i++) {
+            skipFully(in, in.readUnsignedShort());
+        }
+        // count, mean, p50, p90, p95, p99 and errors are 8 bytes per transaction
+        skipFully(in, 7L * 8 * n);
+    }
+
+    private static void skipFully(DataInputStream in, long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                in.readByte();
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private static void write(DataOutputStream out, long[] column) throws IOException {
+        for (long v : column) {
+            out.writeLong(v);
+        }
+    }
+
+    private static void write(DataOutputStream out, double[] column) throws IOException {
+        for (double v : column) {
+            out.writeDouble(v);
+        }
+    }
+
+    private static void read(DataInputStream in, long[] column) throws IOException {
+        for (int i = 0; i < column.length; i++) {
+            column[i] = in.readLong();
+        }
+    }
+
+    private static void read(DataInputStream in, double[] column) throws IOException {
+        for (int i = 0; i < column.length; i++) {
+            column[i] = in.readDouble();
+        }
+    }
+}
@@ -0,0 +1,148 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Run;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+
+/**
+ * Per-transaction summary of the load session run by a build.
+ * <p>
+ * The summary is kept in its own binary file next to {@code build.xml} and
+ * only loaded when somebody looks at it.
+ */
+public class PerformanceSummaryAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(PerformanceSummaryAction.class.getName());
+
+    static final String FILE_NAME = "webload-summary.bin";
+    static final String HISTOGRAMS_FILE_NAME = "webload-histograms.bin";
+
+    private final int transactionCount;
+    private final long totalCount;
+    private final long totalErrors;
+    private final boolean histograms;
+
+    private transient Run<?, ?> run;
+    private transient SoftReference<PerformanceSummary> summary;
+    private transient SoftReference<TransactionHistograms> histogramsRef;
+
+    /**
+     * @param histograms response time histograms of the session, may be null
+     */
+    PerformanceSummaryAction(Run<?, ?> run, PerformanceSummary summary, TransactionHistograms histograms) throws IOException {
+        this.run = run;
+        this.transactionCount = summary.size();
+        this.totalCount = summary.getTotalCount();
+        this.totalErrors = summary.getTotalErrors();
+        this.histograms = histograms != null;
+        summary.write(getFile());
+        this.summary = new SoftReference<PerformanceSummary>(summary);
+        if (histograms != null) {
+            histograms.write(new File(run.getRootDir(), HISTOGRAMS_FILE_NAME));
+            this.histogramsRef = new SoftReference<TransactionHistograms>(histograms);
+        }
+    }
+
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Performance Summary";
+    }
+
+    public String getUrlName() {
+        return "webload-summary";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalErrors() {
+        return totalErrors;
+    }
+
+    File getFile() {
+        return new File(run.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the summary, or null if its file can't be read
+     */
+    public synchronized PerformanceSummary getSummary() {
+        PerformanceSummary s = summary == null ? null : summary.get();
+        if (s == null) {
+            try {
+                s = PerformanceSummary.read(getFile());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + getFile(), e);
+                return null;
+            }
+            summary = new SoftReference<PerformanceSummary>(s);
+        }
+        return s;
+    }
+
+    public boolean isHistograms() {
+        return histograms;
+    }
+
+    /**
+     * @return the response time histograms, or null if the build has none or they can't be read
+     */
+    public synchronized TransactionHistograms getHistograms() {
+        if (!histograms) {
+            return null;
+        }
+        TransactionHistograms h = histogramsRef == null ? null : histogramsRef.get();
+        if (h == null) {
+            File f = new File(run.getRootDir(), HISTOGRAMS_FILE_NAME);
+            try {
+                h = TransactionHistograms.read(f);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + f, e);
+                return null;
+            }
+            histogramsRef = new SoftReference<TransactionHistograms>(h);
+        }
+        return h;
+    }
+
+    /**
+     * 99.9th percentile of a transaction in seconds, from the histograms.
+     */
+    public double getP999(String transaction) {
+        TransactionHistograms h = getHistograms();
+        LatencyHistogram t = h == null ? null : h.get(transaction);
+        return t == null || t.getTotalCount() == 0 ? Double.NaN : t.getValueAtPercentile(99.9) / 1e6;
+    }
+
+    public static String format(double value) {
+        return Double.isNaN(value) ? "" : String.format("%.3f", value);
+    }
+}
@@ -0,0 +1,101 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Extension;
+import hudson.model.Action;
+import hudson.model.Job;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+import jenkins.model.TransientActionFactory;
+
+/**
+ * Performance trend of a job, read from the {@link PerformanceTrendIndex}.
+ * <p>
+ * Shown on every job that has an index, whichever WebLOAD step recorded it.
+ */
+public class PerformanceTrendAction implements Action {
+
+    static final int DEFAULT_BUILDS = 50;
+
+    private final Job<?, ?> job;
+
+    PerformanceTrendAction(Job<?, ?> job) {
+        this.job = job;
+    }
+
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Performance Trend";
+    }
+
+    public String getUrlName() {
+        return "webload-trend";
+    }
+
+    public Job<?, ?> getJob() {
+        return job;
+    }
+
+    /**
+     * @return up to {@code max} indexed builds, newest first
+     */
+    public List<PerformanceTrendIndex.Entry> getEntries(int max) throws IOException {
+        return PerformanceTrendIndex.read(job, max);
+    }
+
+    public List<PerformanceTrendIndex.Entry> getEntries() throws IOException {
+        return getEntries(DEFAULT_BUILDS);
+    }
+
+    /**
+     * Names of all transactions seen in the given builds.
+     */
+    public TreeSet<String> getTransactions(List<PerformanceTrendIndex.Entry> entries) {
+        TreeSet<String> names = new TreeSet<String>();
+        for (PerformanceTrendIndex.Entry e : entries) {
+            for (String t : e.getSummary().transactions) {
+                names.add(t);
+            }
+        }
+        return names;
+    }
+
+    public String format(double value) {
+        return PerformanceSummaryAction.format(value);
+    }
+
+    /**
+     * @return the transaction name encoded for use as a query parameter
+     */
+    public String encode(String transaction) throws UnsupportedEncodingException {
+        return URLEncoder.encode(transaction, "UTF-8");
+    }
+
+    @Extension
+    public static final class Factory extends TransientActionFactory<Job> {
+
+        @Override
+        public Class<Job> type() {
+            return Job.class;
+        }
+
+        @Override
+        public Collection<? extends Action> createFor(Job target) {
+            if (!PerformanceTrendIndex.getFile(target).isFile()) {
+                return Collections.emptyList();
+            }
+            return Collections.singletonList(new PerformanceTrendAction(target));
+        }
+    }
+}
@@ -0,0 +1,489 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.Job;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.ItemListener;
+import hudson.model.listeners.RunListener;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.commons.io.input.CountingInputStream;
+
+/**
+ * Job level index of the performance summaries of all builds, so trends can be
+ * shown without loading the builds or their session files.
+ * <p>
+ * The index is an append-only file of (build number, timestamp, result, summary)
+ * records. A later record for the same build replaces an earlier one. The result
+ * is written in place once the build completes. The file is compacted
+ * once most of its records are stale, and when builds are deleted. A record cut
+ * short by a crash is dropped before the next one is appended.
+ */
+public final class PerformanceTrendIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(PerformanceTrendIndex.class.getName());
+
+    static final String FILE_NAME = "webload-trend.bin";
+
+    /**
+     * Minimum number of records before stale ones are compacted away.
+     */
+    static final int COMPACT_THRESHOLD = 64;
+
+    /**
+     * Bytes of the build number, timestamp and result in front of each summary.
+     */
+    private static final int HEADER_SIZE = 4 + 8 + 1;
+
+    /**
+     * Position of the result in a record.
+     */
+    private static final int RESULT_OFFSET = 4 + 8;
+
+    /**
+     * Result of a build still running.
+     */
+    private static final byte NO_RESULT = -1;
+
+    private static final Map<File, Index> INDEXES = new HashMap<File, Index>();
+
+    private PerformanceTrendIndex() {
+    }
+
+    static File getFile(Job<?, ?> job) {
+        return new File(job.getRootDir(), FILE_NAME);
+    }
+
+    static void append(Run<?, ?> run, PerformanceSummary summary) throws IOException {
+        index(run.getParent()).append(run.getNumber(), run.getTimeInMillis(), summary);
+    }
+
+    /**
+     * @return all indexed builds, newest first
+     */
+    static List<Entry> read(Job<?, ?> job) throws IOException {
+        return read(job, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Reads only the summaries of the newest {@code max} builds; the others are
+     * skipped over.
+     *
+     * @return up to {@code max} indexed builds, newest first
+     */
+    static List<Entry> read(Job<?, ?> job, int max) throws IOException {
+        return index(job).read(max);
+    }
+
+    /**
+     * Reads the summaries of the newest builds that completed with a given result,
+     * without loading the builds.
+     *
+     * @param before only builds with a lower number
+     * @return up to {@code max} indexed builds, newest first
+     */
+    static List<Entry> read(Job<?, ?> job, int before, Result result, int max) throws IOException {
+        return index(job).read(max, before, result);
+    }
+
+    /**
+     * Records the result of a completed build in the index of its job, if the build is indexed.
+     */
+    static void setResult(Run<?, ?> run) throws IOException {
+        File file = getFile(run.getParent());
+        if (file.exists() && run.getResult() != null) {
+            index(file).setResult(run.getNumber(), run.getResult());
+        }
+    }
+
+    /**
+     * Drops the records of a build from the index of its job.
+     */
+    static void remove(Job<?, ?> job, int build) throws IOException {
+        index(job).remove(build);
+    }
+
+    private static Index index(Job<?, ?> job) {
+        return index(getFile(job));
+    }
+
+    static Index index(File file) {
+        synchronized (INDEXES) {
+            Index index = INDEXES.get(file);
+            if (index == null) {
+                index = new Index(file);
+                INDEXES.put(file, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Record positions of one index file, kept so each read only scans what was
+     * appended since the last one. Reads and writes of a file are serialized on
+     * its instance, other jobs are not blocked.
+     */
+    static final class Index {
+        private final File file;
+        private final List<Record> records = new ArrayList<Record>();
+        /**
+         * End of the last complete record; anything after it is a record cut short by a crash.
+         */
+        private long end;
+
+        Index(File file) {
+            this.file = file;
+        }
+
+        /**
+         * Catches up with the file, starting over if it was replaced by a shorter one.
+         */
+        private void sync() throws IOException {
+            long length = file.length();
+            if (length < end) {
+                records.clear();
+                end = 0;
+            }
+            if (length > end) {
+                end = scan(file, end, records);
+            }
+        }
+
+        synchronized void append(int build, long timestamp, PerformanceSummary summary) throws IOException {
+            sync();
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(build);
+            out.writeLong(timestamp);
+            out.writeByte(NO_RESULT);
+            summary.write(out);
+            out.close();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                if (raf.length() > end) {
+                    LOGGER.log(Level.WARNING, "Dropping an incomplete record of {0} bytes at the end of {1}",
+                            new Object[] { raf.length() - end, file });
+                    raf.setLength(end);
+                }
+                raf.seek(end);
+                raf.write(bytes.toByteArray());
+            } finally {
+                raf.close();
+            }
+            records.add(new Record(build, timestamp, NO_RESULT, end, end + HEADER_SIZE, end + bytes.size()));
+            end += bytes.size();
+        }
+
+        /**
+         * Writes the result of a build into its latest record, if it has one.
+         */
+        synchronized void setResult(int build, Result result) throws IOException {
+            sync();
+            Record record = null;
+            for (Record r : records) {
+                if (r.build == build) {
+                    record = r;
+                }
+            }
+            if (record == null) {
+                return;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.seek(record.start + RESULT_OFFSET);
+                raf.writeByte(result.ordinal);
+            } finally {
+                raf.close();
+            }
+            record.result = (byte) result.ordinal;
+        }
+
+        synchronized List<Entry> read(int max) throws IOException {
+            return read(max, Integer.MAX_VALUE, null);
+        }
+
+        /**
+         * @param result only builds that completed with this result, null for all builds
+         */
+        synchronized List<Entry> read(int max, int before, Result result) throws IOException {
+            sync();
+            List<Record> latest = latest(records);
+            if (records.size() >= COMPACT_THRESHOLD && records.size() > 2 * latest.size()) {
+                rewrite(latest);
+                latest = latest(records);
+            }
+            for (Iterator<Record> i = latest.iterator(); i.hasNext();) {
+                Record r = i.next();
+                if (r.build >= before || (result != null && r.result != result.ordinal)) {
+                    i.remove();
+                }
+            }
+
+            Collections.sort(latest, new Comparator<Record>() {
+                public int compare(Record a, Record b) {
+                    return b.build < a.build ? -1 : (b.build == a.build ? 0 : 1);
+                }
+            });
+            if (latest.size() > max) {
+                latest = latest.subList(0, max);
+            }
+
+            List<Entry> entries = new ArrayList<Entry>(latest.size());
+            if (latest.isEmpty()) {
+                return entries;
+            }
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                for (Record r : latest) {
+                    byte[] buf = new byte[(int) (r.end - r.summary)];
+                    raf.seek(r.summary);
+                    raf.readFully(buf);
+                    DataInputStream in = new DataInputStream(new ByteArrayInputStream(buf));
+                    entries.add(new Entry(r.build, r.timestamp, result(r.result), PerformanceSummary.read(in)));
+                }
+            } finally {
+                raf.close();
+            }
+            return entries;
+        }
+
+        synchronized void remove(int build) throws IOException {
+            sync();
+            List<Record> kept = new ArrayList<Record>();
+            boolean found = false;
+            for (Record r : latest(records)) {
+                if (r.build == build) {
+                    found = true;
+                } else {
+                    kept.add(r);
+                }
+            }
+            if (found) {
+                rewrite(kept);
+            }
+        }
+
+        /**
+         * Replaces the index with just the given records, copied as they are,
+         * and rescans it.
+         */
+        private void rewrite(List<Record> kept) throws IOException {
+            File tmp = new File(file.getPath() + ".tmp");
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+                try {
+                    byte[] buf = new byte[8192];
+                    for (Record r : kept) {
+                        raf.seek(r.start);
+                        long left = r.end - r.start;
+                        while (left > 0) {
+                            int n = (int) Math.min(buf.length, left);
+                            raf.readFully(buf, 0, n);
+                            out.write(buf, 0, n);
+                            left -= n;
+                        }
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                raf.close();
+            }
+            records.clear();
+            end = 0;
+            if (!file.delete() || !tmp.renameTo(file)) {
+                throw new IOException("Failed to replace " + file);
+            }
+            sync();
+        }
+    }
+
+    /**
+     * Adds the complete records found from {@code from} on to {@code records}.
+     *
+     * @return the end of the last complete record
+     */
+    private static long scan(File file, long from, List<Record> records) throws IOException {
+        FileInputStream fin;
+        try {
+            fin = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            return from;
+        }
+        long length = fin.getChannel().size();
+        fin.getChannel().position(from);
+        CountingInputStream counter = new CountingInputStream(new BufferedInputStream(fin));
+        DataInputStream in = new DataInputStream(counter);
+        long end = from;
+        try {
+            while (true) {
+                long start = from + counter.getByteCount();
+                int build;
+                try {
+                    build = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                long timestamp = in.readLong();
+                byte result = in.readByte();
+                PerformanceSummary.skip(in);
+                if (from + counter.getByteCount() > length) {
+                    // skipping may run past the end of the file without noticing
+                    break;
+                }
+                end = from + counter.getByteCount();
+                records.add(new Record(build, timestamp, result, start, start + HEADER_SIZE, end));
+            }
+        } catch (EOFException e) {
+            // last record was cut short, keep what was complete
+        } finally {
+            in.close();
+        }
+        return end;
+    }
+
+    /**
+     * The last record of each build, in file order.
+     */
+    private static List<Record> latest(List<Record> records) {
+        Map<Integer, Record> latest = new LinkedHashMap<Integer, Record>();
+        for (Record r : records) {
+            latest.remove(r.build);
+            latest.put(r.build, r);
+        }
+        return new ArrayList<Record>(latest.values());
+    }
+
+    private static Result result(byte ordinal) {
+        for (Result r : new Result[] { Result.SUCCESS, Result.UNSTABLE, Result.FAILURE, Result.NOT_BUILT, Result.ABORTED }) {
+            if (r.ordinal == ordinal) {
+                return r;
+            }
+        }
+        return null;
+    }
+
+    private static final class Record {
+        final int build;
+        final long timestamp;
+        byte result;
+        final long start;
+        final long summary;
+        final long end;
+
+        Record(int build, long timestamp, byte result, long start, long summary, long end) {
+            this.build = build;
+            this.timestamp = timestamp;
+            this.result = result;
+            this.start = start;
+            this.summary = summary;
+            this.end = end;
+        }
+    }
+
+    /**
+     * Forgets the record positions of a deleted job.
+     */
+    @Extension
+    public static final class JobPruner extends ItemListener {
+
+        @Override
+        public void onDeleted(Item item) {
+            if (item instanceof Job) {
+                synchronized (INDEXES) {
+                    INDEXES.remove(getFile((Job<?, ?>) item));
+                }
+            }
+        }
+    }
+
+    /**
+     * Keeps the index in step with the builds: records their result when they
+     * complete, drops them once deleted.
+     */
+    @Extension
+    public static final class BuildTracker extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onCompleted(Run<?, ?> run, TaskListener listener) {
+            try {
+                setResult(run);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to record the result of " + run + " in the WebLOAD trend index", e);
+            }
+        }
+
+        @Override
+        public void onDeleted(Run<?, ?> run) {
+            try {
+                remove(run.getParent(), run.getNumber());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove " + run + " from the WebLOAD trend index", e);
+            }
+        }
+    }
+
+    public static final class Entry {
+        private final int build;
+        private final long timestamp;
+        private final Result result;
+        private final PerformanceSummary summary;
+
+        Entry(int build, long timestamp, Result result, PerformanceSummary summary) {
+            this.build = build;
+            this.timestamp = timestamp;
+            this.result = result;
+            this.summary = summary;
+        }
+
+        public int getBuild() {
+            return build;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * @return the result of the build, null while it runs
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        public PerformanceSummary getSummary() {
+            return summary;
+        }
+    }
+}
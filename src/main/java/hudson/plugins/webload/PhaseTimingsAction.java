@@ -0,0 +1,196 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.Util;
+import hudson.model.Run;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.RunAction2;
+
+/**
+ * Time the WebLOAD steps of a build spent in each of their phases, telling the
+ * plugin's own overhead apart from the time WebLOAD itself ran and from the
+ * time spent waiting for a load generator.
+ * <p>
+ * Every phase recorded is also reported to the Metrics plugin when it is installed,
+ * see {@link WebLoadMetrics}.
+ */
+public class PhaseTimingsAction implements RunAction2 {
+
+    public enum Phase {
+        INSTALLATION("Installation resolution", true),
+        COMPARE("Compare session discovery", true),
+        ADMISSION("Load generator admission", false),
+        LAUNCH("Process launch", true),
+        SESSION("Session runtime", false),
+        RESULTS("Results parsing", true),
+        ARCHIVE("Session archiving", true),
+        REPORTS("Report generation", false);
+
+        private final String displayName;
+        private final boolean overhead;
+
+        Phase(String displayName, boolean overhead) {
+            this.displayName = displayName;
+            this.overhead = overhead;
+        }
+
+        public String getDisplayName() {
+            return displayName;
+        }
+
+        /**
+         * Whether the plugin spends the time itself, rather than WebLOAD running or the build queueing.
+         */
+        public boolean isOverhead() {
+            return overhead;
+        }
+    }
+
+    private final List<Timing> timings = new ArrayList<Timing>();
+
+    private transient Run<?, ?> run;
+
+    /**
+     * The timings of a build, added to it if it has none yet.
+     */
+    static synchronized PhaseTimingsAction of(Run<?, ?> build) {
+        PhaseTimingsAction a = build.getAction(PhaseTimingsAction.class);
+        if (a == null) {
+            a = new PhaseTimingsAction();
+            build.addAction(a);
+        }
+        return a;
+    }
+
+    public String getIconFileName() {
+        return "clock.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Phase Timings";
+    }
+
+    public String getUrlName() {
+        return "webload-timings";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    /**
+     * Adds the time elapsed since {@code startMillis} to a phase.
+     *
+     * @return the current time, the start of the next phase
+     */
+    long record(Phase phase, long startMillis) {
+        long now = System.currentTimeMillis();
+        long millis = now - startMillis;
+        synchronized (this) {
+            Timing t = null;
+            for (Timing each : timings) {
+                if (each.phase == phase) {
+                    t = each;
+                    break;
+                }
+            }
+            if (t == null) {
+                t = new Timing(phase);
+                timings.add(t);
+            }
+            t.millis += millis;
+            t.count++;
+        }
+        WebLoadMetrics.time(phase, millis);
+        return now;
+    }
+
+    /**
+     * The phases in the order they were first recorded.
+     */
+    public synchronized List<Timing> getTimings() {
+        return Collections.unmodifiableList(new ArrayList<Timing>(timings));
+    }
+
+    public synchronized long getTotalMillis() {
+        long total = 0;
+        for (Timing t : timings) {
+            total += t.millis;
+        }
+        return total;
+    }
+
+    /**
+     * Time the plugin spent itself, not counting the load sessions, the report
+     * generation and the wait for a load generator.
+     */
+    public synchronized long getOverheadMillis() {
+        long total = 0;
+        for (Timing t : timings) {
+            if (t.phase.isOverhead()) {
+                total += t.millis;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Time spent waiting for a load generator to admit the sessions.
+     */
+    public synchronized long getQueuedMillis() {
+        long total = 0;
+        for (Timing t : timings) {
+            if (t.phase == Phase.ADMISSION) {
+                total += t.millis;
+            }
+        }
+        return total;
+    }
+
+    public String format(long millis) {
+        return Util.getTimeSpanString(millis);
+    }
+
+    public String percent(long millis) {
+        long total = getTotalMillis();
+        return total == 0 ? "" : String.format("%.1f%%", millis * 100.0 / total);
+    }
+
+    public static final class Timing {
+        private final Phase phase;
+        private long millis;
+        private int count;
+
+        Timing(Phase phase) {
+            this.phase = phase;
+        }
+
+        public Phase getPhase() {
+            return phase;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        /**
+         * Number of times the phase ran, several for sweeps and distributed sessions.
+         */
+        public int getCount() {
+            return count;
+        }
+    }
+}
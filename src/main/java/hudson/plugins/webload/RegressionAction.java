@@ -0,0 +1,120 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Run;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.IOUtils;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Outcome of the {@link RegressionGate} for a build, with the comparison as JSON
+ * at {@code webload-regression/json}.
+ */
+public class RegressionAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(RegressionAction.class.getName());
+
+    private final String verdict;
+    private final int regressed;
+    private final String baseline;
+
+    private transient Run<?, ?> run;
+
+    RegressionAction(String verdict, int regressed, String baseline) {
+        this.verdict = verdict;
+        this.regressed = regressed;
+        this.baseline = baseline;
+    }
+
+    public String getIconFileName() {
+        return "graph.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Regression Check";
+    }
+
+    public String getUrlName() {
+        return "webload-regression";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public String getVerdict() {
+        return verdict;
+    }
+
+    public int getRegressed() {
+        return regressed;
+    }
+
+    /**
+     * Numbers of the baseline builds.
+     */
+    public String getBaseline() {
+        return baseline;
+    }
+
+    File getFile() {
+        return new File(run.getRootDir(), RegressionGate.FILE_NAME);
+    }
+
+    /**
+     * The transactions that regressed, as written in the comparison.
+     */
+    public List<JSONObject> getRegressions() {
+        List<JSONObject> regressions = new ArrayList<JSONObject>();
+        try {
+            InputStream in = new FileInputStream(getFile());
+            JSONObject report;
+            try {
+                report = JSONObject.fromObject(IOUtils.toString(in, "UTF-8"));
+            } finally {
+                in.close();
+            }
+            JSONArray transactions = report.getJSONArray("transactions");
+            for (int i = 0; i < transactions.size(); i++) {
+                JSONObject t = transactions.getJSONObject(i);
+                if (!"SUCCESS".equals(t.getString("verdict"))) {
+                    regressions.add(t);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + getFile(), e);
+        }
+        return regressions;
+    }
+
+    public void doJson(StaplerResponse rsp) throws IOException {
+        rsp.setContentType("application/json;charset=UTF-8");
+        InputStream in = new FileInputStream(getFile());
+        try {
+            IOUtils.copy(in, rsp.getOutputStream());
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,359 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Compares the performance summary of a build with a baseline made of the last
+ * passing builds, transaction by transaction. The baseline is read from the
+ * {@link PerformanceTrendIndex}, the builds themselves are not loaded.
+ * <p>
+ * A transaction's latency regressed when its 95th percentile grew past a
+ * threshold and the growth is not noise: when both sides have response time
+ * histograms a one-sided Mann-Whitney test must reject equal distributions,
+ * otherwise the percentile must be above the band of the baseline builds.
+ * Throughput regressed when it fell past the threshold and below every
+ * baseline build. The comparison is written to {@code webload-regression.json}.
+ */
+final class RegressionGate {
+
+    private static final Logger LOGGER = Logger.getLogger(RegressionGate.class.getName());
+
+    static final String FILE_NAME = "webload-regression.json";
+
+    /**
+     * Significance level of the Mann-Whitney test.
+     */
+    static final double ALPHA = 0.01;
+
+    private final int baselineBuilds;
+    private final double unstableThreshold;
+    private final double failureThreshold;
+
+    /**
+     * @param unstableThreshold percentage of degradation making the build unstable
+     * @param failureThreshold percentage of degradation failing the build, 0 never to fail it
+     */
+    RegressionGate(int baselineBuilds, double unstableThreshold, double failureThreshold) {
+        this.baselineBuilds = baselineBuilds;
+        this.unstableThreshold = unstableThreshold;
+        this.failureThreshold = failureThreshold;
+    }
+
+    /**
+     * Compares the build with its baseline and writes the comparison in the build directory.
+     *
+     * @return the result the build deserves, {@link Result#SUCCESS} if nothing regressed
+     *         or there is nothing to compare
+     */
+    Result check(Run<?, ?> build, TaskListener listener) throws IOException {
+        PerformanceSummaryAction current = build.getAction(PerformanceSummaryAction.class);
+        if (current == null || current.getSummary() == null) {
+            listener.getLogger().println("No performance summary in this build, skipping the regression check");
+            return Result.SUCCESS;
+        }
+        List<Baseline> baseline = new ArrayList<Baseline>();
+        JSONArray baselineNumbers = new JSONArray();
+        File buildDir = build.getParent().getBuildDir();
+        for (PerformanceTrendIndex.Entry e : PerformanceTrendIndex.read(build.getParent(), build.getNumber(),
+                Result.SUCCESS, baselineBuilds)) {
+            baseline.add(new Baseline(e.getSummary(), new File(new File(buildDir, String.valueOf(e.getBuild())),
+                    PerformanceSummaryAction.HISTOGRAMS_FILE_NAME)));
+            baselineNumbers.add(e.getBuild());
+        }
+        if (baseline.isEmpty()) {
+            listener.getLogger().println("No passing build with a performance summary to compare with");
+            return Result.SUCCESS;
+        }
+
+        PerformanceSummary summary = current.getSummary();
+        TransactionHistograms histograms = current.getHistograms();
+        Result verdict = Result.SUCCESS;
+        JSONArray transactions = new JSONArray();
+        int regressed = 0;
+        for (int i = 0; i < summary.size(); i++) {
+            String name = summary.transactions[i];
+            JSONObject t = compare(name, summary, i, histograms, baseline);
+            Result level = Result.fromString(t.getString("verdict"));
+            if (level != Result.SUCCESS) {
+                regressed++;
+                listener.getLogger().println(level + ": " + name + " " + t.getString("reason"));
+            }
+            verdict = verdict.combine(level);
+            transactions.add(t);
+        }
+
+        JSONObject report = new JSONObject();
+        report.element("build", build.getNumber());
+        report.element("baseline", baselineNumbers);
+        report.element("unstableThreshold", unstableThreshold);
+        report.element("failureThreshold", failureThreshold);
+        report.element("alpha", ALPHA);
+        report.element("verdict", verdict.toString());
+        report.element("transactions", transactions);
+        Writer w = new OutputStreamWriter(new FileOutputStream(new File(build.getRootDir(), FILE_NAME)), "UTF-8");
+        try {
+            w.write(report.toString(2));
+        } finally {
+            w.close();
+        }
+        listener.getLogger().println("Compared " + summary.size() + " transactions with builds " + baselineNumbers
+                + ": " + regressed + " regressed, " + verdict);
+        build.replaceAction(new RegressionAction(verdict.toString(), regressed, baselineNumbers.join(", ")));
+        return verdict;
+    }
+
+    private JSONObject compare(String name, PerformanceSummary summary, int i, TransactionHistograms histograms,
+            List<Baseline> baseline) {
+        JSONObject t = new JSONObject();
+        t.element("transaction", name);
+        double p95 = summary.getP95(i);
+        double throughput = summary.getThroughput(i);
+        put(t, "p95", p95);
+        put(t, "throughput", throughput);
+
+        double[] baseP95 = new double[baseline.size()];
+        double[] baseThroughput = new double[baseline.size()];
+        int n = 0;
+        LatencyHistogram merged = new LatencyHistogram();
+        boolean allHistograms = histograms != null && histograms.get(name) != null;
+        for (Baseline a : baseline) {
+            PerformanceSummary s = a.summary;
+            int j = s.indexOf(name);
+            if (j < 0) {
+                continue;
+            }
+            baseP95[n] = s.getP95(j);
+            baseThroughput[n] = s.getThroughput(j);
+            n++;
+            TransactionHistograms h = allHistograms ? a.getHistograms() : null;
+            LatencyHistogram th = h == null ? null : h.get(name);
+            if (th == null) {
+                allHistograms = false;
+            } else {
+                merged.add(th);
+            }
+        }
+        if (n == 0) {
+            t.element("verdict", Result.SUCCESS.toString());
+            t.element("reason", "not in the baseline");
+            return t;
+        }
+
+        double baseMedianP95 = median(baseP95, n);
+        double baseMedianThroughput = median(baseThroughput, n);
+        put(t, "baselineP95", baseMedianP95);
+        put(t, "baselineP95Max", max(baseP95, n));
+        put(t, "baselineThroughput", baseMedianThroughput);
+        put(t, "baselineThroughputMin", min(baseThroughput, n));
+
+        Result verdict = Result.SUCCESS;
+        List<String> reasons = new ArrayList<String>();
+
+        double latencyChange = change(p95, baseMedianP95);
+        put(t, "p95Change", latencyChange);
+        if (!Double.isNaN(latencyChange)) {
+            boolean significant;
+            if (allHistograms && merged.getTotalCount() > 0) {
+                double p = mannWhitneyGreater(histograms.get(name), merged);
+                put(t, "mannWhitneyP", p);
+                significant = p < ALPHA;
+            } else {
+                significant = p95 > max(baseP95, n);
+            }
+            Result level = level(latencyChange, significant);
+            if (level != Result.SUCCESS) {
+                reasons.add(String.format("P95 %.3fs is %.1f%% above the baseline %.3fs", p95, latencyChange, baseMedianP95));
+            }
+            verdict = verdict.combine(level);
+        }
+
+        double throughputChange = -change(throughput, baseMedianThroughput);
+        put(t, "throughputDrop", throughputChange);
+        if (!Double.isNaN(throughputChange)) {
+            Result level = level(throughputChange, throughput < min(baseThroughput, n));
+            if (level != Result.SUCCESS) {
+                reasons.add(String.format("throughput %.3f/s is %.1f%% below the baseline %.3f/s", throughput,
+                        throughputChange, baseMedianThroughput));
+            }
+            verdict = verdict.combine(level);
+        }
+        t.element("verdict", verdict.toString());
+        if (!reasons.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            for (String s : reasons) {
+                if (sb.length() > 0) {
+                    sb.append(", ");
+                }
+                sb.append(s);
+            }
+            t.element("reason", sb.toString());
+        }
+        return t;
+    }
+
+    /**
+     * A baseline build, its histograms only read if a transaction is compared with them.
+     */
+    private static final class Baseline {
+        final PerformanceSummary summary;
+        private final File histogramsFile;
+        private TransactionHistograms histograms;
+        private boolean read;
+
+        Baseline(PerformanceSummary summary, File histogramsFile) {
+            this.summary = summary;
+            this.histogramsFile = histogramsFile;
+        }
+
+        /**
+         * @return the response time histograms, or null if the build has none or they can't be read
+         */
+        TransactionHistograms getHistograms() {
+            if (!read) {
+                read = true;
+                if (histogramsFile.isFile()) {
+                    try {
+                        histograms = TransactionHistograms.read(histogramsFile);
+                    } catch (IOException e) {
+                        LOGGER.log(Level.WARNING, "Failed to load " + histogramsFile, e);
+                    }
+                }
+            }
+            return histograms;
+        }
+    }
+
+    private Result level(double degradation, boolean significant) {
+        if (!significant) {
+            return Result.SUCCESS;
+        }
+        if (failureThreshold > 0 && degradation >= failureThreshold) {
+            return Result.FAILURE;
+        }
+        if (degradation >= unstableThreshold) {
+            return Result.UNSTABLE;
+        }
+        return Result.SUCCESS;
+    }
+
+    /**
+     * How much {@code value} is above {@code reference}, in percent.
+     */
+    static double change(double value, double reference) {
+        if (Double.isNaN(value) || Double.isNaN(reference) || reference <= 0) {
+            return Double.NaN;
+        }
+        return (value - reference) * 100 / reference;
+    }
+
+    /**
+     * One-sided Mann-Whitney U test of whether the values of {@code a} tend to be
+     * greater than those of {@code b}, computed on the histogram buckets, values of
+     * a bucket being ties, with the normal approximation and tie correction.
+     *
+     * @return the p-value
+     */
+    static double mannWhitneyGreater(LatencyHistogram a, LatencyHistogram b) {
+        double n1 = a.getTotalCount();
+        double n2 = b.getTotalCount();
+        if (n1 == 0 || n2 == 0) {
+            return 1;
+        }
+        double n = n1 + n2;
+        int buckets = Math.max(a.getBucketCount(), b.getBucketCount());
+        double below = 0;
+        double rankSum = 0;
+        double ties = 0;
+        for (int i = 0; i < buckets; i++) {
+            double ca = a.getCountAt(i);
+            double t = ca + b.getCountAt(i);
+            if (t == 0) {
+                continue;
+            }
+            rankSum += ca * (below + (t + 1) / 2);
+            ties += t * t * t - t;
+            below += t;
+        }
+        double u = rankSum - n1 * (n1 + 1) / 2;
+        double mean = n1 * n2 / 2;
+        double variance = n1 * n2 / 12 * ((n + 1) - ties / (n * (n - 1)));
+        if (variance <= 0) {
+            return 1;
+        }
+        double z = (u - mean - 0.5) / Math.sqrt(variance);
+        return 1 - normal(z);
+    }
+
+    /**
+     * Standard normal cumulative distribution.
+     */
+    static double normal(double z) {
+        // Abramowitz and Stegun 26.2.17
+        double t = 1 / (1 + 0.2316419 * Math.abs(z));
+        double d = 0.3989422804014327 * Math.exp(-z * z / 2);
+        double p = d * t * (0.319381530 + t * (-0.356563782 + t * (1.781477937 + t * (-1.821255978 + t * 1.330274429))));
+        return z > 0 ? 1 - p : p;
+    }
+
+    private static double median(double[] values, int n) {
+        List<Double> l = new ArrayList<Double>();
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i])) {
+                l.add(values[i]);
+            }
+        }
+        if (l.isEmpty()) {
+            return Double.NaN;
+        }
+        Collections.sort(l);
+        int m = l.size() / 2;
+        return l.size() % 2 == 1 ? l.get(m) : (l.get(m - 1) + l.get(m)) / 2;
+    }
+
+    private static double max(double[] values, int n) {
+        double max = Double.NaN;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i]) && (Double.isNaN(max) || values[i] > max)) {
+                max = values[i];
+            }
+        }
+        return max;
+    }
+
+    private static double min(double[] values, int n) {
+        double min = Double.NaN;
+        for (int i = 0; i < n; i++) {
+            if (!Double.isNaN(values[i]) && (Double.isNaN(min) || values[i] < min)) {
+                min = values[i];
+            }
+        }
+        return min;
+    }
+
+    /**
+     * JSON has no NaN, missing figures are left out.
+     */
+    private static void put(JSONObject o, String key, double value) {
+        if (!Double.isNaN(value) && !Double.isInfinite(value)) {
+            o.element(key, value);
+        }
+    }
+}
@@ -0,0 +1,287 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.Util;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+/**
+ * Cache of generated WebLOAD Analytics reports on the controller.
+ * <p>
+ * An entry is a directory named by the digest of the report's input sessions
+ * and arguments, holding the files the report generation wrote. Entries are
+ * evicted least recently used first once the cache grows past its size limit.
+ * All the instances on the cache directory share one lock.
+ */
+final class ReportCache {
+
+    static final String DIR_NAME = "webload-report-cache";
+
+    /**
+     * Size limit of the cache in megabytes.
+     */
+    static final long MAX_SIZE = Long.getLong(ReportCache.class.getName() + ".maxSize", 1024) * 1024 * 1024;
+
+    /**
+     * Number of session files whose digest is kept, per JVM computing them.
+     */
+    static final int MAX_DIGESTS = Integer.getInteger(ReportCache.class.getName() + ".maxDigests", 256);
+
+    private static final Object LOCK = new Object();
+
+    private static final Map<String, FileDigest> DIGESTS = new LinkedHashMap<String, FileDigest>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, FileDigest> eldest) {
+            return size() > MAX_DIGESTS;
+        }
+    };
+
+    private final File root;
+    private final long maxSize;
+
+    ReportCache(File root, long maxSize) {
+        this.root = root;
+        this.maxSize = maxSize;
+    }
+
+    static ReportCache get() {
+        return new ReportCache(new File(Jenkins.getInstance().getRootDir(), DIR_NAME), MAX_SIZE);
+    }
+
+    /**
+     * Key of a report: the digest of its input sessions followed by the arguments
+     * that change its content.
+     */
+    static String key(String sessionsDigest, String... arguments) {
+        MessageDigest md = sha1();
+        try {
+            md.update(sessionsDigest.getBytes("UTF-8"));
+            for (String a : arguments) {
+                md.update((byte) 0);
+                if (a != null) {
+                    md.update(a.getBytes("UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
+        return Util.toHexString(md.digest());
+    }
+
+    /**
+     * Copies the files of a cached report into {@code reportsDir}.
+     *
+     * @return false if the report is not cached
+     */
+    boolean restore(String key, FilePath reportsDir, TaskListener listener) throws IOException, InterruptedException {
+        File entry = new File(root, key);
+        synchronized (LOCK) {
+            if (!entry.isDirectory()) {
+                return false;
+            }
+            entry.setLastModified(System.currentTimeMillis());
+        }
+        int n = new FilePath(entry).copyRecursiveTo(reportsDir);
+        listener.getLogger().println("Restored " + n + " cached report files");
+        return true;
+    }
+
+    /**
+     * Keeps the files a report generation wrote, paths relative to {@code reportsDir}, then evicts old entries if the cache is too big.
+     */
+    void store(String key, FilePath reportsDir, Collection<String> names, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (names.isEmpty()) {
+            return;
+        }
+        if (!root.isDirectory() && !root.mkdirs()) {
+            throw new IOException("Failed to create " + root);
+        }
+        File tmp = new File(root, key + ".tmp" + System.nanoTime());
+        try {
+            for (String name : names) {
+                reportsDir.child(name).copyTo(new FilePath(new File(tmp, name)));
+            }
+            synchronized (LOCK) {
+                File entry = new File(root, key);
+                if (!entry.exists() && !tmp.renameTo(entry)) {
+                    throw new IOException("Failed to store " + entry);
+                }
+                evict();
+            }
+            listener.getLogger().println("Cached " + names.size() + " report files");
+        } finally {
+            if (tmp.exists()) {
+                Util.deleteRecursive(tmp);
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        File[] entries = root.listFiles();
+        if (entries == null) {
+            return;
+        }
+        long total = 0;
+        final long[] sizes = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            sizes[i] = size(entries[i]);
+            total += sizes[i];
+        }
+        if (total <= maxSize) {
+            return;
+        }
+        Integer[] order = new Integer[entries.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        final long[] used = new long[entries.length];
+        for (int i = 0; i < entries.length; i++) {
+            used[i] = entries[i].lastModified();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return used[a] < used[b] ? -1 : used[a] == used[b] ? 0 : 1;
+            }
+        });
+        for (int i = 0; i < order.length && total > maxSize; i++) {
+            File e = entries[order[i]];
+            if (e.getName().contains(".tmp")) {
+                continue;
+            }
+            Util.deleteRecursive(e);
+            total -= sizes[order[i]];
+        }
+    }
+
+    private static long size(File dir) {
+        long size = 0;
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                size += f.isDirectory() ? size(f) : f.length();
+            }
+        }
+        return size;
+    }
+
+    private static MessageDigest sha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Digest of the content of load sessions, each with the session files next to it.
+     */
+    static final class DigestSessions extends MasterToSlaveFileCallable<String> {
+        private static final long serialVersionUID = 1L;
+        private final List<String> sessions;
+        private final String[] extensions = WebLoadConsoleBuilder.sessionExtensions.clone();
+
+        DigestSessions(List<FilePath> sessions) {
+            this.sessions = new ArrayList<String>();
+            for (FilePath s : sessions) {
+                this.sessions.add(s.getRemote());
+            }
+        }
+
+        public String invoke(File workspace, VirtualChannel channel) throws IOException, InterruptedException {
+            MessageDigest md = sha1();
+            byte[] buf = new byte[64 * 1024];
+            for (String s : sessions) {
+                File ls = new File(s);
+                if (!ls.isAbsolute()) {
+                    ls = new File(workspace, s);
+                }
+                String base = ls.getName();
+                if (base.lastIndexOf('.') > 0) {
+                    base = base.substring(0, base.lastIndexOf('.'));
+                }
+                for (String e : extensions) {
+                    File f = new File(ls.getParentFile(), base + "." + e);
+                    if (!f.isFile()) {
+                        continue;
+                    }
+                    md.update(e.getBytes("UTF-8"));
+                    md.update(digest(f, buf));
+                }
+                md.update((byte) 0);
+            }
+            return Util.toHexString(md.digest());
+        }
+    }
+
+    /**
+     * Digest of a file's content as of its size and modification time.
+     */
+    private static final class FileDigest {
+        final long length;
+        final long modified;
+        final byte[] digest;
+
+        FileDigest(long length, long modified, byte[] digest) {
+            this.length = length;
+            this.modified = modified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * Digest of a file, only read again if its size or modification time changed since
+     * it was last computed: the sessions compared with are the same from build to build.
+     */
+    static byte[] digest(File f, byte[] buf) throws IOException, InterruptedException {
+        String path = f.getAbsolutePath();
+        long length = f.length();
+        long modified = f.lastModified();
+        synchronized (DIGESTS) {
+            FileDigest d = DIGESTS.get(path);
+            if (d != null && d.length == length && d.modified == modified) {
+                return d.digest;
+            }
+        }
+        MessageDigest md = sha1();
+        InputStream in = new FileInputStream(f);
+        try {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                md.update(buf, 0, n);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            in.close();
+        }
+        byte[] digest = md.digest();
+        synchronized (DIGESTS) {
+            DIGESTS.put(path, new FileDigest(length, modified, digest));
+        }
+        return digest;
+    }
+}
@@ -0,0 +1,84 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Background queue of WebLOAD Analytics report generations, with a small
+ * bounded worker pool per node.
+ * <p>
+ * A request for reports already waiting in the queue, the same sessions by
+ * content reported the same way, joins the waiting one instead of generating
+ * them again.
+ */
+final class ReportQueue {
+
+    static final int WORKERS_PER_NODE = Integer.getInteger(ReportQueue.class.getName() + ".workersPerNode", 1);
+    static final int CAPACITY = Integer.getInteger(ReportQueue.class.getName() + ".capacity", 16);
+
+    private static final ConcurrentMap<String, ThreadPoolExecutor> executors = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+    private static final ConcurrentMap<String, ReportRequest> waiting = new ConcurrentHashMap<String, ReportRequest>();
+
+    private ReportQueue() {
+    }
+
+    /**
+     * Queues a request for a build, or adds the build to a waiting request for the same reports.
+     *
+     * @return the request the build waits for, or null if the node's queue is full
+     */
+    static ReportRequest submit(ReportRequest request, Run<?, ?> run, AnalyticsReportsAction action) {
+        while (request.key != null) {
+            ReportRequest existing = waiting.putIfAbsent(request.key, request);
+            if (existing == null) {
+                break;
+            }
+            if (existing.attach(run, action)) {
+                return existing;
+            }
+            // it just started, queue a new one
+            waiting.remove(request.key, existing);
+        }
+        request.attach(run, action);
+        try {
+            executor(request.nodeName).execute(request);
+        } catch (RejectedExecutionException e) {
+            started(request);
+            return null;
+        }
+        return request;
+    }
+
+    static void started(ReportRequest request) {
+        if (request.key != null) {
+            waiting.remove(request.key, request);
+        }
+    }
+
+    private static ThreadPoolExecutor executor(String nodeName) {
+        ThreadPoolExecutor e = executors.get(nodeName);
+        if (e == null) {
+            e = new ThreadPoolExecutor(WORKERS_PER_NODE, WORKERS_PER_NODE, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(CAPACITY),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "WebLOAD reports " + nodeName));
+            e.allowCoreThreadTimeOut(true);
+            ThreadPoolExecutor existing = executors.putIfAbsent(nodeName, e);
+            if (existing != null) {
+                e.shutdown();
+                e = existing;
+            }
+        }
+        return e;
+    }
+}
@@ -0,0 +1,262 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Node;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.StreamTaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.MasterToSlaveFileCallable;
+import jenkins.model.Jenkins;
+
+/**
+ * One WebLOAD Analytics report generation, the {@code WLAnalyticsCmd} commands
+ * for all the requested formats of a session.
+ * <p>
+ * The reports are generated in a directory of their own, so that nothing else
+ * written meanwhile to the workspace is taken for one of them. Run in the build,
+ * or later by the {@link ReportQueue}, in which case the reports are attached to
+ * every build that asked for the same report meanwhile.
+ */
+final class ReportRequest implements Runnable {
+
+    private static final Logger LOGGER = Logger.getLogger(ReportRequest.class.getName());
+
+    static final String LOG_FILE_NAME = "webload-reports.log";
+
+    /**
+     * Identifies the reports among the queued requests, null if they can't be told apart from others.
+     */
+    final String key;
+    final String nodeName;
+    private final SessionExecutor executor;
+    private final List<ArgumentListBuilder> commands;
+    private final EnvVars envVars;
+    private final FilePath reportsDir;
+    private final List<String> reportKeys;
+    private final boolean cacheReports;
+    private final boolean publishResults;
+
+    private final List<Run<?, ?>> runs = new ArrayList<Run<?, ?>>();
+    private final List<AnalyticsReportsAction> actions = new ArrayList<AnalyticsReportsAction>();
+    private boolean started;
+
+    /**
+     * @param reportKeys {@link ReportCache#key} of each command's reports, null if the sessions were not digested
+     * @param cacheReports whether the reports are taken from and kept in the {@link ReportCache}
+     * @param publishResults whether the transaction results of JUnit reports are attached to the builds
+     * @param reportsDir the directory the commands write the reports to, used by this request only
+     */
+    ReportRequest(String nodeName, SessionExecutor executor, List<ArgumentListBuilder> commands, List<String> reportKeys,
+            boolean cacheReports, boolean publishResults, EnvVars envVars, FilePath reportsDir) {
+        if (reportKeys == null) {
+            // the commands name the sessions, not their content, another build's sessions may have the same names
+            this.key = null;
+        } else {
+            StringBuilder k = new StringBuilder(nodeName);
+            for (String r : reportKeys) {
+                k.append('\n').append(r);
+            }
+            this.key = k.toString();
+        }
+        this.nodeName = nodeName;
+        this.executor = executor;
+        this.commands = commands;
+        this.envVars = envVars;
+        this.reportsDir = reportsDir;
+        this.reportKeys = reportKeys;
+        this.cacheReports = cacheReports && reportKeys != null;
+        this.publishResults = publishResults;
+    }
+
+    FilePath getReportsDir() {
+        return reportsDir;
+    }
+
+    /**
+     * Adds a build waiting for these reports.
+     *
+     * @return false if generation already started, too late to join
+     */
+    synchronized boolean attach(Run<?, ?> run, AnalyticsReportsAction action) {
+        if (started) {
+            return false;
+        }
+        runs.add(run);
+        actions.add(action);
+        return true;
+    }
+
+    /**
+     * Runs the commands one after the other into the reports directory, taking the
+     * reports from the cache when it has them.
+     *
+     * @return the first non-zero return code, or 0
+     */
+    int execute(Launcher launcher, TaskListener listener) throws IOException, InterruptedException {
+        int result = 0;
+        ReportCache cache = cacheReports ? ReportCache.get() : null;
+        reportsDir.mkdirs();
+        for (int i = 0; i < commands.size(); i++) {
+            String cacheKey = cache == null ? null : reportKeys.get(i);
+            if (cacheKey != null && cache.restore(cacheKey, reportsDir, listener)) {
+                continue;
+            }
+            List<String> before = cacheKey == null ? null : reportsDir.act(new ListFiles());
+            ArgumentListBuilder winCmd = executor.command(commands.get(i));
+            listener.getLogger().println("Executing the command " + winCmd.toStringWithQuote());
+            int r = executor.launch(launcher, winCmd, envVars, null, SessionExecutor.Exports.NONE, listener.getLogger()).join();
+            listener.getLogger().println("Execution ended, return code " + r);
+            if (r == 0 && cacheKey != null) {
+                List<String> written = reportsDir.act(new ListFiles());
+                written.removeAll(before);
+                try {
+                    cache.store(cacheKey, reportsDir, written, listener);
+                } catch (IOException e) {
+                    listener.getLogger().println("WARN : Failed to cache the report: " + e);
+                }
+            }
+            if (result == 0) {
+                result = r;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The reports generated so far, paths relative to the reports directory.
+     */
+    List<String> reports() throws IOException, InterruptedException {
+        return reportsDir.act(new ListFiles());
+    }
+
+    /**
+     * Copies the generated reports to {@code dir}.
+     */
+    void copyReports(List<String> reports, FilePath dir) throws IOException, InterruptedException {
+        for (String name : reports) {
+            reportsDir.child(name).copyTo(dir.child(name));
+        }
+    }
+
+    /**
+     * Removes the reports directory once the reports have been copied out.
+     */
+    void cleanUp(TaskListener listener) throws InterruptedException {
+        WebLoadConsoleBuilder.removeSessionDir(reportsDir, listener);
+    }
+
+    public void run() {
+        List<Run<?, ?>> runs;
+        List<AnalyticsReportsAction> actions;
+        synchronized (this) {
+            started = true;
+            runs = new ArrayList<Run<?, ?>>(this.runs);
+            actions = new ArrayList<AnalyticsReportsAction>(this.actions);
+        }
+        ReportQueue.started(this);
+        if (runs.isEmpty()) {
+            return;
+        }
+        for (AnalyticsReportsAction a : actions) {
+            a.setStatus(AnalyticsReportsAction.Status.RUNNING, null);
+        }
+
+        File log = new File(runs.get(0).getRootDir(), LOG_FILE_NAME);
+        AnalyticsReportsAction.Status status = AnalyticsReportsAction.Status.FAILED;
+        String message;
+        List<String> reports = new ArrayList<String>();
+        try {
+            StreamTaskListener listener = new StreamTaskListener(log);
+            try {
+                Node node = nodeName.length() == 0 ? Jenkins.getInstance() : Jenkins.getInstance().getNode(nodeName);
+                if (node == null || node.getChannel() == null) {
+                    throw new IOException("Node " + nodeName + " is offline");
+                }
+                int result;
+                TransactionResults results;
+                try {
+                    result = execute(node.createLauncher(listener), listener);
+                    reports.addAll(reports());
+                    results = publishResults ? TransactionResultsAction.read(reportsDir, reports, listener) : null;
+                    for (Run<?, ?> run : runs) {
+                        copyReports(reports, new FilePath(AnalyticsReportsAction.getReportsDir(run)));
+                    }
+                } finally {
+                    cleanUp(listener);
+                }
+                for (Run<?, ?> run : runs) {
+                    if (results != null) {
+                        // too late to change the result of the build, the failures are only shown
+                        run.replaceAction(new TransactionResultsAction(run, results));
+                    }
+                }
+                if (result == 0) {
+                    status = AnalyticsReportsAction.Status.DONE;
+                    message = reports.size() + " reports";
+                } else {
+                    message = "WebLOAD Analytics ended with return code " + result;
+                }
+                listener.getLogger().println(message);
+            } finally {
+                listener.close();
+            }
+            for (Run<?, ?> run : runs.subList(1, runs.size())) {
+                new FilePath(log).copyTo(new FilePath(new File(run.getRootDir(), LOG_FILE_NAME)));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to generate WebLOAD reports for " + runs, e);
+            message = e.toString();
+        } catch (InterruptedException e) {
+            message = "Interrupted";
+        }
+        for (int i = 0; i < runs.size(); i++) {
+            actions.get(i).setReports(reports);
+            actions.get(i).setStatus(status, message);
+            try {
+                runs.get(i).save();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to save " + runs.get(i), e);
+            }
+        }
+    }
+
+    /**
+     * Paths of the files under a directory, relative to it and separated by slashes.
+     */
+    static final class ListFiles extends MasterToSlaveFileCallable<List<String>> {
+        private static final long serialVersionUID = 1L;
+
+        public List<String> invoke(File dir, VirtualChannel channel) {
+            List<String> files = new ArrayList<String>();
+            list(dir, "", files);
+            return files;
+        }
+
+        private static void list(File dir, String prefix, List<String> files) {
+            File[] list = dir.listFiles();
+            if (list != null) {
+                for (File f : list) {
+                    if (f.isFile()) {
+                        files.add(prefix + f.getName());
+                    } else if (f.isDirectory()) {
+                        list(f, prefix + f.getName() + "/", files);
+                    }
+                }
+            }
+        }
+    }
+}
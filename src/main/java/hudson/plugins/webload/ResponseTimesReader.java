@@ -0,0 +1,86 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Streams the raw response time export of a session into {@link TransactionHistograms}.
+ * <p>
+ * The export is delimited text with a header line and one line per measured
+ * transaction instance, with a transaction name and a response time column in
+ * seconds, or in milliseconds if the column name ends in {@code (ms)} or
+ * {@code [ms]}. An optional status or error column marks failed instances.
+ */
+class ResponseTimesReader extends MasterToSlaveFileCallable<TransactionHistograms> {
+
+    private static final long serialVersionUID = 1L;
+
+    public TransactionHistograms invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static TransactionHistograms read(BufferedReader in) throws IOException {
+        TransactionHistograms histograms = new TransactionHistograms();
+        String line = in.readLine();
+        if (line == null) {
+            return histograms;
+        }
+        char sep = StatisticsTail.detectDelimiter(line);
+        String[] header = StatisticsTail.split(line, sep);
+        int name = Columns.indexOf(header, "transaction", "name");
+        int time = Columns.indexOf(header, "response time", "duration");
+        if (name < 0 || time < 0) {
+            throw new IOException("Expected transaction name and response time columns in " + line);
+        }
+        int status = Columns.indexOf(header, "status", "error", "result");
+        double scale = isMillis(header[time]) ? 1e3 : 1e6;
+
+        while ((line = in.readLine()) != null) {
+            String[] row = StatisticsTail.split(line, sep);
+            if (row.length <= Math.max(name, time)) {
+                continue;
+            }
+            double t = StatisticsTail.parseValue(row[time]);
+            if (Double.isNaN(t)) {
+                continue;
+            }
+            boolean error = status >= 0 && status < row.length && isError(row[status]);
+            histograms.record(row[name], Math.round(t * scale), error);
+        }
+        return histograms;
+    }
+
+    /**
+     * Whether a column name carries an explicit milliseconds unit suffix.
+     */
+    static boolean isMillis(String column) {
+        String c = column.trim().toLowerCase(Locale.ROOT);
+        return c.endsWith("(ms)") || c.endsWith("[ms]");
+    }
+
+    static boolean isError(String status) {
+        if (status.length() == 0) {
+            return false;
+        }
+        double d = StatisticsTail.parseValue(status);
+        if (!Double.isNaN(d)) {
+            return d != 0;
+        }
+        return !("passed".equalsIgnoreCase(status) || "ok".equalsIgnoreCase(status) || "success".equalsIgnoreCase(status));
+    }
+}
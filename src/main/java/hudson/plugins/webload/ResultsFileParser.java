@@ -0,0 +1,501 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.plugins.webload.SessionResult.TransactionVerdict;
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Single pass, chunked reader for the WebLOAD results file.
+ * <p>
+ * WebLOAD versions older than 10.1 wrote results files that are not well formed
+ * (unescaped quotes, ampersands and angle brackets inside attribute values), so
+ * this is a tolerant tag/attribute scanner rather than an XML parser. Only the
+ * session verdict and the per-transaction verdicts are kept.
+ */
+class ResultsFileParser {
+
+    static final int CHUNK_SIZE = 8192;
+    static final int MAX_VALUE_LENGTH = 16 * 1024;
+    static final int MAX_NAME_LENGTH = 256;
+    static final int MAX_TRANSACTIONS = 10000;
+
+    private static final String SESSION_RETURN_CODE = "SessionReturnCode";
+    private static final String ERROR_DESCRIPTION = "ErrorDescription";
+    private static final String TRANSACTION_NAME = "Name";
+    private static final String[] VERDICT_ATTRIBUTES = { "ReturnCode", "Status", "Result", "Verdict" };
+
+    private static final Pattern DECLARED_ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([A-Za-z0-9._:-]+)[\"']");
+
+    private static final int TEXT = 0;
+    private static final int TAG_OPEN = 1;
+    private static final int ELEMENT_NAME = 2;
+    private static final int IN_TAG = 3;
+    private static final int ATTR_NAME = 4;
+    private static final int AFTER_ATTR_NAME = 5;
+    private static final int BEFORE_VALUE = 6;
+    private static final int QUOTED_VALUE = 7;
+    private static final int QUOTE_PENDING = 8;
+    private static final int UNQUOTED_VALUE = 9;
+    private static final int MARKUP_DECL = 10;
+    private static final int SKIP = 11;
+    private static final int AFTER_QUOTE = 12;
+
+    private int state = TEXT;
+
+    private final StringBuilder elementName = new StringBuilder();
+    private final StringBuilder attrName = new StringBuilder();
+    private final StringBuilder attrValue = new StringBuilder();
+    private final List<String> attrNames = new ArrayList<String>();
+    private final List<String> attrValues = new ArrayList<String>();
+    private char quote;
+
+    /** What followed a quote that may close the value, while in {@link #AFTER_QUOTE}. */
+    private final StringBuilder pending = new StringBuilder();
+    private boolean pendingName;
+    private boolean pendingNameEnded;
+
+    private String skipTerminator;
+    private int skipMatched;
+
+    private String sessionReturnCode;
+    private String errorDescription;
+    private final List<TransactionVerdict> transactions = new ArrayList<TransactionVerdict>();
+    private boolean truncated;
+
+    /**
+     * Parses a results file, detecting its encoding from the byte order mark or the XML declaration.
+     */
+    static SessionResult parse(InputStream in) throws IOException {
+        BufferedInputStream bin = new BufferedInputStream(in, CHUNK_SIZE);
+        Charset charset = detectCharset(bin);
+        return parse(new InputStreamReader(bin, charset));
+    }
+
+    static SessionResult parse(Reader in) throws IOException {
+        ResultsFileParser parser = new ResultsFileParser();
+        char[] buf = new char[CHUNK_SIZE];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            parser.feed(buf, 0, n);
+        }
+        return parser.finish();
+    }
+
+    static Charset detectCharset(BufferedInputStream in) throws IOException {
+        byte[] head = new byte[256];
+        in.mark(head.length);
+        int len = 0;
+        int n;
+        while (len < head.length && (n = in.read(head, len, head.length - len)) > 0) {
+            len += n;
+        }
+        in.reset();
+
+        if (len >= 3 && (head[0] & 0xFF) == 0xEF && (head[1] & 0xFF) == 0xBB && (head[2] & 0xFF) == 0xBF) {
+            in.skip(3);
+            return Charset.forName("UTF-8");
+        }
+        if (len >= 2 && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xFE) {
+            in.skip(2);
+            return Charset.forName("UTF-16LE");
+        }
+        if (len >= 2 && (head[0] & 0xFF) == 0xFE && (head[1] & 0xFF) == 0xFF) {
+            in.skip(2);
+            return Charset.forName("UTF-16BE");
+        }
+        Matcher m = DECLARED_ENCODING.matcher(new String(head, 0, len, "ISO-8859-1"));
+        if (m.find()) {
+            try {
+                if (Charset.isSupported(m.group(1))) {
+                    return Charset.forName(m.group(1));
+                }
+            } catch (IllegalArgumentException e) {
+                // fall through to the default
+            }
+        }
+        return Charset.forName("UTF-8");
+    }
+
+    void feed(char[] buf, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            accept(buf[i]);
+        }
+    }
+
+    SessionResult finish() {
+        switch (state) {
+            case AFTER_QUOTE:
+            case QUOTE_PENDING:
+            case QUOTED_VALUE:
+            case UNQUOTED_VALUE:
+                endValue();
+                endElement();
+                break;
+            case ELEMENT_NAME:
+            case IN_TAG:
+            case ATTR_NAME:
+            case AFTER_ATTR_NAME:
+            case BEFORE_VALUE:
+                endElement();
+                break;
+            default:
+                break;
+        }
+        state = TEXT;
+        return new SessionResult(sessionReturnCode, errorDescription, transactions, truncated);
+    }
+
+    private void accept(char c) {
+        switch (state) {
+            case TEXT:
+                if (c == '<') {
+                    state = TAG_OPEN;
+                }
+                break;
+            case TAG_OPEN:
+                if (c == '!') {
+                    state = MARKUP_DECL;
+                } else if (c == '?') {
+                    skip("?>");
+                } else if (c == '/') {
+                    skip(">");
+                } else if (isNameChar(c)) {
+                    startElement();
+                    elementName.append(c);
+                    state = ELEMENT_NAME;
+                } else if (c != '<') {
+                    state = TEXT;
+                }
+                break;
+            case MARKUP_DECL:
+                if (c == '-') {
+                    skip("-->");
+                } else if (c == '[') {
+                    skip("]]>");
+                } else {
+                    skip(">");
+                    accept(c);
+                }
+                break;
+            case SKIP:
+                advanceSkip(c);
+                break;
+            case ELEMENT_NAME:
+                if (isNameChar(c)) {
+                    append(elementName, c, MAX_NAME_LENGTH);
+                } else {
+                    state = IN_TAG;
+                    accept(c);
+                }
+                break;
+            case IN_TAG:
+                if (c == '>') {
+                    endElement();
+                    state = TEXT;
+                } else if (c == '<') {
+                    // unterminated tag, recover at the next one
+                    endElement();
+                    state = TAG_OPEN;
+                } else if (isNameChar(c)) {
+                    attrName.setLength(0);
+                    attrName.append(c);
+                    state = ATTR_NAME;
+                }
+                break;
+            case ATTR_NAME:
+                if (isNameChar(c)) {
+                    append(attrName, c, MAX_NAME_LENGTH);
+                } else {
+                    state = AFTER_ATTR_NAME;
+                    accept(c);
+                }
+                break;
+            case AFTER_ATTR_NAME:
+                if (c == '=') {
+                    state = BEFORE_VALUE;
+                } else if (!Character.isWhitespace(c)) {
+                    // attribute without a value
+                    attrValue.setLength(0);
+                    endValue();
+                    state = IN_TAG;
+                    accept(c);
+                }
+                break;
+            case BEFORE_VALUE:
+                attrValue.setLength(0);
+                if (c == '"' || c == '\'') {
+                    quote = c;
+                    state = QUOTED_VALUE;
+                } else if (c == '>' || c == '<') {
+                    endValue();
+                    state = IN_TAG;
+                    accept(c);
+                } else if (!Character.isWhitespace(c)) {
+                    attrValue.append(c);
+                    state = UNQUOTED_VALUE;
+                }
+                break;
+            case QUOTED_VALUE:
+                if (c == quote) {
+                    state = QUOTE_PENDING;
+                } else if (attrValue.length() >= MAX_VALUE_LENGTH) {
+                    // runaway value, most likely a quote that is never closed: keep what
+                    // the element had so far and recover at the next tag
+                    endValue();
+                    endElement();
+                    state = TEXT;
+                } else {
+                    attrValue.append(c);
+                }
+                break;
+            case QUOTE_PENDING:
+                // A quote only closes the value when followed by something that can
+                // follow an attribute, otherwise it is an unescaped quote inside the value.
+                if (c == '>' || c == '/' || c == '?') {
+                    endValue();
+                    state = IN_TAG;
+                    accept(c);
+                } else if (Character.isWhitespace(c)) {
+                    pending.setLength(0);
+                    pending.append(c);
+                    pendingName = false;
+                    pendingNameEnded = false;
+                    state = AFTER_QUOTE;
+                } else {
+                    append(attrValue, quote, MAX_VALUE_LENGTH);
+                    state = QUOTED_VALUE;
+                    accept(c);
+                }
+                break;
+            case AFTER_QUOTE:
+                // After a quote and whitespace, the value was closed only if the tag
+                // ends or another attribute follows, as in ' Status=' but not ' to host'.
+                if (!pendingName && (c == '>' || c == '/' || c == '?' || c == '<')) {
+                    endValue();
+                    state = IN_TAG;
+                    accept(c);
+                } else if (pendingName && c == '=') {
+                    endValue();
+                    state = IN_TAG;
+                    String replay = pending.toString();
+                    for (int i = 0; i < replay.length(); i++) {
+                        accept(replay.charAt(i));
+                    }
+                    accept(c);
+                } else if (pending.length() < MAX_NAME_LENGTH && Character.isWhitespace(c)) {
+                    pending.append(c);
+                    pendingNameEnded = pendingName;
+                } else if (pending.length() < MAX_NAME_LENGTH && isNameChar(c) && !pendingNameEnded) {
+                    pending.append(c);
+                    pendingName = true;
+                } else {
+                    append(attrValue, quote, MAX_VALUE_LENGTH);
+                    for (int i = 0; i < pending.length(); i++) {
+                        append(attrValue, pending.charAt(i), MAX_VALUE_LENGTH);
+                    }
+                    state = QUOTED_VALUE;
+                    accept(c);
+                }
+                break;
+            case UNQUOTED_VALUE:
+                if (Character.isWhitespace(c) || c == '>' || c == '<') {
+                    endValue();
+                    state = IN_TAG;
+                    accept(c);
+                } else {
+                    append(attrValue, c, MAX_VALUE_LENGTH);
+                }
+                break;
+            default:
+                throw new IllegalStateException("state " + state);
+        }
+    }
+
+    private void skip(String terminator) {
+        skipTerminator = terminator;
+        skipMatched = 0;
+        state = SKIP;
+    }
+
+    private void advanceSkip(char c) {
+        while (true) {
+            if (skipTerminator.charAt(skipMatched) == c) {
+                skipMatched++;
+                if (skipMatched == skipTerminator.length()) {
+                    state = TEXT;
+                }
+                return;
+            }
+            if (skipMatched == 0) {
+                return;
+            }
+            // terminators are short, fall back to the longest matched prefix
+            skipMatched = longestBorder(skipTerminator, skipMatched);
+        }
+    }
+
+    private static int longestBorder(String s, int len) {
+        for (int k = len - 1; k > 0; k--) {
+            if (s.regionMatches(0, s, len - k, k)) {
+                return k;
+            }
+        }
+        return 0;
+    }
+
+    private void startElement() {
+        elementName.setLength(0);
+        attrNames.clear();
+        attrValues.clear();
+    }
+
+    private void endValue() {
+        attrNames.add(attrName.toString());
+        attrValues.add(decodeEntities(attrValue));
+        attrName.setLength(0);
+        attrValue.setLength(0);
+    }
+
+    private void endElement() {
+        if (elementName.length() == 0) {
+            return;
+        }
+        boolean transaction = elementName.toString().toLowerCase(Locale.ROOT).contains("transaction");
+        if (transaction) {
+            String name = attribute(TRANSACTION_NAME);
+            String verdict = null;
+            for (String a : VERDICT_ATTRIBUTES) {
+                verdict = attribute(a);
+                if (verdict != null) {
+                    break;
+                }
+            }
+            if (name != null && verdict != null) {
+                if (transactions.size() < MAX_TRANSACTIONS) {
+                    transactions.add(new TransactionVerdict(name, verdict));
+                } else {
+                    truncated = true;
+                }
+            }
+        }
+        if (sessionReturnCode == null) {
+            sessionReturnCode = attribute(SESSION_RETURN_CODE);
+        }
+        if (errorDescription == null && !transaction) {
+            errorDescription = attribute(ERROR_DESCRIPTION);
+        }
+        elementName.setLength(0);
+    }
+
+    private String attribute(String name) {
+        for (int i = 0; i < attrNames.size(); i++) {
+            if (name.equalsIgnoreCase(attrNames.get(i))) {
+                return attrValues.get(i);
+            }
+        }
+        return null;
+    }
+
+    private static void append(StringBuilder sb, char c, int max) {
+        if (sb.length() < max) {
+            sb.append(c);
+        }
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '.' || c == ':';
+    }
+
+    /**
+     * Decodes the predefined and numeric entities, leaving anything else
+     * (such as a bare ampersand) untouched.
+     */
+    static String decodeEntities(CharSequence s) {
+        int amp = indexOf(s, '&', 0);
+        if (amp < 0) {
+            return s.toString();
+        }
+        StringBuilder out = new StringBuilder(s.length());
+        int i = 0;
+        while (amp >= 0) {
+            out.append(s, i, amp);
+            int semi = indexOf(s, ';', amp);
+            String decoded = null;
+            if (semi > amp && semi - amp <= 10) {
+                decoded = decodeEntity(s.subSequence(amp + 1, semi).toString());
+            }
+            if (decoded != null) {
+                out.append(decoded);
+                i = semi + 1;
+            } else {
+                out.append('&');
+                i = amp + 1;
+            }
+            amp = indexOf(s, '&', i);
+        }
+        out.append(s, i, s.length());
+        return out.toString();
+    }
+
+    private static String decodeEntity(String entity) {
+        if ("quot".equals(entity)) return "\"";
+        if ("amp".equals(entity)) return "&";
+        if ("lt".equals(entity)) return "<";
+        if ("gt".equals(entity)) return ">";
+        if ("apos".equals(entity)) return "'";
+        if (entity.startsWith("#")) {
+            try {
+                int cp = entity.startsWith("#x") || entity.startsWith("#X")
+                        ? Integer.parseInt(entity.substring(2), 16)
+                        : Integer.parseInt(entity.substring(1));
+                return new String(Character.toChars(cp));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private static int indexOf(CharSequence s, char c, int from) {
+        for (int i = from; i < s.length(); i++) {
+            if (s.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parses the results file where it lives, so only the verdict crosses the channel.
+     */
+    static final class ParseResults extends MasterToSlaveFileCallable<SessionResult> {
+
+        private static final long serialVersionUID = 1L;
+
+        public SessionResult invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            InputStream in = new FileInputStream(f);
+            try {
+                return parse(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import hudson.util.ArgumentListBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+
+/**
+ * Starts the WebLOAD processes of the build steps, load sessions and Analytics report generation.
+ * <p>
+ * WebLOAD only runs on Windows. With the system property
+ * {@code hudson.plugins.webload.SessionExecutor.simulated} set on the controller the
+ * product is replaced by {@link SimulatedExecutor}, which writes the same files from
+ * within the agent, so that the plugin itself can be exercised and measured on any node.
+ */
+abstract class SessionExecutor implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final String SIMULATED_PROPERTY = SessionExecutor.class.getName() + ".simulated";
+
+    /**
+     * The executor of a build step, read at each step so that the simulation can be switched on and off.
+     */
+    static SessionExecutor get() {
+        return Boolean.getBoolean(SIMULATED_PROPERTY) ? new SimulatedExecutor() : new ProcessExecutor();
+    }
+
+    /**
+     * Path of a WebLOAD executable of an installation.
+     *
+     * @throws AbortException if the installation has no such executable
+     */
+    abstract String executable(InstallationResolver.Home home, String name) throws AbortException;
+
+    /**
+     * The command as given to the node's shell.
+     */
+    abstract ArgumentListBuilder command(ArgumentListBuilder args);
+
+    /**
+     * Starts a command on the node of a launcher.
+     *
+     * @param pwd working directory, null for the launcher's default
+     * @param exports files the session writes besides its results, as set up in its template
+     */
+    abstract Proc launch(Launcher launcher, ArgumentListBuilder args, EnvVars envVars, FilePath pwd, Exports exports,
+            OutputStream out) throws IOException, InterruptedException;
+
+    /**
+     * Starts a command on this node, from a callable already running there.
+     */
+    abstract Proc launchLocal(ArgumentListBuilder args, EnvVars envVars, File pwd, Exports exports, OutputStream out)
+            throws IOException;
+
+    /**
+     * Exports a session writes as configured in its template, unknown to the command line.
+     */
+    static final class Exports implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        static final Exports NONE = new Exports(null, null, null);
+
+        final String statistics;
+        final String transactionStatistics;
+        final String responseTimes;
+
+        Exports(FilePath statistics, FilePath transactionStatistics, FilePath responseTimes) {
+            this.statistics = statistics == null ? null : statistics.getRemote();
+            this.transactionStatistics = transactionStatistics == null ? null : transactionStatistics.getRemote();
+            this.responseTimes = responseTimes == null ? null : responseTimes.getRemote();
+        }
+    }
+
+    /**
+     * Runs the WebLOAD executables.
+     */
+    static final class ProcessExecutor extends SessionExecutor {
+        private static final long serialVersionUID = 1L;
+
+        String executable(InstallationResolver.Home home, String name) throws AbortException {
+            return home.checkExecutable(name);
+        }
+
+        ArgumentListBuilder command(ArgumentListBuilder args) {
+            return args.toWindowsCommand();
+        }
+
+        Proc launch(Launcher launcher, ArgumentListBuilder args, EnvVars envVars, FilePath pwd, Exports exports,
+                OutputStream out) throws IOException, InterruptedException {
+            Launcher.ProcStarter starter = launcher.launch().cmds(args).stdout(out).envs(envVars);
+            if (pwd != null) {
+                starter.pwd(pwd);
+            }
+            return starter.start();
+        }
+
+        Proc launchLocal(ArgumentListBuilder args, EnvVars envVars, File pwd, Exports exports, OutputStream out)
+                throws IOException {
+            return new Launcher.LocalLauncher(TaskListener.NULL).launch().cmds(args).envs(envVars).pwd(pwd).stdout(out).start();
+        }
+    }
+}
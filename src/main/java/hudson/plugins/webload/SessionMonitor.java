@@ -0,0 +1,134 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.model.TaskListener;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Waits for a running WebLOAD session while tailing its statistics export,
+ * stopping the session when one of the abort rules fires.
+ */
+class SessionMonitor {
+
+    static final long POLL_INTERVAL = Long.getLong(SessionMonitor.class.getName() + ".pollInterval", 10) * 1000;
+    static final long LOG_INTERVAL = 60 * 1000;
+
+    private final FilePath statisticsFile;
+    private final TaskListener listener;
+    private final LiveStatisticsAction statistics;
+    private final List<AbortRule> abortRules;
+
+    private long offset;
+    private char delimiter;
+    private String[] header;
+    private AbortRule firedRule;
+
+    SessionMonitor(FilePath statisticsFile, TaskListener listener, LiveStatisticsAction statistics, List<AbortRule> abortRules) {
+        this.statisticsFile = statisticsFile;
+        this.listener = listener;
+        this.statistics = statistics;
+        this.abortRules = abortRules;
+    }
+
+    /**
+     * @return the rule that stopped the session, or null if it ran to completion
+     */
+    AbortRule getFiredRule() {
+        return firedRule;
+    }
+
+    /**
+     * Blocks until the session ends, killing it if the build is interrupted.
+     *
+     * @return the exit code of the session
+     */
+    int watch(Proc proc) throws IOException, InterruptedException {
+        statistics.setRunning(true);
+        try {
+            long nextPoll = System.currentTimeMillis() + POLL_INTERVAL;
+            long nextLog = System.currentTimeMillis() + LOG_INTERVAL;
+            while (proc.isAlive()) {
+                long now = System.currentTimeMillis();
+                if (now < nextPoll) {
+                    Thread.sleep(Math.min(1000, nextPoll - now));
+                    continue;
+                }
+                nextPoll = now + POLL_INTERVAL;
+                if (!poll()) {
+                    continue;
+                }
+                if (now >= nextLog) {
+                    listener.getLogger().println("Statistics: " + statistics.describe());
+                    nextLog = now + LOG_INTERVAL;
+                }
+                firedRule = evaluate(now);
+                if (firedRule != null) {
+                    listener.getLogger().println("Abort rule fired: " + firedRule + " (" + statistics.describe() + ")");
+                    statistics.setAbortedBy(firedRule.toString());
+                    proc.kill();
+                    break;
+                }
+            }
+            if (firedRule == null) {
+                poll();
+            }
+        } catch (InterruptedException e) {
+            proc.kill();
+            throw e;
+        } finally {
+            statistics.setRunning(false);
+        }
+        return proc.join();
+    }
+
+    private AbortRule evaluate(long now) {
+        double[] values = statistics.getValues();
+        for (AbortRule rule : abortRules) {
+            if (rule.check(header, values, now)) {
+                return rule;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Logs the rules whose metric is not in the export, since they can never fire.
+     */
+    private void warnUnmatched() {
+        for (AbortRule rule : abortRules) {
+            if (!rule.appliesTo(header)) {
+                listener.getLogger().println("WARN : Abort rule \"" + rule + "\" matches no statistics column and will not be checked");
+            }
+        }
+    }
+
+    /**
+     * @return true if new statistics were read
+     */
+    boolean poll() throws InterruptedException {
+        StatisticsTail.Delta d;
+        try {
+            d = statisticsFile.act(new StatisticsTail(offset, delimiter));
+        } catch (IOException e) {
+            listener.getLogger().println("Error reading statistics " + statisticsFile + ": " + e.getLocalizedMessage());
+            return false;
+        }
+        if (d.header != null) {
+            header = d.header;
+            delimiter = d.delimiter;
+            warnUnmatched();
+        }
+        offset = d.offset;
+        if (d.last == null || header == null) {
+            return false;
+        }
+        statistics.update(header, d.last, d.rows);
+        return true;
+    }
+}
@@ -0,0 +1,89 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Verdict of a single WebLOAD load session as read from the results file.
+ * Kept small so it can be sent back from the agent instead of the raw file.
+ */
+public class SessionResult implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String sessionReturnCode;
+    private final String errorDescription;
+    private final List<TransactionVerdict> transactions;
+    private final boolean truncated;
+
+    public SessionResult(String sessionReturnCode, String errorDescription, List<TransactionVerdict> transactions, boolean truncated) {
+        this.sessionReturnCode = sessionReturnCode;
+        this.errorDescription = errorDescription;
+        this.transactions = new ArrayList<TransactionVerdict>(transactions);
+        this.truncated = truncated;
+    }
+
+    public String getSessionReturnCode() {
+        return sessionReturnCode;
+    }
+
+    public String getErrorDescription() {
+        return errorDescription;
+    }
+
+    public List<TransactionVerdict> getTransactions() {
+        return Collections.unmodifiableList(transactions);
+    }
+
+    /**
+     * True if the results file had more transactions than the parser keeps.
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public boolean isPassed() {
+        return "Passed".equalsIgnoreCase(sessionReturnCode);
+    }
+
+    public int getFailedTransactionCount() {
+        int failed = 0;
+        for (TransactionVerdict t : transactions) {
+            if (!t.isPassed()) {
+                failed++;
+            }
+        }
+        return failed;
+    }
+
+    public static class TransactionVerdict implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String verdict;
+
+        public TransactionVerdict(String name, String verdict) {
+            this.name = name;
+            this.verdict = verdict;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getVerdict() {
+            return verdict;
+        }
+
+        public boolean isPassed() {
+            return "Passed".equalsIgnoreCase(verdict);
+        }
+    }
+}
@@ -0,0 +1,555 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.remoting.RemoteOutputStream;
+import hudson.remoting.VirtualChannel;
+import hudson.util.ArgumentListBuilder;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import jenkins.security.MasterToSlaveCallable;
+
+/**
+ * Stand-in for the WebLOAD executables, running in the agent JVM.
+ * <p>
+ * A session runs for its execution duration, divided by {@code speed}, printing console
+ * lines and appending to the live statistics and response times exports as it goes;
+ * at the end it writes the per-transaction statistics, a load session file of
+ * {@code lsSize} KB and the results file. A report generation writes one report of
+ * {@code reportSize} KB, or a JUnit report of the transactions. Sizes and rates are
+ * read from system properties named after this class on the controller, for example
+ * {@code hudson.plugins.webload.SimulatedExecutor.speed}.
+ * <p>
+ * Output crosses the channel the way it does for a real process, so that the
+ * controller's memory and the remoting traffic are those of real builds.
+ */
+final class SimulatedExecutor extends SessionExecutor {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final String PREFIX = SimulatedExecutor.class.getName();
+
+    /** Simulations running on this node, by id. */
+    private static final Map<String, Simulation> RUNNING = new ConcurrentHashMap<String, Simulation>();
+
+    private static final long TICK = 100;
+
+    /** Simulated seconds per second. */
+    private final double speed = Double.parseDouble(System.getProperty(PREFIX + ".speed", "1"));
+    /** Seconds, for sessions run without a duration. */
+    private final long defaultDuration = Long.getLong(PREFIX + ".defaultDuration", 60);
+    /** Clients, for sessions run without a number of clients. */
+    private final long defaultClients = Long.getLong(PREFIX + ".defaultClients", 10);
+    private final int transactions = Integer.getInteger(PREFIX + ".transactions", 20);
+    /** KB. */
+    private final long lsSize = Long.getLong(PREFIX + ".lsSize", 1024);
+    /** KB. */
+    private final long reportSize = Long.getLong(PREFIX + ".reportSize", 256);
+    /** Console lines per second. */
+    private final int consoleRate = Integer.getInteger(PREFIX + ".consoleRate", 5);
+    /** Milliseconds between live statistics lines. */
+    private final long statisticsInterval = Long.getLong(PREFIX + ".statisticsInterval", 1000);
+    /** Measured transactions per second. */
+    private final int responseRate = Integer.getInteger(PREFIX + ".responseRate", 200);
+    private final double errorPercent = Double.parseDouble(System.getProperty(PREFIX + ".errorPercent", "1"));
+    /** Transactions reported as failed, the session failing with them. */
+    private final int failedTransactions = Integer.getInteger(PREFIX + ".failedTransactions", 0);
+
+    String executable(InstallationResolver.Home home, String name) {
+        return name;
+    }
+
+    ArgumentListBuilder command(ArgumentListBuilder args) {
+        return args;
+    }
+
+    Proc launch(Launcher launcher, ArgumentListBuilder args, EnvVars envVars, FilePath pwd, Exports exports,
+            OutputStream out) throws IOException, InterruptedException {
+        VirtualChannel channel = launcher.getChannel();
+        if (channel == null) {
+            throw new IOException("Node is offline");
+        }
+        String id = channel.call(new Start(this, args, pwd == null ? null : pwd.getRemote(), exports,
+                new RemoteOutputStream(out)));
+        return new RemoteSimulation(channel, id);
+    }
+
+    Proc launchLocal(ArgumentListBuilder args, EnvVars envVars, File pwd, Exports exports, OutputStream out) {
+        return new Simulation(this, args.toList(), pwd, exports, out);
+    }
+
+    /**
+     * Runs a session as {@link WebLoadConsoleBuilder#sessionArguments} describes it.
+     *
+     * @return the exit code
+     */
+    int session(Simulation s) throws IOException, InterruptedException {
+        List<String> args = s.args;
+        File ls = file(s.pwd, args.get(2));
+        long clients = 0;
+        long duration = defaultDuration;
+        File results = null;
+        for (int i = 3; i < args.size(); i++) {
+            String a = args.get(i);
+            if (a.equals("/vc") || a.equals("/pc")) {
+                clients += Long.parseLong(args.get(++i));
+            } else if (a.equals("/ar") && i + 1 < args.size() && args.get(i + 1).matches("\\d+")) {
+                duration = Long.parseLong(args.get(++i));
+            } else if (a.equals("/rc")) {
+                results = file(s.pwd, args.get(++i));
+            }
+        }
+        if (clients == 0) {
+            clients = defaultClients;
+        }
+
+        Random random = new Random();
+        double[] base = new double[transactions];
+        LatencyHistogram[] histograms = new LatencyHistogram[transactions];
+        long[] errors = new long[transactions];
+        for (int i = 0; i < transactions; i++) {
+            // response times grow with the load, as on a server nearing its capacity
+            base[i] = (0.05 + 0.02 * i) * (1 + clients / 500.0);
+            histograms[i] = new LatencyHistogram();
+        }
+        Writer statistics = writer(s.exports.statistics, "Elapsed Time,Throughput,Hits Per Second,Response Time,Errors");
+        Writer responseTimes = writer(s.exports.responseTimes, "Transaction,Response Time,Status");
+        try {
+            print(s.out, "Simulated WebLOAD session " + ls.getName() + ": " + clients + " clients for " + duration + " s");
+            long start = System.currentTimeMillis();
+            long responses = 0;
+            long lines = 0;
+            long statisticsLines = 0;
+            long windowCount = 0;
+            long windowErrors = 0;
+            double windowTime = 0;
+            long millis = 0;
+            while (millis * speed < duration * 1000) {
+                Thread.sleep(TICK);
+                if (s.killed) {
+                    return -1;
+                }
+                millis = System.currentTimeMillis() - start;
+                for (; responses < millis * responseRate / 1000; responses++) {
+                    int t = random.nextInt(transactions);
+                    double time = base[t] * Math.exp(0.5 * random.nextGaussian());
+                    boolean error = random.nextDouble() * 100 < errorPercent;
+                    histograms[t].record((long) (time * 1e6));
+                    windowCount++;
+                    windowTime += time;
+                    if (error) {
+                        errors[t]++;
+                        windowErrors++;
+                    }
+                    if (responseTimes != null) {
+                        responseTimes.write(name(t) + "," + format(time) + "," + (error ? "Failed" : "Passed") + "\n");
+                    }
+                }
+                if (statistics != null && millis >= (statisticsLines + 1) * statisticsInterval) {
+                    double seconds = statisticsInterval * speed / 1000;
+                    statistics.write((long) (millis * speed / 1000) + "," + format(windowCount / seconds) + ","
+                            + format(windowCount * 3 / seconds) + "," + format(windowCount == 0 ? 0 : windowTime / windowCount)
+                            + "," + windowErrors + "\n");
+                    statistics.flush();
+                    statisticsLines++;
+                    windowCount = 0;
+                    windowErrors = 0;
+                    windowTime = 0;
+                }
+                for (; lines < millis * consoleRate / 1000; lines++) {
+                    if (lines % 10 == 9) {
+                        print(s.out, "Warning: slow response on " + name(random.nextInt(transactions)));
+                    } else {
+                        print(s.out, "Elapsed " + (long) (millis * speed / 1000) + " s, " + responses + " transactions");
+                    }
+                }
+            }
+        } finally {
+            if (statistics != null) {
+                statistics.close();
+            }
+            if (responseTimes != null) {
+                responseTimes.close();
+            }
+        }
+
+        if (s.exports.transactionStatistics != null) {
+            Writer w = writer(s.exports.transactionStatistics, "Transaction,Count,Mean,P50,P90,P95,P99,Errors");
+            try {
+                for (int t = 0; t < transactions; t++) {
+                    LatencyHistogram h = histograms[t];
+                    w.write(name(t) + "," + h.getTotalCount() + "," + format(h.getMean() / 1e6) + ","
+                            + format(h.getValueAtPercentile(50) / 1e6) + "," + format(h.getValueAtPercentile(90) / 1e6) + ","
+                            + format(h.getValueAtPercentile(95) / 1e6) + "," + format(h.getValueAtPercentile(99) / 1e6) + ","
+                            + errors[t] + "\n");
+                }
+            } finally {
+                w.close();
+            }
+        }
+        writeRandom(ls, lsSize * 1024, random);
+
+        StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        StringBuilder verdicts = new StringBuilder();
+        for (int t = 0; t < transactions; t++) {
+            boolean failed = t >= transactions - failedTransactions;
+            verdicts.append("  <Transaction Name=\"").append(name(t)).append("\" Status=\"")
+                    .append(failed ? "Failed" : "Passed").append("\"/>\n");
+        }
+        xml.append("<Results SessionReturnCode=\"").append(failedTransactions > 0 ? "Failed" : "Passed")
+                .append("\" ErrorDescription=\"\">\n").append(verdicts).append("</Results>\n");
+        if (results != null) {
+            write(results, xml.toString());
+        }
+        print(s.out, "Session ended, " + ls.getName() + " saved");
+        return 0;
+    }
+
+    /**
+     * Generates reports as {@link WebLoadAnalyticsBuilder#analyticsArguments} describes them.
+     *
+     * @return the exit code
+     */
+    int report(Simulation s) throws IOException, InterruptedException {
+        List<String> args = s.args;
+        String ls = null;
+        int compared = 0;
+        String format = "HTML";
+        File location = s.pwd;
+        String name = null;
+        for (int i = 1; i + 1 < args.size(); i++) {
+            String a = args.get(i);
+            if (a.equals("-ls")) {
+                if (ls == null) {
+                    ls = args.get(++i);
+                } else {
+                    compared++;
+                    i++;
+                }
+            } else if (a.equals("-f")) {
+                format = args.get(++i);
+            } else if (a.equals("-l")) {
+                location = file(s.pwd, args.get(++i));
+            } else if (a.equals("-n")) {
+                name = args.get(++i);
+            }
+        }
+        if (ls == null || !file(s.pwd, ls).isFile()) {
+            print(s.out, "Load session file not found: " + ls);
+            return 1;
+        }
+        print(s.out, "Simulated WebLOAD Analytics: " + format + " report of " + new File(ls).getName()
+                + " compared to " + compared + " sessions");
+        if (name == null) {
+            name = new File(ls).getName().replaceFirst("\\.[^.]*$", "");
+        }
+        // reading the compared sessions is what takes most of the time
+        Thread.sleep((long) ((1 + compared) * 1000 / speed));
+        if (s.killed) {
+            return -1;
+        }
+        location.mkdirs();
+        if (format.equals(WebLoadAnalyticsBuilder.OutputFormats.JUNIT.name())) {
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<testsuite name=\"")
+                    .append(name).append("\">\n");
+            Random random = new Random();
+            for (int t = 0; t < transactions; t++) {
+                xml.append("  <testcase classname=\"").append(name).append("\" name=\"").append(name(t))
+                        .append("\" time=\"").append(format(0.05 + 0.02 * t)).append("\">");
+                if (random.nextDouble() * 100 < errorPercent) {
+                    xml.append("<failure message=\"Simulated failure\"/>");
+                }
+                xml.append("</testcase>\n");
+            }
+            write(new File(location, name + ".xml"), xml.append("</testsuite>\n").toString());
+        } else {
+            writeRandom(new File(location, name + "." + format.toLowerCase(Locale.ENGLISH)), reportSize * 1024, new Random());
+        }
+        return 0;
+    }
+
+    private static String name(int transaction) {
+        return "Transaction " + (transaction + 1);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ENGLISH, "%.4f", value);
+    }
+
+    private static File file(File pwd, String path) {
+        File f = new File(path);
+        return f.isAbsolute() ? f : new File(pwd, path);
+    }
+
+    private static void print(OutputStream out, String line) throws IOException {
+        out.write((line + "\n").getBytes("UTF-8"));
+        out.flush();
+    }
+
+    private static Writer writer(String path, String header) throws IOException {
+        if (path == null) {
+            return null;
+        }
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path), "UTF-8"));
+        w.write(header + "\n");
+        return w;
+    }
+
+    private static void write(File f, String text) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        try {
+            w.write(text);
+        } finally {
+            w.close();
+        }
+    }
+
+    /**
+     * Random content, so that files of different sessions share no chunks.
+     */
+    private static void writeRandom(File f, long bytes, Random random) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(f), 64 * 1024);
+        try {
+            byte[] buf = new byte[8192];
+            for (long left = bytes; left > 0; left -= buf.length) {
+                random.nextBytes(buf);
+                out.write(buf, 0, (int) Math.min(buf.length, left));
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * A session or report generation running in a thread of this JVM.
+     */
+    private static final class Simulation extends Proc implements Runnable {
+        final SimulatedExecutor executor;
+        final List<String> args;
+        final File pwd;
+        final Exports exports;
+        final OutputStream out;
+        private final Thread thread;
+        volatile boolean killed;
+        private boolean done;
+        private int exitCode;
+
+        Simulation(SimulatedExecutor executor, List<String> args, File pwd, Exports exports, OutputStream out) {
+            this.executor = executor;
+            this.args = args;
+            this.pwd = pwd;
+            this.exports = exports == null ? Exports.NONE : exports;
+            this.out = out;
+            thread = new Thread(this, "Simulated " + args.get(0));
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            int code = -1;
+            try {
+                if (args.get(0).endsWith(InstallationResolver.ANALYTICS_EXECUTABLE)) {
+                    code = executor.report(this);
+                } else {
+                    code = executor.session(this);
+                }
+            } catch (IOException e) {
+                try {
+                    print(out, "Simulation failed: " + e);
+                } catch (IOException x) {
+                    // nowhere left to report it
+                }
+                code = 1;
+            } catch (InterruptedException e) {
+                // killed
+            } finally {
+                synchronized (this) {
+                    exitCode = code;
+                    done = true;
+                    notifyAll();
+                }
+            }
+        }
+
+        @Override
+        public synchronized boolean isAlive() {
+            return !done;
+        }
+
+        @Override
+        public void kill() throws InterruptedException {
+            killed = true;
+            thread.interrupt();
+            join();
+        }
+
+        @Override
+        public synchronized int join() throws InterruptedException {
+            while (!done) {
+                wait();
+            }
+            return exitCode;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
+
+    /**
+     * A simulation on another node, seen from the controller.
+     */
+    private static final class RemoteSimulation extends Proc {
+        private final VirtualChannel channel;
+        private final String id;
+        private Integer exitCode;
+
+        RemoteSimulation(VirtualChannel channel, String id) {
+            this.channel = channel;
+            this.id = id;
+        }
+
+        @Override
+        public synchronized boolean isAlive() throws IOException, InterruptedException {
+            if (exitCode == null) {
+                exitCode = channel.call(new Poll(id, false));
+            }
+            return exitCode == null;
+        }
+
+        @Override
+        public void kill() throws IOException, InterruptedException {
+            channel.call(new Kill(id));
+        }
+
+        @Override
+        public int join() throws IOException, InterruptedException {
+            synchronized (this) {
+                if (exitCode != null) {
+                    return exitCode;
+                }
+            }
+            try {
+                return channel.call(new Poll(id, true));
+            } catch (InterruptedException e) {
+                channel.call(new Kill(id));
+                throw e;
+            }
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
+
+    private static final class Start extends MasterToSlaveCallable<String, IOException> {
+        private static final long serialVersionUID = 1L;
+
+        private final SimulatedExecutor executor;
+        private final ArgumentListBuilder args;
+        private final String pwd;
+        private final Exports exports;
+        private final OutputStream out;
+
+        Start(SimulatedExecutor executor, ArgumentListBuilder args, String pwd, Exports exports, OutputStream out) {
+            this.executor = executor;
+            this.args = args;
+            this.pwd = pwd;
+            this.exports = exports;
+            this.out = out;
+        }
+
+        public String call() throws IOException {
+            String id = UUID.randomUUID().toString();
+            RUNNING.put(id, new Simulation(executor, args.toList(), pwd == null ? null : new File(pwd), exports, out));
+            return id;
+        }
+    }
+
+    /**
+     * Exit code of a simulation, forgotten once returned; null if it is still running and not waited for.
+     */
+    private static final class Poll extends MasterToSlaveCallable<Integer, InterruptedException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+        private final boolean wait;
+
+        Poll(String id, boolean wait) {
+            this.id = id;
+            this.wait = wait;
+        }
+
+        public Integer call() throws InterruptedException {
+            Simulation s = RUNNING.get(id);
+            if (s == null) {
+                return -1;
+            }
+            if (!wait && s.isAlive()) {
+                return null;
+            }
+            int code = s.join();
+            RUNNING.remove(id);
+            return code;
+        }
+    }
+
+    private static final class Kill extends MasterToSlaveCallable<Void, InterruptedException> {
+        private static final long serialVersionUID = 1L;
+
+        private final String id;
+
+        Kill(String id) {
+            this.id = id;
+        }
+
+        public Void call() throws InterruptedException {
+            Simulation s = RUNNING.remove(id);
+            if (s != null) {
+                s.kill();
+            }
+            return null;
+        }
+    }
+}
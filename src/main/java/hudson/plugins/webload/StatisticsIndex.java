@@ -0,0 +1,278 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Offset index of a statistics export, so a time window can be read without
+ * scanning the file.
+ * <p>
+ * There is one entry per minute of the session: the minute, the byte offset
+ * of its first row and the number of rows before it. Minutes are counted from
+ * the time of the first row, so a column of absolute timestamps works as well
+ * as elapsed time. Exports without a time column are indexed every
+ * {@link #ROWS_PER_ENTRY} rows instead.
+ */
+public final class StatisticsIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x574c4931; // "WLI1"
+
+    static final int ROWS_PER_ENTRY = 100;
+
+    static final String[] ELAPSED_TIME = { "elapsed time", "elapsed", "time", "timestamp" };
+
+    final String[] header;
+    final char delimiter;
+    /** Whether the keys are minutes, otherwise row blocks. */
+    final boolean timed;
+    final int[] keys;
+    final long[] offsets;
+    final long[] rows;
+    final long length;
+    final long rowCount;
+
+    StatisticsIndex(String[] header, char delimiter, boolean timed, int[] keys, long[] offsets, long[] rows,
+            long length, long rowCount) {
+        this.header = header;
+        this.delimiter = delimiter;
+        this.timed = timed;
+        this.keys = keys;
+        this.offsets = offsets;
+        this.rows = rows;
+        this.length = length;
+        this.rowCount = rowCount;
+    }
+
+    public boolean isTimed() {
+        return timed;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Last indexed minute, or row block.
+     */
+    public int getLastKey() {
+        return keys.length == 0 ? 0 : keys[keys.length - 1];
+    }
+
+    /**
+     * Entry of the first row at or after a key.
+     *
+     * @return {@link #size()} if there is none
+     */
+    int ceiling(int key) {
+        int i = Arrays.binarySearch(keys, key);
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Byte offset where the window of keys {@code from} (inclusive) to {@code to}
+     * (exclusive) begins; the window ends at {@code offset(to)}.
+     */
+    long offset(int key) {
+        int i = ceiling(key);
+        return i < keys.length ? offsets[i] : length;
+    }
+
+    long rowsBefore(int key) {
+        int i = ceiling(key);
+        return i < keys.length ? rows[i] : rowCount;
+    }
+
+    void write(File f) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(header.length);
+            for (String h : header) {
+                out.writeUTF(h);
+            }
+            out.writeChar(delimiter);
+            out.writeBoolean(timed);
+            out.writeLong(length);
+            out.writeLong(rowCount);
+            out.writeInt(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                out.writeInt(keys[i]);
+                out.writeLong(offsets[i]);
+                out.writeLong(rows[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static StatisticsIndex read(File f) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(f + " is not a statistics index");
+            }
+            String[] header = new String[in.readInt()];
+            for (int i = 0; i < header.length; i++) {
+                header[i] = in.readUTF();
+            }
+            char delimiter = in.readChar();
+            boolean timed = in.readBoolean();
+            long length = in.readLong();
+            long rowCount = in.readLong();
+            int n = in.readInt();
+            int[] keys = new int[n];
+            long[] offsets = new long[n];
+            long[] rows = new long[n];
+            for (int i = 0; i < n; i++) {
+                keys[i] = in.readInt();
+                offsets[i] = in.readLong();
+                rows[i] = in.readLong();
+            }
+            return new StatisticsIndex(header, delimiter, timed, keys, offsets, rows, length, rowCount);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Elapsed seconds of a time column, either a number of seconds or {@code [h:]m:s}.
+     *
+     * @return NaN if it is neither
+     */
+    static double parseElapsed(String s) {
+        if (s.indexOf(':') < 0) {
+            return StatisticsTail.parseValue(s);
+        }
+        double seconds = 0;
+        for (String part : s.split(":")) {
+            try {
+                seconds = seconds * 60 + Double.parseDouble(part.trim());
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+        return seconds;
+    }
+
+    static int timeColumn(String[] header) {
+        for (String alias : ELAPSED_TIME) {
+            String wanted = Columns.normalize(alias);
+            for (int i = 0; i < header.length; i++) {
+                if (Columns.normalize(header[i]).equals(wanted)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes a statistics export in one sequential pass on the node that has it.
+     */
+    static final class Build extends MasterToSlaveFileCallable<StatisticsIndex> {
+
+        private static final long serialVersionUID = 1L;
+
+        public StatisticsIndex invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+            InputStream in = new BufferedInputStream(new FileInputStream(f), 64 * 1024);
+            try {
+                return index(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    static StatisticsIndex index(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+        long pos = 0;
+        long lineStart = 0;
+        String[] header = null;
+        char sep = ',';
+        int timeColumn = -1;
+        double firstTime = Double.NaN;
+        long rowCount = 0;
+        int n = 0;
+        int[] keys = new int[64];
+        long[] offsets = new long[64];
+        long[] rows = new long[64];
+        int b;
+        do {
+            b = in.read();
+            if (b >= 0) {
+                pos++;
+            }
+            if (b >= 0 && b != '\n') {
+                if (b != '\r') {
+                    line.write(b);
+                }
+                continue;
+            }
+            if (line.size() > 0) {
+                String text = line.toString("UTF-8");
+                if (header == null) {
+                    sep = StatisticsTail.detectDelimiter(text);
+                    header = StatisticsTail.split(text, sep);
+                    timeColumn = timeColumn(header);
+                } else {
+                    int key;
+                    if (timeColumn >= 0) {
+                        String[] cols = StatisticsTail.split(text, sep);
+                        double t = timeColumn < cols.length ? parseElapsed(cols[timeColumn]) : Double.NaN;
+                        if (Double.isNaN(firstTime)) {
+                            firstTime = t;
+                        }
+                        key = Double.isNaN(t) ? -1 : (int) Math.floor((t - firstTime) / 60);
+                    } else {
+                        key = (int) (rowCount / ROWS_PER_ENTRY);
+                    }
+                    if (key >= 0 && (n == 0 || key > keys[n - 1])) {
+                        if (n == keys.length) {
+                            keys = Arrays.copyOf(keys, n * 2);
+                            offsets = Arrays.copyOf(offsets, n * 2);
+                            rows = Arrays.copyOf(rows, n * 2);
+                        }
+                        keys[n] = key;
+                        offsets[n] = lineStart;
+                        rows[n] = rowCount;
+                        n++;
+                    }
+                    rowCount++;
+                }
+            }
+            line.reset();
+            lineStart = pos;
+        } while (b >= 0);
+        if (header == null) {
+            header = new String[0];
+        }
+        return new StatisticsIndex(header, sep, timeColumn >= 0, Arrays.copyOf(keys, n),
+                Arrays.copyOf(offsets, n), Arrays.copyOf(rows, n), pos, rowCount);
+    }
+}
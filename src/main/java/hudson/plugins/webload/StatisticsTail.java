@@ -0,0 +1,237 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.remoting.VirtualChannel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.regex.Pattern;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Reads what was appended to a growing statistics export since the last poll.
+ * <p>
+ * The export is a delimited text file with a header line and one line per
+ * statistics interval. Each poll reads at most {@link #MAX_READ} bytes from the
+ * last known offset; if more than that was written in between, older lines are
+ * skipped since only the latest values are reported.
+ */
+class StatisticsTail extends MasterToSlaveFileCallable<StatisticsTail.Delta> {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int MAX_READ = 256 * 1024;
+    static final int MAX_HEADER = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final char[] DELIMITERS = { ',', ';', '\t' };
+
+    private final long offset;
+    private final char delimiter;
+
+    /**
+     * @param offset position of the first unread line, 0 to start with the header
+     * @param delimiter column delimiter found in the header, ignored when reading from 0
+     */
+    StatisticsTail(long offset, char delimiter) {
+        this.offset = offset;
+        this.delimiter = delimiter;
+    }
+
+    public Delta invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        if (!f.isFile()) {
+            return new Delta(offset, null, delimiter, 0, null, 0);
+        }
+        RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            return read(raf.getChannel());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private Delta read(FileChannel ch) throws IOException {
+        long size = ch.size();
+        long pos = offset;
+        if (size < pos) {
+            // the export was rewritten, start over
+            pos = 0;
+        }
+        String[] header = null;
+        char sep = delimiter;
+        if (pos == 0) {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(size, MAX_HEADER));
+            readFully(ch, buf, 0);
+            int nl = indexOf(buf, (byte) '\n', 0);
+            if (nl < 0) {
+                return new Delta(0, null, sep, 0, null, 0);
+            }
+            String line = decode(buf, 0, nl);
+            sep = detectDelimiter(line);
+            header = split(line, sep);
+            pos = nl + 1;
+        }
+
+        long skipped = 0;
+        boolean partial = false;
+        if (size - pos > MAX_READ) {
+            skipped = size - MAX_READ - pos;
+            pos = size - MAX_READ;
+            partial = true;
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) (size - pos));
+        readFully(ch, buf, pos);
+        int limit = buf.position();
+
+        int start = 0;
+        if (partial) {
+            int nl = indexOf(buf, (byte) '\n', 0);
+            if (nl < 0) {
+                return new Delta(size, header, sep, 0, null, skipped + limit);
+            }
+            skipped += nl + 1;
+            start = nl + 1;
+        }
+        int lastNl = lastIndexOf(buf, (byte) '\n', limit);
+        if (lastNl < start) {
+            return new Delta(pos + start, header, sep, 0, null, skipped);
+        }
+
+        int rows = 0;
+        int lastStart = -1;
+        int lastEnd = -1;
+        int lineStart = start;
+        while (lineStart <= lastNl) {
+            int nl = indexOf(buf, (byte) '\n', lineStart);
+            if (nl - lineStart > 1 || (nl - lineStart == 1 && buf.get(lineStart) != '\r')) {
+                rows++;
+                lastStart = lineStart;
+                lastEnd = nl;
+            }
+            lineStart = nl + 1;
+        }
+        double[] last = null;
+        if (lastStart >= 0) {
+            last = parseRow(split(decode(buf, lastStart, lastEnd), sep));
+        }
+        return new Delta(pos + lastNl + 1, header, sep, rows, last, skipped);
+    }
+
+    private static void readFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos + buf.position());
+            if (n < 0) {
+                break;
+            }
+        }
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from) {
+        for (int i = from; i < buf.position(); i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(ByteBuffer buf, byte b, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String decode(ByteBuffer buf, int start, int end) {
+        if (end > start && buf.get(end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + i);
+        }
+        return new String(bytes, UTF8);
+    }
+
+    static char detectDelimiter(String header) {
+        char best = DELIMITERS[0];
+        int bestCount = -1;
+        for (char d : DELIMITERS) {
+            int count = 0;
+            for (int i = 0; i < header.length(); i++) {
+                if (header.charAt(i) == d) {
+                    count++;
+                }
+            }
+            if (count > bestCount) {
+                best = d;
+                bestCount = count;
+            }
+        }
+        return best;
+    }
+
+    static String[] split(String line, char sep) {
+        String[] cols = line.split(Pattern.quote(String.valueOf(sep)), -1);
+        for (int i = 0; i < cols.length; i++) {
+            String c = cols[i].trim();
+            if (c.length() >= 2 && c.charAt(0) == '"' && c.charAt(c.length() - 1) == '"') {
+                c = c.substring(1, c.length() - 1).trim();
+            }
+            cols[i] = c;
+        }
+        return cols;
+    }
+
+    static double[] parseRow(String[] cols) {
+        double[] values = new double[cols.length];
+        for (int i = 0; i < cols.length; i++) {
+            values[i] = parseValue(cols[i]);
+        }
+        return values;
+    }
+
+    static double parseValue(String s) {
+        if (s.endsWith("%")) {
+            s = s.substring(0, s.length() - 1).trim();
+        }
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * What a poll found; only the last complete line is sent back.
+     */
+    static final class Delta implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        final long offset;
+        final String[] header;
+        final char delimiter;
+        final int rows;
+        final double[] last;
+        final long skippedBytes;
+
+        Delta(long offset, String[] header, char delimiter, int rows, double[] last, long skippedBytes) {
+            this.offset = offset;
+            this.header = header;
+            this.delimiter = delimiter;
+            this.rows = rows;
+            this.last = last;
+            this.skippedBytes = skippedBytes;
+        }
+    }
+}
@@ -0,0 +1,308 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.ref.SoftReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerResponse;
+
+/**
+ * Pages through the statistics export of a build by time window.
+ * <p>
+ * The export is copied into the build directory with a {@link StatisticsIndex}
+ * when the session ends. A page reads only from the start of its window, so
+ * looking at any minute of a long session costs the same. The file is read
+ * rather than memory mapped, so nothing keeps it open once a page is served.
+ */
+public class StatisticsViewerAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(StatisticsViewerAction.class.getName());
+
+    static final String DATA_FILE_NAME = "webload-statistics.csv";
+    static final String INDEX_FILE_NAME = "webload-statistics.idx";
+
+    static final int PAGE_ROWS = 500;
+
+    /**
+     * Minutes shown when no window is asked for.
+     */
+    static final int DEFAULT_WINDOW = 5;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final long rowCount;
+    private final boolean timed;
+    private final int lastKey;
+
+    private transient Run<?, ?> run;
+    private transient SoftReference<StatisticsIndex> index;
+
+    private StatisticsViewerAction(Run<?, ?> run, StatisticsIndex index) {
+        this.run = run;
+        this.rowCount = index.getRowCount();
+        this.timed = index.isTimed();
+        this.lastKey = index.getLastKey();
+        this.index = new SoftReference<StatisticsIndex>(index);
+    }
+
+    /**
+     * Indexes the statistics export on its node and copies it with the index into the build directory.
+     */
+    static StatisticsViewerAction record(Run<?, ?> run, FilePath statisticsFile, TaskListener listener)
+            throws IOException, InterruptedException {
+        StatisticsIndex index = statisticsFile.act(new StatisticsIndex.Build());
+        statisticsFile.copyTo(new FilePath(new File(run.getRootDir(), DATA_FILE_NAME)));
+        index.write(new File(run.getRootDir(), INDEX_FILE_NAME));
+        listener.getLogger().println("Indexed " + index.getRowCount() + " statistics rows"
+                + (index.isTimed() ? " over " + (index.getLastKey() + 1) + " minutes" : ""));
+        return new StatisticsViewerAction(run, index);
+    }
+
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Session Statistics";
+    }
+
+    public String getUrlName() {
+        return "webload-statistics";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Whether the export has an elapsed time column, so windows are in minutes.
+     */
+    public boolean isTimed() {
+        return timed;
+    }
+
+    /**
+     * Last minute of the session, if timed.
+     */
+    public int getLastMinute() {
+        return timed ? lastKey : 0;
+    }
+
+    synchronized StatisticsIndex getIndex() throws IOException {
+        StatisticsIndex i = index == null ? null : index.get();
+        if (i == null) {
+            i = StatisticsIndex.read(new File(run.getRootDir(), INDEX_FILE_NAME));
+            index = new SoftReference<StatisticsIndex>(i);
+        }
+        return i;
+    }
+
+    /**
+     * One page of the rows between minutes {@code from} (inclusive) and {@code to} (exclusive),
+     * by default the first five minutes. Exports without time are paged from their first row
+     * whatever the window.
+     *
+     * @return null if the export can't be read
+     */
+    public Slice getSlice(String from, String to, String page) {
+        int f = parse(from, 0);
+        int t = parse(to, f + DEFAULT_WINDOW);
+        try {
+            return slice(getIndex(), new File(run.getRootDir(), DATA_FILE_NAME), timed ? f : 0,
+                    timed ? t : Integer.MAX_VALUE, Math.max(parse(page, 0), 0));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read statistics of " + run, e);
+            return null;
+        }
+    }
+
+    private static int parse(String s, int defaultValue) {
+        try {
+            return s == null ? defaultValue : Integer.parseInt(s.trim());
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    static Slice slice(StatisticsIndex index, File data, int from, int to, int page) throws IOException {
+        long windowStart = index.offset(from);
+        long windowEnd = to <= from ? windowStart : index.offset(to);
+        long firstRow = index.rowsBefore(from) + (long) page * PAGE_ROWS;
+
+        // closest indexed row at or before the first row of the page
+        long start = windowStart;
+        long row = index.rowsBefore(from);
+        for (int i = index.ceiling(from); i < index.size() && index.offsets[i] < windowEnd && index.rows[i] <= firstRow; i++) {
+            start = index.offsets[i];
+            row = index.rows[i];
+        }
+
+        List<String[]> rows = new ArrayList<String[]>();
+        boolean more = false;
+        RandomAccessFile raf = new RandomAccessFile(data, "r");
+        try {
+            long end = Math.min(windowEnd, raf.length());
+            FileChannel ch = raf.getChannel();
+            ch.position(start);
+            InputStream in = new BufferedInputStream(Channels.newInputStream(ch), BUFFER_SIZE);
+            ByteArrayOutputStream line = new ByteArrayOutputStream(256);
+            long pos = start;
+            while (pos < end) {
+                int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                pos++;
+                if (b != '\n') {
+                    if (b != '\r') {
+                        line.write(b);
+                    }
+                    if (pos < end) {
+                        continue;
+                    }
+                }
+                if (line.size() > 0) {
+                    if (row >= firstRow) {
+                        if (rows.size() == PAGE_ROWS) {
+                            more = true;
+                            break;
+                        }
+                        rows.add(StatisticsTail.split(line.toString("UTF-8"), index.delimiter));
+                    }
+                    row++;
+                }
+                line.reset();
+            }
+        } finally {
+            raf.close();
+        }
+        return new Slice(index.header, rows, from, to, page, firstRow, more);
+    }
+
+    /**
+     * Sends the rows of a window as delimited text, header first; by default
+     * the whole session.
+     */
+    public void doCsv(StaplerResponse rsp, @QueryParameter String from, @QueryParameter String to) throws IOException {
+        StatisticsIndex i = getIndex();
+        csv(rsp, i, timed ? parse(from, 0) : 0, timed ? parse(to, lastKey + 1) : Integer.MAX_VALUE);
+    }
+
+    private void csv(StaplerResponse rsp, StatisticsIndex i, int from, int to) throws IOException {
+        long start = i.offset(from);
+        long end = to <= from ? start : i.offset(to);
+        rsp.setContentType("text/csv;charset=UTF-8");
+        OutputStream out = rsp.getOutputStream();
+        StringBuilder header = new StringBuilder();
+        for (String h : i.header) {
+            if (header.length() > 0) {
+                header.append(i.delimiter);
+            }
+            header.append(h);
+        }
+        out.write(header.append("\r\n").toString().getBytes(UTF8));
+        RandomAccessFile raf = new RandomAccessFile(new File(run.getRootDir(), DATA_FILE_NAME), "r");
+        try {
+            FileChannel ch = raf.getChannel();
+            WritableByteChannel target = Channels.newChannel(out);
+            end = Math.min(end, ch.size());
+            while (start < end) {
+                long n = ch.transferTo(start, end - start, target);
+                if (n <= 0) {
+                    break;
+                }
+                start += n;
+            }
+        } finally {
+            raf.close();
+        }
+        out.flush();
+    }
+
+    /**
+     * A page of statistics rows.
+     */
+    public static final class Slice {
+        private final String[] header;
+        private final List<String[]> rows;
+        private final int from;
+        private final int to;
+        private final int page;
+        private final long firstRow;
+        private final boolean more;
+
+        Slice(String[] header, List<String[]> rows, int from, int to, int page, long firstRow, boolean more) {
+            this.header = header;
+            this.rows = Collections.unmodifiableList(rows);
+            this.from = from;
+            this.to = to;
+            this.page = page;
+            this.firstRow = firstRow;
+            this.more = more;
+        }
+
+        public String[] getHeader() {
+            return header;
+        }
+
+        public List<String[]> getRows() {
+            return rows;
+        }
+
+        public int getFrom() {
+            return from;
+        }
+
+        public int getTo() {
+            return to;
+        }
+
+        public int getPage() {
+            return page;
+        }
+
+        public long getFirstRow() {
+            return firstRow;
+        }
+
+        public boolean isMore() {
+            return more;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One {@link LatencyHistogram} and error count per transaction.
+ */
+public class TransactionHistograms implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x574c4831; // "WLH1"
+
+    private final List<String> names = new ArrayList<String>();
+    private final List<LatencyHistogram> histograms = new ArrayList<LatencyHistogram>();
+    private long[] errors = new long[8];
+    private transient Map<String, Integer> index;
+
+    public int size() {
+        return names.size();
+    }
+
+    public String getName(int i) {
+        return names.get(i);
+    }
+
+    public LatencyHistogram getHistogram(int i) {
+        return histograms.get(i);
+    }
+
+    public long getErrors(int i) {
+        return errors[i];
+    }
+
+    /**
+     * @return the histogram of the given transaction, or null
+     */
+    public LatencyHistogram get(String name) {
+        Integer i = index().get(name);
+        return i == null ? null : histograms.get(i);
+    }
+
+    private Map<String, Integer> index() {
+        if (index == null) {
+            index = new HashMap<String, Integer>();
+            for (int i = 0; i < names.size(); i++) {
+                index.put(names.get(i), i);
+            }
+        }
+        return index;
+    }
+
+    private int slot(String name) {
+        Integer i = index().get(name);
+        if (i == null) {
+            i = names.size();
+            names.add(name);
+            histograms.add(new LatencyHistogram());
+            index.put(name, i);
+            if (i >= errors.length) {
+                long[] grown = new long[errors.length * 2];
+                System.arraycopy(errors, 0, grown, 0, errors.length);
+                errors = grown;
+            }
+        }
+        return i;
+    }
+
+    void record(String name, long micros, boolean error) {
+        int i = slot(name);
+        histograms.get(i).record(micros);
+        if (error) {
+            errors[i]++;
+        }
+    }
+
+    /**
+     * Adds the values of another set of histograms, matching transactions by name.
+     */
+    public void add(TransactionHistograms other) {
+        for (int j = 0; j < other.size(); j++) {
+            int i = slot(other.names.get(j));
+            histograms.get(i).add(other.histograms.get(j));
+            errors[i] += other.errors[j];
+        }
+    }
+
+    /**
+     * Summary with counts, mean and percentiles (in seconds) computed from the histograms.
+     */
+    PerformanceSummary toSummary() {
+        PerformanceSummary s = new PerformanceSummary(size());
+        for (int i = 0; i < size(); i++) {
+            s.transactions[i] = names.get(i);
+            s.count[i] = histograms.get(i).getTotalCount();
+            s.errors[i] = errors[i];
+        }
+        applyTo(s);
+        return s;
+    }
+
+    /**
+     * Replaces mean and percentiles of the matching transactions of a summary
+     * with the values from the histograms.
+     */
+    void applyTo(PerformanceSummary s) {
+        for (int i = 0; i < s.size(); i++) {
+            LatencyHistogram h = get(s.transactions[i]);
+            if (h == null || h.getTotalCount() == 0) {
+                continue;
+            }
+            if (s.count[i] == 0) {
+                s.count[i] = h.getTotalCount();
+            }
+            s.mean[i] = h.getMean() / 1e6;
+            s.p50[i] = h.getValueAtPercentile(50) / 1e6;
+            s.p90[i] = h.getValueAtPercentile(90) / 1e6;
+            s.p95[i] = h.getValueAtPercentile(95) / 1e6;
+            s.p99[i] = h.getValueAtPercentile(99) / 1e6;
+        }
+    }
+
+    void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(size());
+            for (int i = 0; i < size(); i++) {
+                out.writeUTF(names.get(i));
+                out.writeLong(errors[i]);
+                histograms.get(i).write(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    static TransactionHistograms read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a WebLOAD histogram file: " + file);
+            }
+            TransactionHistograms h = new TransactionHistograms();
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                int slot = h.slot(in.readUTF());
+                h.errors[slot] = in.readLong();
+                h.histograms.set(slot, LatencyHistogram.read(in));
+            }
+            return h;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,316 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pass/fail results of the transactions of a session, one row per transaction
+ * however many times it ran, stored column by column.
+ * <p>
+ * In the stored file every distinct name is written once and rows refer to it
+ * by number, and names are shared again when the file is read.
+ */
+public class TransactionResults implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int MAGIC = 0x574c5431; // "WLT1"
+
+    /**
+     * Most transactions kept, further names are counted in {@link #getDropped()} only.
+     */
+    static final int MAX_TRANSACTIONS = 100000;
+
+    /**
+     * Longest failure message kept per transaction.
+     */
+    static final int MAX_MESSAGE = 1024;
+
+    private int size;
+    private String[] groups = new String[16];
+    private String[] names = new String[16];
+    private long[] count = new long[16];
+    private long[] failures = new long[16];
+    private long[] skipped = new long[16];
+    private double[] totalTime = new double[16];
+    private double[] maxTime = new double[16];
+    private String[] messages = new String[16];
+    private long dropped;
+
+    private transient Map<String, Integer> index;
+    private transient Map<String, String> interned;
+
+    public int size() {
+        return size;
+    }
+
+    public String getGroup(int i) {
+        return groups[i];
+    }
+
+    public String getName(int i) {
+        return names[i];
+    }
+
+    public long getCount(int i) {
+        return count[i];
+    }
+
+    public long getFailures(int i) {
+        return failures[i];
+    }
+
+    public long getSkipped(int i) {
+        return skipped[i];
+    }
+
+    public double getMeanTime(int i) {
+        long runs = count[i] - skipped[i];
+        return runs == 0 ? Double.NaN : totalTime[i] / runs;
+    }
+
+    public double getMaxTime(int i) {
+        return maxTime[i];
+    }
+
+    /**
+     * First failure message of a transaction, null if it never failed or gave none.
+     */
+    public String getMessage(int i) {
+        return messages[i];
+    }
+
+    /**
+     * Runs of transactions left out because there were too many distinct ones.
+     */
+    public long getDropped() {
+        return dropped;
+    }
+
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += count[i];
+        }
+        return total;
+    }
+
+    public long getTotalFailures() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += failures[i];
+        }
+        return total;
+    }
+
+    public long getTotalSkipped() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += skipped[i];
+        }
+        return total;
+    }
+
+    /**
+     * Rows of the transactions that failed at least once, most failures first.
+     */
+    public List<Integer> getFailed() {
+        List<Integer> failed = new ArrayList<Integer>();
+        for (int i = 0; i < size; i++) {
+            if (failures[i] > 0) {
+                failed.add(i);
+            }
+        }
+        Collections.sort(failed, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return failures[b] < failures[a] ? -1 : failures[b] == failures[a] ? 0 : 1;
+            }
+        });
+        return failed;
+    }
+
+    String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        if (interned == null) {
+            interned = new HashMap<String, String>();
+        }
+        String i = interned.get(s);
+        if (i == null) {
+            interned.put(s, s);
+            i = s;
+        }
+        return i;
+    }
+
+    private int row(String group, String name) {
+        if (index == null) {
+            index = new HashMap<String, Integer>();
+            for (int i = 0; i < size; i++) {
+                index.put(groups[i] + '\u0000' + names[i], i);
+            }
+        }
+        String key = group + '\u0000' + name;
+        Integer i = index.get(key);
+        if (i != null) {
+            return i;
+        }
+        if (size == MAX_TRANSACTIONS) {
+            return -1;
+        }
+        if (size == names.length) {
+            int n = size * 2;
+            groups = Arrays.copyOf(groups, n);
+            names = Arrays.copyOf(names, n);
+            count = Arrays.copyOf(count, n);
+            failures = Arrays.copyOf(failures, n);
+            skipped = Arrays.copyOf(skipped, n);
+            totalTime = Arrays.copyOf(totalTime, n);
+            maxTime = Arrays.copyOf(maxTime, n);
+            messages = Arrays.copyOf(messages, n);
+        }
+        groups[size] = intern(group);
+        names[size] = intern(name);
+        index.put(key, size);
+        return size++;
+    }
+
+    /**
+     * Records runs of a transaction.
+     *
+     * @param time total seconds of the runs
+     */
+    void record(String group, String name, long runs, long failed, long skippedRuns, double time, double max, String message) {
+        int i = row(group, name);
+        if (i < 0) {
+            dropped += runs;
+            return;
+        }
+        count[i] += runs;
+        failures[i] += failed;
+        skipped[i] += skippedRuns;
+        if (!Double.isNaN(time)) {
+            totalTime[i] += time;
+        }
+        if (max > maxTime[i]) {
+            maxTime[i] = max;
+        }
+        if (messages[i] == null && message != null) {
+            messages[i] = message.length() > MAX_MESSAGE ? message.substring(0, MAX_MESSAGE) : message;
+        }
+    }
+
+    /**
+     * Adds the results of another file of the same or another session.
+     */
+    void add(TransactionResults other) {
+        for (int i = 0; i < other.size; i++) {
+            record(other.groups[i], other.names[i], other.count[i], other.failures[i], other.skipped[i],
+                    other.totalTime[i], other.maxTime[i], other.messages[i]);
+        }
+        dropped += other.dropped;
+    }
+
+    void write(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            Map<String, Integer> strings = new HashMap<String, Integer>();
+            List<String> table = new ArrayList<String>();
+            int[] g = new int[size];
+            int[] n = new int[size];
+            for (int i = 0; i < size; i++) {
+                g[i] = stringIndex(groups[i], strings, table);
+                n[i] = stringIndex(names[i], strings, table);
+            }
+            out.writeInt(table.size());
+            for (String s : table) {
+                out.writeUTF(s);
+            }
+            out.writeInt(size);
+            out.writeLong(dropped);
+            for (int i = 0; i < size; i++) {
+                out.writeInt(g[i]);
+                out.writeInt(n[i]);
+                out.writeLong(count[i]);
+                out.writeLong(failures[i]);
+                out.writeLong(skipped[i]);
+                out.writeDouble(totalTime[i]);
+                out.writeDouble(maxTime[i]);
+                out.writeBoolean(messages[i] != null);
+                if (messages[i] != null) {
+                    out.writeUTF(messages[i]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    private static int stringIndex(String s, Map<String, Integer> strings, List<String> table) {
+        Integer i = strings.get(s);
+        if (i == null) {
+            i = table.size();
+            strings.put(s, i);
+            table.add(s);
+        }
+        return i;
+    }
+
+    static TransactionResults read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a transaction results file");
+            }
+            String[] table = new String[in.readInt()];
+            for (int i = 0; i < table.length; i++) {
+                table[i] = in.readUTF();
+            }
+            TransactionResults r = new TransactionResults();
+            int size = in.readInt();
+            r.dropped = in.readLong();
+            r.groups = new String[Math.max(size, 1)];
+            r.names = new String[r.groups.length];
+            r.count = new long[r.groups.length];
+            r.failures = new long[r.groups.length];
+            r.skipped = new long[r.groups.length];
+            r.totalTime = new double[r.groups.length];
+            r.maxTime = new double[r.groups.length];
+            r.messages = new String[r.groups.length];
+            for (int i = 0; i < size; i++) {
+                r.groups[i] = table[in.readInt()];
+                r.names[i] = table[in.readInt()];
+                r.count[i] = in.readLong();
+                r.failures[i] = in.readLong();
+                r.skipped[i] = in.readLong();
+                r.totalTime[i] = in.readDouble();
+                r.maxTime[i] = in.readDouble();
+                r.messages[i] = in.readBoolean() ? in.readUTF() : null;
+            }
+            r.size = size;
+            return r;
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.FilePath;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.model.RunAction2;
+
+/**
+ * Pass/fail results of the transactions of a build, read from the JUnit
+ * reports of WebLOAD Analytics.
+ * <p>
+ * Like {@link PerformanceSummaryAction}, the results are kept in their own
+ * file and only the totals are saved with the build.
+ */
+public class TransactionResultsAction implements RunAction2 {
+
+    private static final Logger LOGGER = Logger.getLogger(TransactionResultsAction.class.getName());
+
+    static final String FILE_NAME = "webload-transactions.bin";
+
+    /**
+     * Transactions above which all of them are only listed on request, the failed ones always are.
+     */
+    static final int MAX_LISTED = 1000;
+
+    private final int transactionCount;
+    private final long totalCount;
+    private final long totalFailures;
+    private final long totalSkipped;
+
+    private transient Run<?, ?> run;
+    private transient SoftReference<TransactionResults> results;
+
+    TransactionResultsAction(Run<?, ?> run, TransactionResults results) throws IOException {
+        this.run = run;
+        this.transactionCount = results.size();
+        this.totalCount = results.getTotalCount();
+        this.totalFailures = results.getTotalFailures();
+        this.totalSkipped = results.getTotalSkipped();
+        results.write(getFile());
+        this.results = new SoftReference<TransactionResults>(results);
+    }
+
+    /**
+     * Reads the JUnit reports among {@code names} in {@code dir}.
+     *
+     * @return null if there are none
+     */
+    static TransactionResults read(FilePath dir, Collection<String> names, TaskListener listener)
+            throws IOException, InterruptedException {
+        TransactionResults results = null;
+        for (String name : names) {
+            if (!name.toLowerCase(Locale.ENGLISH).endsWith(".xml")) {
+                continue;
+            }
+            TransactionResults r = dir.child(name).act(new JUnitResultsReader());
+            listener.getLogger().println("Read " + r.getTotalCount() + " transaction results from " + name);
+            if (results == null) {
+                results = r;
+            } else {
+                results.add(r);
+            }
+        }
+        return results;
+    }
+
+    public String getIconFileName() {
+        return "clipboard.png";
+    }
+
+    public String getDisplayName() {
+        return "WebLOAD Transaction Results";
+    }
+
+    public String getUrlName() {
+        return "webload-transactions";
+    }
+
+    public void onAttached(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public void onLoad(Run<?, ?> r) {
+        this.run = r;
+    }
+
+    public Run<?, ?> getRun() {
+        return run;
+    }
+
+    public int getTransactionCount() {
+        return transactionCount;
+    }
+
+    public long getTotalCount() {
+        return totalCount;
+    }
+
+    public long getTotalFailures() {
+        return totalFailures;
+    }
+
+    public long getTotalSkipped() {
+        return totalSkipped;
+    }
+
+    public int getMaxListed() {
+        return MAX_LISTED;
+    }
+
+    File getFile() {
+        return new File(run.getRootDir(), FILE_NAME);
+    }
+
+    /**
+     * @return the results, or null if their file can't be read
+     */
+    public synchronized TransactionResults getResults() {
+        TransactionResults r = results == null ? null : results.get();
+        if (r == null) {
+            try {
+                r = TransactionResults.read(getFile());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + getFile(), e);
+                return null;
+            }
+            results = new SoftReference<TransactionResults>(r);
+        }
+        return r;
+    }
+
+    public static String format(double value) {
+        return PerformanceSummaryAction.format(value);
+    }
+}
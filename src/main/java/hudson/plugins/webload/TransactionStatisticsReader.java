@@ -0,0 +1,89 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.remoting.VirtualChannel;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import jenkins.MasterToSlaveFileCallable;
+
+/**
+ * Reads the per-transaction statistics export of a session into a {@link PerformanceSummary}.
+ * <p>
+ * The export is delimited text with a header line and one line per transaction.
+ * Only the name column is required; count, mean, percentile and error columns are
+ * picked up when present.
+ */
+class TransactionStatisticsReader extends MasterToSlaveFileCallable<PerformanceSummary> {
+
+    private static final long serialVersionUID = 1L;
+
+    public PerformanceSummary invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(f), "UTF-8"));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    static PerformanceSummary read(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            return new PerformanceSummary(0);
+        }
+        char sep = StatisticsTail.detectDelimiter(line);
+        String[] header = StatisticsTail.split(line, sep);
+        int name = Columns.indexOf(header, "transaction", "name");
+        if (name < 0) {
+            throw new IOException("No transaction name column in " + line);
+        }
+        int count = Columns.indexOf(header, "count", "hits", "total");
+        int mean = Columns.indexOf(header, "mean", "average", "avg");
+        int p50 = Columns.indexOf(header, "p50", "median", "50th");
+        int p90 = Columns.indexOf(header, "p90", "90th");
+        int p95 = Columns.indexOf(header, "p95", "95th");
+        int p99 = Columns.indexOf(header, "p99", "99th");
+        int errors = Columns.indexOf(header, "errors", "failed", "error");
+
+        List<String[]> rows = new ArrayList<String[]>();
+        while ((line = in.readLine()) != null) {
+            if (line.trim().length() > 0) {
+                rows.add(StatisticsTail.split(line, sep));
+            }
+        }
+
+        PerformanceSummary s = new PerformanceSummary(rows.size());
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            s.transactions[i] = column(row, name);
+            s.count[i] = (long) zeroIfNaN(number(row, count));
+            s.mean[i] = number(row, mean);
+            s.p50[i] = number(row, p50);
+            s.p90[i] = number(row, p90);
+            s.p95[i] = number(row, p95);
+            s.p99[i] = number(row, p99);
+            s.errors[i] = (long) zeroIfNaN(number(row, errors));
+        }
+        return s;
+    }
+
+    private static String column(String[] row, int i) {
+        return i < row.length ? row[i] : "";
+    }
+
+    private static double number(String[] row, int i) {
+        return (i < 0 || i >= row.length) ? Double.NaN : StatisticsTail.parseValue(row[i]);
+    }
+
+    private static double zeroIfNaN(double d) {
+        return Double.isNaN(d) ? 0 : d;
+    }
+}
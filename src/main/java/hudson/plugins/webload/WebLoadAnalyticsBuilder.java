@@ -9,24 +9,29 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
-import hudson.model.AbstractBuild;
+import hudson.Util;
 import hudson.model.AbstractProject;
-import hudson.model.BuildListener;
 import hudson.model.Descriptor;
+import hudson.model.Node;
+import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.Builder;
 import hudson.util.ArgumentListBuilder;
 import hudson.util.ComboBoxModel;
 import hudson.util.FormValidation;
-import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
+import java.util.Locale;
 import javax.servlet.ServletException;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -34,7 +39,7 @@ import org.kohsuke.stapler.StaplerRequest;
  *
  * @author yams
  */
-public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
+public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ implements SimpleBuildStep {
 
     public enum OutputFormats { JUNIT, HTML,DOC,ODT,XLS,XLSX,RTF,PDF,CSV,RAW }
     
@@ -45,6 +50,14 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
     private final String reportName;
     private final String compareToSessions;
     private final int compareToPreviousBuilds;
+    private String installation;
+    private String additionalFormats;
+    private boolean background;
+    private boolean cacheReports;
+    private boolean publishResults;
+    private int regressionBaseline;
+    private double regressionUnstable = 10;
+    private double regressionFailure = 25;
 
     @DataBoundConstructor
     public WebLoadAnalyticsBuilder(String inputLsFile, String portfolioFile, OutputFormats format, String location, String reportName, String compareToSessions, int compareToPreviousBuilds) {
@@ -85,91 +98,252 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
     public int getCompareToPreviousBuilds() {
         return compareToPreviousBuilds;
     }
+
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(String installation) {
+        this.installation = Util.fixEmpty(installation);
+    }
+
+    public String getAdditionalFormats() {
+        return additionalFormats;
+    }
+
+    /**
+     * Further formats to generate besides {@link #getFormat()}, separated by commas.
+     */
+    @DataBoundSetter
+    public void setAdditionalFormats(String additionalFormats) {
+        this.additionalFormats = Util.fixEmptyAndTrim(additionalFormats);
+    }
+
+    public boolean isBackground() {
+        return background;
+    }
+
+    /**
+     * Whether the reports are generated on the {@link ReportQueue} after the build instead of in it.
+     */
+    @DataBoundSetter
+    public void setBackground(boolean background) {
+        this.background = background;
+    }
+
+    public boolean isCacheReports() {
+        return cacheReports;
+    }
+
+    /**
+     * Whether reports are taken from the {@link ReportCache} when the same sessions
+     * were already reported the same way.
+     */
+    @DataBoundSetter
+    public void setCacheReports(boolean cacheReports) {
+        this.cacheReports = cacheReports;
+    }
+
+    public boolean isPublishResults() {
+        return publishResults;
+    }
+
+    /**
+     * Whether the transaction results of the JUnit report are attached to the build,
+     * making it unstable if some failed.
+     */
+    @DataBoundSetter
+    public void setPublishResults(boolean publishResults) {
+        this.publishResults = publishResults;
+    }
+
+    public int getRegressionBaseline() {
+        return regressionBaseline;
+    }
+
+    /**
+     * Number of previous passing builds this build's performance is compared with, 0 not to compare.
+     */
+    @DataBoundSetter
+    public void setRegressionBaseline(int regressionBaseline) {
+        this.regressionBaseline = regressionBaseline;
+    }
+
+    public double getRegressionUnstable() {
+        return regressionUnstable;
+    }
+
+    /**
+     * Degradation in percent making the build unstable.
+     */
+    @DataBoundSetter
+    public void setRegressionUnstable(double regressionUnstable) {
+        this.regressionUnstable = regressionUnstable;
+    }
+
+    public double getRegressionFailure() {
+        return regressionFailure;
+    }
+
+    /**
+     * Degradation in percent failing the build, 0 never to fail it.
+     */
+    @DataBoundSetter
+    public void setRegressionFailure(double regressionFailure) {
+        this.regressionFailure = regressionFailure;
+    }
+
+    /**
+     * The formats to generate, empty if none was chosen and the tool's default is wanted.
+     */
+    List<OutputFormats> formats() {
+        List<OutputFormats> formats = new ArrayList<OutputFormats>();
+        if (format != null) {
+            formats.add(format);
+        }
+        for (OutputFormats f : parseFormats(additionalFormats)) {
+            if (f != null && !formats.contains(f)) {
+                formats.add(f);
+            }
+        }
+        return formats;
+    }
+
+    /**
+     * The formats to generate, a single null for the tool's default if none was chosen.
+     */
+    private List<OutputFormats> formatsOrDefault() {
+        List<OutputFormats> formats = formats();
+        if (formats.isEmpty()) {
+            // one report in the default format of WebLOAD Analytics
+            formats = Collections.<OutputFormats>singletonList(null);
+        }
+        return formats;
+    }
+
+    static List<OutputFormats> parseFormats(String value) {
+        List<OutputFormats> formats = new ArrayList<OutputFormats>();
+        if (value != null) {
+            for (String f : value.split(",")) {
+                f = f.trim();
+                if (f.length() > 0) {
+                    formats.add(OutputFormats.valueOf(f.toUpperCase(Locale.ENGLISH)));
+                }
+            }
+        }
+        return formats;
+    }
     
         @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
-		ArgumentListBuilder args = new ArgumentListBuilder();
-		EnvVars envVars = build.getEnvironment(listener);
-		// on Windows environment variables are converted to all upper case,
-		// but no such conversions are done on Unix, so to make this
-		// cross-platform,
-		// convert variables to all upper cases.
-		for (Map.Entry<String, String> e : build.getBuildVariables().entrySet())
-			envVars.put(e.getKey(), e.getValue());
-
-		String path = envVars.get("WL_HOME");
-		if ((path != null) && path.length() > 0) {
-			listener.getLogger().println("Using WL_HOME:" + path);
-		} else {
-			path = getDescriptor().getWebloadInstallationPath();
-			if ((path != null) && path.length() > 0) {
-				listener.getLogger().println("Using WebloadInstallationPath:" + path);
-			} else {
-				String programFile = envVars.get("ProgramFiles(x86)");
-				if (programFile == null) {
-					programFile = envVars.get("ProgramFiles");
-				}
-				if (programFile == null) {
-					programFile = "C:\\Program Files";
-				}
-				path = programFile + "\\RadView\\WebLOAD";
-				// listener.getLogger().println("WebLOAD Installation path not
-				// specified, guessed:" + path);
-			}
-		}
-        //File binDir = new File(path,"bin");
-        String execName = "WLAnalyticsCmd.exe";
-        String analyticsExecPath = path + "\\bin\\" + execName;
-        
-        FilePath webloadFile = new FilePath(launcher.getChannel(), analyticsExecPath);
-        if (!webloadFile.exists()) {
-            throw new AbortException("Can't find installation at " + analyticsExecPath);
-        }
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+		EnvVars envVars = WebLoadConsoleBuilder.environment(build, listener);
+        PhaseTimingsAction timings = PhaseTimingsAction.of(build);
+
+        long phaseStart = System.currentTimeMillis();
+        InstallationResolver.Home home = InstallationResolver.resolve(installation, getDescriptor().getWebloadInstallationPath(),
+                envVars, WebLoadConsoleBuilder.node(workspace), launcher.getChannel(), listener);
+        SessionExecutor executor = SessionExecutor.get();
+        String analyticsExecPath = executor.executable(home, InstallationResolver.ANALYTICS_EXECUTABLE);
+        phaseStart = timings.record(PhaseTimingsAction.Phase.INSTALLATION, phaseStart);
         
-        String inputFsFileName = build.getEnvironment(listener).expand(inputLsFile); //e.g expand 'ls${BUILD_NUMBER}.ls' to 'ls1.ls'
-        FilePath lsFilePath = new FilePath (build.getWorkspace(), inputFsFileName);
+        CompareSessionResolver resolver = new CompareSessionResolver(workspace, listener);
+        String inputFsFileName = resolver.environment(build).expand(inputLsFile); //e.g expand 'ls${BUILD_NUMBER}.ls' to 'ls1.ls'
+        FilePath lsFilePath = new FilePath (workspace, inputFsFileName);
         if (!lsFilePath.exists()) {
             throw new AbortException("Can't find Load Session file " + lsFilePath);
         }
-        List<FilePath> sessionsToCompare = new ArrayList<FilePath>();
+        List<FilePath> sessionsToCompare = resolver.resolve(build, inputLsFile, compareToSessions, compareToPreviousBuilds);
+        timings.record(PhaseTimingsAction.Phase.COMPARE, phaseStart);
         
-        if (compareToSessions != null && !compareToSessions.isEmpty()) {
-            String[] splitSessions = compareToSessions.split(",");
-            for (String s : splitSessions) {
-                FilePath compareSessionFilePath = new FilePath(build.getWorkspace(), build.getEnvironment(listener).expand(s));
-				sessionsToCompare.add(compareSessionFilePath);
-                if (compareSessionFilePath.exists()) {
-                    listener.getLogger().println("Add LS for comparison " + compareSessionFilePath);
-                } else {
-                    listener.getLogger().println("WARN : LS for comparison not found " + compareSessionFilePath);
-                }
+        if (regressionBaseline > 0) {
+            Result verdict = new RegressionGate(regressionBaseline, regressionUnstable, regressionFailure).check(build, listener);
+            if (verdict != Result.SUCCESS) {
+                listener.getLogger().println("Performance regressed, marking as " + verdict);
+                build.setResult(verdict);
             }
         }
-        
-        Run previousBuild = build.getPreviousBuild();
-        int prevBuilds = compareToPreviousBuilds;
-        while ((prevBuilds > 0) && previousBuild != null) {
-            File artifactsDir = previousBuild.getArtifactsDir();
-            String previousLsName = previousBuild.getEnvironment(listener).expand(inputLsFile);
-            listener.getLogger().println("Looking for " + previousLsName);
-            File previousLsFile = new File(artifactsDir, previousLsName);
-            FilePath previousLsFilePath = new FilePath(build.getWorkspace(), previousLsFile.getPath());
-            if (previousLsFilePath.exists()) {
-                sessionsToCompare.add(previousLsFilePath);
-                listener.getLogger().println("Add previous LS for comparison from artifacts " + previousLsFile.getAbsolutePath());
-            } else {
-                previousLsFilePath = new FilePath(build.getWorkspace(), previousLsName);
-                if (previousLsFilePath.exists()) {
-                    sessionsToCompare.add(previousLsFilePath);
-                    listener.getLogger().println("Add previous LS for comparison from workspace " + previousLsFilePath);
-                } else {
-                    listener.getLogger().println("Not found previous LS from build " + previousBuild);
+
+        FilePath outputDir = workspace; //default location will be the workspace
+        if (location != null && !location.isEmpty()) {
+            outputDir = new FilePath(workspace, location);
+        }
+        List<OutputFormats> formats = formatsOrDefault();
+        List<ArgumentListBuilder> commands = new ArrayList<ArgumentListBuilder>();
+        List<String> reportKeys = null;
+        if (cacheReports || background) {
+            List<FilePath> sessions = new ArrayList<FilePath>();
+            sessions.add(lsFilePath);
+            sessions.addAll(sessionsToCompare);
+            String sessionsDigest = workspace.act(new ReportCache.DigestSessions(sessions));
+            reportKeys = new ArrayList<String>();
+            for (OutputFormats f : formats) {
+                reportKeys.add(ReportCache.key(sessionsDigest, portfolioFile, f == null ? null : f.name(), reportName));
+            }
+        }
+        // generated apart and copied to the location, nothing else written there is taken for a report
+        FilePath reportsDir = WebLoadConsoleBuilder.sessionDir(build, workspace);
+        for (OutputFormats f : formats) {
+            commands.add(analyticsArguments(analyticsExecPath, portfolioFile, lsFilePath, sessionsToCompare, f,
+                    reportsDir, reportName));
+        }
+        if (publishResults && !formats.contains(OutputFormats.JUNIT)) {
+            listener.getLogger().println("WARN : No JUNIT report requested, there are no transaction results to publish");
+        }
+        Node node = WebLoadConsoleBuilder.node(workspace);
+        ReportRequest request = new ReportRequest(node == null ? "" : node.getNodeName(), executor, commands, reportKeys,
+                cacheReports, publishResults, envVars, reportsDir);
+
+        if (background) {
+            AnalyticsReportsAction action = new AnalyticsReportsAction();
+            ReportRequest queued = ReportQueue.submit(request, build, action);
+            if (queued != null) {
+                // only attached once queued, so a full queue leaves nothing to take back off the build
+                build.addAction(action);
+            }
+            if (queued == request) {
+                listener.getLogger().println("Reports queued, they will be attached to the build when generated");
+                return;
+            } else if (queued != null) {
+                request.cleanUp(listener);
+                listener.getLogger().println("The same reports are already queued, they will be attached to this build too");
+                return;
+            }
+            listener.getLogger().println("Report queue is full, generating the reports now");
+        }
+
+        phaseStart = System.currentTimeMillis();
+        int result;
+        try {
+            result = request.execute(launcher, listener);
+            List<String> reports = request.reports();
+            request.copyReports(reports, outputDir);
+            phaseStart = timings.record(PhaseTimingsAction.Phase.REPORTS, phaseStart);
+            if (publishResults) {
+                TransactionResults results = TransactionResultsAction.read(request.getReportsDir(), reports, listener);
+                if (results != null) {
+                    build.replaceAction(new TransactionResultsAction(build, results));
+                    listener.getLogger().println(results.size() + " transactions, " + results.getTotalFailures()
+                            + " failures in " + results.getTotalCount() + " runs");
+                    if (results.getTotalFailures() > 0) {
+                        listener.getLogger().println("Transactions failed, marking as UNSTABLE");
+                        build.setResult(Result.UNSTABLE);
+                    }
                 }
+                timings.record(PhaseTimingsAction.Phase.RESULTS, phaseStart);
             }
-            previousBuild = previousBuild.getPreviousBuild();
-            prevBuilds--;
+        } finally {
+            request.cleanUp(listener);
         }
-        
+
+        if (result != 0) {
+            throw new AbortException("WebLOAD Analytics ended with return code " + result);
+        }
+    }
+
+    static ArgumentListBuilder analyticsArguments(String analyticsExecPath, String portfolioFile, FilePath lsFilePath,
+            List<FilePath> sessionsToCompare, OutputFormats f, FilePath reportsDir, String reportName) {
+        ArgumentListBuilder args = new ArgumentListBuilder();
         args.add(analyticsExecPath);
         args.add("-m");
         args.add("U"); //pUblish
@@ -185,29 +359,18 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
             args.add("-ls");
             args.add(compareSess);
         }
-        
-        if (format != null ) {
+
+        if (f != null ) {
             args.add("-f");
-            args.add(format.name());
+            args.add(f.name());
         }
         args.add("-l"); //location
-        if (location != null && !location.isEmpty()) {
-            args.add(location);
-        } else {
-            args.add(build.getWorkspace()); //default location will be the workspace
-        }
+        args.add(reportsDir);
         if (reportName != null && !reportName.isEmpty()) {
             args.add("-n");
             args.add(reportName);
         }
-        
-        ArgumentListBuilder winCmd = args.toWindowsCommand();
-
-        listener.getLogger().println("Executing the command " + winCmd.toStringWithQuote());
-        int result = launcher.launch().cmds(winCmd).stdout(listener).envs(envVars).join();
-        listener.getLogger().println("Execution ended");
-        
-        return (result==0);
+        return args;
     }
 
     @Override
@@ -217,9 +380,6 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
 
     @Extension
     public static final class AnalyticsDescriptor extends BuildStepDescriptor<Builder> {
-//        @CopyOnWrite
-//        private volatile MsBuildInstallation[] installations = new MsBuildInstallation[0];
-        
         private String webloadInstallationPath;
 
         public AnalyticsDescriptor() {
@@ -244,6 +404,15 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
             return new ComboBoxModel("Summray Portfolio", "Session Comparison Portfolio", "Extended Summary Portfolio"); 
         }
         
+        public FormValidation doCheckAdditionalFormats(@QueryParameter String value) {
+            try {
+                parseFormats(value);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error("Unknown format, use " + Arrays.toString(OutputFormats.values()));
+            }
+            return FormValidation.ok();
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> jobType) {
             return true;
@@ -266,17 +435,8 @@ public class WebLoadAnalyticsBuilder extends Builder /*Recorder*/ {
         }
 
 
-//        public MsBuildInstallation[] getInstallations() {
-  //          return installations;
-    //    }
-
-      //  public void setInstallations(MsBuildInstallation... antInstallations) {
-//            this.installations = antInstallations;
-  //          save();
-    //    }
-
-//        public MsBuildInstallation.DescriptorImpl getToolDescriptor() {
-  //          return ToolInstallation.all().get(MsBuildInstallation.DescriptorImpl.class);
-    //    }
+        public WebLoadInstallation[] getInstallations() {
+            return WebLoadInstallation.all();
+        }
     }
 }
@@ -0,0 +1,550 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.model.AbstractProject;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Builder;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.FormValidation;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Runs a series of load sessions at increasing numbers of virtual clients to find
+ * the highest load the system sustains.
+ * <p>
+ * The levels are either listed, and run by increasing load until one is not
+ * sustainable, or searched by bisection between a lower and an upper bound.
+ * A level is sustainable when the session passed, its errors and worst P95 are
+ * within limits and its throughput still grows with the load compared with the
+ * highest sustainable level below it; the first level where throughput stops
+ * growing is the knee of the throughput-latency curve.
+ */
+public class WebLoadCapacityBuilder extends Builder implements SimpleBuildStep {
+
+    static final String SWEEP_DIR = "capacity";
+
+    private final String tplFile;
+    private final String lsFile;
+    private final long executionDuration;
+    private final long probindClient;
+    private final String clientLevels;
+    private String installation;
+    private long minClients;
+    private long maxClients;
+    private long resolution = 10;
+    private long warmUpDuration;
+    private double maxP95;
+    private double maxErrorPercent = 1;
+    private double minScaling = 50;
+    private String transactionStatisticsFile;
+    private String responseTimesFile;
+
+    @DataBoundConstructor
+    public WebLoadCapacityBuilder(String tplFile, String lsFile, long executionDuration, long probindClient, String clientLevels) {
+        this.tplFile = tplFile;
+        this.lsFile = lsFile;
+        this.executionDuration = executionDuration;
+        this.probindClient = probindClient;
+        this.clientLevels = Util.fixEmptyAndTrim(clientLevels);
+    }
+
+    public String getTplFile() {
+        return tplFile;
+    }
+
+    public String getLsFile() {
+        return lsFile;
+    }
+
+    public long getExecutionDuration() {
+        return executionDuration;
+    }
+
+    public long getProbindClient() {
+        return probindClient;
+    }
+
+    /**
+     * Virtual client levels to run, separated by commas or spaces, null to search between the bounds.
+     */
+    public String getClientLevels() {
+        return clientLevels;
+    }
+
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(String installation) {
+        this.installation = Util.fixEmpty(installation);
+    }
+
+    public long getMinClients() {
+        return minClients;
+    }
+
+    @DataBoundSetter
+    public void setMinClients(long minClients) {
+        this.minClients = minClients;
+    }
+
+    public long getMaxClients() {
+        return maxClients;
+    }
+
+    @DataBoundSetter
+    public void setMaxClients(long maxClients) {
+        this.maxClients = maxClients;
+    }
+
+    public long getResolution() {
+        return resolution;
+    }
+
+    /**
+     * Virtual clients between the bounds at which the search stops.
+     */
+    @DataBoundSetter
+    public void setResolution(long resolution) {
+        this.resolution = resolution;
+    }
+
+    public long getWarmUpDuration() {
+        return warmUpDuration;
+    }
+
+    /**
+     * Seconds of an unmeasured session at the lowest level run first, 0 for none.
+     */
+    @DataBoundSetter
+    public void setWarmUpDuration(long warmUpDuration) {
+        this.warmUpDuration = warmUpDuration;
+    }
+
+    public double getMaxP95() {
+        return maxP95;
+    }
+
+    /**
+     * Worst P95 in seconds above which a level is not sustainable, 0 for no limit.
+     */
+    @DataBoundSetter
+    public void setMaxP95(double maxP95) {
+        this.maxP95 = maxP95;
+    }
+
+    public double getMaxErrorPercent() {
+        return maxErrorPercent;
+    }
+
+    @DataBoundSetter
+    public void setMaxErrorPercent(double maxErrorPercent) {
+        this.maxErrorPercent = maxErrorPercent;
+    }
+
+    public double getMinScaling() {
+        return minScaling;
+    }
+
+    /**
+     * Percentage of the proportional throughput growth a higher level must reach, 0 not to check.
+     */
+    @DataBoundSetter
+    public void setMinScaling(double minScaling) {
+        this.minScaling = minScaling;
+    }
+
+    public String getTransactionStatisticsFile() {
+        return transactionStatisticsFile;
+    }
+
+    @DataBoundSetter
+    public void setTransactionStatisticsFile(String transactionStatisticsFile) {
+        this.transactionStatisticsFile = Util.fixEmptyAndTrim(transactionStatisticsFile);
+    }
+
+    public String getResponseTimesFile() {
+        return responseTimesFile;
+    }
+
+    @DataBoundSetter
+    public void setResponseTimesFile(String responseTimesFile) {
+        this.responseTimesFile = Util.fixEmptyAndTrim(responseTimesFile);
+    }
+
+    @Override
+    public BuildStepMonitor getRequiredMonitorService() {
+        return BuildStepMonitor.BUILD;
+    }
+
+    @Override
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        EnvVars envVars = WebLoadConsoleBuilder.environment(build, listener);
+
+        if (tplFile == null || tplFile.isEmpty()) {
+            throw new AbortException("Template file not specified");
+        }
+        if (transactionStatisticsFile == null && responseTimesFile == null) {
+            throw new AbortException("A capacity sweep requires a transaction statistics or response times file");
+        }
+        List<Long> levels;
+        try {
+            levels = parseLevels(clientLevels == null ? null : envVars.expand(clientLevels));
+        } catch (IllegalArgumentException e) {
+            throw new AbortException(e.getMessage());
+        }
+        if (levels.isEmpty() && (minClients <= 0 || maxClients <= minClients)) {
+            throw new AbortException("Either client levels or a search range from minimum to maximum clients are required");
+        }
+
+        PhaseTimingsAction timings = PhaseTimingsAction.of(build);
+        long phaseStart = System.currentTimeMillis();
+        InstallationResolver.Home home = InstallationResolver.resolve(installation,
+                Jenkins.getInstance().getDescriptorByType(WebLoadConsoleBuilder.ConsoleDescriptor.class).getWebloadInstallationPath(),
+                envVars, WebLoadConsoleBuilder.node(workspace), launcher.getChannel(), listener);
+        String lsFileName = lsFile;
+        if (lsFileName == null || lsFileName.isEmpty()) {
+            lsFileName = tplFile;
+        }
+        SessionExecutor executor = SessionExecutor.get();
+        String webloadExecPath = executor.executable(home, InstallationResolver.CONSOLE_EXECUTABLE);
+        timings.record(PhaseTimingsAction.Phase.INSTALLATION, phaseStart);
+        Sweep sweep = new Sweep(build, workspace, launcher, executor, listener, envVars, timings, webloadExecPath,
+                envVars.expand(tplFile), envVars.expand(WebLoadConsoleBuilder.replaceExtension(lsFileName, "ls")));
+
+        try {
+            if (warmUpDuration > 0) {
+                long clients = levels.isEmpty() ? minClients : levels.get(0);
+                listener.getLogger().println("Warming up with " + clients + " virtual clients for " + warmUpDuration + "s");
+                sweep.run(clients, warmUpDuration, "warmup", SessionExecutor.Exports.NONE);
+            }
+            if (levels.isEmpty()) {
+                search(minClients, maxClients, resolution, sweep, listener);
+            } else {
+                step(levels, sweep);
+            }
+        } finally {
+            WebLoadConsoleBuilder.removeSessionDir(sweep.sessionDir, listener);
+        }
+
+        long max = sweep.best == null ? 0 : sweep.best.getClients();
+        build.replaceAction(new CapacityAction(sweep.points, max));
+        if (sweep.bestSummary != null) {
+            WebLoadConsoleBuilder.publishSummary(build, sweep.bestSummary, sweep.bestHistograms,
+                    sweep.bestSummary.durationMillis, listener);
+        }
+        if (max == 0) {
+            listener.getLogger().println("No load level is sustainable, marking as UNSTABLE");
+            build.setResult(Result.UNSTABLE);
+        } else {
+            listener.getLogger().println("Maximum sustainable load: " + max + " virtual clients, "
+                    + PerformanceSummaryAction.format(sweep.best.getThroughput()) + " transactions/s");
+        }
+    }
+
+    /**
+     * Measures a load level.
+     */
+    interface Probe {
+        boolean isSustainable(long clients) throws IOException, InterruptedException;
+    }
+
+    /**
+     * Runs the levels by increasing load until one is not sustainable.
+     */
+    static void step(List<Long> levels, Probe probe) throws IOException, InterruptedException {
+        for (long clients : levels) {
+            if (!probe.isSustainable(clients)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Bisects between the bounds, keeping the lower one sustainable and the upper one not.
+     */
+    static void search(long low, long high, long resolution, Probe probe, TaskListener listener)
+            throws IOException, InterruptedException {
+        if (!probe.isSustainable(low)) {
+            return;
+        }
+        if (probe.isSustainable(high)) {
+            listener.getLogger().println("The maximum of " + high + " virtual clients is sustainable");
+            return;
+        }
+        long step = Math.max(1, resolution);
+        while (high - low > step) {
+            long middle = low + (high - low) / 2;
+            if (probe.isSustainable(middle)) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+    }
+
+    /**
+     * Returns why a measured level is not sustainable, null if it is.
+     *
+     * @param best the highest sustainable level so far, null if none
+     */
+    String judge(CapacityAction.Point best, long clients, double throughput, double p95, double errorPercent) {
+        if (errorPercent > maxErrorPercent) {
+            return String.format("%.2f%% errors above %.2f%%", errorPercent, maxErrorPercent);
+        }
+        if (maxP95 > 0 && p95 > maxP95) {
+            return String.format("P95 %.3fs above %.3fs", p95, maxP95);
+        }
+        // only compared with a lower level, a level above the best is judged by how it scales
+        if (minScaling > 0 && best != null && best.getClients() < clients && best.getThroughput() > 0) {
+            double expected = (double) clients / best.getClients() - 1;
+            double actual = throughput / best.getThroughput() - 1;
+            if (actual < expected * minScaling / 100) {
+                return String.format("throughput grew %.1f%% for %.1f%% more clients", actual * 100, expected * 100);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parses a list of client levels, sorted by increasing load.
+     */
+    static List<Long> parseLevels(String value) {
+        TreeSet<Long> levels = new TreeSet<Long>();
+        if (value != null) {
+            for (String s : value.split("[,;\\s]+")) {
+                if (s.length() == 0) {
+                    continue;
+                }
+                long clients;
+                try {
+                    clients = Long.parseLong(s);
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Not a number of virtual clients: " + s);
+                }
+                if (clients <= 0) {
+                    throw new IllegalArgumentException("Not a number of virtual clients: " + s);
+                }
+                levels.add(clients);
+            }
+        }
+        return new ArrayList<Long>(levels);
+    }
+
+    /**
+     * State of a sweep: the sessions share the build's workspace and resolved installation.
+     */
+    private final class Sweep implements Probe {
+        final Run<?, ?> build;
+        final FilePath workspace;
+        final Launcher launcher;
+        final SessionExecutor executor;
+        final TaskListener listener;
+        final EnvVars envVars;
+        final PhaseTimingsAction timings;
+        final String webloadExecPath;
+        final String tplFileName;
+        final String lsFileName;
+        final FilePath sessionDir;
+        final FilePath resultsFile;
+        final List<CapacityAction.Point> points = new ArrayList<CapacityAction.Point>();
+        CapacityAction.Point best;
+        PerformanceSummary bestSummary;
+        TransactionHistograms bestHistograms;
+
+        Sweep(Run<?, ?> build, FilePath workspace, Launcher launcher, SessionExecutor executor, TaskListener listener, EnvVars envVars,
+                PhaseTimingsAction timings, String webloadExecPath, String tplFileName, String lsFileName)
+                throws IOException, InterruptedException {
+            this.build = build;
+            this.workspace = workspace;
+            this.launcher = launcher;
+            this.executor = executor;
+            this.listener = listener;
+            this.envVars = envVars;
+            this.timings = timings;
+            this.webloadExecPath = webloadExecPath;
+            this.tplFileName = tplFileName;
+            this.lsFileName = lsFileName;
+            this.sessionDir = WebLoadConsoleBuilder.sessionDir(build, workspace);
+            this.resultsFile = sessionDir.child("results.xml");
+        }
+
+        /**
+         * Runs one session and returns its exit code.
+         */
+        int run(long clients, long duration, String suffix, SessionExecutor.Exports exports)
+                throws IOException, InterruptedException {
+            if (resultsFile.exists()) {
+                resultsFile.delete();
+            }
+            ArgumentListBuilder args = new ArgumentListBuilder();
+            WebLoadConsoleBuilder.sessionArguments(args, webloadExecPath, tplFileName, lsFilePath(suffix),
+                    clients, probindClient, duration, resultsFile);
+            long start = System.currentTimeMillis();
+            LoadGeneratorSlots.Slot slot = LoadGeneratorSlots.acquire(WebLoadConsoleBuilder.node(workspace),
+                    LoadGeneratorSlots.clients(clients, probindClient), listener);
+            try {
+                start = timings.record(PhaseTimingsAction.Phase.ADMISSION, start);
+                listener.getLogger().println("Executing the command " + args.toStringWithQuote());
+                Proc proc = executor.launch(launcher, args, envVars, null, exports, listener.getLogger());
+                start = timings.record(PhaseTimingsAction.Phase.LAUNCH, start);
+                int exitCode = proc.join();
+                timings.record(PhaseTimingsAction.Phase.SESSION, start);
+                return exitCode;
+            } finally {
+                slot.release();
+            }
+        }
+
+        FilePath lsFilePath(String suffix) {
+            int ext = lsFileName.lastIndexOf('.');
+            return new FilePath(workspace, lsFileName.substring(0, ext) + "-" + suffix + lsFileName.substring(ext));
+        }
+
+        /**
+         * Runs a session at a load level and judges it against the highest sustainable level so far.
+         */
+        CapacityAction.Point measure(long clients) throws IOException, InterruptedException {
+            listener.getLogger().println("Measuring " + clients + " virtual clients");
+            FilePath transactionStatistics = WebLoadConsoleBuilder.sessionOutput(workspace, envVars, transactionStatisticsFile);
+            FilePath responseTimes = WebLoadConsoleBuilder.sessionOutput(workspace, envVars, responseTimesFile);
+            String suffix = "vc" + clients;
+            long start = System.currentTimeMillis();
+            int exitCode = run(clients, executionDuration, suffix,
+                    new SessionExecutor.Exports(null, transactionStatistics, responseTimes));
+            long millis = System.currentTimeMillis() - start;
+            long phaseStart = System.currentTimeMillis();
+
+            String reason = null;
+            if (!resultsFile.exists()) {
+                reason = "result file not created";
+            } else {
+                SessionResult result = resultsFile.act(new ResultsFileParser.ParseResults());
+                WebLoadConsoleBuilder.logTransactions(listener, result);
+                if (!result.isPassed()) {
+                    reason = "session not passed";
+                }
+            }
+            if (exitCode != 0 && reason == null) {
+                reason = "return code " + exitCode;
+            }
+
+            PerformanceSummary summary = null;
+            if (transactionStatistics != null && transactionStatistics.exists()) {
+                summary = transactionStatistics.act(new TransactionStatisticsReader());
+            }
+            TransactionHistograms histograms = null;
+            if (responseTimes != null && responseTimes.exists()) {
+                histograms = responseTimes.act(new ResponseTimesReader());
+                if (summary == null) {
+                    summary = histograms.toSummary();
+                } else {
+                    histograms.applyTo(summary);
+                }
+            }
+            double throughput = Double.NaN;
+            double p95 = Double.NaN;
+            double errorPercent = Double.NaN;
+            if (summary == null) {
+                if (reason == null) {
+                    reason = "no statistics written";
+                }
+            } else {
+                summary.durationMillis = millis;
+                long count = summary.getTotalCount();
+                throughput = count * 1000.0 / millis;
+                p95 = summary.getWorstP95();
+                errorPercent = count == 0 ? 0 : summary.getTotalErrors() * 100.0 / count;
+            }
+            timings.record(PhaseTimingsAction.Phase.RESULTS, phaseStart);
+            if (reason == null) {
+                reason = judge(best, clients, throughput, p95, errorPercent);
+            }
+
+            CapacityAction.Point point = new CapacityAction.Point(clients, throughput, p95, errorPercent, reason == null, reason);
+            points.add(point);
+            listener.getLogger().println(clients + " virtual clients: " + PerformanceSummaryAction.format(throughput)
+                    + " transactions/s, worst P95 " + PerformanceSummaryAction.format(p95) + "s, "
+                    + PerformanceSummaryAction.format(errorPercent) + "% errors, "
+                    + (reason == null ? "sustainable" : "not sustainable: " + reason));
+            if (reason == null && (best == null || clients > best.getClients())) {
+                best = point;
+                bestSummary = summary;
+                bestHistograms = histograms;
+            }
+
+            FilePath ls = lsFilePath(suffix);
+            if (ls.exists()) {
+                phaseStart = System.currentTimeMillis();
+                WebLoadConsoleBuilder.archiveSession(build, ls, SWEEP_DIR, listener);
+                timings.record(PhaseTimingsAction.Phase.ARCHIVE, phaseStart);
+            }
+            return point;
+        }
+
+        public boolean isSustainable(long clients) throws IOException, InterruptedException {
+            return measure(clients).isSustainable();
+        }
+    }
+
+    @Extension
+    public static final class CapacityDescriptor extends BuildStepDescriptor<Builder> {
+
+        public CapacityDescriptor() {
+            super(WebLoadCapacityBuilder.class);
+        }
+
+        public String getDisplayName() {
+            return "Find WebLOAD load capacity";
+        }
+
+        public FormValidation doCheckTplFile(@QueryParameter String value) {
+            if (value.length() == 0)
+                return FormValidation.error("Please select a template file");
+            if (!value.endsWith(".tpl"))
+                return FormValidation.warning("File extension is not tpl, is this the right file?");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckClientLevels(@QueryParameter String value) {
+            try {
+                parseLevels(value);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        public WebLoadInstallation[] getInstallations() {
+            return WebLoadInstallation.all();
+        }
+    }
+}
@@ -9,10 +9,15 @@ import hudson.EnvVars;
 import hudson.Extension;
 import hudson.FilePath;
 import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
-import hudson.model.BuildListener;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
 import hudson.tasks.BuildStepDescriptor;
 import hudson.tasks.BuildStepMonitor;
 import hudson.tasks.Builder;
@@ -20,13 +25,17 @@ import hudson.util.ArgumentListBuilder;
 import hudson.util.FormValidation;
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.UUID;
 import javax.servlet.ServletException;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
 import net.sf.json.JSONObject;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -34,16 +43,32 @@ import org.kohsuke.stapler.StaplerRequest;
  *
  * @author yams
  */
-public class WebLoadConsoleBuilder extends Builder {
+public class WebLoadConsoleBuilder extends Builder implements SimpleBuildStep {
     private final String tplFile;
     private final String lsFile;
     private final long executionDuration;
     private final long virtualClients;
     private final long probindClient;
+    private String installation;
+    private String statisticsFile;
+    private String abortRules;
+    private String transactionStatisticsFile;
+    private String responseTimesFile;
+    private boolean filterConsole;
+    private String consoleVerbosity;
+    private String suppressPatterns;
+    private boolean sampleInjector;
+    private int injectorCeiling = 85;
     
-    private static final String[] sessionExtensions = 
+    static final String[] sessionExtensions = 
         { "ls", "dat", "isd", "mdb", "sdb" };
 
+    private static final int MAX_LOGGED_TRANSACTIONS = 20;
+
+    static final String RAW_LOG_EXTENSION = "log.gz";
+
+    static final String SESSIONS_DIR = "webload-sessions";
+
     public String getTplFile() {
         return tplFile;
     }
@@ -64,7 +89,123 @@ public class WebLoadConsoleBuilder extends Builder {
         return probindClient;
     }
 
-    
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(String installation) {
+        this.installation = Util.fixEmpty(installation);
+    }
+
+    public String getStatisticsFile() {
+        return statisticsFile;
+    }
+
+    /**
+     * Statistics export written by the session, followed while the session runs.
+     */
+    @DataBoundSetter
+    public void setStatisticsFile(String statisticsFile) {
+        this.statisticsFile = Util.fixEmptyAndTrim(statisticsFile);
+    }
+
+    public String getAbortRules() {
+        return abortRules;
+    }
+
+    /**
+     * Rules checked against the live statistics, one per line; see {@link AbortRule}.
+     */
+    @DataBoundSetter
+    public void setAbortRules(String abortRules) {
+        this.abortRules = Util.fixEmptyAndTrim(abortRules);
+    }
+
+    public String getTransactionStatisticsFile() {
+        return transactionStatisticsFile;
+    }
+
+    /**
+     * Per-transaction statistics export written at the end of the session, kept as the build's performance summary.
+     */
+    @DataBoundSetter
+    public void setTransactionStatisticsFile(String transactionStatisticsFile) {
+        this.transactionStatisticsFile = Util.fixEmptyAndTrim(transactionStatisticsFile);
+    }
+
+    public String getResponseTimesFile() {
+        return responseTimesFile;
+    }
+
+    /**
+     * Raw response time export of the session, turned into per-transaction histograms.
+     */
+    @DataBoundSetter
+    public void setResponseTimesFile(String responseTimesFile) {
+        this.responseTimesFile = Util.fixEmptyAndTrim(responseTimesFile);
+    }
+
+    public boolean isFilterConsole() {
+        return filterConsole;
+    }
+
+    /**
+     * Whether the console output is filtered on the node running the session, see {@link FilteredLaunch}.
+     */
+    @DataBoundSetter
+    public void setFilterConsole(boolean filterConsole) {
+        this.filterConsole = filterConsole;
+    }
+
+    public String getConsoleVerbosity() {
+        return consoleVerbosity;
+    }
+
+    /**
+     * Name of a {@link LogFilter.Verbosity}, null for all lines.
+     */
+    @DataBoundSetter
+    public void setConsoleVerbosity(String consoleVerbosity) {
+        this.consoleVerbosity = Util.fixEmptyAndTrim(consoleVerbosity);
+    }
+
+    public String getSuppressPatterns() {
+        return suppressPatterns;
+    }
+
+    /**
+     * Regular expressions of console lines not to log, one per line.
+     */
+    @DataBoundSetter
+    public void setSuppressPatterns(String suppressPatterns) {
+        this.suppressPatterns = Util.fixEmptyAndTrim(suppressPatterns);
+    }
+
+    public boolean isSampleInjector() {
+        return sampleInjector;
+    }
+
+    /**
+     * Whether the resources of the node running the session are sampled, see {@link InjectorSampler}.
+     */
+    @DataBoundSetter
+    public void setSampleInjector(boolean sampleInjector) {
+        this.sampleInjector = sampleInjector;
+    }
+
+    public int getInjectorCeiling() {
+        return injectorCeiling;
+    }
+
+    /**
+     * CPU percentage of the node over which the session is marked measurement suspect, 0 for none.
+     */
+    @DataBoundSetter
+    public void setInjectorCeiling(int injectorCeiling) {
+        this.injectorCeiling = injectorCeiling;
+    }
+
     @DataBoundConstructor
     public WebLoadConsoleBuilder(String tplFile, String lsFile, long executionDuration, long virtualClients, long probindClient) {
         this.tplFile = tplFile;
@@ -80,44 +221,18 @@ public class WebLoadConsoleBuilder extends Builder {
     }
    
     @Override
-    public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener) throws InterruptedException, IOException {
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
         ArgumentListBuilder args = new ArgumentListBuilder();
-        EnvVars envVars = build.getEnvironment(listener);
-        
-                // on Windows environment variables are converted to all upper case,
-                // but no such conversions are done on Unix, so to make this cross-platform,
-                // convert variables to all upper cases.
-                for(Map.Entry<String,String> e : build.getBuildVariables().entrySet())
-                    envVars.put(e.getKey(),e.getValue());
-
-        String path = envVars.get("WL_HOME");
-        if ((path!=null) && path.length()>0) {
-        	listener.getLogger().println("Using WL_HOME:" + path);
-        } else {
-            path = getDescriptor().getWebloadInstallationPath();       	
-            if ((path!=null) && path.length()>0) {
-            	listener.getLogger().println("Using WebloadInstallationPath:" + path);
-            } else {
-	            String programFile = envVars.get("ProgramFiles(x86)");
-	            if (programFile==null) {
-	                programFile = envVars.get("ProgramFiles");
-	            }
-	            if (programFile==null) {
-	                programFile = "C:\\Program Files";
-	            }
-	            path = programFile + "\\RadView\\WebLOAD";
-	            //listener.getLogger().println("WebLOAD Installation path not specified, guessed:" + path);
-            }
-        }
-        String execName = "webload.exe";
-        
-        String webloadExecPath = path + "\\bin\\" + execName;
-        
-        //FIXME:
-        //FilePath webloadFile = new FilePath();
-        //if (!webloadFile.exists()) {
-         //   throw new AbortException("Can't find installation at " + webloadFile.getAbsolutePath());
-        //}
+        EnvVars envVars = environment(build, listener);
+        PhaseTimingsAction timings = PhaseTimingsAction.of(build);
+
+        SessionExecutor executor = SessionExecutor.get();
+
+        long phaseStart = System.currentTimeMillis();
+        InstallationResolver.Home home = InstallationResolver.resolve(installation, getDescriptor().getWebloadInstallationPath(),
+                envVars, node(workspace), launcher.getChannel(), listener);
+        String webloadExecPath = executor.executable(home, InstallationResolver.CONSOLE_EXECUTABLE);
+        timings.record(PhaseTimingsAction.Phase.INSTALLATION, phaseStart);
         
         if (tplFile == null || tplFile.isEmpty()) {
             throw new AbortException("Template file not specified");
@@ -131,28 +246,344 @@ public class WebLoadConsoleBuilder extends Builder {
         lsFileName = replaceExtension(lsFileName, "ls");
         lsFileName = envVars.expand(lsFileName);
         
-        FilePath workspace = build.getWorkspace();
-        if (workspace==null) {
-            throw new AbortException("Unexpected error, workspace not configured");
-        }
-        
         FilePath lsFilePath = new FilePath(workspace, lsFileName);
         
-        FilePath resultsFile;
+        FilePath sessionDir = sessionDir(build, workspace);
+        FilePath resultsFile = sessionDir.child("results.xml");
+        // written in the session directory, moved to the workspace path once archived
+        FilePath sessionLs = sessionDir.child(lsFilePath.getName());
+        String prefix = new File(lsFileName).isAbsolute() ? null : new File(lsFileName).getParent();
+        FilePath rawLog = null;
+        try {
+            List<AbortRule> rules;
+            try {
+                rules = AbortRule.parse(abortRules);
+            } catch (IllegalArgumentException e) {
+                throw new AbortException(e.getMessage());
+            }
+            if (!rules.isEmpty() && statisticsFile == null) {
+                throw new AbortException("Abort rules require a live statistics file");
+            }
+        
+            FilePath transactionStatisticsFilePath = sessionOutput(workspace, envVars, transactionStatisticsFile);
+            FilePath responseTimesFilePath = sessionOutput(workspace, envVars, responseTimesFile);
         
-        resultsFile = workspace.child("results.xml");
-        if (resultsFile.exists()) {
-            resultsFile.delete();
-        }
+            SessionMonitor monitor = null;
+            FilePath statisticsFilePath = null;
+            if (statisticsFile != null) {
+                statisticsFilePath = new FilePath(workspace, envVars.expand(statisticsFile));
+                if (statisticsFilePath.exists()) {
+                    statisticsFilePath.delete();
+                }
+                LiveStatisticsAction liveStatistics = new LiveStatisticsAction();
+                build.addAction(liveStatistics);
+                monitor = new SessionMonitor(statisticsFilePath, listener, liveStatistics, rules);
+                listener.getLogger().println("Following session statistics in " + statisticsFilePath);
+            }
+        
+            sessionArguments(args, webloadExecPath, tplFileName, sessionLs, virtualClients, probindClient, executionDuration, resultsFile);
+            ArgumentListBuilder winCmd = args; //.toWindowsCommand();
+        
+            phaseStart = System.currentTimeMillis();
+            LoadGeneratorSlots.Slot slot = LoadGeneratorSlots.acquire(node(workspace),
+                    LoadGeneratorSlots.clients(virtualClients, probindClient), listener);
+            int result;
+            long sessionStart;
+            InjectorSampler sampler = null;
+            InjectorSampler.Samples samples = null;
+            try {
+                phaseStart = timings.record(PhaseTimingsAction.Phase.ADMISSION, phaseStart);
+                if (sampleInjector) {
+                    try {
+                        sampler = InjectorSampler.start(workspace, injectorCeiling);
+                    } catch (IOException e) {
+                        listener.getLogger().println("Error starting the injector sampler: " + e.getLocalizedMessage());
+                    }
+                }
+                listener.getLogger().println("Executing the command " + winCmd.toStringWithQuote());
+                SessionExecutor.Exports exports = new SessionExecutor.Exports(statisticsFilePath, transactionStatisticsFilePath,
+                        responseTimesFilePath);
+                Proc proc;
+                if (filterConsole) {
+                    rawLog = sessionDir.child(replaceExtension(lsFilePath.getName(), RAW_LOG_EXTENSION));
+                    proc = FilteredLaunch.start(executor, workspace, winCmd, envVars, exports, logFilterSettings(build),
+                            rawLog, listener);
+                } else {
+                    proc = executor.launch(launcher, winCmd, envVars, null, exports, listener.getLogger());
+                }
+                sessionStart = timings.record(PhaseTimingsAction.Phase.LAUNCH, phaseStart);
+                result = (monitor == null) ? proc.join() : monitor.watch(proc);
+            } finally {
+                try {
+                    if (sampler != null) {
+                        samples = sampler.stop();
+                    }
+                } finally {
+                    slot.release();
+                }
+            }
+            phaseStart = timings.record(PhaseTimingsAction.Phase.SESSION, sessionStart);
+            long sessionMillis = phaseStart - sessionStart;
+            if (samples != null) {
+                recordInjectorResources(build, samples, listener);
+            }
+            if (statisticsFilePath != null && statisticsFilePath.exists()) {
+                try {
+                    build.replaceAction(StatisticsViewerAction.record(build, statisticsFilePath, listener));
+                } catch (IOException e) {
+                    listener.getLogger().println("Error indexing session statistics: " + e.getLocalizedMessage());
+                }
+            }
+            if (monitor != null && monitor.getFiredRule() != null) {
+                WebLoadMetrics.count("sessions.aborted", 1);
+                build.setResult(Result.FAILURE);
+                throw new AbortException("WebLOAD session aborted by rule: " + monitor.getFiredRule());
+            }
+            listener.getLogger().println("Execution ended, parsing return code");
         
+            if (!resultsFile.exists()) {
+                throw new AbortException("WebLOADO session ended unexpectedely. Result file not created");
+            }
+            //Parsed on the agent with a tolerant scanner because version older than 10.1 had illegal xml file.
+            SessionResult sessionResult = resultsFile.act(new ResultsFileParser.ParseResults());
+            listener.getLogger().println("SessionReturnCode " + sessionResult.getSessionReturnCode());
+            listener.getLogger().println("ErrorDescription " + sessionResult.getErrorDescription());
+            logTransactions(listener, sessionResult);
+            listener.getLogger().println("result " + result);
+        
+            if (!sessionResult.isPassed()) {
+                listener.getLogger().println("Not passed, marking as UNSTABLE");
+                WebLoadMetrics.count("sessions.unstable", 1);
+                build.setResult(Result.UNSTABLE);
+            }
+        
+            if (transactionStatisticsFilePath != null || responseTimesFilePath != null) {
+                recordSummary(build, transactionStatisticsFilePath, responseTimesFilePath, sessionMillis, listener);
+            }
+            phaseStart = timings.record(PhaseTimingsAction.Phase.RESULTS, phaseStart);
+
+            if (!sessionLs.exists()) {
+                throw new AbortException("WebLOADO session ended unexpectedely. Load Session file not created");
+            }
+            //TODO:if (archiveSessionFile)
+            archiveSession(build, sessionLs, prefix, listener);
+            if (rawLog != null) {
+                FilePath archivedLog = rawLog;
+                rawLog = null;
+                if (archivedLog.exists()) {
+                    archiveFiles(build, Collections.singletonList(archivedLog), prefix, listener);
+                }
+            }
+            timings.record(PhaseTimingsAction.Phase.ARCHIVE, phaseStart);
+        
+            if (result != 0) {
+                throw new AbortException("WebLOAD session ended with return code " + result);
+            }
+        } finally {
+            try {
+                // what the session printed before it was aborted or failed
+                if (rawLog != null) {
+                    archiveRawLog(build, rawLog, prefix, listener);
+                }
+                moveSession(sessionLs, lsFilePath, listener);
+            } finally {
+                removeSessionDir(sessionDir, listener);
+            }
+        }
+    }
+
+    /**
+     * Environment of a build, including the build variables of a freestyle build.
+     */
+    static EnvVars environment(Run<?, ?> build, TaskListener listener) throws IOException, InterruptedException {
+        EnvVars envVars = build.getEnvironment(listener);
+        // on Windows environment variables are converted to all upper case,
+        // but no such conversions are done on Unix, so to make this cross-platform,
+        // convert variables to all upper cases.
+        for (Map.Entry<String, String> e : buildVariables(build).entrySet())
+            envVars.put(e.getKey(), e.getValue());
+        return envVars;
+    }
+
+    static Map<String, String> buildVariables(Run<?, ?> build) {
+        if (build instanceof AbstractBuild) {
+            return ((AbstractBuild<?, ?>) build).getBuildVariables();
+        }
+        return Collections.emptyMap();
+    }
+
+    /**
+     * Node a workspace is on, null if it went offline.
+     */
+    static Node node(FilePath workspace) {
+        Computer c = workspace.toComputer();
+        return c == null ? null : c.getNode();
+    }
+    
+    /**
+     * Creates a directory of its own in the workspace for a session's results, so that
+     * sessions sharing a workspace, or several steps of a build, keep their own.
+     */
+    static FilePath sessionDir(Run<?, ?> build, FilePath workspace) throws IOException, InterruptedException {
+        String name = build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber() + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+        FilePath dir = workspace.child(SESSIONS_DIR).child(name);
+        dir.mkdirs();
+        return dir;
+    }
+
+    /**
+     * Removes a directory made by {@link #sessionDir} once its results have been read.
+     */
+    static void removeSessionDir(FilePath dir, TaskListener listener) throws InterruptedException {
+        try {
+            dir.deleteRecursive();
+        } catch (IOException e) {
+            listener.getLogger().println("WARN : Failed to remove " + dir + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Moves the session files next to {@code from} to the path the job expects them at,
+     * replacing those of a previous session.
+     */
+    private static void moveSession(FilePath from, FilePath to, TaskListener listener) throws InterruptedException {
+        try {
+            to.getParent().mkdirs();
+            for (String e : sessionExtensions) {
+                FilePath f = from.sibling(replaceExtension(from.getName(), e));
+                if (f.exists()) {
+                    FilePath target = to.sibling(replaceExtension(to.getName(), e));
+                    if (target.exists()) {
+                        target.delete();
+                    }
+                    f.renameTo(target);
+                }
+            }
+        } catch (IOException e) {
+            listener.getLogger().println("WARN : Failed to move the session files to " + to.getParent() + ": "
+                    + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * Archives the session files next to {@code lsFilePath} in the chunk store.
+     *
+     * @param prefix path the archived names start with, may be null
+     */
+    static void archiveSession(Run<?, ?> build, FilePath lsFilePath, String prefix, TaskListener listener)
+            throws IOException, InterruptedException {
+        List<FilePath> files = new ArrayList<FilePath>();
+        for (String e : sessionExtensions) {
+            files.add(lsFilePath.sibling(replaceExtension(lsFilePath.getName(), e)));
+        }
+        archiveFiles(build, files, prefix, listener);
+    }
+
+    /**
+     * Archives files in the chunk store, skipping the missing ones.
+     *
+     * @param prefix path the archived names start with, may be null
+     */
+    static void archiveFiles(Run<?, ?> build, List<FilePath> files, String prefix, TaskListener listener)
+            throws IOException, InterruptedException {
+        ChunkStore store = ChunkStore.get();
+        boolean compress = Jenkins.getInstance().getDescriptorByType(ConsoleDescriptor.class).isCompressArchive();
+        ArchiveStatsAction archive = build.getAction(ArchiveStatsAction.class);
+        if (archive == null) {
+            archive = new ArchiveStatsAction(build);
+        }
+        for (FilePath f : files) {
+            String name = prefix == null ? f.getName() : prefix.replace(File.separatorChar, '/') + "/" + f.getName();
+            if (!f.exists()) {
+                listener.getLogger().println("Not archiving " + name + ", not found");
+                continue;
+            }
+            try {
+                ArchivedFile archived = ChunkedArchiver.archive(store, f, name, compress, listener);
+                archive.add(archived);
+                WebLoadMetrics.count("archive.transferred", archived.getTransferred());
+                WebLoadMetrics.count("archive.stored", archived.getStored());
+            } catch (IOException e1) {
+                listener.getLogger().println("Error archiving " + name + ": " + e1.getLocalizedMessage());
+            }
+        }
+        if (!archive.getFiles().isEmpty()) {
+            build.replaceAction(archive);
+        }
+    }
+
+    private static void recordInjectorResources(Run<?, ?> build, InjectorSampler.Samples samples, TaskListener listener) {
+        // one entry per session, so that a later step of the build keeps the samples of an earlier one
+        InjectorResourcesAction resources = build.getAction(InjectorResourcesAction.class);
+        if (resources == null) {
+            resources = new InjectorResourcesAction(build);
+        }
+        InjectorResourcesAction.Session session;
+        try {
+            session = resources.add(samples);
+        } catch (IOException e) {
+            listener.getLogger().println("Error recording injector resources: " + e.getLocalizedMessage());
+            return;
+        }
+        build.replaceAction(resources);
+        listener.getLogger().println("Injector CPU mean " + session.getCpuMean() + ", peak " + session.getCpuMax()
+                + ", memory peak " + session.getMemoryMax());
+        if (session.isSuspect()) {
+            WebLoadMetrics.count("sessions.suspect", 1);
+            listener.getLogger().println("WARN : the load generator was over " + samples.ceiling + "% CPU for "
+                    + session.getOverCeiling() + " of the session, measurement suspect");
+        }
+    }
+
+    /**
+     * Archives the raw log of a session that did not end normally, without hiding why it did not.
+     */
+    private static void archiveRawLog(Run<?, ?> build, FilePath rawLog, String prefix, TaskListener listener)
+            throws InterruptedException {
+        try {
+            if (rawLog.exists()) {
+                archiveFiles(build, Collections.singletonList(rawLog), prefix, listener);
+            }
+        } catch (IOException e) {
+            listener.getLogger().println("WARN : Failed to archive the raw log " + rawLog.getName() + ": " + e.getLocalizedMessage());
+        }
+    }
+
+    /**
+     * The console output is read in the charset of the build log it is copied to.
+     */
+    private LogFilter.Settings logFilterSettings(Run<?, ?> build) throws AbortException {
+        LogFilter.Verbosity verbosity = LogFilter.Verbosity.ALL;
+        try {
+            if (consoleVerbosity != null) {
+                verbosity = LogFilter.Verbosity.valueOf(consoleVerbosity);
+            }
+            return new LogFilter.Settings(verbosity, LogFilter.parsePatterns(suppressPatterns), build.getCharset().name());
+        } catch (IllegalArgumentException e) {
+            throw new AbortException("Invalid console filter: " + e.getMessage());
+        }
+    }
+
+    static void sessionArguments(ArgumentListBuilder args, String webloadExecPath, String tplFileName, FilePath lsFilePath,
+            long virtualClients, long probindClient, long executionDuration, FilePath resultsFile) {
+        sessionArguments(args, webloadExecPath, tplFileName, lsFilePath, virtualClients, probindClient, false,
+                executionDuration, resultsFile);
+    }
+
+    /**
+     * @param explicitClients pass the client counts even when 0, rather than leaving them to the template
+     */
+    static void sessionArguments(ArgumentListBuilder args, String webloadExecPath, String tplFileName, FilePath lsFilePath,
+            long virtualClients, long probindClient, boolean explicitClients, long executionDuration, FilePath resultsFile) {
         args.add(webloadExecPath); //webloadFile);
         args.add(tplFileName);
         args.add(lsFilePath);
-        if (virtualClients > 0) {
+        if (virtualClients > 0 || explicitClients) {
             args.add("/vc");
             args.add(virtualClients);
         }
-        if (probindClient > 0) {
+        if (probindClient > 0 || explicitClients) {
             args.add("/pc");
             args.add(probindClient);
         }
@@ -162,68 +593,82 @@ public class WebLoadConsoleBuilder extends Builder {
         }
         args.add("/rc"); //Return-code
         args.add(resultsFile);
-        ArgumentListBuilder winCmd = args; //.toWindowsCommand();
-        
-        listener.getLogger().println("Executing the command " + winCmd.toStringWithQuote());
-        int result = launcher.launch().cmds(winCmd).stdout(listener).envs(envVars).join();
-        listener.getLogger().println("Execution ended, parsing return code");
-        
-        if (!resultsFile.exists()) {
-            throw new AbortException("WebLOADO session ended unexpectedely. Result file not created");
+    }
+
+    /**
+     * Resolves an optional file written by the session, removing what a previous build left behind.
+     */
+    static FilePath sessionOutput(FilePath workspace, EnvVars envVars, String name) throws IOException, InterruptedException {
+        if (name == null) {
+            return null;
         }
-        String r = resultsFile.readToString();
-        listener.getLogger().println(r);
-        
-        //Using string manipulation instead of XML becuase version older than 10.1 had illegal xml file.
-        String sessionReturnCode = extractValue("SessionReturnCode=\"","\"", r );
-        String errorDescription = extractValue("ErrorDescription=\"","\"", r );
-        listener.getLogger().println("SessionReturnCode " + sessionReturnCode);
-        listener.getLogger().println("ErrorDescription " + errorDescription);
-		listener.getLogger().println("result " + result);
-        
-        if ( ! ("Passed".equalsIgnoreCase(sessionReturnCode)) ) {
-			listener.getLogger().println("Not passed, marking as UNSTABLE");
-            build.setResult(Result.UNSTABLE);
+        FilePath path = new FilePath(workspace, envVars.expand(name));
+        if (path.exists()) {
+            path.delete();
         }
+        return path;
+    }
 
-        if (!lsFilePath.exists()) {
-            throw new AbortException("WebLOADO session ended unexpectedely. Load Session file not created");
+    private static void recordSummary(Run<?, ?> build, FilePath transactionStatistics, FilePath responseTimes,
+            long sessionMillis, TaskListener listener) throws IOException, InterruptedException {
+        PerformanceSummary summary = null;
+        if (transactionStatistics != null) {
+            if (transactionStatistics.exists()) {
+                summary = transactionStatistics.act(new TransactionStatisticsReader());
+            } else {
+                listener.getLogger().println("WARN : Transaction statistics not found " + transactionStatistics);
+            }
         }
-        //TODO:if (archiveSessionFile)
-        if (new File(lsFileName).isAbsolute()) {
-        	listener.getLogger().println("Not archiving from absolute path");
-        } else {
-	        Map<String, String> files = new HashMap<String, String>();
-	        for (String e : sessionExtensions) {
-	            String f = replaceExtension(lsFileName, e);
-	            f = f.replace(File.separatorChar, '/');
-	            
-	            listener.getLogger().println("Archiving " + f);
-	            files.put(f, f);
-	        }
-	        try {
-				build.pickArtifactManager().archive(workspace, launcher, listener, files);
-			} catch (IOException e1) {
-				listener.getLogger().println("Error archiving files: " + e1.getLocalizedMessage());
-			}
+        TransactionHistograms histograms = null;
+        if (responseTimes != null) {
+            if (responseTimes.exists()) {
+                histograms = responseTimes.act(new ResponseTimesReader());
+            } else {
+                listener.getLogger().println("WARN : Response times not found " + responseTimes);
+            }
         }
-        
-        return (result==0);
+        publishSummary(build, summary, histograms, sessionMillis, listener);
     }
-    
-    static String extractValue(String prefix, String suffix, String str) {
-        Pattern p = Pattern.compile("(" + prefix + ")(.*)(" + suffix + ")");
-        Matcher m = p.matcher(str);
-        if (!m.find()) {
-            return null;
+
+    /**
+     * Attaches the performance summary to the build and adds it to the job's trend index.
+     */
+    static void publishSummary(Run<?, ?> build, PerformanceSummary summary, TransactionHistograms histograms,
+            long sessionMillis, TaskListener listener) throws IOException {
+        if (histograms != null) {
+            if (summary == null) {
+                summary = histograms.toSummary();
+            } else {
+                histograms.applyTo(summary);
+            }
         }
-        
-        if (m.groupCount() < 2) {
-            return null;
+        if (summary == null) {
+            return;
         }
-        return m.group(2);
+        summary.durationMillis = sessionMillis;
+        build.replaceAction(new PerformanceSummaryAction(build, summary, histograms));
+        PerformanceTrendIndex.append(build, summary);
+        listener.getLogger().println("Recorded performance summary of " + summary.size() + " transactions, "
+                + summary.getTotalCount() + " hits, " + summary.getTotalErrors() + " errors");
     }
-    
+
+    static void logTransactions(TaskListener listener, SessionResult sessionResult) {
+        int failed = sessionResult.getFailedTransactionCount();
+        listener.getLogger().println("Transactions " + sessionResult.getTransactions().size() + ", failed " + failed
+                + (sessionResult.isTruncated() ? " (truncated)" : ""));
+        int logged = 0;
+        for (SessionResult.TransactionVerdict t : sessionResult.getTransactions()) {
+            if (t.isPassed()) {
+                continue;
+            }
+            if (logged++ == MAX_LOGGED_TRANSACTIONS) {
+                listener.getLogger().println("  ...");
+                break;
+            }
+            listener.getLogger().println("  " + t.getName() + ": " + t.getVerdict());
+        }
+    }
+
     @Override
     public ConsoleDescriptor getDescriptor() {
         return (ConsoleDescriptor)super.getDescriptor();
@@ -240,10 +685,8 @@ public class WebLoadConsoleBuilder extends Builder {
 
     @Extension
     public static final class ConsoleDescriptor extends BuildStepDescriptor<Builder> {
-//        @CopyOnWrite
-//        private volatile MsBuildInstallation[] installations = new MsBuildInstallation[0];
-        
         private String webloadInstallationPath;
+        private boolean compressArchive;
 
         public ConsoleDescriptor() {
             super(WebLoadConsoleBuilder.class);
@@ -276,6 +719,24 @@ public class WebLoadConsoleBuilder extends Builder {
             return FormValidation.ok();
         }
 
+        public FormValidation doCheckAbortRules(@QueryParameter String value) {
+            try {
+                AbortRule.parse(value);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckSuppressPatterns(@QueryParameter String value) {
+            try {
+                LogFilter.parsePatterns(value);
+            } catch (IllegalArgumentException e) {
+                return FormValidation.error(e.getMessage());
+            }
+            return FormValidation.ok();
+        }
+
         @Override
         public boolean isApplicable(Class<? extends AbstractProject> jobType) {
             return true;
@@ -287,6 +748,7 @@ public class WebLoadConsoleBuilder extends Builder {
             // set that to properties and call save().
         	formData = formData.getJSONObject("webload");
 			webloadInstallationPath = formData.getString("webloadInstallationPath");
+            compressArchive = formData.optBoolean("compressArchive");
             // ^Can also use req.bindJSON(this, formData);
             //  (easier when there are many fields; need set* methods for this, like setUseFrench)
             save();
@@ -297,19 +759,17 @@ public class WebLoadConsoleBuilder extends Builder {
             return webloadInstallationPath;
         }
 
+        /**
+         * Whether new chunks of archived session files are stored gzipped.
+         */
+        public boolean isCompressArchive() {
+            return compressArchive;
+        }
 
-//        public MsBuildInstallation[] getInstallations() {
-  //          return installations;
-    //    }
-
-      //  public void setInstallations(MsBuildInstallation... antInstallations) {
-//            this.installations = antInstallations;
-  //          save();
-    //    }
 
-//        public MsBuildInstallation.DescriptorImpl getToolDescriptor() {
-  //          return ToolInstallation.all().get(MsBuildInstallation.DescriptorImpl.class);
-    //    }
+        public WebLoadInstallation[] getInstallations() {
+            return WebLoadInstallation.all();
+        }
     }
     
 }
@@ -0,0 +1,481 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.AbortException;
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.Proc;
+import hudson.Util;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.AbstractProject;
+import hudson.model.Computer;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.tasks.BuildStepDescriptor;
+import hudson.tasks.BuildStepMonitor;
+import hudson.tasks.Builder;
+import hudson.util.ArgumentListBuilder;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.FormValidation;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
+
+/**
+ * Runs one WebLOAD load session split across the online agents of a label.
+ * <p>
+ * The virtual clients are divided between the agents, the template is copied to
+ * each of them and all sessions are started together once every agent is ready.
+ * When they have all ended, each agent's session files are brought back into
+ * the build workspace under {@code webload-agents/<agent>}, removed from the
+ * agent, and the verdicts and response time histograms are merged into one result.
+ */
+public class WebLoadDistributedBuilder extends Builder implements SimpleBuildStep {
+
+    static final String AGENTS_DIR = "webload-agents";
+
+    private final String tplFile;
+    private final String lsFile;
+    private final String label;
+    private final long executionDuration;
+    private final long virtualClients;
+    private final long probindClient;
+    private int maxAgents;
+    private String installation;
+    private String responseTimesFile;
+
+    @DataBoundConstructor
+    public WebLoadDistributedBuilder(String tplFile, String lsFile, String label, long executionDuration, long virtualClients, long probindClient) {
+        this.tplFile = tplFile;
+        this.lsFile = lsFile;
+        this.label = label;
+        this.executionDuration = executionDuration;
+        this.virtualClients = virtualClients;
+        this.probindClient = probindClient;
+    }
+
+    public String getTplFile() {
+        return tplFile;
+    }
+
+    public String getLsFile() {
+        return lsFile;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getExecutionDuration() {
+        return executionDuration;
+    }
+
+    public long getVirtualClients() {
+        return virtualClients;
+    }
+
+    public long getProbindClient() {
+        return probindClient;
+    }
+
+    public int getMaxAgents() {
+        return maxAgents;
+    }
+
+    /**
+     * Upper bound on the number of agents used, 0 for all online agents of the label.
+     */
+    @DataBoundSetter
+    public void setMaxAgents(int maxAgents) {
+        this.maxAgents = maxAgents;
+    }
+
+    public String getInstallation() {
+        return installation;
+    }
+
+    @DataBoundSetter
+    public void setInstallation(String installation) {
+        this.installation = Util.fixEmpty(installation);
+    }
+
+    public String getResponseTimesFile() {
+        return responseTimesFile;
+    }
+
+    @DataBoundSetter
+    public void setResponseTimesFile(String responseTimesFile) {
+        this.responseTimesFile = Util.fixEmptyAndTrim(responseTimesFile);
+    }
+
+    @Override
+    public BuildStepMonitor getRequiredMonitorService() {
+        return BuildStepMonitor.BUILD;
+    }
+
+    @Override
+    public void perform(Run<?, ?> build, FilePath workspace, Launcher launcher, TaskListener listener) throws InterruptedException, IOException {
+        EnvVars envVars = WebLoadConsoleBuilder.environment(build, listener);
+
+        if (tplFile == null || tplFile.isEmpty()) {
+            throw new AbortException("Template file not specified");
+        }
+        String tplFileName = envVars.expand(tplFile);
+        String lsFileName = lsFile;
+        if (lsFileName == null || lsFileName.isEmpty()) {
+            lsFileName = tplFile;
+        }
+        lsFileName = new File(envVars.expand(WebLoadConsoleBuilder.replaceExtension(lsFileName, "ls"))).getName();
+        String responseTimesName = responseTimesFile == null ? null : envVars.expand(responseTimesFile);
+
+        if (virtualClients <= 0) {
+            throw new AbortException("Number of virtual clients must be positive to split them between agents");
+        }
+        List<Node> nodes = selectNodes(envVars.expand(label));
+        if (nodes.isEmpty()) {
+            throw new AbortException("No online agent with label " + label);
+        }
+        if (nodes.size() > virtualClients) {
+            // an agent given no clients would run with the template's own count
+            listener.getLogger().println("Only " + virtualClients + " virtual clients, using " + virtualClients + " of "
+                    + nodes.size() + " agents");
+            nodes = nodes.subList(0, (int) virtualClients);
+        }
+        long[] clients = split(virtualClients, nodes.size());
+        long[] probing = split(probindClient, nodes.size());
+        String sessionName = build.getParent().getFullName().replace('/', '_') + "-" + build.getNumber() + "-"
+                + UUID.randomUUID().toString().substring(0, 8);
+        String configuredPath = Jenkins.getInstance().getDescriptorByType(WebLoadConsoleBuilder.ConsoleDescriptor.class).getWebloadInstallationPath();
+
+        PhaseTimingsAction timings = PhaseTimingsAction.of(build);
+        SessionExecutor executor = SessionExecutor.get();
+        List<AgentSession> sessions = new ArrayList<AgentSession>();
+        try {
+            for (int i = 0; i < nodes.size(); i++) {
+                Node node = nodes.get(i);
+                AgentSession s = new AgentSession(node, node.getRootPath().child("webload").child(sessionName));
+                sessions.add(s);
+                listener.getLogger().println("Preparing " + clients[i] + " virtual clients on " + s.name + " in " + s.dir);
+                s.dir.deleteRecursive();
+                s.dir.mkdirs();
+                EnvVars nodeEnv = node.toComputer().getEnvironment();
+                nodeEnv.overrideAll(WebLoadConsoleBuilder.buildVariables(build));
+                s.env = nodeEnv;
+                long phaseStart = System.currentTimeMillis();
+                InstallationResolver.Home home = InstallationResolver.resolve(installation, configuredPath, nodeEnv, node,
+                        node.getChannel(), listener);
+                String webloadExecPath = executor.executable(home, InstallationResolver.CONSOLE_EXECUTABLE);
+                timings.record(PhaseTimingsAction.Phase.INSTALLATION, phaseStart);
+
+                String template = tplFileName;
+                if (!new File(tplFileName).isAbsolute()) {
+                    FilePath target = s.dir.child(new File(tplFileName).getName());
+                    new FilePath(workspace, tplFileName).copyTo(target);
+                    template = target.getRemote();
+                }
+                ArgumentListBuilder args = new ArgumentListBuilder();
+                WebLoadConsoleBuilder.sessionArguments(args, webloadExecPath, template, s.dir.child(lsFileName),
+                        clients[i], probing[i], probindClient > 0, executionDuration, s.dir.child("results.xml"));
+                s.args = args;
+                s.exports = new SessionExecutor.Exports(null, null,
+                        responseTimesName == null ? null : new FilePath(s.dir, responseTimesName));
+                s.launcher = node.createLauncher(listener);
+            }
+
+            long sessionStart = System.currentTimeMillis();
+            long[] weights = new long[nodes.size()];
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = LoadGeneratorSlots.clients(clients[i], probing[i]);
+            }
+            List<LoadGeneratorSlots.Slot> slots = LoadGeneratorSlots.acquireAll(nodes, weights, listener);
+            int exitCode;
+            try {
+                AtomicLong launched = new AtomicLong(timings.record(PhaseTimingsAction.Phase.ADMISSION, sessionStart));
+                exitCode = runAll(executor, sessions, timings, launched, listener);
+                sessionStart = launched.get();
+            } finally {
+                for (LoadGeneratorSlots.Slot slot : slots) {
+                    slot.release();
+                }
+            }
+            long phaseStart = timings.record(PhaseTimingsAction.Phase.SESSION, sessionStart);
+            long sessionMillis = phaseStart - sessionStart;
+            listener.getLogger().println("Execution ended on all agents, collecting results");
+
+            boolean passed = true;
+            TransactionHistograms merged = null;
+            for (AgentSession s : sessions) {
+                FilePath results = s.dir.child("results.xml");
+                if (results.exists()) {
+                    SessionResult r = results.act(new ResultsFileParser.ParseResults());
+                    listener.getLogger().println(s.name + ": SessionReturnCode " + r.getSessionReturnCode()
+                            + ", ErrorDescription " + r.getErrorDescription());
+                    WebLoadConsoleBuilder.logTransactions(listener, r);
+                    passed &= r.isPassed();
+                } else {
+                    listener.getLogger().println(s.name + ": result file not created");
+                    passed = false;
+                }
+                if (responseTimesName != null) {
+                    FilePath responseTimes = new FilePath(s.dir, responseTimesName);
+                    if (responseTimes.exists()) {
+                        TransactionHistograms h = responseTimes.act(new ResponseTimesReader());
+                        if (merged == null) {
+                            merged = h;
+                        } else {
+                            merged.add(h);
+                        }
+                    } else {
+                        listener.getLogger().println("WARN : Response times not found " + responseTimes);
+                    }
+                }
+
+                phaseStart = timings.record(PhaseTimingsAction.Phase.RESULTS, phaseStart);
+
+                FilePath target = workspace.child(AGENTS_DIR).child(s.name);
+                target.deleteRecursive();
+                s.dir.copyRecursiveTo(collectPattern(lsFileName, responseTimesName), target);
+                WebLoadConsoleBuilder.archiveSession(build, s.dir.child(lsFileName), s.name, listener);
+                phaseStart = timings.record(PhaseTimingsAction.Phase.ARCHIVE, phaseStart);
+            }
+
+            if (merged != null) {
+                WebLoadConsoleBuilder.publishSummary(build, null, merged, sessionMillis, listener);
+            }
+            if (!passed) {
+                listener.getLogger().println("Not passed on all agents, marking as UNSTABLE");
+                WebLoadMetrics.count("sessions.unstable", 1);
+                build.setResult(Result.UNSTABLE);
+            }
+            if (exitCode != 0) {
+                throw new AbortException("WebLOAD session ended with return code " + exitCode);
+            }
+        } finally {
+            for (AgentSession s : sessions) {
+                try {
+                    s.dir.deleteRecursive();
+                } catch (IOException e) {
+                    listener.getLogger().println("WARN : Failed to remove " + s.dir + " on " + s.name + ": " + e);
+                }
+            }
+        }
+    }
+
+    private List<Node> selectNodes(String labelExpression) {
+        List<Node> nodes = new ArrayList<Node>();
+        Label l = Jenkins.getInstance().getLabel(labelExpression);
+        if (l == null) {
+            return nodes;
+        }
+        for (Node n : l.getNodes()) {
+            Computer c = n.toComputer();
+            if (c != null && c.isOnline() && n.getChannel() != null) {
+                nodes.add(n);
+                if (maxAgents > 0 && nodes.size() == maxAgents) {
+                    break;
+                }
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Splits a number of clients as evenly as possible, the first parts getting the remainder.
+     */
+    static long[] split(long total, int parts) {
+        long[] r = new long[parts];
+        for (int i = 0; i < parts; i++) {
+            r[i] = total / parts + (i < total % parts ? 1 : 0);
+        }
+        return r;
+    }
+
+    static String collectPattern(String lsFileName, String responseTimesName) {
+        StringBuilder sb = new StringBuilder("results.xml");
+        for (String e : WebLoadConsoleBuilder.sessionExtensions) {
+            sb.append(',').append(WebLoadConsoleBuilder.replaceExtension(lsFileName, e));
+        }
+        if (responseTimesName != null) {
+            sb.append(',').append(responseTimesName);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Starts every session behind a common start gate and waits for all of them.
+     * The time until the last one was launched is recorded as {@link PhaseTimingsAction.Phase#LAUNCH}.
+     *
+     * @param launched when the launches start, set to when they all ended
+     * @return the first non-zero exit code, or 0
+     */
+    private int runAll(final SessionExecutor executor, final List<AgentSession> sessions, PhaseTimingsAction timings,
+            AtomicLong launched, final TaskListener listener) throws IOException, InterruptedException {
+        final CountDownLatch startGate = new CountDownLatch(1);
+        final CountDownLatch launches = new CountDownLatch(sessions.size());
+        ExecutorService pool = Executors.newFixedThreadPool(sessions.size(),
+                new NamingThreadFactory(new DaemonThreadFactory(), "WebLOAD distributed session " + sessions.get(0).dir.getName()));
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        try {
+            for (final AgentSession s : sessions) {
+                results.add(pool.submit(new Callable<Integer>() {
+                    public Integer call() throws Exception {
+                        OutputStream out = new PrefixedOutputStream(listener.getLogger(), "[" + s.name + "] ");
+                        try {
+                            Proc proc;
+                            try {
+                                startGate.await();
+                                proc = executor.launch(s.launcher, s.args, s.env, s.dir, s.exports, out);
+                            } finally {
+                                launches.countDown();
+                            }
+                            return proc.join();
+                        } finally {
+                            out.close();
+                        }
+                    }
+                }));
+            }
+            for (AgentSession s : sessions) {
+                listener.getLogger().println("Executing on " + s.name + ": " + s.args.toStringWithQuote());
+            }
+            startGate.countDown();
+            launches.await();
+            launched.set(timings.record(PhaseTimingsAction.Phase.LAUNCH, launched.get()));
+
+            int exitCode = 0;
+            for (int i = 0; i < results.size(); i++) {
+                try {
+                    int r = results.get(i).get();
+                    listener.getLogger().println(sessions.get(i).name + ": result " + r);
+                    if (exitCode == 0) {
+                        exitCode = r;
+                    }
+                } catch (ExecutionException e) {
+                    listener.getLogger().println(sessions.get(i).name + ": session failed: " + e.getCause());
+                    if (exitCode == 0) {
+                        exitCode = -1;
+                    }
+                }
+            }
+            return exitCode;
+        } finally {
+            // cancelling interrupts the joins, which kills the remaining sessions
+            for (Future<Integer> f : results) {
+                f.cancel(true);
+            }
+            pool.shutdown();
+            pool.awaitTermination(1, TimeUnit.MINUTES);
+        }
+    }
+
+    private static final class AgentSession {
+        final String name;
+        final FilePath dir;
+        ArgumentListBuilder args;
+        EnvVars env;
+        SessionExecutor.Exports exports;
+        Launcher launcher;
+
+        AgentSession(Node node, FilePath dir) {
+            String n = node.getNodeName();
+            this.name = n.length() == 0 ? "master" : n;
+            this.dir = dir;
+        }
+    }
+
+    /**
+     * Prefixes every line with the agent it came from.
+     */
+    private static final class PrefixedOutputStream extends LineTransformationOutputStream {
+        private final PrintStream out;
+        private final byte[] prefix;
+
+        PrefixedOutputStream(PrintStream out, String prefix) {
+            this.out = out;
+            this.prefix = prefix.getBytes();
+        }
+
+        @Override
+        protected void eol(byte[] b, int len) throws IOException {
+            synchronized (out) {
+                out.write(prefix);
+                out.write(b, 0, len);
+            }
+        }
+    }
+
+    @Extension
+    public static final class DistributedDescriptor extends BuildStepDescriptor<Builder> {
+
+        public DistributedDescriptor() {
+            super(WebLoadDistributedBuilder.class);
+        }
+
+        public String getDisplayName() {
+            return "Execute distributed WebLOAD load session";
+        }
+
+        public FormValidation doCheckTplFile(@QueryParameter String value) {
+            if (value.length() == 0)
+                return FormValidation.error("Please select a template file");
+            if (!value.endsWith(".tpl"))
+                return FormValidation.warning("File extension is not tpl, is this the right file?");
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckVirtualClients(@QueryParameter String value) {
+            try {
+                if (Long.parseLong(value.trim()) <= 0) {
+                    return FormValidation.error("Please enter a positive number of virtual clients to split between the agents");
+                }
+            } catch (NumberFormatException e) {
+                return FormValidation.error("Please enter a number");
+            }
+            return FormValidation.ok();
+        }
+
+        public FormValidation doCheckLabel(@QueryParameter String value) {
+            if (value.length() == 0)
+                return FormValidation.error("Please enter the label of the load generator agents");
+            Label l = Jenkins.getInstance().getLabel(value);
+            if (l == null || l.getNodes().isEmpty())
+                return FormValidation.warning("No agent matches this label");
+            return FormValidation.ok();
+        }
+
+        @Override
+        public boolean isApplicable(Class<? extends AbstractProject> jobType) {
+            return true;
+        }
+
+        public WebLoadInstallation[] getInstallations() {
+            return WebLoadInstallation.all();
+        }
+    }
+}
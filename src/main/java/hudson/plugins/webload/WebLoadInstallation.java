@@ -0,0 +1,86 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import hudson.EnvVars;
+import hudson.Extension;
+import hudson.model.EnvironmentSpecific;
+import hudson.model.Node;
+import hudson.model.TaskListener;
+import hudson.slaves.NodeSpecific;
+import hudson.tools.ToolDescriptor;
+import hudson.tools.ToolInstallation;
+import hudson.tools.ToolProperty;
+import java.io.IOException;
+import java.util.List;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * A WebLOAD installation, configured globally and translated per node.
+ */
+public class WebLoadInstallation extends ToolInstallation
+        implements NodeSpecific<WebLoadInstallation>, EnvironmentSpecific<WebLoadInstallation> {
+
+    private static final long serialVersionUID = 1L;
+
+    @DataBoundConstructor
+    public WebLoadInstallation(String name, String home, List<? extends ToolProperty<?>> properties) {
+        super(name, home, properties);
+    }
+
+    public WebLoadInstallation forNode(Node node, TaskListener log) throws IOException, InterruptedException {
+        return new WebLoadInstallation(getName(), translateFor(node, log), getProperties().toList());
+    }
+
+    public WebLoadInstallation forEnvironment(EnvVars environment) {
+        return new WebLoadInstallation(getName(), environment.expand(getHome()), getProperties().toList());
+    }
+
+    /**
+     * Looks up a configured installation by name.
+     *
+     * @return null if the name is empty or no such installation exists
+     */
+    static WebLoadInstallation get(String name) {
+        if (name == null || name.isEmpty()) {
+            return null;
+        }
+        for (WebLoadInstallation i : all()) {
+            if (name.equals(i.getName())) {
+                return i;
+            }
+        }
+        return null;
+    }
+
+    static WebLoadInstallation[] all() {
+        Jenkins jenkins = Jenkins.getInstance();
+        if (jenkins == null) {
+            return new WebLoadInstallation[0];
+        }
+        WebLoadInstallation[] installations = jenkins.getDescriptorByType(DescriptorImpl.class).getInstallations();
+        return installations == null ? new WebLoadInstallation[0] : installations;
+    }
+
+    @Extension
+    public static final class DescriptorImpl extends ToolDescriptor<WebLoadInstallation> {
+
+        public DescriptorImpl() {
+            load();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "WebLOAD";
+        }
+
+        @Override
+        public void setInstallations(WebLoadInstallation... installations) {
+            super.setInstallations(installations);
+            save();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import com.codahale.metrics.MetricRegistry;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+
+/**
+ * Reports phase timings and counters to the Metrics plugin, doing nothing when it is not installed.
+ * Only {@link Bridge} refers to the plugin's classes.
+ * <p>
+ * The metrics are named {@code webload.phase.<phase>} for the phase timers,
+ * {@code webload.sessions.aborted}, {@code webload.sessions.unstable} and
+ * {@code webload.sessions.suspect} for the session verdicts and {@code webload.archive.transferred} and
+ * {@code webload.archive.stored} for the bytes of archived session files.
+ */
+final class WebLoadMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(WebLoadMetrics.class.getName());
+
+    static final String PREFIX = "webload";
+
+    private WebLoadMetrics() {
+    }
+
+    static void time(PhaseTimingsAction.Phase phase, long millis) {
+        if (isEnabled()) {
+            try {
+                Bridge.time(PREFIX + ".phase." + phase.name().toLowerCase(Locale.ENGLISH), millis);
+            } catch (LinkageError e) {
+                LOGGER.log(Level.FINE, "Metrics plugin not usable", e);
+            }
+        }
+    }
+
+    static void count(String name, long n) {
+        if (isEnabled() && n > 0) {
+            try {
+                Bridge.count(PREFIX + "." + name, n);
+            } catch (LinkageError e) {
+                LOGGER.log(Level.FINE, "Metrics plugin not usable", e);
+            }
+        }
+    }
+
+    private static boolean isEnabled() {
+        Jenkins j = Jenkins.getInstance();
+        return j != null && j.getPlugin("metrics") != null;
+    }
+
+    /**
+     * Only loaded once the Metrics plugin is known to be there.
+     */
+    private static final class Bridge {
+        static void time(String name, long millis) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            if (registry != null) {
+                registry.timer(name).update(millis, TimeUnit.MILLISECONDS);
+            }
+        }
+
+        static void count(String name, long n) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            if (registry != null) {
+                registry.counter(name).inc(n);
+            }
+        }
+    }
+}
@@ -0,0 +1,168 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import com.google.inject.Inject;
+import hudson.AbortException;
+import hudson.Extension;
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.Descriptor;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.model.Jenkins;
+import jenkins.tasks.SimpleBuildStep;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepDescriptorImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepExecutionImpl;
+import org.jenkinsci.plugins.workflow.steps.AbstractStepImpl;
+import org.jenkinsci.plugins.workflow.steps.StepContextParameter;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * Pipeline step running one of the WebLOAD build steps, e.g.
+ * {@code webLoad builder: [$class: 'WebLoadConsoleBuilder', tplFile: 'login.tpl']}.
+ * <p>
+ * Unlike the generic {@code step}, the session runs on a thread of its own so
+ * it doesn't hold the Pipeline's CPS thread, and stopping the build kills the
+ * session. That thread still waits on the controller while the session runs.
+ * The session is not durable: it does not survive a controller restart, and
+ * the step then fails.
+ * Only available when the Pipeline step API plugin is installed.
+ */
+public class WebLoadStep extends AbstractStepImpl {
+
+    private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+            new NamingThreadFactory(new DaemonThreadFactory(), "WebLOAD step"));
+
+    private final SimpleBuildStep builder;
+
+    @DataBoundConstructor
+    public WebLoadStep(SimpleBuildStep builder) {
+        if (!isWebLoadBuilder(builder)) {
+            throw new IllegalArgumentException("webLoad runs WebLOAD build steps only, not "
+                    + (builder == null ? null : builder.getClass().getName()));
+        }
+        this.builder = builder;
+    }
+
+    static boolean isWebLoadBuilder(SimpleBuildStep builder) {
+        return builder instanceof WebLoadConsoleBuilder || builder instanceof WebLoadDistributedBuilder
+                || builder instanceof WebLoadCapacityBuilder || builder instanceof WebLoadAnalyticsBuilder;
+    }
+
+    public SimpleBuildStep getBuilder() {
+        return builder;
+    }
+
+    public static final class Execution extends AbstractStepExecutionImpl {
+
+        private static final long serialVersionUID = 1L;
+
+        @Inject(optional = true)
+        private transient WebLoadStep step;
+        @StepContextParameter
+        private transient Run<?, ?> run;
+        @StepContextParameter
+        private transient FilePath workspace;
+        @StepContextParameter
+        private transient Launcher launcher;
+        @StepContextParameter
+        private transient TaskListener listener;
+
+        private transient volatile Future<?> task;
+        private transient volatile boolean started;
+        private transient volatile Throwable stopCause;
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        @Override
+        public boolean start() throws Exception {
+            task = EXECUTOR.submit(new Runnable() {
+                public void run() {
+                    started = true;
+                    Throwable failure = null;
+                    try {
+                        step.getBuilder().perform(run, workspace, launcher, listener);
+                    } catch (Throwable t) {
+                        failure = t;
+                    }
+                    complete(failure);
+                }
+            });
+            return false;
+        }
+
+        /**
+         * Reports the outcome once; a stop wins over whatever the interrupted session ended with.
+         */
+        private void complete(Throwable failure) {
+            if (!completed.compareAndSet(false, true)) {
+                return;
+            }
+            Throwable cause = stopCause;
+            if (cause != null) {
+                getContext().onFailure(cause);
+            } else if (failure != null) {
+                getContext().onFailure(failure);
+            } else {
+                getContext().onSuccess(null);
+            }
+        }
+
+        @Override
+        public void stop(Throwable cause) throws Exception {
+            stopCause = cause;
+            // interrupting the build step kills the session process, and the step then completes;
+            // a task cancelled before it started never runs, so that one is completed here
+            Future<?> t = task;
+            if (t == null || t.cancel(true) && !started) {
+                complete(cause);
+            }
+        }
+
+        @Override
+        public void onResume() {
+            complete(new AbortException("The WebLOAD session was lost when Jenkins restarted"));
+        }
+    }
+
+    @Extension(optional = true)
+    public static final class StepDescriptor extends AbstractStepDescriptorImpl {
+
+        public StepDescriptor() {
+            super(Execution.class);
+        }
+
+        @Override
+        public String getFunctionName() {
+            return "webLoad";
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Run a WebLOAD build step";
+        }
+
+        /**
+         * The WebLOAD build steps that can run as this step.
+         */
+        public List<Descriptor<?>> getBuilderDescriptors() {
+            Jenkins j = Jenkins.getInstance();
+            List<Descriptor<?>> r = new ArrayList<Descriptor<?>>();
+            r.add(j.getDescriptorByType(WebLoadConsoleBuilder.ConsoleDescriptor.class));
+            r.add(j.getDescriptorByType(WebLoadDistributedBuilder.DistributedDescriptor.class));
+            r.add(j.getDescriptorByType(WebLoadCapacityBuilder.CapacityDescriptor.class));
+            r.add(j.getDescriptorByType(WebLoadAnalyticsBuilder.AnalyticsDescriptor.class));
+            return r;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import org.junit.Test;
+
+public class AbortRuleTest {
+
+    private static final String[] NAMES = {"Time", "Response Time", "Error Rate"};
+
+    private static AbortRule rule(String text) {
+        List<AbortRule> rules = AbortRule.parse(text);
+        assertEquals(1, rules.size());
+        return rules.get(0);
+    }
+
+    @Test
+    public void skipsBlankLinesAndComments() {
+        List<AbortRule> rules = AbortRule.parse("# latency\n\nResponse Time > 2s\r\nError Rate >= 5%\n");
+        assertEquals(2, rules.size());
+        assertEquals("Response Time > 2s", rules.get(0).toString());
+        assertEquals(0, AbortRule.parse(null).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsRuleWithoutOperator() {
+        AbortRule.parse("Response Time 2s");
+    }
+
+    @Test
+    public void millisecondsAreTakenInSeconds() {
+        AbortRule r = rule("Response Time > 1500ms");
+        assertFalse(r.check(NAMES, new double[] {1, 1.5, 0}, 0));
+        assertTrue(r.check(NAMES, new double[] {1, 1.6, 0}, 0));
+    }
+
+    @Test
+    public void firesOnlyAfterTheConditionHeldForTheDuration() {
+        AbortRule r = rule("Error Rate > 5 for 2m");
+        double[] breach = {1, 0.2, 10};
+        assertFalse(r.check(NAMES, breach, 1000));
+        assertFalse(r.check(NAMES, breach, 120999));
+        assertTrue(r.check(NAMES, breach, 121000));
+    }
+
+    @Test
+    public void recoveringResetsTheHoldTime() {
+        AbortRule r = rule("Error Rate > 5 for 60s");
+        double[] breach = {1, 0.2, 10};
+        assertFalse(r.check(NAMES, breach, 0));
+        assertFalse(r.check(NAMES, new double[] {1, 0.2, 1}, 30000));
+        assertFalse(r.check(NAMES, breach, 60000));
+        assertTrue(r.check(NAMES, breach, 120000));
+    }
+
+    @Test
+    public void lowerBounds() {
+        AbortRule r = rule("throughput <= 10");
+        String[] names = {"Throughput"};
+        assertTrue(r.check(names, new double[] {10}, 0));
+        assertFalse(rule("throughput < 10").check(names, new double[] {10}, 0));
+    }
+
+    @Test
+    public void unmatchedOrMissingValuesNeverFire() {
+        AbortRule r = rule("p95 > 2s");
+        assertFalse(r.appliesTo(NAMES));
+        assertFalse(r.check(NAMES, new double[] {1, 100, 100}, 0));
+
+        AbortRule latency = rule("responseTime > 2s");
+        assertTrue(latency.appliesTo(NAMES));
+        assertFalse(latency.check(NAMES, new double[] {1, Double.NaN, 0}, 0));
+        assertFalse(latency.check(NAMES, new double[] {1}, 0));
+    }
+}
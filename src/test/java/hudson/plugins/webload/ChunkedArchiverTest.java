@@ -0,0 +1,164 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import hudson.FilePath;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.apache.commons.io.IOUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ChunkedArchiverTest {
+
+    private static final int CHUNK_SIZE = 1024;
+    private static final byte[] NONCE = {1, 2, 3, 4};
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private ChunkStore store() throws IOException {
+        return new ChunkStore(tmp.newFolder("chunks"));
+    }
+
+    private static byte[] random(int length, long seed) {
+        byte[] data = new byte[length];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+
+    private static ChunkedArchiver.Digests digests(byte[] data) throws Exception {
+        File f = File.createTempFile("session", ".dat");
+        try {
+            Files.write(f.toPath(), data);
+            return new ChunkedArchiver.HashChunks(CHUNK_SIZE, NONCE).invoke(f, null);
+        } finally {
+            f.delete();
+        }
+    }
+
+    private static void put(ChunkStore store, byte[] data, int from, int to) throws IOException {
+        byte[] chunk = Arrays.copyOfRange(data, from, to);
+        store.put(ChunkStore.sha1(chunk, chunk.length), chunk, false);
+    }
+
+    @Test
+    public void storedChunksRoundTrip() throws Exception {
+        ChunkStore store = store();
+        byte[] data = random(3000, 1);
+        String hash = ChunkStore.sha1(data, data.length);
+        assertTrue(store.put(hash, data, true) > 0);
+        assertEquals(0, store.put(hash, data, false));
+        InputStream in = store.open(hash);
+        try {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+        assertEquals(ChunkStore.proof(NONCE, data, data.length), store.proof(hash, NONCE));
+    }
+
+    @Test(expected = IOException.class)
+    public void contentMustMatchItsHash() throws Exception {
+        byte[] data = random(100, 2);
+        store().put(ChunkStore.sha1(random(100, 3), 100), data, false);
+    }
+
+    @Test
+    public void hashesThatAreNotSha1NeverReachTheFileSystem() throws Exception {
+        ChunkStore store = store();
+        for (String hash : new String[] {"../../secrets/master.key", "ABCDEF0123456789abcdef0123456789abcdef01", "00", ""}) {
+            assertFalse(ChunkStore.isHash(hash));
+            try {
+                store.reuse(hash);
+                fail(hash);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+        assertTrue(ChunkStore.isHash(ChunkStore.sha1(new byte[0], 0)));
+    }
+
+    @Test
+    public void onlyChunksTheStoreLacksAreRead() throws Exception {
+        ChunkStore store = store();
+        byte[] data = random(3 * CHUNK_SIZE + 10, 4);
+        put(store, data, CHUNK_SIZE, 2 * CHUNK_SIZE);
+        List<Integer> missing = ChunkedArchiver.missing(store, digests(data), CHUNK_SIZE, NONCE);
+        assertEquals(Arrays.asList(0, 2, 3), missing);
+    }
+
+    @Test
+    public void claimingAStoredChunkWithoutItsContentDoesNotReuseIt() throws Exception {
+        ChunkStore store = store();
+        byte[] secret = random(CHUNK_SIZE, 5);
+        put(store, secret, 0, CHUNK_SIZE);
+
+        // the node sends the hash of another job's chunk, but can't prove it has the content
+        ChunkedArchiver.Digests own = digests(random(CHUNK_SIZE, 6));
+        ChunkedArchiver.Digests forged = new ChunkedArchiver.Digests(CHUNK_SIZE,
+                new String[] {ChunkStore.sha1(secret, secret.length)}, own.proofs);
+        assertEquals(Arrays.asList(0), ChunkedArchiver.missing(store, forged, CHUNK_SIZE, NONCE));
+
+        // and the proof of a different nonce doesn't help either
+        assertEquals(Arrays.asList(0), ChunkedArchiver.missing(store, digests(secret), CHUNK_SIZE, new byte[] {9}));
+        assertEquals(0, ChunkedArchiver.missing(store, digests(secret), CHUNK_SIZE, NONCE).size());
+    }
+
+    @Test
+    public void malformedDigestsAreRejected() throws Exception {
+        ChunkStore store = store();
+        String[][] cases = {
+            {"../../secrets/master.key"},
+            {ChunkStore.sha1(new byte[1], 1), ChunkStore.sha1(new byte[2], 2)},
+        };
+        for (String[] hashes : cases) {
+            try {
+                ChunkedArchiver.missing(store, new ChunkedArchiver.Digests(CHUNK_SIZE, hashes, new String[hashes.length]),
+                        CHUNK_SIZE, NONCE);
+                fail(Arrays.toString(hashes));
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void archivingAgainTransfersNothing() throws Exception {
+        ChunkStore store = store();
+        File f = tmp.newFile("session.ls");
+        byte[] data = random(ChunkStore.CHUNK_SIZE + 100, 7);
+        Files.write(f.toPath(), data);
+        StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+
+        ArchivedFile first = ChunkedArchiver.archive(store, new FilePath(f), "session.ls", true, listener);
+        assertEquals(data.length, first.getTransferred());
+        ArchivedFile second = ChunkedArchiver.archive(store, new FilePath(f), "session.ls", true, listener);
+        assertEquals(0, second.getTransferred());
+        assertEquals(0, second.getStored());
+
+        File manifest = tmp.newFile("manifest");
+        second.writeManifest(manifest);
+        InputStream in = second.open(store, manifest);
+        try {
+            assertTrue(Arrays.equals(data, IOUtils.toByteArray(in)));
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ColumnsTest {
+
+    @Test
+    public void exactMatchOfAnyAliasWinsOverContains() {
+        String[] names = {"Timestamp", "Response Time (ms)", "Duration"};
+        assertEquals(2, Columns.indexOf(names, "response time", "duration"));
+    }
+
+    @Test
+    public void containsMatchFollowsAliasOrder() {
+        String[] names = {"Total Duration", "Average Response Time [ms]"};
+        assertEquals(1, Columns.indexOf(names, "response time", "duration"));
+    }
+
+    @Test
+    public void comparesIgnoringCaseAndPunctuation() {
+        String[] names = {"name", "p-95"};
+        assertEquals(1, Columns.indexOf(names, "P95"));
+        assertEquals(-1, Columns.indexOf(names, "p99"));
+    }
+}
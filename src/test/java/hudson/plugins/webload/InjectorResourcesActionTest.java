@@ -0,0 +1,78 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InjectorResourcesActionTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static InjectorSampler.Samples samples(long count, long cpuCount, long overCeiling) {
+        InjectorSampler.Samples s = new InjectorSampler.Samples();
+        s.ceiling = 90;
+        s.interval = 1000;
+        s.count = count;
+        s.cpuCount = cpuCount;
+        s.overCeiling = overCeiling;
+        s.cpuMean = cpuCount == 0 ? -1 : 50;
+        s.cpuMax = cpuCount == 0 ? -1 : 95;
+        s.memoryMax = 40;
+        s.times = new long[] { 0, 1000, 2000 };
+        s.cpu = new float[] { -1, 50, 95 };
+        s.memory = new float[] { 30, 35, 40 };
+        s.network = new float[] { -1, 1024, 2048 };
+        return s;
+    }
+
+    @Test
+    public void unreadCpuSamplesDoNotDiluteTheShare() {
+        // 5 of the 20 samples read were over the ceiling, 80 could not be read
+        InjectorResourcesAction.Session session = new InjectorResourcesAction.Session(1, samples(100, 20, 5));
+        assertTrue(session.isSuspect());
+        assertEquals("25.000%", session.getOverCeiling());
+    }
+
+    @Test
+    public void sessionsWithoutCpuAreNotSuspect() {
+        InjectorResourcesAction.Session session = new InjectorResourcesAction.Session(1, samples(100, 0, 0));
+        assertFalse(session.isSuspect());
+        assertEquals("n/a", session.getOverCeiling());
+        assertEquals("n/a", session.getCpuMean());
+    }
+
+    @Test
+    public void sessionsUnderTheShareAreNotSuspect() {
+        InjectorResourcesAction.Session session = new InjectorResourcesAction.Session(1, samples(100, 100, 10));
+        assertFalse(session.isSuspect());
+    }
+
+    @Test
+    public void samplesAreReadBackFromTheirFile() throws Exception {
+        File f = tmp.newFile("webload-injector-1.bin");
+        InjectorSampler.Samples s = samples(100, 20, 5);
+        s.write(f);
+        InjectorSampler.Samples read = InjectorSampler.Samples.read(f);
+        assertEquals(90, read.ceiling);
+        assertEquals(1000, read.interval);
+        assertEquals(100, read.count);
+        assertEquals(20, read.cpuCount);
+        assertEquals(5, read.overCeiling);
+        assertEquals(95, read.cpuMax, 0);
+        assertTrue(Arrays.equals(s.times, read.times));
+        assertTrue(Arrays.equals(s.cpu, read.cpu));
+        assertTrue(Arrays.equals(s.memory, read.memory));
+        assertTrue(Arrays.equals(s.network, read.network));
+    }
+}
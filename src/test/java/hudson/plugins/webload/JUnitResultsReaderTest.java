@@ -0,0 +1,138 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JUnitResultsReaderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static TransactionResults read(String xml) throws IOException {
+        TransactionResults results = new TransactionResults();
+        JUnitResultsReader.read(new ByteArrayInputStream(xml.getBytes("UTF-8")), results);
+        return results;
+    }
+
+    @Test
+    public void iterationsOfATransactionShareItsRow() throws Exception {
+        TransactionResults r = read("<testsuite name=\"login\">\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"0.5\"/>\n"
+                + "<testcase classname=\"login\" name=\"Submit\" time=\"1.0\"/>\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"1.5\"/>\n"
+                + "</testsuite>");
+
+        assertEquals(2, r.size());
+        assertEquals("login", r.getGroup(0));
+        assertEquals("Open", r.getName(0));
+        assertEquals(2, r.getCount(0));
+        assertEquals(1.0, r.getMeanTime(0), 1e-9);
+        assertEquals(1.5, r.getMaxTime(0), 1e-9);
+        assertEquals("Submit", r.getName(1));
+        assertEquals(3, r.getTotalCount());
+        assertEquals(0, r.getTotalFailures());
+    }
+
+    @Test
+    public void failuresErrorsAndSkipsAreCounted() throws Exception {
+        TransactionResults r = read("<testsuites><testsuite name=\"login\">\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"0.1\"><failure message=\"first\">trace</failure></testcase>\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"0.1\"><error message=\"second\"/></testcase>\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"0.1\"><skipped/></testcase>\n"
+                + "<testcase classname=\"login\" name=\"Open\" time=\"0.1\"/>\n"
+                + "</testsuite></testsuites>");
+
+        assertEquals(1, r.size());
+        assertEquals(4, r.getCount(0));
+        assertEquals(2, r.getFailures(0));
+        assertEquals(1, r.getSkipped(0));
+        assertEquals("first", r.getMessage(0));
+        assertEquals(2, r.getTotalFailures());
+        assertEquals(1, r.getTotalSkipped());
+    }
+
+    @Test
+    public void missingAttributesAreTolerated() throws Exception {
+        TransactionResults r = read("<testsuite><testcase name=\"Open\"/><testcase name=\"Open\" time=\"2\"/></testsuite>");
+
+        assertEquals(1, r.size());
+        assertEquals("", r.getGroup(0));
+        assertEquals(2, r.getCount(0));
+        assertEquals(2.0, r.getMaxTime(0), 1e-9);
+        assertNull(r.getMessage(0));
+    }
+
+    @Test
+    public void elementsOutsideTestCasesAreIgnored() throws Exception {
+        TransactionResults r = read("<testsuite><properties><property name=\"a\" value=\"b\"/></properties>"
+                + "<failure message=\"not a test\"/><system-out>output</system-out></testsuite>");
+
+        assertEquals(0, r.size());
+        assertEquals(0, r.getTotalFailures());
+    }
+
+    @Test
+    public void namesAreInterned() throws Exception {
+        TransactionResults r = read("<testsuite><testcase classname=\"login\" name=\"Open\"/>"
+                + "<testcase classname=\"login\" name=\"Submit\"/></testsuite>");
+
+        assertSame(r.getGroup(0), r.getGroup(1));
+    }
+
+    @Test
+    public void externalEntitiesAreNotResolved() throws Exception {
+        File secret = tmp.newFile("secret.txt");
+        Files.write(secret.toPath(), "secret".getBytes("UTF-8"));
+        try {
+            TransactionResults r = read("<?xml version=\"1.0\"?><!DOCTYPE testsuite [<!ENTITY x SYSTEM \""
+                    + secret.toURI() + "\">]><testsuite><testcase name=\"&x;\"/></testsuite>");
+            for (int i = 0; i < r.size(); i++) {
+                assertFalse(r.getName(i).contains("secret"));
+            }
+        } catch (IOException e) {
+            // rejecting the document is as good
+        }
+    }
+
+    @Test
+    public void malformedReportsFail() throws Exception {
+        try {
+            read("<testsuite><testcase name=\"Open\">");
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().startsWith("Failed to read JUnit report"));
+        }
+    }
+
+    @Test
+    public void resultsSurviveTheirFile() throws Exception {
+        TransactionResults r = read("<testsuite><testcase classname=\"login\" name=\"Open\" time=\"0.5\">"
+                + "<failure message=\"timeout\"/></testcase><testcase classname=\"login\" name=\"Submit\"/></testsuite>");
+        File f = tmp.newFile("results.bin");
+        r.write(f);
+
+        TransactionResults back = TransactionResults.read(f);
+        assertEquals(2, back.size());
+        assertEquals("Open", back.getName(0));
+        assertEquals(1, back.getFailures(0));
+        assertEquals("timeout", back.getMessage(0));
+        assertEquals(0.5, back.getMaxTime(0), 1e-9);
+        assertNull(back.getMessage(1));
+    }
+}
@@ -0,0 +1,164 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private static final double[] PERCENTILES = {1, 10, 50, 90, 95, 99, 99.9, 100};
+
+    /**
+     * The smallest recorded value at or above which fall {@code 100 - percentile}
+     * percent of the values, the same rank the histogram reports.
+     */
+    private static long exact(long[] sorted, double percentile) {
+        int rank = (int) Math.max(1, Math.ceil(percentile / 100 * sorted.length));
+        return sorted[rank - 1];
+    }
+
+    private static void assertWithinOnePercent(long[] values, LatencyHistogram h) {
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        for (double p : PERCENTILES) {
+            long expected = exact(sorted, p);
+            long actual = h.getValueAtPercentile(p);
+            assertTrue("P" + p + " " + actual + " vs " + expected, actual >= expected);
+            assertTrue("P" + p + " " + actual + " vs " + expected, actual - expected <= expected / 100);
+        }
+    }
+
+    private static long[] lognormal(Random random, int n, double median) {
+        long[] values = new long[n];
+        for (int i = 0; i < n; i++) {
+            values[i] = (long) (median * Math.exp(random.nextGaussian()));
+        }
+        return values;
+    }
+
+    @Test
+    public void valuesBelow256HaveABucketEach() {
+        for (int v = 0; v < 256; v++) {
+            int i = LatencyHistogram.bucketIndex(v);
+            assertEquals(v, i);
+            assertEquals(v, LatencyHistogram.lowestValue(i));
+            assertEquals(v, LatencyHistogram.highestValue(i));
+        }
+        LatencyHistogram h = new LatencyHistogram();
+        h.record(255);
+        h.record(7);
+        assertEquals(7, h.getValueAtPercentile(50));
+        assertEquals(255, h.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void powersOfTwoStartANewBucket() {
+        for (int bits = 8; bits < 62; bits++) {
+            long power = 1L << bits;
+            int i = LatencyHistogram.bucketIndex(power);
+            assertEquals(i - 1, LatencyHistogram.bucketIndex(power - 1));
+            assertEquals(power, LatencyHistogram.lowestValue(i));
+            assertEquals(power - 1, LatencyHistogram.highestValue(i - 1));
+            assertEquals(i, LatencyHistogram.bucketIndex(power + (power >>> LatencyHistogram.SUB_BUCKET_BITS) - 1));
+        }
+    }
+
+    @Test
+    public void bucketsAreNarrowerThanOnePercentOfTheirValues() {
+        Random random = new Random(1);
+        for (int n = 0; n < 100000; n++) {
+            long v = random.nextLong() >>> (1 + random.nextInt(55));
+            int i = LatencyHistogram.bucketIndex(v);
+            long low = LatencyHistogram.lowestValue(i);
+            long high = LatencyHistogram.highestValue(i);
+            assertTrue(v + " in [" + low + ", " + high + "]", low <= v && v <= high);
+            assertTrue(v + " in [" + low + ", " + high + "]", high - low <= low / 100);
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinOnePercent() {
+        long[] values = lognormal(new Random(2), 50000, 200000);
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v : values) {
+            h.record(v);
+        }
+        assertWithinOnePercent(values, h);
+        assertEquals(values.length, h.getTotalCount());
+    }
+
+    @Test
+    public void mergeEqualsRecordingTheCombinedDistribution() {
+        Random random = new Random(3);
+        // a fast agent and a slow one, as when a distributed session is merged
+        long[] fast = lognormal(random, 20000, 50000);
+        long[] slow = lognormal(random, 5000, 3000000);
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        LatencyHistogram combined = new LatencyHistogram();
+        for (long v : fast) {
+            a.record(v);
+            combined.record(v);
+        }
+        for (long v : slow) {
+            b.record(v);
+            combined.record(v);
+        }
+        a.add(b);
+
+        assertEquals(combined.getTotalCount(), a.getTotalCount());
+        assertEquals(combined.getMin(), a.getMin());
+        assertEquals(combined.getMax(), a.getMax());
+        assertEquals(combined.getMean(), a.getMean(), 0);
+        assertEquals(combined.getBucketCount(), a.getBucketCount());
+        for (int i = 0; i < combined.getBucketCount(); i++) {
+            assertEquals(combined.getCountAt(i), a.getCountAt(i));
+        }
+
+        long[] all = new long[fast.length + slow.length];
+        System.arraycopy(fast, 0, all, 0, fast.length);
+        System.arraycopy(slow, 0, all, fast.length, slow.length);
+        assertWithinOnePercent(all, a);
+    }
+
+    @Test
+    public void mergingIntoAnEmptyHistogramKeepsTheMinimum() {
+        LatencyHistogram h = new LatencyHistogram();
+        LatencyHistogram other = new LatencyHistogram();
+        other.record(1000, 3);
+        h.add(other);
+        h.add(new LatencyHistogram());
+        assertEquals(1000, h.getMin());
+        assertEquals(3, h.getTotalCount());
+        assertEquals(0, new LatencyHistogram().getValueAtPercentile(50));
+    }
+
+    @Test
+    public void writeAndReadKeepEveryBucket() throws Exception {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v : lognormal(new Random(4), 1000, 100000)) {
+            h.record(v);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        h.write(out);
+        out.close();
+        LatencyHistogram read = LatencyHistogram.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertEquals(h.getTotalCount(), read.getTotalCount());
+        assertEquals(h.getMean(), read.getMean(), 0);
+        for (double p : PERCENTILES) {
+            assertEquals(h.getValueAtPercentile(p), read.getValueAtPercentile(p));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+public class LogFilterTest {
+
+    private static String filter(LogFilter.Verbosity verbosity, String patterns, String charset, String text,
+            ByteArrayOutputStream raw) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogFilter filter = new LogFilter(new LogFilter.Settings(verbosity, LogFilter.parsePatterns(patterns), charset),
+                raw, out);
+        filter.write(text.getBytes(charset));
+        filter.close();
+        return out.toString(charset);
+    }
+
+    private static String filter(LogFilter.Verbosity verbosity, String patterns, String text) throws IOException {
+        return filter(verbosity, patterns, "UTF-8", text, null);
+    }
+
+    @Test
+    public void verbosity() throws Exception {
+        String text = "Starting\nWarning: slow response\nError in script\nRequest failed\nDone\n";
+        assertEquals(text, filter(LogFilter.Verbosity.ALL, null, text));
+        assertEquals("Warning: slow response\nError in script\nRequest failed\n",
+                filter(LogFilter.Verbosity.WARNINGS, null, text));
+        assertEquals("Error in script\nRequest failed\n", filter(LogFilter.Verbosity.ERRORS, null, text));
+        assertEquals("", filter(LogFilter.Verbosity.NONE, null, text));
+    }
+
+    @Test
+    public void suppressionPatterns() throws Exception {
+        String text = "Script step 1\nScript step 2\nRound 1 done\nscript step 3\n";
+        assertEquals("Round 1 done\nscript step 3\n",
+                filter(LogFilter.Verbosity.ALL, "# progress lines\n^Script step\n\n", text));
+        assertEquals("Script step 1\nScript step 2\n", filter(LogFilter.Verbosity.ALL, "done\n(?i)^script step 3", text));
+    }
+
+    @Test
+    public void invalidPatternsAreRejected() {
+        try {
+            LogFilter.parsePatterns("ok\n[unclosed");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertTrue(e.getMessage().startsWith("Invalid pattern [unclosed"));
+        }
+        assertEquals(Collections.<Pattern>emptyList(), LogFilter.parsePatterns(null));
+    }
+
+    @Test
+    public void repeatedLinesAreCollapsed() throws Exception {
+        String text = "Connecting\nRetry\nRetry\nRetry\nConnected\nRetry\n";
+        assertEquals("Connecting\nRetry\n    (repeated 2 more times)\nConnected\nRetry\n",
+                filter(LogFilter.Verbosity.ALL, null, text));
+        // a run of repeats at the end is reported on close
+        assertEquals("Retry\n    (repeated 1 more times)\n", filter(LogFilter.Verbosity.ALL, null, "Retry\nRetry\n"));
+        // only the same line in a row, a suppressed line in between does not break the run
+        assertEquals("Retry\n    (repeated 1 more times)\n",
+                filter(LogFilter.Verbosity.ALL, "^Wait", "Retry\nWait\nRetry\n"));
+    }
+
+    @Test
+    public void rawLogGetsEveryLine() throws Exception {
+        String text = "Script step 1\nError\nError\nlast line without end";
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        assertEquals("Error\n    (repeated 1 more times)\n",
+                filter(LogFilter.Verbosity.ERRORS, null, "UTF-8", text, raw));
+        assertEquals(text, raw.toString("UTF-8"));
+    }
+
+    @Test
+    public void suppressedLinesAreCounted() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LogFilter filter = new LogFilter(new LogFilter.Settings(LogFilter.Verbosity.ERRORS,
+                LogFilter.parsePatterns("ignored"), "UTF-8"), null, out);
+        filter.write("a\nb\nerror ignored\nerror\n".getBytes("UTF-8"));
+        filter.close();
+        assertEquals(3, filter.getSuppressed());
+    }
+
+    @Test
+    public void linesAreMatchedInTheCharsetOfTheLog() throws Exception {
+        String umlauts = "Größe überschritten\nweiter\n";
+        assertEquals("weiter\n", filter(LogFilter.Verbosity.ALL, "^Größe", "ISO-8859-1", umlauts, null));
+        assertEquals("weiter\n", filter(LogFilter.Verbosity.ALL, "^Größe", "UTF-8", umlauts, null));
+    }
+
+    private static String text(FilteredLaunch.Batch batch) throws IOException {
+        if (batch.text == null) {
+            return null;
+        }
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(batch.text));
+        try {
+            return new String(IOUtils.toByteArray(in), "UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void pendingOutputDropsAndCountsLinesPastItsBound() throws Exception {
+        FilteredLaunch.Pending pending = new FilteredLaunch.Pending();
+        byte[] line = new byte[1024];
+        Arrays.fill(line, (byte) 'x');
+        line[line.length - 1] = '\n';
+        int fits = FilteredLaunch.MAX_PENDING / line.length;
+        for (int i = 0; i < fits + 10; i++) {
+            pending.write(line, 0, line.length);
+        }
+
+        FilteredLaunch.Batch batch = pending.take();
+        assertEquals(10, batch.dropped);
+        assertEquals(fits * line.length, text(batch).length());
+
+        // drained, there is room again and the count starts over
+        pending.write("next\n".getBytes("UTF-8"), 0, 5);
+        batch = pending.take();
+        assertEquals(0, batch.dropped);
+        assertEquals("next\n", text(batch));
+        assertNull(text(pending.take()));
+    }
+
+    @Test
+    public void filteredLinesReachThePendingOutputWhole() throws Exception {
+        FilteredLaunch.Pending pending = new FilteredLaunch.Pending();
+        LogFilter filter = new LogFilter(new LogFilter.Settings(LogFilter.Verbosity.ALL,
+                Collections.<Pattern>emptyList(), "UTF-8"), null, pending);
+        StringBuilder text = new StringBuilder();
+        int lines = FilteredLaunch.MAX_PENDING / 100 + 50;
+        for (int i = 0; i < lines; i++) {
+            text.append(String.format("%099d", i).substring(0, 99)).append('\n');
+        }
+        filter.write(text.toString().getBytes("UTF-8"));
+
+        FilteredLaunch.Batch batch = pending.take();
+        List<String> shown = Arrays.asList(text(batch).split("\n"));
+        assertEquals(lines, shown.size() + batch.dropped);
+        for (String l : shown) {
+            assertEquals(99, l.length());
+        }
+    }
+}
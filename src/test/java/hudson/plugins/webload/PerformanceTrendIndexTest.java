@@ -0,0 +1,124 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import hudson.model.Result;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerformanceTrendIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static PerformanceSummary summary(double p95) {
+        PerformanceSummary s = new PerformanceSummary(1);
+        s.transactions[0] = "login";
+        s.count[0] = 10;
+        s.p95[0] = p95;
+        return s;
+    }
+
+    private File file() {
+        return new File(tmp.getRoot(), PerformanceTrendIndex.FILE_NAME);
+    }
+
+    @Test
+    public void newestFirstAndLaterRecordsReplaceEarlierOnes() throws Exception {
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(file());
+        index.append(1, 1000, summary(1));
+        index.append(2, 2000, summary(2));
+        index.append(1, 1000, summary(3));
+        List<PerformanceTrendIndex.Entry> entries = index.read(10);
+        assertEquals(2, entries.size());
+        assertEquals(2, entries.get(0).getBuild());
+        assertEquals(3, entries.get(1).getSummary().p95[0], 0);
+        assertEquals(1, index.read(1).size());
+    }
+
+    @Test
+    public void recordCutShortIsDroppedBeforeTheNextAppend() throws Exception {
+        File file = file();
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(file);
+        index.append(1, 1000, summary(1));
+        index.append(2, 2000, summary(2));
+        long complete = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(complete - 5);
+        } finally {
+            raf.close();
+        }
+
+        // a fresh instance, as after a restart
+        PerformanceTrendIndex.Index reopened = new PerformanceTrendIndex.Index(file);
+        assertEquals(1, reopened.read(10).size());
+        reopened.append(3, 3000, summary(3));
+        reopened.append(4, 4000, summary(4));
+        List<PerformanceTrendIndex.Entry> entries = new PerformanceTrendIndex.Index(file).read(10);
+        assertEquals(3, entries.size());
+        assertEquals(4, entries.get(0).getBuild());
+        assertEquals(3, entries.get(1).getBuild());
+        assertEquals(1, entries.get(2).getBuild());
+    }
+
+    @Test
+    public void readsWhatAnotherInstanceAppended() throws Exception {
+        File file = file();
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(file);
+        index.append(1, 1000, summary(1));
+        assertEquals(1, index.read(10).size());
+        new PerformanceTrendIndex.Index(file).append(2, 2000, summary(2));
+        assertEquals(2, index.read(10).size());
+    }
+
+    @Test
+    public void resultsAreRecordedOnceBuildsComplete() throws Exception {
+        File file = file();
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(file);
+        index.append(1, 1000, summary(1));
+        index.append(2, 2000, summary(2));
+        index.append(3, 3000, summary(3));
+        index.append(4, 4000, summary(4));
+        index.setResult(1, Result.SUCCESS);
+        index.setResult(2, Result.UNSTABLE);
+        index.setResult(3, Result.SUCCESS);
+        index.setResult(5, Result.SUCCESS); // not indexed
+
+        assertNull(index.read(10).get(0).getResult());
+        List<PerformanceTrendIndex.Entry> passed = new PerformanceTrendIndex.Index(file).read(10, 4, Result.SUCCESS);
+        assertEquals(2, passed.size());
+        assertEquals(3, passed.get(0).getBuild());
+        assertEquals(1, passed.get(1).getBuild());
+        assertEquals(Result.SUCCESS, passed.get(0).getResult());
+        assertEquals(1, index.read(1, 4, Result.SUCCESS).size());
+        assertEquals(2, index.read(10, 3, null).size());
+    }
+
+    @Test
+    public void removeAndCompact() throws Exception {
+        File file = file();
+        PerformanceTrendIndex.Index index = PerformanceTrendIndex.index(file);
+        for (int i = 0; i < PerformanceTrendIndex.COMPACT_THRESHOLD; i++) {
+            index.append(1 + i % 2, 1000, summary(i));
+        }
+        long before = file.length();
+        assertEquals(2, index.read(10).size());
+        assertEquals(before / (PerformanceTrendIndex.COMPACT_THRESHOLD / 2), file.length());
+
+        index.remove(1);
+        List<PerformanceTrendIndex.Entry> entries = new PerformanceTrendIndex.Index(file).read(10);
+        assertEquals(1, entries.size());
+        assertEquals(2, entries.get(0).getBuild());
+        assertEquals(PerformanceTrendIndex.COMPACT_THRESHOLD - 1, entries.get(0).getSummary().p95[0], 0);
+    }
+}
@@ -0,0 +1,50 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PhaseTimingsActionTest {
+
+    private static void record(PhaseTimingsAction timings, PhaseTimingsAction.Phase phase, long millis) {
+        long now = System.currentTimeMillis();
+        long end = timings.record(phase, now - millis);
+        assertTrue(end >= now);
+    }
+
+    @Test
+    public void queueingSessionsAndReportsAreNotOverhead() {
+        PhaseTimingsAction timings = new PhaseTimingsAction();
+        record(timings, PhaseTimingsAction.Phase.INSTALLATION, 1000);
+        record(timings, PhaseTimingsAction.Phase.ADMISSION, 600000);
+        record(timings, PhaseTimingsAction.Phase.LAUNCH, 2000);
+        record(timings, PhaseTimingsAction.Phase.SESSION, 3600000);
+        record(timings, PhaseTimingsAction.Phase.RESULTS, 3000);
+        record(timings, PhaseTimingsAction.Phase.ARCHIVE, 4000);
+        record(timings, PhaseTimingsAction.Phase.REPORTS, 120000);
+
+        assertEquals(10000, timings.getOverheadMillis(), 50);
+        assertEquals(600000, timings.getQueuedMillis(), 50);
+        assertEquals(4330000, timings.getTotalMillis(), 50);
+    }
+
+    @Test
+    public void phasesAddUpAndCountTheirRuns() {
+        PhaseTimingsAction timings = new PhaseTimingsAction();
+        record(timings, PhaseTimingsAction.Phase.SESSION, 1000);
+        record(timings, PhaseTimingsAction.Phase.LAUNCH, 100);
+        record(timings, PhaseTimingsAction.Phase.SESSION, 2000);
+
+        assertEquals(2, timings.getTimings().size());
+        PhaseTimingsAction.Timing session = timings.getTimings().get(0);
+        assertEquals(PhaseTimingsAction.Phase.SESSION, session.getPhase());
+        assertEquals(2, session.getCount());
+        assertEquals(3000, session.getMillis(), 50);
+        assertEquals(PhaseTimingsAction.Phase.LAUNCH, timings.getTimings().get(1).getPhase());
+    }
+}
@@ -0,0 +1,180 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Result;
+import hudson.model.TaskListener;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import net.sf.json.JSONObject;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+public class RegressionGateTest {
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    /**
+     * Attaches a one transaction summary to the build, indexes it and gives the build a result.
+     */
+    private static final class Session extends TestBuilder {
+        private final double p95;
+        private final long count;
+        private final Result result;
+
+        Session(double p95, long count, Result result) {
+            this.p95 = p95;
+            this.count = count;
+            this.result = result;
+        }
+
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                throws InterruptedException, IOException {
+            PerformanceSummary s = new PerformanceSummary(1);
+            s.transactions[0] = "login";
+            s.count[0] = count;
+            s.p95[0] = p95;
+            s.durationMillis = 60000;
+            build.addAction(new PerformanceSummaryAction(build, s, null));
+            PerformanceTrendIndex.append(build, s);
+            build.setResult(result);
+            return true;
+        }
+    }
+
+    private FreeStyleBuild build(FreeStyleProject p, double p95, Result result) throws Exception {
+        return build(p, p95, 600, result);
+    }
+
+    private FreeStyleBuild build(FreeStyleProject p, double p95, long count, Result result) throws Exception {
+        p.getBuildersList().clear();
+        p.getBuildersList().add(new Session(p95, count, result));
+        return j.assertBuildStatus(result, p.scheduleBuild2(0).get());
+    }
+
+    private static JSONObject report(FreeStyleBuild b) throws IOException {
+        return JSONObject.fromObject(FileUtils.readFileToString(new File(b.getRootDir(), RegressionGate.FILE_NAME), "UTF-8"));
+    }
+
+    @Test
+    public void baselineIsMadeOfTheLastPassingBuildsWithASummary() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, Result.SUCCESS);
+        build(p, 1.1, Result.SUCCESS);
+        build(p, 9.0, Result.UNSTABLE);
+        build(p, 1.2, Result.SUCCESS);
+        j.buildAndAssertSuccess(p); // no summary
+        FreeStyleBuild current = build(p, 1.1, Result.SUCCESS);
+
+        assertEquals(Result.SUCCESS, new RegressionGate(2, 20, 0).check(current, TaskListener.NULL));
+        assertEquals("[4,2]", report(current).getJSONArray("baseline").toString());
+        assertEquals("4, 2", current.getAction(RegressionAction.class).getBaseline());
+    }
+
+    @Test
+    public void deletedBuildsLeaveTheBaseline() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, Result.SUCCESS);
+        build(p, 1.1, Result.SUCCESS).delete();
+        FreeStyleBuild current = build(p, 1.1, Result.SUCCESS);
+
+        assertEquals(Result.SUCCESS, new RegressionGate(2, 20, 0).check(current, TaskListener.NULL));
+        assertEquals("[1]", report(current).getJSONArray("baseline").toString());
+    }
+
+    @Test
+    public void nothingToCompareWith() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, Result.UNSTABLE);
+        FreeStyleBuild current = build(p, 5.0, Result.SUCCESS);
+
+        assertEquals(Result.SUCCESS, new RegressionGate(3, 10, 20).check(current, TaskListener.NULL));
+        assertTrue(current.getAction(RegressionAction.class) == null);
+    }
+
+    @Test
+    public void latencyThresholds() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, Result.SUCCESS);
+        build(p, 1.2, Result.SUCCESS);
+        // 50% above the baseline median of 1.1, and above every baseline build
+        FreeStyleBuild current = build(p, 1.65, Result.SUCCESS);
+
+        assertEquals(Result.UNSTABLE, new RegressionGate(2, 20, 100).check(current, TaskListener.NULL));
+        assertEquals(Result.FAILURE, new RegressionGate(2, 20, 40).check(current, TaskListener.NULL));
+        assertEquals(Result.UNSTABLE, new RegressionGate(2, 20, 0).check(current, TaskListener.NULL));
+        assertEquals(Result.SUCCESS, new RegressionGate(2, 60, 0).check(current, TaskListener.NULL));
+
+        JSONObject login = report(current).getJSONArray("transactions").getJSONObject(0);
+        assertEquals(1.1, login.getDouble("baselineP95"), 1e-9);
+        assertEquals(50, login.getDouble("p95Change"), 1e-9);
+    }
+
+    @Test
+    public void latencyWithinTheBaselineBandIsNoise() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, Result.SUCCESS);
+        build(p, 2.0, Result.SUCCESS);
+        // 20% above the median, but below the slowest baseline build
+        FreeStyleBuild current = build(p, 1.8, Result.SUCCESS);
+
+        assertEquals(Result.SUCCESS, new RegressionGate(2, 10, 15).check(current, TaskListener.NULL));
+    }
+
+    @Test
+    public void throughputDrop() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        build(p, 1.0, 600, Result.SUCCESS);
+        build(p, 1.0, 500, Result.SUCCESS);
+        FreeStyleBuild current = build(p, 1.0, 300, Result.SUCCESS);
+
+        // 45% below the baseline median of 550 transactions per minute
+        assertEquals(Result.UNSTABLE, new RegressionGate(2, 30, 50).check(current, TaskListener.NULL));
+        assertEquals(Result.FAILURE, new RegressionGate(2, 30, 40).check(current, TaskListener.NULL));
+        assertEquals(Result.SUCCESS, new RegressionGate(2, 50, 0).check(current, TaskListener.NULL));
+        JSONObject login = report(current).getJSONArray("transactions").getJSONObject(0);
+        assertEquals(100.0 * 5 / 11, login.getDouble("throughputDrop"), 1e-9);
+    }
+
+    @Test
+    public void change() {
+        assertEquals(50, RegressionGate.change(1.5, 1.0), 1e-9);
+        assertEquals(-25, RegressionGate.change(0.75, 1.0), 1e-9);
+        assertTrue(Double.isNaN(RegressionGate.change(1.0, 0)));
+        assertTrue(Double.isNaN(RegressionGate.change(Double.NaN, 1.0)));
+    }
+
+    @Test
+    public void mannWhitney() {
+        Random random = new Random(42);
+        LatencyHistogram base = new LatencyHistogram();
+        LatencyHistogram same = new LatencyHistogram();
+        LatencyHistogram slower = new LatencyHistogram();
+        for (int i = 0; i < 2000; i++) {
+            base.record(100000 + random.nextInt(50000));
+            same.record(100000 + random.nextInt(50000));
+            slower.record(110000 + random.nextInt(50000));
+        }
+        assertTrue(RegressionGate.mannWhitneyGreater(same, base) > RegressionGate.ALPHA);
+        assertTrue(RegressionGate.mannWhitneyGreater(slower, base) < RegressionGate.ALPHA);
+        // only tells whether the first is greater
+        assertTrue(RegressionGate.mannWhitneyGreater(base, slower) > 0.5);
+        assertEquals(1, RegressionGate.mannWhitneyGreater(new LatencyHistogram(), base), 0);
+    }
+}
@@ -0,0 +1,111 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReportCacheTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static String digest(File ls) throws Exception {
+        return new ReportCache.DigestSessions(Collections.singletonList(new FilePath(ls))).invoke(ls.getParentFile(), null);
+    }
+
+    @Test
+    public void unchangedFilesAreNotReadAgain() throws Exception {
+        File ls = tmp.newFile("session.ls");
+        Files.write(ls.toPath(), "first".getBytes("UTF-8"));
+        String first = digest(ls);
+        long modified = ls.lastModified();
+
+        // same size and modification time, taken for the same content
+        RandomAccessFile raf = new RandomAccessFile(ls, "rw");
+        try {
+            raf.write("FIRST".getBytes("UTF-8"));
+        } finally {
+            raf.close();
+        }
+        ls.setLastModified(modified);
+        assertEquals(first, digest(ls));
+
+        ls.setLastModified(modified + 2000);
+        assertFalse(first.equals(digest(ls)));
+    }
+
+    @Test
+    public void resizedFilesAreReadAgain() throws Exception {
+        File ls = tmp.newFile("session.ls");
+        Files.write(ls.toPath(), "first".getBytes("UTF-8"));
+        long modified = ls.lastModified();
+        String first = digest(ls);
+
+        Files.write(ls.toPath(), "second".getBytes("UTF-8"));
+        ls.setLastModified(modified);
+        assertFalse(first.equals(digest(ls)));
+    }
+
+    @Test
+    public void sessionFilesNextToTheLoadSessionAreDigested() throws Exception {
+        File ls = tmp.newFile("session.ls");
+        Files.write(ls.toPath(), "session".getBytes("UTF-8"));
+        String alone = digest(ls);
+
+        File dat = new File(ls.getParentFile(), "session." + WebLoadConsoleBuilder.sessionExtensions[1]);
+        Files.write(dat.toPath(), "data".getBytes("UTF-8"));
+        assertFalse(alone.equals(digest(ls)));
+    }
+
+    @Test
+    public void storedReportsAreRestoredWithTheirDirectories() throws Exception {
+        ReportCache cache = new ReportCache(tmp.newFolder("cache"), Long.MAX_VALUE);
+        StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+        File generated = tmp.newFolder("generated");
+        Files.write(new File(generated, "report.html").toPath(), "report".getBytes("UTF-8"));
+        new File(generated, "images").mkdirs();
+        Files.write(new File(generated, "images/chart.png").toPath(), new byte[] {1, 2, 3});
+
+        String key = ReportCache.key("sessions", "HTML");
+        assertFalse(cache.restore(key, new FilePath(tmp.newFolder("none")), listener));
+        cache.store(key, new FilePath(generated), Arrays.asList("report.html", "images/chart.png"), listener);
+
+        File restored = tmp.newFolder("restored");
+        assertTrue(cache.restore(key, new FilePath(restored), listener));
+        assertTrue(Arrays.equals("report".getBytes("UTF-8"), Files.readAllBytes(new File(restored, "report.html").toPath())));
+        assertTrue(Arrays.equals(new byte[] {1, 2, 3}, Files.readAllBytes(new File(restored, "images/chart.png").toPath())));
+    }
+
+    @Test
+    public void leastRecentlyUsedReportsAreEvicted() throws Exception {
+        File root = tmp.newFolder("cache");
+        ReportCache cache = new ReportCache(root, 10);
+        StreamTaskListener listener = new StreamTaskListener(new ByteArrayOutputStream());
+        File generated = tmp.newFolder("generated");
+        Files.write(new File(generated, "report.html").toPath(), "123456".getBytes("UTF-8"));
+
+        cache.store("a", new FilePath(generated), Collections.singletonList("report.html"), listener);
+        new File(root, "a").setLastModified(System.currentTimeMillis() - 60000);
+        cache.store("b", new FilePath(generated), Collections.singletonList("report.html"), listener);
+
+        assertFalse(new File(root, "a").exists());
+        assertTrue(new File(root, "b").exists());
+        assertEquals(1, root.list().length);
+    }
+}
@@ -0,0 +1,50 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import org.junit.Test;
+
+public class ResponseTimesReaderTest {
+
+    private static TransactionHistograms read(String text) throws IOException {
+        return ResponseTimesReader.read(new BufferedReader(new StringReader(text)));
+    }
+
+    @Test
+    public void timestampColumnIsNotTakenForTheResponseTime() throws Exception {
+        TransactionHistograms h = read("Timestamp,Transaction,Response Time\n"
+                + "1700000000,login,0.5\n");
+        assertEquals(500000, h.get("login").getMax());
+    }
+
+    @Test
+    public void durationAlias() throws Exception {
+        TransactionHistograms h = read("Time,Name,Duration\n"
+                + "12:00:00,login,2\n");
+        assertEquals(2000000, h.get("login").getMax());
+    }
+
+    @Test
+    public void millisecondsFromExplicitSuffix() throws Exception {
+        assertEquals(250000, read("Transaction,Response Time (ms)\nlogin,250\n").get("login").getMax());
+        assertEquals(250000, read("Transaction,Response Time [ms]\nlogin,250\n").get("login").getMax());
+        // a name merely ending in "ms" is not a unit
+        assertEquals(3000000, read("Transaction,Response Time Items\nlogin,3\n").get("login").getMax());
+    }
+
+    @Test
+    public void isMillis() {
+        assertTrue(ResponseTimesReader.isMillis("Response Time (MS) "));
+        assertFalse(ResponseTimesReader.isMillis("Response Time ms"));
+        assertFalse(ResponseTimesReader.isMillis("Response Time"));
+    }
+}
@@ -0,0 +1,171 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.plugins.webload.SessionResult.TransactionVerdict;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResultsFileParserTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private SessionResult parse(String fixture) throws IOException {
+        InputStream in = ResultsFileParserTest.class.getResourceAsStream("results/" + fixture);
+        try {
+            return ResultsFileParser.parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void valid() throws Exception {
+        SessionResult r = parse("valid.xml");
+        assertTrue(r.isPassed());
+        assertEquals("Session ended normally", r.getErrorDescription());
+        List<TransactionVerdict> t = r.getTransactions();
+        assertEquals(3, t.size());
+        assertEquals("Search & browse", t.get(1).getName());
+        assertEquals("Checkout", t.get(2).getName());
+        assertFalse(t.get(2).isPassed());
+        assertEquals(1, r.getFailedTransactionCount());
+        assertFalse(r.isTruncated());
+    }
+
+    @Test
+    public void unescapedCharactersOfVersionsBefore101() throws Exception {
+        SessionResult r = parse("pre-10.1-unescaped.xml");
+        assertEquals("Failed", r.getSessionReturnCode());
+        assertEquals("Agenda \"Shop\" failed: a < b & c > d", r.getErrorDescription());
+        assertEquals(2, r.getTransactions().size());
+        assertEquals("Add \"gift\" card", r.getTransactions().get(0).getName());
+        assertEquals("Pay & confirm <step 2>", r.getTransactions().get(1).getName());
+        assertEquals("Failed", r.getTransactions().get(1).getVerdict());
+    }
+
+    @Test
+    public void quotesFollowedByWhitespaceInsideValues() throws Exception {
+        SessionResult r = parse("embedded-quotes.xml");
+        assertEquals("Failed", r.getSessionReturnCode());
+        assertEquals("Failed to \"connect\" to host", r.getErrorDescription());
+        assertEquals("Open \"home\" page", r.getTransactions().get(0).getName());
+        assertEquals("Failed", r.getTransactions().get(0).getVerdict());
+    }
+
+    @Test
+    public void commentsAndCdataAreSkipped() throws Exception {
+        SessionResult r = parse("comments.xml");
+        assertEquals(1, r.getTransactions().size());
+        assertEquals("Real", r.getTransactions().get(0).getName());
+    }
+
+    @Test
+    public void truncatedFile() throws Exception {
+        SessionResult r = parse("truncated.xml");
+        assertTrue(r.isPassed());
+        assertEquals(1, r.getTransactions().size());
+        assertEquals("Login", r.getTransactions().get(0).getName());
+    }
+
+    @Test
+    public void unterminatedTag() throws Exception {
+        SessionResult r = parse("unterminated-tag.xml");
+        assertEquals(2, r.getTransactions().size());
+        assertEquals("Logout", r.getTransactions().get(1).getName());
+        assertEquals("Failed", r.getTransactions().get(1).getVerdict());
+    }
+
+    @Test
+    public void emptyFile() throws Exception {
+        SessionResult r = ResultsFileParser.parse(new ByteArrayInputStream(new byte[0]));
+        assertEquals(null, r.getSessionReturnCode());
+        assertEquals(0, r.getTransactions().size());
+    }
+
+    @Test
+    public void runawayValueKeepsTheReturnCode() throws Exception {
+        StringBuilder xml = new StringBuilder("<Results SessionReturnCode=\"Failed\" ErrorDescription=\"never closed ");
+        for (int i = 0; i < ResultsFileParser.MAX_VALUE_LENGTH; i++) {
+            xml.append('x');
+        }
+        xml.append("\n<Transaction Name=\"Login\" Status=\"Passed\"/>\n</Results>\n");
+        SessionResult r = ResultsFileParser.parse(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")));
+        assertEquals("Failed", r.getSessionReturnCode());
+        assertEquals(ResultsFileParser.MAX_VALUE_LENGTH, r.getErrorDescription().length());
+        assertEquals(1, r.getTransactions().size());
+    }
+
+    @Test
+    public void utf16WithByteOrderMark() throws Exception {
+        byte[] body = "<Results SessionReturnCode=\"Passed\" ErrorDescription=\"\u00e9chec\"/>".getBytes("UTF-16LE");
+        byte[] file = new byte[body.length + 2];
+        file[0] = (byte) 0xFF;
+        file[1] = (byte) 0xFE;
+        System.arraycopy(body, 0, file, 2, body.length);
+        SessionResult r = ResultsFileParser.parse(new ByteArrayInputStream(file));
+        assertTrue(r.isPassed());
+        assertEquals("\u00e9chec", r.getErrorDescription());
+    }
+
+    @Test
+    public void declaredEncoding() throws Exception {
+        byte[] file = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?><Results SessionReturnCode=\"Passed\" ErrorDescription=\"\u00e9\"/>"
+                .getBytes("ISO-8859-1");
+        assertEquals("\u00e9", ResultsFileParser.parse(new ByteArrayInputStream(file)).getErrorDescription());
+    }
+
+    @Test
+    public void oversizedFileIsReadInChunksAndTransactionsCapped() throws Exception {
+        File f = tmp.newFile("results.xml");
+        Writer w = new OutputStreamWriter(new FileOutputStream(f), "UTF-8");
+        try {
+            w.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<Results SessionReturnCode=\"Passed\" ErrorDescription=\"\">\n");
+            for (int i = 0; i < ResultsFileParser.MAX_TRANSACTIONS + 500; i++) {
+                w.write("  <Transaction Name=\"Step " + i + "\" Status=\"Passed\"/>\n");
+                for (int j = 0; j < 20; j++) {
+                    w.write("  <Measurement Name=\"Response Time\" Value=\"" + j + "\"/>\n");
+                }
+            }
+            w.write("</Results>\n");
+        } finally {
+            w.close();
+        }
+        assertTrue(f.length() > 10 * 1024 * 1024);
+        SessionResult r = new ResultsFileParser.ParseResults().invoke(f, null);
+        assertTrue(r.isPassed());
+        assertTrue(r.isTruncated());
+        assertEquals(ResultsFileParser.MAX_TRANSACTIONS, r.getTransactions().size());
+    }
+
+    @Test
+    public void chunkBoundariesDoNotMatter() throws Exception {
+        String xml = "<Results SessionReturnCode=\"Failed\" ErrorDescription=\"Failed to \"connect\" to host\">"
+                + "<Transaction Name=\"A\" Status=\"Passed\"/></Results>";
+        for (int split = 1; split < xml.length(); split++) {
+            ResultsFileParser p = new ResultsFileParser();
+            char[] c = xml.toCharArray();
+            p.feed(c, 0, split);
+            p.feed(c, split, c.length - split);
+            SessionResult r = p.finish();
+            assertEquals("split at " + split, "Failed to \"connect\" to host", r.getErrorDescription());
+            assertEquals("split at " + split, 1, r.getTransactions().size());
+        }
+    }
+}
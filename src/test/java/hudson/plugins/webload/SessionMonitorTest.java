@@ -0,0 +1,131 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+import hudson.Proc;
+import hudson.util.StreamTaskListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SessionMonitorTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final ByteArrayOutputStream log = new ByteArrayOutputStream();
+    private final LiveStatisticsAction statistics = new LiveStatisticsAction();
+
+    private File statistics(String content) throws IOException {
+        File f = new File(tmp.getRoot(), "statistics.csv");
+        Files.write(f.toPath(), content.getBytes(UTF8));
+        return f;
+    }
+
+    private SessionMonitor monitor(File f, String rules) {
+        return new SessionMonitor(new FilePath(f), new StreamTaskListener(log), statistics, AbortRule.parse(rules));
+    }
+
+    private String log() {
+        return new String(log.toByteArray(), UTF8);
+    }
+
+    @Test
+    public void pollsOnlyTheAppendedRows() throws Exception {
+        File f = statistics("Time,Throughput,Response Time\n1,10,0.5\n");
+        SessionMonitor m = monitor(f, "");
+        assertTrue(m.poll());
+        assertEquals(1, statistics.getSamples());
+        assertFalse(m.poll());
+
+        Files.write(f.toPath(), "2,12,0.4\n3,14,0.3\n".getBytes(UTF8), StandardOpenOption.APPEND);
+        assertTrue(m.poll());
+        assertEquals(3, statistics.getSamples());
+        assertEquals(14, statistics.getValues()[1], 0);
+    }
+
+    @Test
+    public void warnsOnceAboutRulesWithoutAColumn() throws Exception {
+        File f = statistics("Time,Throughput,Response Time\n1,10,0.5\n");
+        SessionMonitor m = monitor(f, "p95 > 2s\nResponse Time > 2s");
+        m.poll();
+        Files.write(f.toPath(), "2,12,0.4\n".getBytes(UTF8), StandardOpenOption.APPEND);
+        m.poll();
+        String out = log();
+        assertTrue(out, out.contains("\"p95 > 2s\" matches no statistics column"));
+        assertFalse(out, out.contains("\"Response Time > 2s\""));
+        assertEquals(out.indexOf("p95"), out.lastIndexOf("p95"));
+    }
+
+    @Test
+    public void missingExportIsNotAnError() throws Exception {
+        SessionMonitor m = monitor(new File(tmp.getRoot(), "none.csv"), "");
+        assertFalse(m.poll());
+        assertEquals(0, statistics.getSamples());
+    }
+
+    @Test
+    public void finishedSessionIsReadOnceMore() throws Exception {
+        File f = statistics("Time,Error Rate\n1,50\n");
+        SessionMonitor m = monitor(f, "Error Rate > 5");
+        assertEquals(3, m.watch(new Finished(3)));
+        assertEquals(1, statistics.getSamples());
+        assertNull(m.getFiredRule());
+        assertFalse(statistics.isRunning());
+    }
+
+    private static class Finished extends Proc {
+        private final int code;
+
+        Finished(int code) {
+            this.code = code;
+        }
+
+        @Override
+        public boolean isAlive() {
+            return false;
+        }
+
+        @Override
+        public void kill() {
+        }
+
+        @Override
+        public int join() {
+            return code;
+        }
+
+        @Override
+        public InputStream getStdout() {
+            return null;
+        }
+
+        @Override
+        public InputStream getStderr() {
+            return null;
+        }
+
+        @Override
+        public OutputStream getStdin() {
+            return null;
+        }
+    }
+}
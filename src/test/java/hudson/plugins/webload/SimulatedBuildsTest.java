@@ -0,0 +1,268 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.FilePath;
+import hudson.Launcher;
+import hudson.model.AbstractBuild;
+import hudson.model.BuildListener;
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.model.Label;
+import hudson.model.Node;
+import hudson.model.Result;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestBuilder;
+
+/**
+ * Runs the build steps end to end against {@link SimulatedExecutor}.
+ */
+public class SimulatedBuildsTest {
+
+    private static final String PREFIX = SimulatedExecutor.class.getName();
+
+    private static final String[][] PROPERTIES = {
+        {".speed", "60"},
+        {".transactions", "5"},
+        {".lsSize", "16"},
+        {".reportSize", "4"},
+        {".errorPercent", "0"},
+    };
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void simulate() {
+        System.setProperty(SessionExecutor.SIMULATED_PROPERTY, "true");
+        for (String[] p : PROPERTIES) {
+            System.setProperty(PREFIX + p[0], p[1]);
+        }
+    }
+
+    @After
+    public void stopSimulating() {
+        System.clearProperty(SessionExecutor.SIMULATED_PROPERTY);
+        for (String[] p : PROPERTIES) {
+            System.clearProperty(PREFIX + p[0]);
+        }
+        System.clearProperty(PREFIX + ".failedTransactions");
+    }
+
+    /**
+     * Puts the template in the workspace, for the steps that copy it to their agents.
+     */
+    private static final class WriteTemplate extends TestBuilder {
+        @Override
+        public boolean perform(AbstractBuild<?, ?> build, Launcher launcher, BuildListener listener)
+                throws InterruptedException, IOException {
+            build.getWorkspace().child("login.tpl").write("simulated template", "UTF-8");
+            return true;
+        }
+    }
+
+    private static WebLoadConsoleBuilder console() {
+        WebLoadConsoleBuilder b = new WebLoadConsoleBuilder("login.tpl", "login.ls", 30, 20, 0);
+        b.setResponseTimesFile("response-times.csv");
+        return b;
+    }
+
+    private static void assertEmpty(FilePath dir) throws Exception {
+        assertTrue(dir + " left behind", !dir.exists() || dir.list().isEmpty());
+    }
+
+    @Test
+    public void consoleSession() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(console());
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+        j.assertLogContains("SessionReturnCode Passed", b);
+        PerformanceSummaryAction summary = b.getAction(PerformanceSummaryAction.class);
+        assertNotNull(summary);
+        assertEquals(5, summary.getTransactionCount());
+        assertTrue(summary.isHistograms());
+        assertNotNull(b.getAction(ArchiveStatsAction.class));
+        assertTrue(b.getWorkspace().child("login.ls").exists());
+        assertEmpty(b.getWorkspace().child(WebLoadConsoleBuilder.SESSIONS_DIR));
+    }
+
+    @Test
+    public void failedTransactionsMakeTheBuildUnstable() throws Exception {
+        System.setProperty(PREFIX + ".failedTransactions", "1");
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(console());
+        FreeStyleBuild b = j.assertBuildStatus(Result.UNSTABLE, p.scheduleBuild2(0).get());
+
+        j.assertLogContains("Not passed, marking as UNSTABLE", b);
+    }
+
+    @Test
+    public void distributedSession() throws Exception {
+        Node first = j.createOnlineSlave(Label.get("injector"));
+        Node second = j.createOnlineSlave(Label.get("injector"));
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setAssignedLabel(j.jenkins.getSelfLabel());
+        p.getBuildersList().add(new WriteTemplate());
+        WebLoadDistributedBuilder d = new WebLoadDistributedBuilder("login.tpl", null, "injector", 30, 5, 0);
+        d.setResponseTimesFile("response-times-${BUILD_NUMBER}.csv");
+        p.getBuildersList().add(d);
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+        j.assertLogContains("Preparing 3 virtual clients", b);
+        j.assertLogContains("Preparing 2 virtual clients", b);
+        List<FilePath> collected = b.getWorkspace().child(WebLoadDistributedBuilder.AGENTS_DIR).listDirectories();
+        assertEquals(2, collected.size());
+        for (FilePath agent : collected) {
+            assertTrue(agent.child("response-times-1.csv").exists());
+        }
+        PerformanceSummaryAction summary = b.getAction(PerformanceSummaryAction.class);
+        assertNotNull(summary);
+        assertEquals(5, summary.getTransactionCount());
+        assertEmpty(first.getRootPath().child("webload"));
+        assertEmpty(second.getRootPath().child("webload"));
+    }
+
+    @Test
+    public void distributedSessionUsesNoMoreAgentsThanClients() throws Exception {
+        j.createOnlineSlave(Label.get("injector"));
+        j.createOnlineSlave(Label.get("injector"));
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.setAssignedLabel(j.jenkins.getSelfLabel());
+        p.getBuildersList().add(new WriteTemplate());
+        p.getBuildersList().add(new WebLoadDistributedBuilder("login.tpl", null, "injector", 30, 1, 0));
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+        j.assertLogContains("using 1 of 2 agents", b);
+        assertEquals(1, b.getWorkspace().child(WebLoadDistributedBuilder.AGENTS_DIR).listDirectories().size());
+    }
+
+    @Test
+    public void distributedSessionNeedsClients() throws Exception {
+        j.createOnlineSlave(Label.get("injector"));
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(new WebLoadDistributedBuilder("login.tpl", null, "injector", 30, 0, 0));
+        FreeStyleBuild b = j.assertBuildStatus(Result.FAILURE, p.scheduleBuild2(0).get());
+
+        j.assertLogContains("Number of virtual clients must be positive", b);
+    }
+
+    private static WebLoadAnalyticsBuilder analytics() {
+        WebLoadAnalyticsBuilder a = new WebLoadAnalyticsBuilder("login.ls", null, WebLoadAnalyticsBuilder.OutputFormats.JUNIT,
+                null, "report", null, 0);
+        a.setPublishResults(true);
+        return a;
+    }
+
+    @Test
+    public void analyticsReport() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(console());
+        p.getBuildersList().add(analytics());
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+        assertTrue(b.getWorkspace().child("report.xml").exists());
+        TransactionResultsAction results = b.getAction(TransactionResultsAction.class);
+        assertNotNull(results);
+        assertEquals(5, results.getTransactionCount());
+        assertEquals(0, results.getTotalFailures());
+    }
+
+    @Test
+    public void backgroundAnalyticsReport() throws Exception {
+        FreeStyleProject p = j.createFreeStyleProject();
+        p.getBuildersList().add(console());
+        WebLoadAnalyticsBuilder a = analytics();
+        a.setBackground(true);
+        p.getBuildersList().add(a);
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+
+        AnalyticsReportsAction reports = b.getAction(AnalyticsReportsAction.class);
+        assertNotNull(reports);
+        long deadline = System.currentTimeMillis() + 60000;
+        while (reports.getStatus() != AnalyticsReportsAction.Status.DONE
+                && reports.getStatus() != AnalyticsReportsAction.Status.FAILED
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        assertEquals(AnalyticsReportsAction.Status.DONE, reports.getStatus());
+        // only what the report generation wrote, none of the session files next to it in the workspace
+        assertEquals(Collections.singletonList("report.xml"), reports.getReports());
+        assertNotNull(b.getAction(TransactionResultsAction.class));
+    }
+
+    static final int CONCURRENT_BUILDS = 4;
+    static final int PREVIOUS_BUILDS = 10;
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static long transferred(FreeStyleBuild b) {
+        ArchiveStatsAction archive = b.getAction(ArchiveStatsAction.class);
+        return archive == null ? 0 : archive.getTotalTransferred();
+    }
+
+    /**
+     * Concurrent sessions on their own agents, then an Analytics report comparing a session
+     * with the previous builds of its job. The heap the builds leave behind and the bytes
+     * the archiving sent over the channels are printed to follow them from one change to the next.
+     */
+    @Test
+    public void concurrentSessionsAndAnalyticsOverPreviousBuilds() throws Exception {
+        long heapBefore = usedHeap();
+        List<FreeStyleProject> projects = new ArrayList<FreeStyleProject>();
+        for (int i = 0; i < CONCURRENT_BUILDS; i++) {
+            j.createOnlineSlave(Label.get("injector" + i));
+            FreeStyleProject p = j.createFreeStyleProject();
+            p.setAssignedLabel(Label.get("injector" + i));
+            p.getBuildersList().add(console());
+            projects.add(p);
+        }
+        List<Future<FreeStyleBuild>> running = new ArrayList<Future<FreeStyleBuild>>();
+        for (FreeStyleProject p : projects) {
+            running.add(p.scheduleBuild2(0));
+        }
+        long channelBytes = 0;
+        for (Future<FreeStyleBuild> f : running) {
+            FreeStyleBuild b = j.assertBuildStatusSuccess(f);
+            channelBytes += transferred(b);
+            assertEmpty(b.getWorkspace().child(WebLoadConsoleBuilder.SESSIONS_DIR));
+        }
+        long heapConcurrent = usedHeap();
+
+        FreeStyleProject p = projects.get(0);
+        for (int i = 1; i < PREVIOUS_BUILDS; i++) {
+            channelBytes += transferred(j.buildAndAssertSuccess(p));
+        }
+        p.getBuildersList().add(new WebLoadAnalyticsBuilder("login.ls", null, WebLoadAnalyticsBuilder.OutputFormats.JUNIT,
+                null, "report", null, PREVIOUS_BUILDS));
+        FreeStyleBuild b = j.buildAndAssertSuccess(p);
+        channelBytes += transferred(b);
+        long heapAnalytics = usedHeap();
+
+        j.assertLogContains("Resolved " + PREVIOUS_BUILDS + " sessions for comparison", b);
+        assertTrue(b.getWorkspace().child("report.xml").exists());
+        assertEmpty(b.getWorkspace().child(WebLoadConsoleBuilder.SESSIONS_DIR));
+        System.out.println(String.format("%d concurrent builds: heap %+d KB; analytics over %d builds: heap %+d KB; "
+                + "archived over the channels: %d KB", CONCURRENT_BUILDS, (heapConcurrent - heapBefore) / 1024,
+                PREVIOUS_BUILDS, (heapAnalytics - heapBefore) / 1024, channelBytes / 1024));
+    }
+}
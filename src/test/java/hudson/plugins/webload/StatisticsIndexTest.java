@@ -0,0 +1,110 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StatisticsIndexTest {
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    /**
+     * One row every 10 seconds, starting at {@code start} seconds.
+     */
+    private static String export(String timeColumn, long start, int rows) {
+        StringBuilder sb = new StringBuilder(timeColumn + ",Throughput\r\n");
+        for (int i = 0; i < rows; i++) {
+            sb.append(start + i * 10).append(',').append(i).append("\r\n");
+        }
+        return sb.toString();
+    }
+
+    private static StatisticsIndex index(String content) throws Exception {
+        return StatisticsIndex.index(new ByteArrayInputStream(content.getBytes(UTF8)));
+    }
+
+    @Test
+    public void elapsedTimeIsIndexedByMinute() throws Exception {
+        StatisticsIndex index = index(export("Elapsed Time", 0, 60));
+        assertTrue(index.isTimed());
+        assertEquals(60, index.getRowCount());
+        assertEquals(10, index.size());
+        assertEquals(9, index.getLastKey());
+        assertEquals(6, index.rowsBefore(1));
+    }
+
+    @Test
+    public void absoluteTimestampsCountFromTheFirstRow() throws Exception {
+        StatisticsIndex index = index(export("Timestamp", 1760745600, 60));
+        assertEquals(10, index.size());
+        assertEquals(0, index.keys[0]);
+        assertEquals(9, index.getLastKey());
+    }
+
+    @Test
+    public void exportsWithoutTimeAreIndexedByRowBlocks() throws Exception {
+        StatisticsIndex index = index(export("Virtual Clients", 0, 250));
+        assertFalse(index.isTimed());
+        assertEquals(3, index.size());
+        assertEquals(200, index.rowsBefore(2));
+    }
+
+    @Test
+    public void slicesAWindowAndPagesThroughIt() throws Exception {
+        int rows = 2 * StatisticsViewerAction.PAGE_ROWS;
+        String content = export("Elapsed Time", 0, rows);
+        File data = tmp.newFile("statistics.csv");
+        Files.write(data.toPath(), content.getBytes(UTF8));
+        StatisticsIndex index = index(content);
+
+        StatisticsViewerAction.Slice s = StatisticsViewerAction.slice(index, data, 1, 3, 0);
+        assertEquals(12, s.getRows().size());
+        assertEquals("60", s.getRows().get(0)[0]);
+        assertEquals("170", s.getRows().get(11)[0]);
+        assertFalse(s.isMore());
+
+        StatisticsViewerAction.Slice all = StatisticsViewerAction.slice(index, data, 0, Integer.MAX_VALUE, 0);
+        assertEquals(StatisticsViewerAction.PAGE_ROWS, all.getRows().size());
+        assertTrue(all.isMore());
+        StatisticsViewerAction.Slice next = StatisticsViewerAction.slice(index, data, 0, Integer.MAX_VALUE, 1);
+        assertEquals(StatisticsViewerAction.PAGE_ROWS, next.getRows().size());
+        assertEquals(String.valueOf(StatisticsViewerAction.PAGE_ROWS * 10), next.getRows().get(0)[0]);
+        assertFalse(next.isMore());
+    }
+
+    @Test
+    public void lastRowWithoutNewlineIsShown() throws Exception {
+        String content = "Elapsed Time,Throughput\n0,1\n10,2";
+        File data = tmp.newFile("statistics.csv");
+        Files.write(data.toPath(), content.getBytes(UTF8));
+        StatisticsViewerAction.Slice s = StatisticsViewerAction.slice(index(content), data, 0, 5, 0);
+        assertEquals(2, s.getRows().size());
+        assertEquals("2", s.getRows().get(1)[1]);
+    }
+
+    @Test
+    public void writeAndRead() throws Exception {
+        StatisticsIndex index = index(export("Elapsed Time", 0, 60));
+        File f = tmp.newFile("statistics.idx");
+        index.write(f);
+        StatisticsIndex read = StatisticsIndex.read(f);
+        assertEquals(index.getRowCount(), read.getRowCount());
+        assertEquals(index.offset(5), read.offset(5));
+        assertEquals("Throughput", read.header[1]);
+    }
+}
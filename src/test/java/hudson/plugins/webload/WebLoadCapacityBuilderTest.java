@@ -0,0 +1,134 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.util.StreamTaskListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class WebLoadCapacityBuilderTest {
+
+    /**
+     * System under test sustaining up to a number of virtual clients.
+     */
+    private static final class Capacity implements WebLoadCapacityBuilder.Probe {
+        private final long capacity;
+        final List<Long> measured = new ArrayList<Long>();
+
+        Capacity(long capacity) {
+            this.capacity = capacity;
+        }
+
+        public boolean isSustainable(long clients) {
+            measured.add(clients);
+            return clients <= capacity;
+        }
+    }
+
+    private static List<Long> levels(Long... levels) {
+        return Arrays.asList(levels);
+    }
+
+    private static void search(long low, long high, long resolution, Capacity c) throws Exception {
+        WebLoadCapacityBuilder.search(low, high, resolution, c, StreamTaskListener.fromStdout());
+    }
+
+    @Test
+    public void stepsUntilTheFirstUnsustainableLevel() throws Exception {
+        Capacity c = new Capacity(25);
+        WebLoadCapacityBuilder.step(levels(10L, 20L, 30L, 40L), c);
+        assertEquals(levels(10L, 20L, 30L), c.measured);
+    }
+
+    @Test
+    public void stepsThroughAllSustainableLevels() throws Exception {
+        Capacity c = new Capacity(100);
+        WebLoadCapacityBuilder.step(levels(10L, 20L, 30L), c);
+        assertEquals(levels(10L, 20L, 30L), c.measured);
+    }
+
+    @Test
+    public void stopsAtAnUnsustainableFirstLevel() throws Exception {
+        Capacity c = new Capacity(5);
+        WebLoadCapacityBuilder.step(levels(10L, 20L), c);
+        assertEquals(levels(10L), c.measured);
+    }
+
+    @Test
+    public void bisectsDownToTheResolution() throws Exception {
+        Capacity c = new Capacity(47);
+        search(10, 100, 10, c);
+        assertEquals(levels(10L, 100L, 55L, 32L, 43L, 49L), c.measured);
+    }
+
+    @Test
+    public void bisectsToTheExactCapacity() throws Exception {
+        Capacity c = new Capacity(47);
+        search(10, 100, 0, c);
+        long best = 0;
+        for (long l : c.measured) {
+            if (l <= 47) {
+                best = Math.max(best, l);
+            }
+        }
+        assertEquals(47, best);
+        assertTrue(c.measured.contains(48L));
+    }
+
+    @Test
+    public void searchStopsWhenTheLowerBoundIsNotSustainable() throws Exception {
+        Capacity c = new Capacity(5);
+        search(10, 100, 10, c);
+        assertEquals(levels(10L), c.measured);
+    }
+
+    @Test
+    public void searchStopsWhenTheUpperBoundIsSustainable() throws Exception {
+        Capacity c = new Capacity(500);
+        search(10, 100, 10, c);
+        assertEquals(levels(10L, 100L), c.measured);
+    }
+
+    private static WebLoadCapacityBuilder builder() {
+        WebLoadCapacityBuilder b = new WebLoadCapacityBuilder("test.tpl", null, 60, 0, null);
+        b.setMaxErrorPercent(1);
+        b.setMaxP95(2);
+        b.setMinScaling(50);
+        return b;
+    }
+
+    private static CapacityAction.Point sustainable(long clients, double throughput) {
+        return new CapacityAction.Point(clients, throughput, 1, 0, true, null);
+    }
+
+    @Test
+    public void judgesErrorsAndLatency() {
+        WebLoadCapacityBuilder b = builder();
+        assertNull(b.judge(null, 100, 50, 1.5, 0.5));
+        assertTrue(b.judge(null, 100, 50, 1.5, 2).contains("errors above"));
+        assertTrue(b.judge(null, 100, 50, 2.5, 0).startsWith("P95"));
+        b.setMaxP95(0);
+        assertNull(b.judge(null, 100, 50, 2.5, 0));
+    }
+
+    @Test
+    public void judgesThroughputScalingAgainstTheBestLowerLevel() {
+        WebLoadCapacityBuilder b = builder();
+        CapacityAction.Point best = sustainable(100, 50);
+        // twice the clients need at least half the proportional growth, 25 transactions/s more
+        assertNull(b.judge(best, 200, 80, 1, 0));
+        assertTrue(b.judge(best, 200, 60, 1, 0).startsWith("throughput grew"));
+        // a lower level is not compared with the best
+        assertNull(b.judge(best, 50, 10, 1, 0));
+        b.setMinScaling(0);
+        assertNull(b.judge(best, 200, 60, 1, 0));
+    }
+}
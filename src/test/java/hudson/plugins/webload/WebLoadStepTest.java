@@ -0,0 +1,83 @@
+// (c) Copyright 2013 RadView Software Inc. 
+// Permission is hereby granted, free of charge, to any person obtaining a copy of this software and associated documentation files (the "Software"), to deal in the Software without restriction, including without limitation the rights to use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is furnished to do so, subject to the following conditions:
+// The above copyright notice and this permission notice shall be included in all copies or substantial portions of the Software.
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+package hudson.plugins.webload;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.Result;
+import hudson.tasks.ArtifactArchiver;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Runs the {@code webLoad} step in a Pipeline against {@link SimulatedExecutor}.
+ */
+public class WebLoadStepTest {
+
+    private static final String SPEED = SimulatedExecutor.class.getName() + ".speed";
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    @Before
+    public void simulate() {
+        System.setProperty(SessionExecutor.SIMULATED_PROPERTY, "true");
+        System.setProperty(SPEED, "60");
+    }
+
+    @After
+    public void stopSimulating() {
+        System.clearProperty(SessionExecutor.SIMULATED_PROPERTY);
+        System.clearProperty(SPEED);
+    }
+
+    private WorkflowJob pipeline(long duration) throws Exception {
+        WorkflowJob p = j.jenkins.createProject(WorkflowJob.class, "p");
+        p.setDefinition(new CpsFlowDefinition("node {\n"
+                + "  webLoad builder: [$class: 'WebLoadConsoleBuilder', tplFile: 'login.tpl', lsFile: 'login.ls',\n"
+                + "      executionDuration: " + duration + ", virtualClients: 20, probindClient: 0,\n"
+                + "      responseTimesFile: 'response-times.csv']\n"
+                + "}"));
+        return p;
+    }
+
+    @Test
+    public void consoleSession() throws Exception {
+        WorkflowRun b = j.assertBuildStatusSuccess(pipeline(30).scheduleBuild2(0));
+
+        j.assertLogContains("SessionReturnCode Passed", b);
+        assertNotNull(b.getAction(PerformanceSummaryAction.class));
+    }
+
+    @Test
+    public void stoppingTheBuildKillsTheSession() throws Exception {
+        WorkflowRun b = pipeline(3600).scheduleBuild2(0).waitForStart();
+        long deadline = System.currentTimeMillis() + 60000;
+        while (!JenkinsRule.getLog(b).contains("Executing") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(100);
+        }
+        b.doStop();
+        j.assertBuildStatus(Result.ABORTED, j.waitForCompletion(b));
+        j.assertLogNotContains("SessionReturnCode Passed", b);
+    }
+
+    @Test
+    public void onlyWebLoadBuildStepsAreAccepted() throws Exception {
+        assertTrue(WebLoadStep.isWebLoadBuilder(new WebLoadConsoleBuilder("login.tpl", null, 30, 20, 0)));
+        try {
+            new WebLoadStep(new ArtifactArchiver("*.ls"));
+            throw new AssertionError("accepted ArtifactArchiver");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}